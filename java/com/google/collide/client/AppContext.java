@@ -17,6 +17,7 @@ package com.google.collide.client;
 import com.google.collide.client.communication.FrontendApi;
 import com.google.collide.client.communication.MessageFilter;
 import com.google.collide.client.communication.PushChannel;
+import com.google.collide.client.metrics.MetricsReporter;
 import com.google.collide.client.search.awesomebox.AwesomeBoxModel;
 import com.google.collide.client.search.awesomebox.host.AwesomeBoxComponentHostModel;
 import com.google.collide.client.status.StatusManager;
@@ -57,6 +58,7 @@ public class AppContext {
   private final UserActivityManager userActivityManager;
   private final WindowUnloadingController windowUnloadingController;
   private final PushChannel pushChannel;
+  private final MetricsReporter metricsReporter;
 
   @VisibleForTesting
   public AppContext() {
@@ -74,6 +76,7 @@ public class AppContext {
     this.pushChannel = PushChannel.create(messageFilter, statusManager);
     this.frontendApi = FrontendApi.create(pushChannel, statusManager);
     this.uncaughtExceptionHandler = new ExceptionHandler(messageFilter, frontendApi, statusManager);
+    this.metricsReporter = new MetricsReporter(frontendApi);
   }
 
   public KeyBindings getKeyBindings() {
@@ -131,6 +134,13 @@ public class AppContext {
     return uncaughtExceptionHandler;
   }
 
+  /**
+   * @return the reporter for client-perceived latencies.
+   */
+  public MetricsReporter getMetricsReporter() {
+    return metricsReporter;
+  }
+
   /**
    * @return the {@link WindowUnloadingController} for the app.
    */
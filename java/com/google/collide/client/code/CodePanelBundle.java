@@ -16,7 +16,7 @@ package com.google.collide.client.code;
 
 import com.google.collide.client.AppContext;
 import com.google.collide.client.code.FileSelectionController.FileOpenedEvent;
-import com.google.collide.client.code.errorrenderer.EditorErrorListener;
+import com.google.collide.client.code.errorrenderer.RemoteErrorReceiver;
 import com.google.collide.client.collaboration.IncomingDocOpDemultiplexer;
 import com.google.collide.client.document.DocumentManager;
 import com.google.collide.client.editor.Editor.DocumentListener;
@@ -85,6 +85,7 @@ public class CodePanelBundle {
 
   // Presenters and Controllers that require cleanup.
   private EditorBundle editorBundle;
+  private RemoteErrorReceiver errorReceiver;
   private EditorReloadingFileTreeListener editorReloadingFileTreeListener;
   private NoFileSelectedPanel welcomePanel;
   private FileSelectionController fileSelectionController;
@@ -111,7 +112,8 @@ public class CodePanelBundle {
 
     awesomeBoxCodeContext = new AwesomeBoxContext(new AwesomeBoxContext.Builder().setWaterMarkText(
         "Type to find files and use actions").setPlaceholderText("Actions"));
-    fileNavSection = new FileNameNavigationSection(appContext.getResources(), searchIndex);
+    fileNavSection = new FileNameNavigationSection(
+        appContext.getResources(), searchIndex, appContext.getFrontendApi());
     primaryWorkspaceActionsSection = new PrimaryWorkspaceActionSection(appContext.getResources());
     gotoActionSection = new GotoActionSection(appContext.getResources());
     outlineViewAwesomeBoxSection = new OutlineViewAwesomeBoxSection(appContext.getResources());
@@ -143,6 +145,7 @@ public class CodePanelBundle {
   public void cleanup() {
     editorReloadingFileTreeListener.cleanup();
     editorBundle.cleanup();
+    errorReceiver.cleanup();
     if (welcomePanel != null) {
       welcomePanel.detach();
     }
@@ -162,13 +165,14 @@ public class CodePanelBundle {
 
     // Then create all the Presenters.
     OutlineModel outlineModel = new OutlineModel();
+    errorReceiver = new RemoteErrorReceiver(appContext);
     editorBundle = EditorBundle.create(appContext,
         workspacePlace,
         documentManager,
         participantModel,
         outlineModel,
         fileTreeModel,
-        EditorErrorListener.NOOP_ERROR_RECEIVER);
+        errorReceiver);
 
     UneditableDisplay uneditableDisplay = UneditableDisplay.create(new UneditableDisplay.View(res));
 
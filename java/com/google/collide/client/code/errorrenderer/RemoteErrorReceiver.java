@@ -0,0 +1,111 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.client.code.errorrenderer;
+
+import com.google.collide.client.AppContext;
+import com.google.collide.client.bootstrap.BootstrapSession;
+import com.google.collide.client.communication.FrontendApi.ApiCallback;
+import com.google.collide.client.communication.MessageFilter.MessageRecipient;
+import com.google.collide.dto.CodeErrors;
+import com.google.collide.dto.RoutingTypes;
+import com.google.collide.dto.ServerError.FailureReason;
+import com.google.collide.dto.client.DtoClientImpls.CodeErrorsRequestImpl;
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.json.shared.JsonStringMap;
+import com.google.collide.shared.util.JsonCollections;
+
+/**
+ * Receives code errors from the server's code error service. Requesting the errors of the active
+ * document also subscribes this tab to them, and the server pushes the new list whenever a change
+ * to the document changes its errors.
+ */
+public class RemoteErrorReceiver implements ErrorReceiver {
+
+  private final AppContext appContext;
+  private final JsonStringMap<JsonArray<ErrorListener>> listeners = JsonCollections.createMap();
+
+  private final MessageRecipient<CodeErrors> pushRecipient = new MessageRecipient<CodeErrors>() {
+    @Override
+    public void onMessageReceived(CodeErrors message) {
+      dispatch(message);
+    }
+  };
+
+  public RemoteErrorReceiver(AppContext appContext) {
+    this.appContext = appContext;
+    appContext.getMessageFilter().registerMessageRecipient(RoutingTypes.CODEERRORS, pushRecipient);
+  }
+
+  @Override
+  public void setActiveDocument(String fileEditSessionKey) {
+    requestErrors(fileEditSessionKey);
+  }
+
+  @Override
+  public void addErrorListener(String fileEditSessionKey, ErrorListener listener) {
+    JsonArray<ErrorListener> keyListeners = listeners.get(fileEditSessionKey);
+    if (keyListeners == null) {
+      keyListeners = JsonCollections.createArray();
+      listeners.put(fileEditSessionKey, keyListeners);
+    }
+    keyListeners.add(listener);
+  }
+
+  @Override
+  public void removeErrorListener(String fileEditSessionKey, ErrorListener listener) {
+    if (fileEditSessionKey == null) {
+      return;
+    }
+    JsonArray<ErrorListener> keyListeners = listeners.get(fileEditSessionKey);
+    if (keyListeners != null) {
+      keyListeners.remove(listener);
+      if (keyListeners.isEmpty()) {
+        listeners.remove(fileEditSessionKey);
+      }
+    }
+  }
+
+  public void cleanup() {
+    appContext.getMessageFilter().removeMessageRecipient(RoutingTypes.CODEERRORS);
+    // An empty key unsubscribes this tab.
+    requestErrors("");
+  }
+
+  private void requestErrors(String fileEditSessionKey) {
+    appContext.getFrontendApi().GET_CODE_ERRORS.send(CodeErrorsRequestImpl.make()
+        .setClientId(BootstrapSession.getBootstrapSession().getActiveClientId())
+        .setFileEditSessionKey(fileEditSessionKey), new ApiCallback<CodeErrors>() {
+      @Override
+      public void onMessageReceived(CodeErrors message) {
+        dispatch(message);
+      }
+
+      @Override
+      public void onFail(FailureReason reason) {
+        // Errors are advisory; the next push or document switch will try again.
+      }
+    });
+  }
+
+  private void dispatch(CodeErrors codeErrors) {
+    JsonArray<ErrorListener> keyListeners = listeners.get(codeErrors.getFileEditSessionKey());
+    if (keyListeners == null) {
+      return;
+    }
+    for (int i = 0, n = keyListeners.size(); i < n; i++) {
+      keyListeners.get(i).onErrorsChanged(codeErrors.getCodeErrors());
+    }
+  }
+}
@@ -157,7 +157,9 @@ class DocOpRecoverer {
 
           @Override
           public void onFail(FailureReason reason) {
-            if (retryCount < RECOVERY_MAX_RETRIES) {
+            // The server lost the edit session we were on, so retrying can't help
+            if (reason != FailureReason.MISSING_FILE_SESSION
+                && retryCount < RECOVERY_MAX_RETRIES) {
               new Timer() {
                 @Override
                 public void run() {
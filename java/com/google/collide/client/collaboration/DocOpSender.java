@@ -19,6 +19,7 @@ import com.google.collide.client.collaboration.FileConcurrencyController.DocOpLi
 import com.google.collide.client.collaboration.cc.GenericOperationChannel.SendOpService;
 import com.google.collide.client.communication.FrontendApi;
 import com.google.collide.client.communication.FrontendApi.ApiCallback;
+import com.google.collide.client.metrics.MetricsReporter;
 import com.google.collide.dto.DocOp;
 import com.google.collide.dto.ServerError.FailureReason;
 import com.google.collide.dto.ServerToClientDocOps;
@@ -27,8 +28,10 @@ import com.google.collide.dto.client.DtoClientImpls.DocOpImpl;
 import com.google.collide.dto.client.DtoClientImpls.ServerToClientDocOpImpl;
 import com.google.collide.json.client.Jso;
 import com.google.collide.json.client.JsoArray;
+import com.google.collide.shared.metrics.CollideAction;
 import com.google.collide.shared.util.ListenerManager;
 import com.google.collide.shared.util.ListenerManager.Dispatcher;
+import com.google.gwt.core.client.Duration;
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 
@@ -46,6 +49,7 @@ class DocOpSender implements SendOpService<DocOp>, LastClientToServerDocOpProvid
   private final String fileEditSessionKey;
   private final FrontendApi frontendApi;
   private final IncomingDocOpDemultiplexer docOpDemux;
+  private final MetricsReporter metricsReporter;
   
   private ClientToServerDocOpCreationParticipant clientToServerDocOpCreationParticipant;
   private ClientToServerDocOpImpl lastClientToServerDocOpMsg;
@@ -56,13 +60,15 @@ class DocOpSender implements SendOpService<DocOp>, LastClientToServerDocOpProvid
       String fileEditSessionKey,
       int documentId,
       ListenerManager<DocOpListener> docOpListenerManager,
-      DocOpRecoveryInitiator docOpRecoveryInitiator) {
+      DocOpRecoveryInitiator docOpRecoveryInitiator,
+      MetricsReporter metricsReporter) {
     this.frontendApi = frontendApi;
     this.docOpDemux = docOpDemux;
     this.fileEditSessionKey = fileEditSessionKey;
     this.documentId = documentId;
     this.docOpListenerManager = docOpListenerManager;
     this.docOpRecoveryInitiator = docOpRecoveryInitiator;
+    this.metricsReporter = metricsReporter;
   }
 
   @Override
@@ -101,6 +107,7 @@ class DocOpSender implements SendOpService<DocOp>, LastClientToServerDocOpProvid
         clientToServerDocOpCreationParticipant.onCreateClientToServerDocOp(message);
       }
 
+      final double sendStartMs = Duration.currentTimeMillis();
       frontendApi.MUTATE_FILE.send(message, new ApiCallback<ServerToClientDocOps>() {
         @Override
         public void onFail(FailureReason reason) {
@@ -113,6 +120,7 @@ class DocOpSender implements SendOpService<DocOp>, LastClientToServerDocOpProvid
 
         @Override
         public void onMessageReceived(ServerToClientDocOps message) {
+          metricsReporter.recordLatency(CollideAction.EDIT_FILE, "docOpsAcked", sendStartMs);
           for (int i = 0; i < message.getDocOps().size(); i++) {
             docOpDemux.handleServerToClientDocOpMsg(
                 (ServerToClientDocOpImpl) message.getDocOps().get(i));
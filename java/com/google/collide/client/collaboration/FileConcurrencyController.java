@@ -175,7 +175,8 @@ class FileConcurrencyController {
         fileEditSessionKey,
         documentId,
         docOpListenerManager,
-        docOpRecoveryInitiator);
+        docOpRecoveryInitiator,
+        appContext.getMetricsReporter());
     ChannelListener listener = new ChannelListener(docOpListenerManager, sender);
     
     // TODO: implement the Logger interface using our logging utils
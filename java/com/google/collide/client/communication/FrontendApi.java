@@ -19,16 +19,23 @@ import com.google.collide.client.communication.MessageFilter.MessageRecipient;
 import com.google.collide.client.status.StatusManager;
 import com.google.collide.client.util.logging.Log;
 import com.google.collide.clientlibs.vertx.VertxBus.ReplyHandler;
+import com.google.collide.dto.BeginUploadSession;
 import com.google.collide.dto.ClientToServerDocOp;
 import com.google.collide.dto.CodeErrors;
 import com.google.collide.dto.CodeErrorsRequest;
 import com.google.collide.dto.CodeGraphRequest;
 import com.google.collide.dto.CodeGraphResponse;
 import com.google.collide.dto.EmptyMessage;
+import com.google.collide.dto.EndUploadSession;
+import com.google.collide.dto.EndUploadSessionFinished;
 import com.google.collide.dto.GetDirectory;
 import com.google.collide.dto.GetDirectoryResponse;
 import com.google.collide.dto.GetFileContents;
 import com.google.collide.dto.GetFileContentsResponse;
+import com.google.collide.dto.GetFileDiff;
+import com.google.collide.dto.GetFileDiffResponse;
+import com.google.collide.dto.GetFileRevisions;
+import com.google.collide.dto.GetFileRevisionsResponse;
 import com.google.collide.dto.GetWorkspaceMetaData;
 import com.google.collide.dto.GetWorkspaceMetaDataResponse;
 import com.google.collide.dto.GetWorkspaceParticipants;
@@ -36,13 +43,18 @@ import com.google.collide.dto.GetWorkspaceParticipantsResponse;
 import com.google.collide.dto.KeepAlive;
 import com.google.collide.dto.LogFatalRecord;
 import com.google.collide.dto.LogFatalRecordResponse;
+import com.google.collide.dto.LogMetrics;
 import com.google.collide.dto.RecoverFromMissedDocOps;
 import com.google.collide.dto.RecoverFromMissedDocOpsResponse;
+import com.google.collide.dto.RetryAlreadyTransferredUpload;
 import com.google.collide.dto.RoutingTypes;
 import com.google.collide.dto.Search;
+import com.google.collide.dto.SearchFileNames;
+import com.google.collide.dto.SearchFileNamesResponse;
 import com.google.collide.dto.SearchResponse;
 import com.google.collide.dto.ServerError.FailureReason;
 import com.google.collide.dto.ServerToClientDocOps;
+import com.google.collide.dto.StreamSearch;
 import com.google.collide.dto.UpdateWorkspaceRunTargets;
 import com.google.collide.dto.WorkspaceTreeUpdate;
 import com.google.collide.dto.client.DtoClientImpls.ServerErrorImpl;
@@ -211,23 +223,68 @@ public class FrontendApi {
    * Retrieves code errors for a file.
    */
   public final RequestResponseApi<CodeErrorsRequest, CodeErrors> GET_CODE_ERRORS =
-      makeApi("todo.implementMe");
+      makeApi("codeerrors.get");
 
   /**
    * Retrieves code parsing results.
    */
   public final RequestResponseApi<CodeGraphRequest, CodeGraphResponse> GET_CODE_GRAPH =
-      makeApi("todo.implementMe");
+      makeApi("codegraph.get");
+
+  /**
+   * Gets the saved revisions of a file for the file history timeline.
+   */
+  public final RequestResponseApi<GetFileRevisions, GetFileRevisionsResponse>
+      GET_FILE_REVISIONS = makeApi("revisions.getFileRevisions");
+
+  /**
+   * Diffs two revisions of a file.
+   */
+  public final RequestResponseApi<GetFileDiff, GetFileDiffResponse> GET_FILE_DIFF =
+      makeApi("revisions.getFileDiff");
+
+  /**
+   * Declares the files of a bulk upload. The files themselves are then sent to /_upload.
+   */
+  public final RequestResponseApi<BeginUploadSession, EmptyMessage> BEGIN_UPLOAD_SESSION =
+      makeApi("upload.begin");
+
+  /**
+   * Adds the uploaded files to the workspace, and reports any that could not be added.
+   */
+  public final RequestResponseApi<EndUploadSession, EndUploadSessionFinished>
+      END_UPLOAD_SESSION = makeApi("upload.end");
+
+  /**
+   * Tries again to add uploaded files that an earlier END_UPLOAD_SESSION could not add.
+   */
+  public final RequestResponseApi<RetryAlreadyTransferredUpload, EndUploadSessionFinished>
+      RETRY_ALREADY_TRANSFERRED_UPLOAD = makeApi("upload.retry");
+
   /**
    * Log an exception to the server and potentially receive an unobfuscated response.
    */
   public final RequestResponseApi<LogFatalRecord, LogFatalRecordResponse> LOG_REMOTE =
       makeApi("todo.implementMe");
 
-  // TODO: this may want to move to browser channel instead, for
-  // search-as-you-type streaming. No sense to it yet until we have a real
-  // backend, though.
-  public final RequestResponseApi<Search, SearchResponse> SEARCH = makeApi("todo.implementMe");
+  public final RequestResponseApi<Search, SearchResponse> SEARCH = makeApi("search.query");
+
+  /**
+   * Finds files by name, ranked by how well the name matches, without needing the whole tree.
+   */
+  public final RequestResponseApi<SearchFileNames, SearchFileNamesResponse> SEARCH_FILE_NAMES =
+      makeApi("tree.searchNames");
+
+  /**
+   * Starts a search whose results are pushed back to this tab as SearchResultsBatch messages.
+   * Sending another query cancels the one in flight.
+   */
+  public final SendApi<StreamSearch> STREAM_SEARCH = makeApi("search.stream");
+
+  /**
+   * Reports a batch of client-perceived latencies to the server's metrics service.
+   */
+  public final SendApi<LogMetrics> LOG_METRICS = makeApi("metrics.log");
 
   // /////////////////////////////
   // END AVAILABLE FRONTEND APIS
@@ -28,8 +28,10 @@ import com.google.collide.dto.ServerError.FailureReason;
 import com.google.collide.dto.client.DtoClientImpls.GetFileContentsImpl;
 import com.google.collide.json.shared.JsonArray;
 import com.google.collide.json.shared.JsonStringMap;
+import com.google.collide.shared.metrics.CollideAction;
 import com.google.collide.shared.util.JsonCollections;
 import com.google.common.base.Preconditions;
+import com.google.gwt.core.client.Duration;
 
 /**
  * Controller responsible for loading documents (and uneditable files) from the
@@ -89,11 +91,14 @@ class DocumentManagerNetworkController {
     
     // Fetch the file's contents
     GetFileContentsImpl getFileContents = GetFileContentsImpl.make().setPath(path.getPathString());
+    final double requestStartMs = Duration.currentTimeMillis();
     appContext.getFrontendApi().GET_FILE_CONTENTS.send(getFileContents, 
         new ApiCallback<GetFileContentsResponse>() {
 
           @Override
           public void onMessageReceived(GetFileContentsResponse response) {
+              appContext.getMetricsReporter().recordLatency(
+                  CollideAction.OPEN_FILE, "contentsReceived", requestStartMs);
               handleFileReceived(response);
           }
 
@@ -16,6 +16,7 @@ package com.google.collide.client.filehistory;
 
 import com.google.collide.client.AppContext;
 import com.google.collide.client.bootstrap.BootstrapSession;
+import com.google.collide.client.communication.FrontendApi.ApiCallback;
 import com.google.collide.client.diff.EditorDiffContainer;
 import com.google.collide.client.document.DocumentManager;
 import com.google.collide.client.util.PathUtil;
@@ -24,9 +25,13 @@ import com.google.collide.clientlibs.model.Workspace;
 import com.google.collide.dto.DiffChunkResponse;
 import com.google.collide.dto.DiffChunkResponse.DiffType;
 import com.google.collide.dto.FileContents;
+import com.google.collide.dto.GetFileDiffResponse;
 import com.google.collide.dto.GetFileRevisions;
+import com.google.collide.dto.GetFileRevisionsResponse;
 import com.google.collide.dto.Revision;
+import com.google.collide.dto.ServerError.FailureReason;
 import com.google.collide.dto.client.DtoClientImpls.DiffChunkResponseImpl;
+import com.google.collide.dto.client.DtoClientImpls.GetFileDiffImpl;
 import com.google.collide.dto.client.DtoClientImpls.GetFileRevisionsImpl;
 import com.google.collide.json.client.JsoArray;
 import com.google.collide.json.shared.JsonArray;
@@ -88,22 +93,20 @@ class FileHistoryApi {
    * Fetch a list of revisions for the given file, and call Timeline's drawNodes
    */
   private void getFileRevisions(final GetFileRevisions message) {
-    
-//    appContext.getFrontendRestApi().GET_FILE_REVISIONS
-//        .send(message, 3, new RetryCallbackWithStatus<GetFileRevisionsResponse>(
-//            appContext.getStatusManager(), "Getting file revisions") {
-//
-//          @Override
-//          public void onFail(FailureReason reason) {
-//            Log.warn(getClass(), "Call to get revisions for file failed.");
-//          }
-//
-//          @Override
-//          public void onMessageReceived(GetFileRevisionsResponse message) {
-//            // Render timeline with newly fetched revisions
-//            timeline.drawNodes((JsoArray<Revision>) message.getRevisions());
-//          }
-//        });
+    appContext.getFrontendApi().GET_FILE_REVISIONS.send(
+        message, new ApiCallback<GetFileRevisionsResponse>() {
+
+          @Override
+          public void onFail(FailureReason reason) {
+            Log.warn(getClass(), "Call to get revisions for file failed.");
+          }
+
+          @Override
+          public void onMessageReceived(GetFileRevisionsResponse message) {
+            // Render timeline with newly fetched revisions
+            timeline.drawNodes((JsoArray<Revision>) message.getRevisions());
+          }
+        });
   }
 
   /**
@@ -124,8 +127,29 @@ class FileHistoryApi {
     editorDiffContainer.setExpectedRevisions(beforeRevision, afterRevision);
     final int scrollTop = editorDiffContainer.getScrollTop();
 
-    // TODO: This use to call out to an API to receive the file diff,
-    // we can revist this stuff later, it just called set diff chunks
+    GetFileDiffImpl message = GetFileDiffImpl.make()
+        .setClientId(BootstrapSession.getBootstrapSession().getActiveClientId())
+        .setPath(path.getPathString())
+        .setBeforeNodeId(beforeRevision.getNodeId())
+        .setAfterNodeId(afterRevision == null ? null : afterRevision.getNodeId())
+        .setIsStatsOnly(false);
+    appContext.getFrontendApi().GET_FILE_DIFF.send(
+        message, new ApiCallback<GetFileDiffResponse>() {
+
+          @Override
+          public void onFail(FailureReason reason) {
+            Log.warn(getClass(), "Call to get the diff of file " + path.getPathString()
+                + " failed.");
+          }
+
+          @Override
+          public void onMessageReceived(GetFileDiffResponse message) {
+            timeline.setDiffFilePaths(message.getBeforeFilePath(), message.getAfterFilePath());
+            editorDiffContainer.setDiffChunks(
+                path, message.getDiffChunks(), beforeRevision, afterRevision);
+            editorDiffContainer.setScrollTop(scrollTop);
+          }
+        });
   }
 
   /**
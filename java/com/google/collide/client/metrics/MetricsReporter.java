@@ -0,0 +1,81 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.client.metrics;
+
+import com.google.collide.client.communication.FrontendApi;
+import com.google.collide.dto.LogMetric;
+import com.google.collide.dto.client.DtoClientImpls.LogMetricImpl;
+import com.google.collide.dto.client.DtoClientImpls.LogMetricsImpl;
+import com.google.collide.json.client.JsoArray;
+import com.google.collide.shared.metrics.Action;
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.user.client.Timer;
+
+/**
+ * Batches up client-perceived latencies and sends them to the server's metrics service, which
+ * keeps a histogram for each action and event.
+ *
+ * <p>
+ * A batch is sent once it is full, or a little while after its first metric, so that reporting
+ * costs one small message now and then rather than one per measurement.
+ */
+public class MetricsReporter {
+
+  private static final int MAX_BATCH_SIZE = 50;
+  private static final int FLUSH_DELAY_MS = 30 * 1000;
+
+  private final FrontendApi frontendApi;
+  private JsoArray<LogMetric> batch = JsoArray.create();
+
+  private final Timer flushTimer = new Timer() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  public MetricsReporter(FrontendApi frontendApi) {
+    this.frontendApi = frontendApi;
+  }
+
+  /**
+   * Records how long something took.
+   *
+   * @param event what was timed, such as the response arriving
+   * @param startMs when the action started, from {@link Duration#currentTimeMillis()}
+   */
+  public void recordLatency(Action action, String event, double startMs) {
+    double now = Duration.currentTimeMillis();
+    batch.add(LogMetricImpl.make().setAction(action.toString()).setEvent(event)
+        .setTimestamp(now).setMessage(String.valueOf(now - startMs)));
+    if (batch.size() >= MAX_BATCH_SIZE) {
+      flush();
+    } else if (batch.size() == 1) {
+      flushTimer.schedule(FLUSH_DELAY_MS);
+    }
+  }
+
+  /**
+   * Sends whatever has been recorded so far.
+   */
+  public void flush() {
+    flushTimer.cancel();
+    if (batch.isEmpty()) {
+      return;
+    }
+    frontendApi.LOG_METRICS.send(LogMetricsImpl.make().setMetrics(batch));
+    batch = JsoArray.create();
+  }
+}
@@ -21,6 +21,7 @@ import com.google.collide.client.util.Elements;
 import com.google.collide.client.util.PathUtil;
 import com.google.collide.dto.SearchResponse;
 import com.google.collide.dto.SearchResult;
+import com.google.collide.dto.SearchResultsBatch;
 import com.google.collide.dto.Snippet;
 import com.google.collide.json.client.JsoArray;
 import com.google.collide.mvp.CompositeView;
@@ -103,6 +104,9 @@ public class SearchContainer extends UiComponent<SearchContainer.View> implement
   private final String query;
   private final Place currentPlace;
 
+  /** The number of results currently displayed. */
+  private int shownResultCount;
+
   public SearchContainer(Place currentPlace, View view, final String query) {
     super(view);
     this.currentPlace = currentPlace;
@@ -115,11 +119,30 @@ public class SearchContainer extends UiComponent<SearchContainer.View> implement
    * @param message the message containing the new results.
    */
   public void showResults(SearchResponse message) {
-    getView().clear();
+    clearResults();
     showResultsImpl(
         message.getPage(), message.getPageCount(), (JsoArray<SearchResult>) message.getResults());
   }
 
+  /**
+   * Removes the displayed results, ready for a new query's batches to be appended.
+   */
+  public void clearResults() {
+    getView().clear();
+    shownResultCount = 0;
+  }
+
+  /**
+   * Appends one batch of a streaming query's results. The pager is only built once the last batch
+   * arrives, since that is when the page count is known.
+   */
+  public void appendResults(SearchResultsBatch batch) {
+    appendResultsImpl((JsoArray<SearchResult>) batch.getResults());
+    if (batch.isComplete()) {
+      buildPager(batch.getPage(), batch.getPageCount(), getView().css);
+    }
+  }
+
   @Override
   public Element getContentElement() {
     return getView().getElement();
@@ -140,13 +163,16 @@ public class SearchContainer extends UiComponent<SearchContainer.View> implement
    * @param items the {@link SearchResult} items on this page.
    */
   private void showResultsImpl(final int page, int pageCount, JsoArray<SearchResult> items) {
-    Css css = getView().css;
-    buildPager(page, pageCount, css);
+    buildPager(page, pageCount, getView().css);
+    appendResultsImpl(items);
+  }
 
+  private void appendResultsImpl(JsoArray<SearchResult> items) {
+    Css css = getView().css;
     for (int i = 0; i < items.size(); i++) {
       SearchResult item = items.get(i);
       DivElement outer = Elements.createDivElement();
-      if (i > 0) {
+      if (shownResultCount++ > 0) {
         outer.setClassName(css.second());
       }
       final PathUtil path = new PathUtil(item.getTitle());
@@ -15,15 +15,16 @@
 package com.google.collide.client.search;
 
 import com.google.collide.client.AppContext;
+import com.google.collide.client.bootstrap.BootstrapSession;
 import com.google.collide.client.code.EditableContentArea;
-import com.google.collide.client.communication.FrontendApi.ApiCallback;
+import com.google.collide.client.communication.MessageFilter.MessageRecipient;
 import com.google.collide.client.history.Place;
 import com.google.collide.client.history.PlaceNavigationHandler;
 import com.google.collide.client.status.StatusMessage;
 import com.google.collide.client.workspace.FileTreeUiController;
-import com.google.collide.dto.SearchResponse;
-import com.google.collide.dto.ServerError.FailureReason;
-import com.google.collide.dto.client.DtoClientImpls.SearchImpl;
+import com.google.collide.dto.RoutingTypes;
+import com.google.collide.dto.SearchResultsBatch;
+import com.google.collide.dto.client.DtoClientImpls.StreamSearchImpl;
 
 /**
  * Navigation handler for the {@link SearchPlace}.
@@ -38,6 +39,22 @@ public class SearchPlaceNavigationHandler extends PlaceNavigationHandler<
   private final Place currentPlace;
   private SearchContainer searchContainer;
 
+  /** Identifies the latest query, so that batches for superseded queries are dropped. */
+  private int queryId;
+  private StatusMessage searchingMessage;
+
+  private final MessageRecipient<SearchResultsBatch> batchRecipient =
+      new MessageRecipient<SearchResultsBatch>() {
+        @Override
+        public void onMessageReceived(SearchResultsBatch batch) {
+          if (searchContainer == null || batch.getQueryId() != queryId) {
+            return;
+          }
+          searchingMessage.cancel();
+          searchContainer.appendResults(batch);
+        }
+      };
+
   public SearchPlaceNavigationHandler(AppContext context,
       EditableContentArea contentArea, FileTreeUiController fileTreeUiController,
       Place currentPlace) {
@@ -51,6 +68,14 @@ public class SearchPlaceNavigationHandler extends PlaceNavigationHandler<
   @Override
   public void cleanup() {
     contentArea.getEditorToolBar().show();
+    context.getMessageFilter().removeMessageRecipient(RoutingTypes.SEARCHRESULTSBATCH);
+    if (searchingMessage != null) {
+      searchingMessage.cancel();
+    }
+
+    // An empty query cancels whatever is still running for this tab.
+    queryId++;
+    sendQuery("", 1);
   }
 
   @Override
@@ -67,25 +92,27 @@ public class SearchPlaceNavigationHandler extends PlaceNavigationHandler<
 
     contentArea.setContent(searchContainer);
     contentArea.getEditorToolBar().hide();
-    StatusMessage message = new StatusMessage(
+    searchContainer.clearResults();
+    context.getMessageFilter()
+        .registerMessageRecipient(RoutingTypes.SEARCHRESULTSBATCH, batchRecipient);
+
+    if (searchingMessage != null) {
+      searchingMessage.cancel();
+    }
+    searchingMessage = new StatusMessage(
         context.getStatusManager(), StatusMessage.MessageType.LOADING, "Searching...");
-    message.fireDelayed(200);
-    context.getFrontendApi().SEARCH.send(SearchImpl
-        .make()
-        .setQuery(navigationEvent.getQuery())
-        .setPage(navigationEvent.getPage()),
-        new ApiCallback<SearchResponse>() {
+    searchingMessage.fireDelayed(200);
 
-          @Override
-          public void onFail(FailureReason reason) {          
-            new StatusMessage(context.getStatusManager(), StatusMessage.MessageType.ERROR,
-                "Search failed in 3 attempts.  Try again later.").fire();
-          }
+    // Results are pushed back in batches; a newer query cancels this one on the server.
+    queryId++;
+    sendQuery(navigationEvent.getQuery(), navigationEvent.getPage());
+  }
 
-          @Override
-          public void onMessageReceived(SearchResponse message) {
-            searchContainer.showResults(message);
-          }
-        });
+  private void sendQuery(String query, int page) {
+    context.getFrontendApi().STREAM_SEARCH.send(StreamSearchImpl.make()
+        .setClientId(BootstrapSession.getBootstrapSession().getActiveClientId())
+        .setQueryId(queryId)
+        .setQuery(query)
+        .setPage(page));
   }
 }
@@ -16,13 +16,19 @@ package com.google.collide.client.search.awesomebox;
 
 import com.google.collide.client.code.FileSelectedPlace;
 import com.google.collide.client.code.FileSelectionController.FileOpenedEvent;
+import com.google.collide.client.communication.FrontendApi;
+import com.google.collide.client.communication.FrontendApi.ApiCallback;
 import com.google.collide.client.history.Place;
 import com.google.collide.client.search.FileNameSearch;
 import com.google.collide.client.search.awesomebox.AwesomeBox.Resources;
 import com.google.collide.client.search.awesomebox.FileNameNavigationSection.FileNavItem;
 import com.google.collide.client.util.ClientStringUtils;
+import com.google.collide.client.util.CssUtils;
 import com.google.collide.client.util.Elements;
 import com.google.collide.client.util.PathUtil;
+import com.google.collide.dto.SearchFileNamesResponse;
+import com.google.collide.dto.ServerError.FailureReason;
+import com.google.collide.dto.client.DtoClientImpls.SearchFileNamesImpl;
 import com.google.collide.json.shared.JsonArray;
 import com.google.collide.shared.util.JsonCollections;
 import com.google.collide.shared.util.RegExpUtils;
@@ -44,15 +50,23 @@ public class FileNameNavigationSection extends AbstractAwesomeBoxSection<FileNav
    */
   private static final int MAX_RECENT_FILES = 3;
 
+  private static final int MAX_FILE_RESULTS = 5;
+
   private final FileNameSearch searchIndex;
+  private final FrontendApi frontendApi;
   private final JsonArray<PathUtil> recentFiles;
 
+  /** The query currently displayed, so that replies to older queries can be dropped. */
+  private String currentQuery;
+
   // TODO: When code place is gone look into compile time injection.
   private Place currentPlace;
 
-  public FileNameNavigationSection(AwesomeBox.Resources res, FileNameSearch searchIndex) {
+  public FileNameNavigationSection(
+      AwesomeBox.Resources res, FileNameSearch searchIndex, FrontendApi frontendApi) {
     super(res);
     this.searchIndex = searchIndex;
+    this.frontendApi = frontendApi;
     recentFiles = JsonCollections.createArray();
 
     createDom();
@@ -141,14 +155,18 @@ public class FileNameNavigationSection extends AbstractAwesomeBoxSection<FileNav
   @Override
   public boolean onQueryChanged(String query) {
     // the most recent file in our list is the current opened one, don't show it
+    currentQuery = query;
     JsonArray<PathUtil> files = recentFiles.slice(1, MAX_RECENT_FILES+1);
-    if (searchIndex != null && !StringUtils.isNullOrEmpty(query)) {
-      // TODO: Results come back in the order they appear in the tree
-      // there needs to be some sort of twiddler that re-ranks the results so
-      // that filenames that are better matches appear higher.
-      RegExp reQuery = RegExpUtils.createRegExpForWildcardPattern(
-          query, ClientStringUtils.containsUppercase(query) ? "" : "i");
-      files = searchIndex.getMatches(reQuery, 5);
+    if (!StringUtils.isNullOrEmpty(query)) {
+      // Show whatever the loaded part of the tree has straight away, then replace it with the
+      // server's ranked matches over the whole workspace when they arrive.
+      files = JsonCollections.createArray();
+      if (searchIndex != null) {
+        RegExp reQuery = RegExpUtils.createRegExpForWildcardPattern(
+            query, ClientStringUtils.containsUppercase(query) ? "" : "i");
+        files = searchIndex.getMatches(reQuery, MAX_FILE_RESULTS);
+      }
+      requestRankedMatches(query);
     }
 
     // we don't have anything to display
@@ -160,6 +178,33 @@ public class FileNameNavigationSection extends AbstractAwesomeBoxSection<FileNav
     return true;
   }
 
+  private void requestRankedMatches(final String query) {
+    if (frontendApi == null) {
+      return;
+    }
+    frontendApi.SEARCH_FILE_NAMES.send(
+        SearchFileNamesImpl.make().setQuery(query).setPage(1).setPageSize(MAX_FILE_RESULTS),
+        new ApiCallback<SearchFileNamesResponse>() {
+          @Override
+          public void onMessageReceived(SearchFileNamesResponse message) {
+            if (!query.equals(currentQuery) || message.getPaths().size() == 0) {
+              return;
+            }
+            JsonArray<PathUtil> files = JsonCollections.createArray();
+            for (int i = 0; i < message.getPaths().size(); i++) {
+              files.add(new PathUtil(message.getPaths().get(i)));
+            }
+            showFiles(files);
+            CssUtils.setDisplayVisibility2(sectionElement, true);
+          }
+
+          @Override
+          public void onFail(FailureReason reason) {
+            // The tree walk results are already showing.
+          }
+        });
+  }
+
   private void showFiles(JsonArray<PathUtil> files) {
     // Reuse any fileNavItems that are currently out there, don't worry about
     // selection, clearSelection will be called by the AwesomeBox after this
@@ -200,6 +245,7 @@ public class FileNameNavigationSection extends AbstractAwesomeBoxSection<FileNav
    */
   @Override
   public boolean onShowing(AwesomeBox awesomeBox) {
+    currentQuery = null;
     // Never show the first file in the list, since it's the current file.
     if (recentFiles.size() > 1) {
       showFiles(recentFiles.slice(1, MAX_RECENT_FILES+1));
@@ -207,4 +253,11 @@ public class FileNameNavigationSection extends AbstractAwesomeBoxSection<FileNav
     }
     return false;
   }
+
+  @Override
+  public void onHiding(AwesomeBox awesomeBox) {
+    super.onHiding(awesomeBox);
+    // Drop any ranked matches still on their way.
+    currentQuery = null;
+  }
 }
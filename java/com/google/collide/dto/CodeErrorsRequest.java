@@ -27,7 +27,14 @@ public interface CodeErrorsRequest extends ClientToServerDto {
   String getWorkspaceId();
 
   /**
-   * @return file edit session key of file to return code errors for
+   * @return file edit session key of file to return code errors for, or an empty string to stop
+   *         receiving errors
    */
   String getFileEditSessionKey();
+
+  /**
+   * The active client ID of the requesting tab. Later changes to the file's errors are pushed to
+   * it as {@link CodeErrors} until it requests errors for another file.
+   */
+  String getClientId();
 }
@@ -147,4 +147,8 @@ public class RoutingTypes {
   public static final int ENDUPLOADSESSIONFINISHED = 120;
   public static final int RETRYALREADYTRANSFERREDUPLOAD = 121;
   public static final int GETWORKSPACEMETADATA = 122;
+  public static final int STREAMSEARCH = 123;
+  public static final int SEARCHRESULTSBATCH = 124;
+  public static final int SEARCHFILENAMES = 125;
+  public static final int SEARCHFILENAMESRESPONSE = 126;
 }
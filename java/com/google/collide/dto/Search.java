@@ -28,4 +28,9 @@ public interface Search extends ClientToServerDto {
   String getQuery();
 
   String getWorkspaceId();
+
+  /** Whether the query is a regular expression rather than a literal string. */
+  boolean isRegex();
+
+  boolean isCaseSensitive();
 }
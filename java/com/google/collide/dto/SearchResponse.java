@@ -26,6 +26,12 @@ public interface SearchResponse extends ServerToClientDto {
   
   int getResultCount();
 
+  /**
+   * Whether the search stopped before it had looked at every file that might match, so that
+   * there may be more results than counted.
+   */
+  boolean isResultCountTruncated();
+
   int getPage();
 
   int getPageCount();
@@ -0,0 +1,45 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.dto;
+
+import com.google.collide.dtogen.shared.RoutingType;
+import com.google.collide.dtogen.shared.ServerToClientDto;
+import com.google.collide.json.shared.JsonArray;
+
+/**
+ * Some of the results of a {@link StreamSearch}, in ranked order. Batches follow
+ * on from one another; the counts are only filled in on the last one.
+ */
+@RoutingType(type = RoutingTypes.SEARCHRESULTSBATCH)
+public interface SearchResultsBatch extends ServerToClientDto {
+  int getQueryId();
+
+  JsonArray<SearchResult> getResults();
+
+  /** Whether this is the last batch for the query. */
+  boolean isComplete();
+
+  int getResultCount();
+
+  /**
+   * Whether the search stopped before it had looked at every file that might match, so that
+   * there may be more results than counted.
+   */
+  boolean isResultCountTruncated();
+
+  int getPage();
+
+  int getPageCount();
+}
@@ -0,0 +1,41 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.dto;
+
+import com.google.collide.dtogen.shared.ClientToServerDto;
+import com.google.collide.dtogen.shared.RoutingType;
+
+/**
+ * Starts a search whose results are pushed back to the requesting tab as
+ * {@link SearchResultsBatch}es while the search runs. A new query from the same
+ * tab cancels any query still in flight; an empty query just cancels.
+ */
+@RoutingType(type = RoutingTypes.STREAMSEARCH)
+public interface StreamSearch extends ClientToServerDto {
+  /** The active client ID of the tab that the results are pushed to. */
+  String getClientId();
+
+  /** Echoed in every batch so that stale results can be told apart. */
+  int getQueryId();
+
+  int getPage();
+
+  String getQuery();
+
+  /** Whether the query is a regular expression rather than a literal string. */
+  boolean isRegex();
+
+  boolean isCaseSensitive();
+}
@@ -0,0 +1,293 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.collide.server.codeerrors;
+
+import com.google.collide.dto.server.DtoServerImpls.CodeErrorImpl;
+import com.google.collide.dto.server.DtoServerImpls.CodeErrorsImpl;
+import com.google.collide.dto.server.DtoServerImpls.CodeErrorsRequestImpl;
+import com.google.collide.server.participants.Participants;
+import com.google.collide.server.shared.util.Dto;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the code errors of the documents that tabs are looking at up to date, and pushes them to
+ * those tabs whenever they change.
+ *
+ * <p>
+ * A tab subscribes to a document's errors by requesting them on {@code codeerrors.get}, and stays
+ * subscribed until it requests another document's, or until Participants reports that the tab has
+ * closed because it expired or its user logged out. When EditSessions reports that a subscribed
+ * document changed, it is re-analysed after a short debounce so a burst of keystrokes results in a
+ * single analysis. Analysis is done by a {@link LexicalChecker}, which only looks again at the
+ * region of the document that changed.
+ *
+ * <p>
+ * Analysis and disk reads happen in this verticle's handlers, so it must be deployed as a worker to
+ * keep them off the event loops.
+ */
+public class CodeErrorService extends BusModBase {
+
+  private static final int DEFAULT_DEBOUNCE_MS = 300;
+
+  /**
+   * The errors of one document, and the tabs that want them.
+   */
+  private class Analysis {
+    final String fileEditSessionKey;
+    final Set<String> subscribers = Sets.newHashSet();
+
+    /** Null until we know the path, or if the language is not one we check. */
+    LexicalChecker checker;
+    String path;
+    List<CodeErrorImpl> errors;
+
+    /** Replies waiting for the first analysis. */
+    final List<Message<JsonObject>> pendingReplies = Lists.newArrayList();
+
+    /** Whether contents are being fetched, and whether they changed again since we asked. */
+    boolean fetching;
+    boolean changedWhileFetching;
+
+    Analysis(String fileEditSessionKey) {
+      this.fileEditSessionKey = fileEditSessionKey;
+    }
+  }
+
+  private final Map<String, Analysis> analyses = Maps.newHashMap();
+
+  /** Map of active client IDs to the file edit session key they are subscribed to. */
+  private final Map<String, String> subscriptions = Maps.newHashMap();
+
+  /** Documents that changed since the last analysis pass. */
+  private final Set<String> pendingKeys = Sets.newHashSet();
+  private boolean analysisScheduled;
+  private int debounceMs;
+
+  @Override
+  public void start() {
+    super.start();
+    String addressBase = getOptionalStringConfig("address", "codeerrors");
+    this.debounceMs = getOptionalIntConfig("debounceMs", DEFAULT_DEBOUNCE_MS);
+
+    eb.registerHandler(addressBase + ".get", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        onRequest(CodeErrorsRequestImpl.fromJsonString(Dto.get(message)), message);
+      }
+    });
+
+    eb.registerHandler("participants" + Participants.TAB_CLOSED_ADDRESS_SUFFIX,
+        new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> message) {
+            String clientId = message.body.getString("activeClient");
+            if (clientId != null) {
+              unsubscribe(clientId);
+            }
+          }
+        });
+
+    eb.registerHandler("documents.contentChanged", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        Analysis analysis = analyses.get(message.body.getString("resourceId"));
+        if (analysis != null) {
+          setPath(analysis, message.body.getString("path"));
+          pendingKeys.add(analysis.fileEditSessionKey);
+          scheduleAnalysis();
+        }
+      }
+    });
+  }
+
+  private void onRequest(CodeErrorsRequestImpl request, Message<JsonObject> message) {
+    String key = request.getFileEditSessionKey();
+    String clientId = request.getClientId();
+    if (clientId != null) {
+      unsubscribe(clientId);
+    }
+    if (key == null || key.isEmpty()) {
+      message.reply(Dto.wrap(CodeErrorsImpl.make().setFileEditSessionKey("")
+          .setCodeErrors(Collections.<CodeErrorImpl>emptyList())));
+      return;
+    }
+
+    Analysis analysis = analyses.get(key);
+    if (analysis == null) {
+      analysis = new Analysis(key);
+      analyses.put(key, analysis);
+    }
+    if (clientId != null) {
+      analysis.subscribers.add(clientId);
+      subscriptions.put(clientId, key);
+    }
+
+    if (analysis.errors != null) {
+      message.reply(Dto.wrap(newCodeErrors(analysis)));
+    } else {
+      analysis.pendingReplies.add(message);
+      if (analysis.pendingReplies.size() == 1) {
+        resolvePathAndAnalyse(analysis);
+      }
+    }
+  }
+
+  private void unsubscribe(String clientId) {
+    String key = subscriptions.remove(clientId);
+    Analysis analysis = key == null ? null : analyses.get(key);
+    if (analysis != null) {
+      analysis.subscribers.remove(clientId);
+      if (analysis.subscribers.isEmpty() && analysis.pendingReplies.isEmpty()) {
+        // Nobody is looking at the document any more, so stop tracking it.
+        analyses.remove(key);
+        pendingKeys.remove(key);
+      }
+    }
+  }
+
+  private void setPath(Analysis analysis, String path) {
+    if (path != null && !path.equals(analysis.path)) {
+      analysis.path = path;
+      analysis.checker = LexicalChecker.forPath(path);
+    }
+  }
+
+  private void resolvePathAndAnalyse(final Analysis analysis) {
+    JsonObject request = new JsonObject().putArray(
+        "resourceIds", new JsonArray().addString(analysis.fileEditSessionKey));
+    eb.send("tree.getCurrentPaths", request, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> reply) {
+        Object[] paths = reply.body.getArray("paths").toArray();
+        setPath(analysis, paths.length == 0 ? null : (String) paths[0]);
+        analyse(analysis);
+      }
+    });
+  }
+
+  /**
+   * Analyses every document that changed in the last debounce period.
+   */
+  private void scheduleAnalysis() {
+    if (analysisScheduled) {
+      return;
+    }
+    analysisScheduled = true;
+    vertx.setTimer(debounceMs, new Handler<Long>() {
+      @Override
+      public void handle(Long timerId) {
+        analysisScheduled = false;
+        for (String key : pendingKeys) {
+          Analysis analysis = analyses.get(key);
+          if (analysis != null) {
+            analyse(analysis);
+          }
+        }
+        pendingKeys.clear();
+      }
+    });
+  }
+
+  /**
+   * Fetches the document's current contents, re-checks them, and pushes the errors to the
+   * subscribers if they changed.
+   */
+  private void analyse(final Analysis analysis) {
+    if (analysis.checker == null) {
+      // Not a language we check, or the file is gone.
+      updateErrors(analysis, Collections.<CodeErrorImpl>emptyList());
+      return;
+    }
+    if (analysis.fetching) {
+      analysis.changedWhileFetching = true;
+      return;
+    }
+
+    analysis.fetching = true;
+    final String path = analysis.path;
+    eb.send("documents.getDirtyContents", new JsonObject().putString("path", path),
+        new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> reply) {
+            analysis.fetching = false;
+            String contents = reply.body.getString("contents");
+            if (!"ok".equals(reply.body.getString("status")) || contents == null) {
+              // Nothing unsaved, so the disk copy is current.
+              contents = readFile(path);
+            }
+            if (analysis.checker != null && path.equals(analysis.path)) {
+              analysis.checker.update(contents);
+              updateErrors(analysis, analysis.checker.getErrors());
+            }
+            if (analysis.changedWhileFetching) {
+              analysis.changedWhileFetching = false;
+              pendingKeys.add(analysis.fileEditSessionKey);
+              scheduleAnalysis();
+            }
+          }
+        });
+  }
+
+  private void updateErrors(Analysis analysis, List<CodeErrorImpl> errors) {
+    boolean changed = analysis.errors != null && !analysis.errors.equals(errors);
+    analysis.errors = errors;
+
+    CodeErrorsImpl codeErrors = newCodeErrors(analysis);
+    for (Message<JsonObject> message : analysis.pendingReplies) {
+      message.reply(Dto.wrap(codeErrors));
+    }
+    analysis.pendingReplies.clear();
+
+    if (changed) {
+      String payload = codeErrors.toJson();
+      for (String clientId : analysis.subscribers) {
+        eb.send("participants.sendTo", new JsonObject()
+            .putString(Participants.TARGET_SPECIFIC_CLIENT_TAG, clientId)
+            .putString(Participants.PAYLOAD_TAG, payload));
+      }
+    }
+  }
+
+  private static CodeErrorsImpl newCodeErrors(Analysis analysis) {
+    return CodeErrorsImpl.make().setFileEditSessionKey(analysis.fileEditSessionKey)
+        .setCodeErrors(analysis.errors);
+  }
+
+  private static String readFile(String path) {
+    try {
+      return Files.toString(new File(path.substring(1)), Charsets.UTF_8);
+    } catch (IOException e) {
+      return "";
+    }
+  }
+}
@@ -0,0 +1,435 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.collide.server.codeerrors;
+
+import com.google.collide.dto.server.DtoServerImpls.CodeErrorImpl;
+import com.google.collide.dto.server.DtoServerImpls.FilePositionImpl;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the lexical errors in a JavaScript or Python document: brackets that are unbalanced or
+ * mismatched, and strings and comments that are never closed.
+ *
+ * <p>
+ * Checking is incremental. The lexer state at the start of every line is kept, so after an edit
+ * only the lines from the first changed one onwards are lexed again, and only until a line past the
+ * edit starts in the same state it did before; the rest of the document is reused as it was.
+ * Positions refer to {@link Line} objects rather than line numbers, so lines that merely moved
+ * need no updating, and numbers are only assigned when errors are reported.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+class LexicalChecker {
+
+  /** We stop reporting errors after this many; past that point they are mostly noise. */
+  private static final int MAX_ERRORS = 100;
+
+  private static final String OPENERS = "([{";
+  private static final String CLOSERS = ")]}";
+
+  /** Words after which a slash starts a regular expression in JavaScript. */
+  private static final Set<String> REGEX_KEYWORDS = ImmutableSet.of(
+      "return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw", "case");
+
+  private enum Language {
+    JAVASCRIPT, PYTHON
+  }
+
+  // Lexer modes.
+  private static final int CODE = 0;
+  private static final int BLOCK_COMMENT = 1;
+  private static final int STRING = 2;
+  private static final int TRIPLE_STRING = 3;
+  private static final int TEMPLATE = 4;
+
+  /**
+   * A line of the document, which keeps its identity for as long as its text is unchanged.
+   */
+  private static class Line {
+    final String text;
+    State startState;
+    List<Problem> problems;
+
+    /** The line's number, valid only while errors are being reported. */
+    int number;
+
+    Line(String text) {
+      this.text = text;
+    }
+  }
+
+  /**
+   * An open bracket. The stack of open brackets is a persistent list, so line states share it.
+   */
+  private static class Bracket {
+    final char c;
+    final Line line;
+    final int column;
+    final Bracket next;
+
+    Bracket(char c, Line line, int column, Bracket next) {
+      this.c = c;
+      this.line = line;
+      this.column = column;
+      this.next = next;
+    }
+  }
+
+  /**
+   * The lexer state between two lines.
+   */
+  private static class State {
+    final int mode;
+
+    /** The quote that closes the current string. */
+    final char quote;
+
+    /** Where the current string or comment started. */
+    final Line modeLine;
+    final int modeColumn;
+
+    final Bracket brackets;
+    final boolean regexAllowed;
+
+    State(int mode, char quote, Line modeLine, int modeColumn, Bracket brackets,
+        boolean regexAllowed) {
+      this.mode = mode;
+      this.quote = quote;
+      this.modeLine = modeLine;
+      this.modeColumn = modeColumn;
+      this.brackets = brackets;
+      this.regexAllowed = regexAllowed;
+    }
+
+    boolean isEquivalent(State other) {
+      if (mode != other.mode || regexAllowed != other.regexAllowed) {
+        return false;
+      }
+      if (mode != CODE && (quote != other.quote || modeLine != other.modeLine
+          || modeColumn != other.modeColumn)) {
+        return false;
+      }
+      Bracket a = brackets;
+      Bracket b = other.brackets;
+      while (a != b) {
+        if (a == null || b == null || a.c != b.c || a.line != b.line || a.column != b.column) {
+          return false;
+        }
+        a = a.next;
+        b = b.next;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * An error found on a line. Its message may mention the line of a related bracket, so it is
+   * only formatted once line numbers are known.
+   */
+  private static class Problem {
+    final int startColumn;
+    final int endColumn;
+    final String message;
+    final Bracket related;
+
+    Problem(int startColumn, int endColumn, String message, Bracket related) {
+      this.startColumn = startColumn;
+      this.endColumn = endColumn;
+      this.message = message;
+      this.related = related;
+    }
+  }
+
+  private static final Comparator<CodeErrorImpl> POSITION_ORDER = new Comparator<CodeErrorImpl>() {
+    @Override
+    public int compare(CodeErrorImpl a, CodeErrorImpl b) {
+      int result = a.getErrorStart().getLineNumber() - b.getErrorStart().getLineNumber();
+      return result != 0 ? result : a.getErrorStart().getColumn() - b.getErrorStart().getColumn();
+    }
+  };
+
+  private static final State INITIAL_STATE = new State(CODE, (char) 0, null, 0, null, true);
+
+  /**
+   * @return a checker for the file's language, or null if we don't check it
+   */
+  static LexicalChecker forPath(String path) {
+    if (path.endsWith(".js") || path.endsWith(".json")) {
+      return new LexicalChecker(Language.JAVASCRIPT);
+    } else if (path.endsWith(".py")) {
+      return new LexicalChecker(Language.PYTHON);
+    }
+    return null;
+  }
+
+  private final Language language;
+  private List<Line> lines = Collections.singletonList(new Line(""));
+  private State endState = INITIAL_STATE;
+  private int relexedLines;
+
+  private LexicalChecker(Language language) {
+    this.language = language;
+    lines.get(0).startState = INITIAL_STATE;
+    lines.get(0).problems = Collections.emptyList();
+  }
+
+  /**
+   * Brings the checker up to date with the document's current text.
+   */
+  void update(String text) {
+    String[] texts = text.split("\n", -1);
+    int oldCount = lines.size();
+    int newCount = texts.length;
+    int prefix = 0;
+    while (prefix < oldCount && prefix < newCount && lines.get(prefix).text.equals(texts[prefix])) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < oldCount - prefix && suffix < newCount - prefix
+        && lines.get(oldCount - 1 - suffix).text.equals(texts[newCount - 1 - suffix])) {
+      suffix++;
+    }
+
+    List<Line> updated = Lists.newArrayListWithCapacity(newCount);
+    updated.addAll(lines.subList(0, prefix));
+    State state = prefix < oldCount ? lines.get(prefix).startState : endState;
+    int delta = newCount - oldCount;
+    relexedLines = 0;
+    boolean converged = false;
+    for (int i = prefix; i < newCount; i++) {
+      Line line;
+      if (i >= newCount - suffix) {
+        // Past the edit; once a line starts in the same state as before, so does the rest.
+        line = lines.get(i - delta);
+        if (state.isEquivalent(line.startState)) {
+          updated.addAll(lines.subList(i - delta, oldCount));
+          converged = true;
+          break;
+        }
+      } else {
+        line = new Line(texts[i]);
+      }
+      line.startState = state;
+      state = lex(line, state);
+      relexedLines++;
+      updated.add(line);
+    }
+    if (!converged) {
+      endState = state;
+    }
+    lines = updated;
+  }
+
+  /**
+   * @return the number of lines that the last {@link #update} had to lex
+   */
+  int getRelexedLineCount() {
+    return relexedLines;
+  }
+
+  /**
+   * @return the errors in the document, in order
+   */
+  List<CodeErrorImpl> getErrors() {
+    for (int i = 0; i < lines.size(); i++) {
+      lines.get(i).number = i;
+    }
+
+    List<CodeErrorImpl> errors = Lists.newArrayList();
+    for (Line line : lines) {
+      for (Problem problem : line.problems) {
+        if (errors.size() == MAX_ERRORS) {
+          return errors;
+        }
+        String message = problem.related == null ? problem.message
+            : String.format(problem.message, problem.related.line.number + 1);
+        errors.add(newError(message, line, problem.startColumn, problem.endColumn));
+      }
+    }
+
+    // Whatever is still open at the end of the document.
+    if (endState.mode == BLOCK_COMMENT) {
+      errors.add(newError("Unterminated comment", endState.modeLine, endState.modeColumn,
+          endState.modeColumn + 1));
+    } else if (endState.mode != CODE) {
+      errors.add(newError("Unterminated string literal", endState.modeLine,
+          endState.modeColumn, endState.modeColumn));
+    }
+    for (Bracket b = endState.brackets; b != null && errors.size() < MAX_ERRORS; b = b.next) {
+      errors.add(newError("Unclosed '" + b.c + "'", b.line, b.column, b.column));
+    }
+    Collections.sort(errors, POSITION_ORDER);
+    return errors;
+  }
+
+  private static CodeErrorImpl newError(String message, Line line, int startColumn, int endColumn) {
+    return CodeErrorImpl.make().setMessage(message)
+        .setErrorStart(FilePositionImpl.make().setLineNumber(line.number).setColumn(startColumn))
+        .setErrorEnd(FilePositionImpl.make().setLineNumber(line.number).setColumn(endColumn));
+  }
+
+  /**
+   * Lexes one line, recording its problems.
+   *
+   * @return the state at the start of the next line
+   */
+  private State lex(Line line, State start) {
+    List<Problem> problems = Lists.newArrayList();
+    int mode = start.mode;
+    char quote = start.quote;
+    Line modeLine = start.modeLine;
+    int modeColumn = start.modeColumn;
+    Bracket brackets = start.brackets;
+    boolean regexAllowed = start.regexAllowed;
+    boolean continued = false;
+
+    String text = line.text;
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      char c = text.charAt(i);
+      if (mode == BLOCK_COMMENT) {
+        int end = text.indexOf("*/", i);
+        if (end == -1) {
+          break;
+        }
+        mode = CODE;
+        i = end + 2;
+      } else if (mode != CODE) {
+        int end = findQuote(text, i, quote, mode == TRIPLE_STRING);
+        if (end == -1) {
+          continued = text.endsWith("\\") && countTrailingBackslashes(text) % 2 == 1;
+          break;
+        }
+        i = end + (mode == TRIPLE_STRING ? 3 : 1);
+        mode = CODE;
+        regexAllowed = false;
+      } else if (c == '#' && language == Language.PYTHON) {
+        break;
+      } else if (c == '/' && language == Language.JAVASCRIPT && text.startsWith("//", i)) {
+        break;
+      } else if (c == '/' && language == Language.JAVASCRIPT && text.startsWith("/*", i)) {
+        mode = BLOCK_COMMENT;
+        modeLine = line;
+        modeColumn = i;
+        i += 2;
+      } else if (c == '"' || c == '\'' || (c == '`' && language == Language.JAVASCRIPT)) {
+        boolean triple = language == Language.PYTHON && text.startsWith(triple(c), i);
+        mode = triple ? TRIPLE_STRING : c == '`' ? TEMPLATE : STRING;
+        quote = c;
+        modeLine = line;
+        modeColumn = i;
+        i += triple ? 3 : 1;
+      } else if (c == '/' && language == Language.JAVASCRIPT && regexAllowed) {
+        i = findRegexEnd(text, i);
+        regexAllowed = false;
+      } else if (OPENERS.indexOf(c) != -1) {
+        brackets = new Bracket(c, line, i, brackets);
+        regexAllowed = true;
+        i++;
+      } else if (CLOSERS.indexOf(c) != -1) {
+        char expected = brackets == null ? 0 : CLOSERS.charAt(OPENERS.indexOf(brackets.c));
+        if (brackets == null) {
+          problems.add(new Problem(i, i, "Unexpected '" + c + "'", null));
+        } else if (c != expected) {
+          problems.add(new Problem(i, i, "Expected '" + expected + "' to close '" + brackets.c
+              + "' from line %d but found '" + c + "'", brackets));
+          brackets = brackets.next;
+        } else {
+          brackets = brackets.next;
+        }
+        regexAllowed = c == '}';
+        i++;
+      } else if (Character.isJavaIdentifierStart(c)) {
+        int end = i + 1;
+        while (end < length && Character.isJavaIdentifierPart(text.charAt(end))) {
+          end++;
+        }
+        regexAllowed = REGEX_KEYWORDS.contains(text.substring(i, end));
+        i = end;
+      } else {
+        if (!Character.isWhitespace(c)) {
+          regexAllowed = !Character.isDigit(c) && c != '.';
+        }
+        i++;
+      }
+    }
+
+    if (mode == STRING && !continued) {
+      // Single-quoted strings end with the line unless the line break is escaped.
+      int startColumn = modeLine == line ? modeColumn : 0;
+      problems.add(new Problem(startColumn, Math.max(startColumn, length - 1),
+          "Unterminated string literal", null));
+      mode = CODE;
+    }
+    line.problems = problems.isEmpty() ? Collections.<Problem>emptyList() : problems;
+    return new State(mode, quote, modeLine, modeColumn, brackets, regexAllowed);
+  }
+
+  /**
+   * @return the index of the closing quote at or after {@code from}, or -1 if the line ends first
+   */
+  private static int findQuote(String text, int from, char quote, boolean triple) {
+    for (int i = from; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == quote && (!triple || text.startsWith(triple(quote), i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index just past the regular expression literal that starts at {@code start}
+   */
+  private static int findRegexEnd(String text, int start) {
+    boolean inClass = false;
+    for (int i = start + 1; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == ']') {
+        inClass = false;
+      } else if (c == '/' && !inClass) {
+        return i + 1;
+      }
+    }
+    return text.length();
+  }
+
+  private static int countTrailingBackslashes(String text) {
+    int count = 0;
+    for (int i = text.length() - 1; i >= 0 && text.charAt(i) == '\\'; i--) {
+      count++;
+    }
+    return count;
+  }
+
+  private static String triple(char quote) {
+    return new String(new char[] {quote, quote, quote});
+  }
+}
@@ -0,0 +1,415 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.collide.server.codegraph;
+
+import com.google.collide.dto.CodeGraphFreshness;
+import com.google.collide.dto.server.DtoServerImpls.CodeBlockImpl;
+import com.google.collide.dto.server.DtoServerImpls.CodeGraphFreshnessImpl;
+import com.google.collide.dto.server.DtoServerImpls.CodeGraphImpl;
+import com.google.collide.dto.server.DtoServerImpls.CodeGraphRequestImpl;
+import com.google.collide.dto.server.DtoServerImpls.CodeGraphResponseImpl;
+import com.google.collide.dto.server.DtoServerImpls.ImportAssociationImpl;
+import com.google.collide.server.shared.util.Dto;
+import com.google.collide.server.shared.util.WorkspaceWatcher;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves the code graph that autocompletion and code navigation are built on. JavaScript and
+ * Python files are outlined into {@link com.google.collide.dto.CodeBlock} trees by an
+ * {@link OutlineParser}, and imports between them become import associations.
+ *
+ * <p>
+ * The graph is split into the segments that {@code CodeGraphResponse} carries: the tree of the
+ * requested file, the trees of every other workspace file, the trees of library files (those under
+ * one of the configured library directories), and the links between files. Each segment has a
+ * freshness, and a request only gets back the segments that are fresher than the ones the client
+ * already holds. A file's own tree is fresher whenever it is re-parsed, but the workspace and
+ * library trees only when their structure changes: files come or go, links change, or the names
+ * and nesting of a file's blocks change. Edits that only move blocks around within a file leave
+ * the positions in those trees stale until the next structural change, so clients holding them
+ * are not sent the whole tree again on every edit. Freshness values are drawn
+ * from a counter that starts at the server's start time, so that they keep increasing across
+ * restarts. The requested file's tree also carries the hash of the text it was parsed from.
+ *
+ * <p>
+ * Files are parsed when the verticle starts and then kept up to date from FileTree's
+ * {@code tree.changed} events and from the unsaved contents of files being edited. Parsing reads
+ * files synchronously, so this verticle must be deployed as a worker.
+ */
+public class CodeGraphService extends BusModBase {
+
+  private static final long DEFAULT_MAX_FILE_SIZE = 512 * 1024;
+  private static final Set<String> DEFAULT_LIBRARY_DIRS =
+      ImmutableSet.of("third_party", "node_modules");
+
+  /**
+   * The outline of one workspace file.
+   */
+  private static class FileEntry {
+    final String path;
+    final String fileId;
+    final boolean library;
+    String hash;
+    CodeBlockImpl fileBlock;
+
+    /** The names, types and nesting of the file's blocks, without their positions. */
+    String structure;
+    Set<String> importedPaths;
+
+    /** The paths of the workspace files that the imports resolved to when last linked. */
+    Set<String> linkedPaths = ImmutableSet.of();
+
+    /** The freshness of the file's tree. */
+    long freshness;
+
+    FileEntry(String path, String fileId, boolean library) {
+      this.path = path;
+      this.fileId = fileId;
+      this.library = library;
+    }
+  }
+
+  private final Map<String, FileEntry> files = Maps.newHashMap();
+  private long nextFileId = 1;
+  private long maxFileSize;
+  private Set<String> libraryDirs;
+
+  private long lastFreshness;
+  private long workspaceTreeFreshness;
+  private long libsSubgraphFreshness;
+  private long workspaceLinksFreshness;
+
+  /** Serialized segments, or null if they have changed since they were last serialized. */
+  private String workspaceTreeJson;
+  private String libsSubgraphJson;
+  private String workspaceLinksJson;
+
+  /** Whether files have appeared or disappeared since imports were last resolved. */
+  private boolean linksDirty;
+
+  private WorkspaceWatcher watcher;
+
+  @Override
+  public void start() {
+    super.start();
+    String addressBase = getOptionalStringConfig("address", "codegraph");
+    this.maxFileSize = getOptionalLongConfig("maxFileSize", DEFAULT_MAX_FILE_SIZE);
+    JsonArray libraryDirsConfig = getOptionalArrayConfig("libraryDirs", null);
+    this.libraryDirs = DEFAULT_LIBRARY_DIRS;
+    if (libraryDirsConfig != null) {
+      libraryDirs = Sets.newHashSet();
+      for (Object dir : libraryDirsConfig) {
+        libraryDirs.add((String) dir);
+      }
+    }
+
+    lastFreshness = System.currentTimeMillis();
+    watcher = new WorkspaceWatcher(vertx) {
+      @Override
+      protected void onFile(File file, String path) {
+        parseFile(file, path);
+      }
+
+      @Override
+      protected void onRemoved(String path) {
+        if (path.endsWith("/")) {
+          removeTree(path);
+        } else {
+          removeFile(path);
+        }
+      }
+
+      @Override
+      protected boolean wantsLiveContents(String path) {
+        return OutlineParser.forPath(path) != null;
+      }
+
+      @Override
+      protected void onLiveContents(String path, String contents) {
+        if (contents.length() <= maxFileSize) {
+          update(path, contents);
+        }
+      }
+    };
+    watcher.walkWorkspace();
+    relinkAll();
+    logger.info(String.format("Code graph holds %d files", files.size()));
+
+    eb.registerHandler(addressBase + ".get", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        CodeGraphRequestImpl request = CodeGraphRequestImpl.fromJsonString(Dto.get(message));
+        message.reply(Dto.wrap(getCodeGraph(request)));
+      }
+    });
+
+    watcher.start();
+  }
+
+  /**
+   * Builds a response holding the segments that are fresher than the client's.
+   */
+  CodeGraphResponseImpl getCodeGraph(CodeGraphRequestImpl request) {
+    if (linksDirty) {
+      relinkAll();
+    }
+
+    CodeGraphFreshness clientFreshness = request.getFreshness();
+    CodeGraphFreshnessImpl freshness = CodeGraphFreshnessImpl.make()
+        .setWorkspaceTree(Long.toString(workspaceTreeFreshness))
+        .setLibsSubgraph(Long.toString(libsSubgraphFreshness))
+        .setWorkspaceLinks(Long.toString(workspaceLinksFreshness));
+    CodeGraphResponseImpl response = CodeGraphResponseImpl.make().setFreshness(freshness);
+
+    if (clientFreshness == null
+        || workspaceTreeFreshness > parseFreshness(clientFreshness.getWorkspaceTree())) {
+      if (workspaceTreeJson == null) {
+        workspaceTreeJson = buildGraph(false).toJson();
+      }
+      response.setWorkspaceTreeJson(workspaceTreeJson);
+    }
+    if (clientFreshness == null
+        || libsSubgraphFreshness > parseFreshness(clientFreshness.getLibsSubgraph())) {
+      if (libsSubgraphJson == null) {
+        libsSubgraphJson = buildGraph(true).toJson();
+      }
+      response.setLibsSubgraphJson(libsSubgraphJson);
+    }
+    if (clientFreshness == null
+        || workspaceLinksFreshness > parseFreshness(clientFreshness.getWorkspaceLinks())) {
+      if (workspaceLinksJson == null) {
+        workspaceLinksJson = CodeGraphImpl.make().setImportAssociations(getLinks(null)).toJson();
+      }
+      response.setWorkspaceLinksJson(workspaceLinksJson);
+    }
+
+    FileEntry entry = request.getFilePath() == null ? null : files.get(request.getFilePath());
+    if (entry != null) {
+      freshness.setFileTree(Long.toString(entry.freshness)).setFileTreeHash(entry.hash);
+      if (clientFreshness == null || entry.freshness > parseFreshness(clientFreshness.getFileTree())
+          || !entry.hash.equals(clientFreshness.getFileTreeHash())) {
+        response.setFileTreeJson(entry.fileBlock.toJson());
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Builds the workspace or library segment: the trees of its files keyed by file ID, along with
+   * the imports made by its files so that it is self-contained for clients that ignore the links
+   * segment.
+   */
+  private CodeGraphImpl buildGraph(boolean library) {
+    Map<String, CodeBlockImpl> blocks = Maps.newHashMap();
+    for (FileEntry entry : files.values()) {
+      if (entry.library == library) {
+        blocks.put(entry.fileId, entry.fileBlock);
+      }
+    }
+    return CodeGraphImpl.make().setCodeBlockMap(blocks)
+        .setImportAssociations(getLinks(library));
+  }
+
+  /**
+   * @param library whether to return the imports made by library files or by workspace files, or
+   *        null for both
+   */
+  private List<ImportAssociationImpl> getLinks(Boolean library) {
+    List<ImportAssociationImpl> links = Lists.newArrayList();
+    for (FileEntry entry : files.values()) {
+      if (library != null && entry.library != library) {
+        continue;
+      }
+      for (String targetPath : entry.linkedPaths) {
+        // File-level associations have no local IDs. A non-root association imports the
+        // children of the target, which is what importing a module does.
+        ImportAssociationImpl link = ImportAssociationImpl.make();
+        link.setSourceFileId(entry.fileId);
+        link.setTargetFileId(files.get(targetPath).fileId);
+        link.setIsRootAssociation(false);
+        links.add(link);
+      }
+    }
+    return links;
+  }
+
+  private void parseFile(File file, String path) {
+    if (OutlineParser.forPath(path) == null) {
+      return;
+    }
+    if (!file.isFile() || file.length() > maxFileSize) {
+      removeFile(path);
+      return;
+    }
+    try {
+      update(path, Files.toString(file, Charsets.UTF_8));
+    } catch (IOException e) {
+      removeFile(path);
+    }
+  }
+
+  /**
+   * Re-parses a file if its text has changed since it was last parsed.
+   */
+  private void update(String path, String text) {
+    String hash = Hashing.md5().hashString(text, Charsets.UTF_8).toString();
+    FileEntry entry = files.get(path);
+    if (entry != null && hash.equals(entry.hash)) {
+      return;
+    }
+    if (entry == null) {
+      entry = new FileEntry(path, Long.toString(nextFileId++), isLibrary(path));
+      files.put(path, entry);
+      linksDirty = true;
+    }
+
+    OutlineParser.ParsedFile parsed = OutlineParser.forPath(path).parse(path, entry.fileId, text);
+    String structure = describeStructure(parsed.fileBlock);
+    entry.hash = hash;
+    entry.fileBlock = parsed.fileBlock;
+    entry.importedPaths = parsed.importedPaths;
+    entry.freshness = ++lastFreshness;
+    if (structure.equals(entry.structure)) {
+      // Still serve the new positions to clients that fetch the whole tree anyway.
+      if (entry.library) {
+        libsSubgraphJson = null;
+      } else {
+        workspaceTreeJson = null;
+      }
+    } else {
+      entry.structure = structure;
+      treeChanged(entry.library);
+    }
+    relink(entry);
+  }
+
+  /**
+   * Describes a block tree by the names, types and nesting of its blocks, leaving out their
+   * positions, which move with every edit above them.
+   */
+  private static String describeStructure(CodeBlockImpl block) {
+    StringBuilder structure = new StringBuilder();
+    describeStructure(block, structure);
+    return structure.toString();
+  }
+
+  private static void describeStructure(CodeBlockImpl block, StringBuilder structure) {
+    structure.append(block.getBlockType()).append(':').append(block.getName()).append('(');
+    if (block.getChildren() != null) {
+      for (int i = 0; i < block.getChildren().size(); i++) {
+        describeStructure((CodeBlockImpl) block.getChildren().get(i), structure);
+      }
+    }
+    structure.append(')');
+  }
+
+  private void removeFile(String path) {
+    FileEntry entry = files.remove(path);
+    if (entry != null) {
+      treeChanged(entry.library);
+      linksDirty = true;
+    }
+  }
+
+  private void removeTree(String pathPrefix) {
+    for (String path : Lists.newArrayList(files.keySet())) {
+      if (path.startsWith(pathPrefix)) {
+        removeFile(path);
+      }
+    }
+  }
+
+  private void treeChanged(boolean library) {
+    if (library) {
+      libsSubgraphFreshness = ++lastFreshness;
+      libsSubgraphJson = null;
+    } else {
+      workspaceTreeFreshness = ++lastFreshness;
+      workspaceTreeJson = null;
+    }
+  }
+
+  /**
+   * Re-resolves every file's imports, since files they refer to may have appeared or gone.
+   */
+  private void relinkAll() {
+    linksDirty = false;
+    for (FileEntry entry : files.values()) {
+      relink(entry);
+    }
+  }
+
+  /**
+   * Resolves a file's imports against the workspace, bumping the freshness of the segments that
+   * carry its links if they changed.
+   */
+  private void relink(FileEntry entry) {
+    Set<String> linked = Sets.newHashSet();
+    for (String path : entry.importedPaths) {
+      if (files.containsKey(path) && !path.equals(entry.path)) {
+        linked.add(path);
+      }
+    }
+    if (linked.equals(entry.linkedPaths)) {
+      return;
+    }
+    entry.linkedPaths = linked;
+    workspaceLinksFreshness = ++lastFreshness;
+    workspaceLinksJson = null;
+    treeChanged(entry.library);
+  }
+
+  private boolean isLibrary(String path) {
+    for (String segment : path.split("/")) {
+      if (libraryDirs.contains(segment)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the freshness a client sent, or 0 if it has none
+   */
+  private static long parseFreshness(String freshness) {
+    if (freshness == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(freshness);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,552 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.collide.server.codegraph;
+
+import com.google.collide.dto.CodeBlock;
+import com.google.collide.dto.server.DtoServerImpls.CodeBlockImpl;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.util.Deque;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Outlines JavaScript. The source is scanned once, skipping comments, strings and regular
+ * expression literals, and each statement's text is classified when it ends or opens a brace:
+ * <ul>
+ * <li>{@code function foo() {...}} and {@code foo = function() {...}} declare functions, and
+ * {@code a.b.c = function() {...}} declares {@code c} inside {@code a.b}. A {@code prototype}
+ * segment turns the block it follows into a class.
+ * <li>{@code foo = {...}} declares a field whose children are the object's properties.
+ * <li>{@code var} declarations outside functions, and {@code this.foo = ...} inside constructors
+ * and prototype methods, declare fields.
+ * </ul>
+ * Declarations nested in function bodies other than these, or in object literals that are not
+ * assigned to a name, are ignored, since they are not reachable from outside.
+ */
+class JsOutlineParser extends OutlineParser {
+
+  private static final String NAME = "[\\w$]+";
+  private static final String QUALIFIED_NAME = NAME + "(?:\\." + NAME + ")*";
+  private static final String PARAMETERS = "\\([^()]*\\)\\s*$";
+
+  private static final Pattern FUNCTION_DECLARATION =
+      Pattern.compile("\\bfunction\\s+(" + NAME + ")\\s*" + PARAMETERS);
+  private static final Pattern FUNCTION_ASSIGNMENT = Pattern.compile(
+      "(" + QUALIFIED_NAME + ")\\s*(?::|=(?!=))\\s*function\\b[\\w$\\s]*" + PARAMETERS);
+  private static final Pattern OBJECT_ASSIGNMENT =
+      Pattern.compile("(" + QUALIFIED_NAME + ")\\s*(?::|=(?!=))\\s*$");
+  private static final Pattern CLASS_DECLARATION = Pattern.compile("^class\\s+(" + NAME + ")");
+  private static final Pattern METHOD =
+      Pattern.compile("^(?:(?:static|get|set|async)\\s+)*(" + NAME + ")\\s*" + PARAMETERS);
+  private static final Pattern VARIABLE = Pattern.compile("^(?:var|let|const)\\s+(" + NAME + ")");
+  private static final Pattern MEMBER_ASSIGNMENT =
+      Pattern.compile("^(" + NAME + "(?:\\." + NAME + ")+)\\s*=(?!=)");
+  private static final Pattern PROPERTY =
+      Pattern.compile("^(?:(" + NAME + ")|\"([^\"]*)\"|'([^']*)')\\s*:");
+  private static final Pattern REQUIRE =
+      Pattern.compile("\\brequire\\s*\\(\\s*(?:\"([^\"]+)\"|'([^']+)')\\s*\\)");
+
+  private static final Set<String> KEYWORDS = ImmutableSet.of(
+      "if", "for", "while", "switch", "catch", "with", "function", "return");
+
+  /** Characters after which a slash starts a regular expression rather than a division. */
+  private static final String REGEX_PRECEDERS = "(,=:[!&|?{};+-*%<>~^";
+
+  /**
+   * The state of an open brace.
+   */
+  private static class Frame {
+    /** The block the brace opened, or null if it is anonymous. */
+    final CodeBlockImpl block;
+
+    /** Where declarations inside the brace go, or null to ignore them. */
+    final CodeBlockImpl owner;
+
+    /** The class that {@code this} refers to, or null if we don't know. */
+    final CodeBlockImpl thisBlock;
+
+    final boolean objectLiteral;
+    final boolean classBody;
+
+    /** The bracket depth of the enclosing statement, restored when the brace closes. */
+    int outerDepth;
+
+    /**
+     * The text of the enclosing statement if the brace is part of an expression that it carries on
+     * after, as in {@code var x = f({...});}, or null.
+     */
+    String outerStatement;
+    int outerStatementLine;
+    int outerStatementColumn;
+
+    Frame(CodeBlockImpl block, CodeBlockImpl owner, CodeBlockImpl thisBlock,
+        boolean objectLiteral, boolean classBody) {
+      this.block = block;
+      this.owner = owner;
+      this.thisBlock = thisBlock;
+      this.objectLiteral = objectLiteral;
+      this.classBody = classBody;
+    }
+  }
+
+  private final Deque<Frame> frames = Lists.newLinkedList();
+
+  /** The text of the current statement, with comments removed and whitespace collapsed. */
+  private final StringBuilder statement = new StringBuilder();
+  private int statementLine;
+  private int statementColumn;
+  private int statementEndLine;
+  private int statementEndColumn;
+
+  /** The depth of parentheses and square brackets in the current statement. */
+  private int depth;
+
+  private String text;
+  private int line;
+  private int lineStart;
+
+  @Override
+  protected void parseInto(CodeBlockImpl fileBlock, String text) {
+    this.text = text;
+    frames.push(new Frame(null, fileBlock, null, false, false));
+
+    int i = 0;
+    int length = text.length();
+    while (i < length) {
+      char c = text.charAt(i);
+      char next = i + 1 < length ? text.charAt(i + 1) : 0;
+      if (c == '\n') {
+        onNewline(i);
+        line++;
+        lineStart = i + 1;
+        i++;
+      } else if (c == '/' && next == '/') {
+        int end = text.indexOf('\n', i);
+        i = end == -1 ? length : end;
+      } else if (c == '/' && next == '*') {
+        int end = text.indexOf("*/", i + 2);
+        i = skipTo(i, end == -1 ? length : end + 2);
+      } else if (c == '"' || c == '\'' || c == '`') {
+        int end = findStringEnd(i);
+        append(i, text.substring(i, end));
+        i = skipTo(i, end);
+      } else if (c == '/' && isRegexAllowed()) {
+        append(i, "/./");
+        i = skipTo(i, findRegexEnd(i));
+      } else {
+        onCharacter(c, i);
+        i++;
+      }
+    }
+    endStatement();
+
+    Matcher m = REQUIRE.matcher(text);
+    while (m.find()) {
+      addRequire(m.group(1) != null ? m.group(1) : m.group(2));
+    }
+  }
+
+  private void onCharacter(char c, int index) {
+    switch (c) {
+      case '(':
+      case '[':
+        depth++;
+        append(index, c);
+        break;
+      case ')':
+      case ']':
+        depth = Math.max(0, depth - 1);
+        append(index, c);
+        break;
+      case '{':
+        openBrace();
+        break;
+      case '}':
+        closeBrace(index);
+        break;
+      case ';':
+        if (depth == 0) {
+          endStatement();
+        } else {
+          append(index, c);
+        }
+        break;
+      case ',':
+        if (depth == 0 && frames.peek().objectLiteral) {
+          endStatement();
+        } else {
+          append(index, c);
+        }
+        break;
+      default:
+        append(index, c);
+    }
+  }
+
+  /**
+   * Ends the statement at a line break if automatic semicolon insertion would, approximately:
+   * when the line ends with a value and the next starts with one.
+   */
+  private void onNewline(int index) {
+    int last = lastNonSpace();
+    if (depth != 0 || last == -1) {
+      append(index, ' ');
+      return;
+    }
+    char lastChar = statement.charAt(last);
+    int next = index + 1;
+    while (next < text.length() && Character.isWhitespace(text.charAt(next))) {
+      next++;
+    }
+    boolean endsWithValue = Character.isJavaIdentifierPart(lastChar) || lastChar == ')'
+        || lastChar == ']' || lastChar == '"' || lastChar == '\'';
+    if (endsWithValue && next < text.length()
+        && Character.isJavaIdentifierStart(text.charAt(next))) {
+      endStatement();
+    } else {
+      append(index, ' ');
+    }
+  }
+
+  private void openBrace() {
+    String s = statement.toString().trim();
+    Frame frame = frames.peek();
+    Frame opened = frame.owner == null
+        ? new Frame(null, null, null, looksLikeObjectLiteral(s), false) : classify(s, frame);
+    opened.outerDepth = depth;
+    if (opened.block == null && (depth > 0 || looksLikeObjectLiteral(s))) {
+      opened.outerStatement = s + "{";
+      opened.outerStatementLine = statementLine;
+      opened.outerStatementColumn = statementColumn;
+    }
+    frames.push(opened);
+    depth = 0;
+    resetStatement();
+  }
+
+  /**
+   * Works out what a brace opens from the statement text that precedes it.
+   */
+  private Frame classify(String s, Frame frame) {
+    Matcher m;
+    if ((frame.classBody || frame.objectLiteral) && (m = METHOD.matcher(s)).find()
+        && !KEYWORDS.contains(m.group(1))) {
+      CodeBlockImpl block = declare(frame.owner, m.group(1), CodeBlock.Type.VALUE_FUNCTION);
+      return new Frame(block, block, frame.classBody ? frame.owner : null, false, false);
+    }
+
+    if ((m = CLASS_DECLARATION.matcher(s)).find()) {
+      CodeBlockImpl block = declare(frame.owner, m.group(1), CodeBlock.Type.VALUE_CLASS);
+      return new Frame(block, block, block, false, true);
+    }
+
+    if ((m = FUNCTION_ASSIGNMENT.matcher(s)).find() && isReachable(frame, m.group(1))) {
+      String name = m.group(1);
+      CodeBlockImpl block = declareQualified(frame, name, CodeBlock.Type.VALUE_FUNCTION);
+      if (block != null) {
+        CodeBlockImpl thisBlock = name.contains(".prototype.") ? resolveScope(frame, name)
+            : isConstructorName(block.getName()) ? block : frame.thisBlock;
+        return new Frame(block, block, thisBlock, false, false);
+      }
+    }
+
+    if ((m = FUNCTION_DECLARATION.matcher(s)).find()) {
+      CodeBlockImpl block = declare(frame.owner, m.group(1), CodeBlock.Type.VALUE_FUNCTION);
+      return new Frame(
+          block, block, isConstructorName(block.getName()) ? block : null, false, false);
+    }
+
+    if ((m = OBJECT_ASSIGNMENT.matcher(s)).find() && !s.startsWith("case ")
+        && isReachable(frame, m.group(1))) {
+      String name = m.group(1);
+      if (name.endsWith(".prototype")) {
+        // The object's properties are members of the class.
+        CodeBlockImpl classBlock = resolveScope(frame, name + ".x");
+        return new Frame(null, classBlock, classBlock, true, false);
+      }
+      CodeBlockImpl block = declareQualified(frame, name, CodeBlock.Type.VALUE_FIELD);
+      if (block != null) {
+        return new Frame(block, block, frame.thisBlock, true, false);
+      }
+    }
+
+    if (looksLikeObjectLiteral(s)) {
+      // An object literal passed or returned somewhere; nothing in it is reachable by name.
+      return new Frame(null, null, null, true, false);
+    }
+    // A function or statement body.
+    return new Frame(null, frame.owner, frame.thisBlock, false, false);
+  }
+
+  private void closeBrace(int index) {
+    endStatement();
+    if (frames.size() == 1) {
+      // Unbalanced; carry on at the top level.
+      return;
+    }
+    Frame frame = frames.pop();
+    if (frame.block != null) {
+      frame.block.setEndLineNumber(line).setEndColumn(index - lineStart + 1);
+    }
+    depth = frame.outerDepth;
+    if (frame.outerStatement != null) {
+      statement.append(frame.outerStatement).append('}');
+      statementLine = frame.outerStatementLine;
+      statementColumn = frame.outerStatementColumn;
+      statementEndLine = line;
+      statementEndColumn = index - lineStart + 1;
+    }
+  }
+
+  /**
+   * Declares whatever a statement that does not open a brace declares.
+   */
+  private void endStatement() {
+    String s = statement.toString().trim();
+    Frame frame = frames.peek();
+    resetStatement();
+    if (s.isEmpty() || frame.owner == null) {
+      return;
+    }
+
+    CodeBlockImpl field = null;
+    Matcher m;
+    if (frame.objectLiteral) {
+      if ((m = PROPERTY.matcher(s)).find()) {
+        String name = m.group(1) != null ? m.group(1)
+            : m.group(2) != null ? m.group(2) : m.group(3);
+        field = declare(frame.owner, name, CodeBlock.Type.VALUE_FIELD);
+      }
+    } else if ((m = VARIABLE.matcher(s)).find()) {
+      if (frame.owner.getBlockType() != CodeBlock.Type.VALUE_FUNCTION) {
+        field = declare(frame.owner, m.group(1), CodeBlock.Type.VALUE_FIELD);
+      }
+    } else if ((m = MEMBER_ASSIGNMENT.matcher(s)).find() && isReachable(frame, m.group(1))) {
+      String name = m.group(1);
+      if (name.endsWith(".prototype")) {
+        // Foo.prototype = new Base(), which only tells us that Foo is a class.
+        resolveScope(frame, name + ".x");
+      } else {
+        field = declareQualified(frame, name, CodeBlock.Type.VALUE_FIELD);
+      }
+    }
+    if (field != null && field.getStartLineNumber() == statementLine
+        && field.getStartColumn() == statementColumn) {
+      field.setEndLineNumber(statementEndLine).setEndColumn(statementEndColumn);
+    }
+  }
+
+  /**
+   * Dotted names assigned inside functions are usually properties of locals, so we only keep
+   * those on {@code this}.
+   */
+  private static boolean isReachable(Frame frame, String name) {
+    return name.indexOf('.') == -1 || name.startsWith("this.")
+        || frame.owner.getBlockType() != CodeBlock.Type.VALUE_FUNCTION;
+  }
+
+  /**
+   * Declares the last segment of a dotted name inside the blocks named by the preceding segments,
+   * creating them as needed.
+   *
+   * @return the declared block, or null if the name is relative to an unknown {@code this}
+   */
+  private CodeBlockImpl declareQualified(Frame frame, String name, int type) {
+    CodeBlockImpl scope = resolveScope(frame, name);
+    if (scope == null) {
+      return null;
+    }
+    return declare(scope, name.substring(name.lastIndexOf('.') + 1), type);
+  }
+
+  /**
+   * @return the block that the last segment of {@code name} belongs to
+   */
+  private CodeBlockImpl resolveScope(Frame frame, String name) {
+    String[] segments = name.split("\\.");
+    CodeBlockImpl scope = frame.owner;
+    int first = 0;
+    if (segments[0].equals("this")) {
+      if (frame.thisBlock == null) {
+        return null;
+      }
+      scope = frame.thisBlock;
+      first = 1;
+    }
+    for (int i = first; i < segments.length - 1; i++) {
+      if (segments[i].equals("prototype")) {
+        continue;
+      }
+      boolean isClass = segments[i + 1].equals("prototype");
+      scope = declare(scope, segments[i],
+          isClass ? CodeBlock.Type.VALUE_CLASS : CodeBlock.Type.VALUE_FIELD);
+      if (isClass && scope.getBlockType() == CodeBlock.Type.VALUE_FIELD) {
+        scope.setBlockType(CodeBlock.Type.VALUE_CLASS);
+      }
+    }
+    return scope;
+  }
+
+  /**
+   * @return the existing child of {@code parent} with the given name, or a new one that starts at
+   *         the current statement
+   */
+  private CodeBlockImpl declare(CodeBlockImpl parent, String name, int type) {
+    CodeBlockImpl block = findChild(parent, name);
+    if (block == null) {
+      block = newBlock(type, name, statementLine, statementColumn);
+      parent.addChildren(block);
+    } else if (block.getBlockType() == CodeBlock.Type.VALUE_FIELD
+        && type != CodeBlock.Type.VALUE_FIELD) {
+      // A namespace that turns out to be a function or class.
+      block.setBlockType(type);
+    }
+    return block;
+  }
+
+  private void addRequire(String module) {
+    if (!module.startsWith("./") && !module.startsWith("../")) {
+      // Resolved against a module search path we don't know.
+      return;
+    }
+    String resolved = normalizePath(directoryOf(path) + module);
+    if (resolved != null) {
+      importedPaths.add(resolved.endsWith(".js") ? resolved : resolved + ".js");
+      importedPaths.add(resolved + "/index.js");
+    }
+  }
+
+  private static boolean isConstructorName(String name) {
+    return Character.isUpperCase(name.charAt(0));
+  }
+
+  private static boolean looksLikeObjectLiteral(String s) {
+    if (s.isEmpty()) {
+      return false;
+    }
+    char last = s.charAt(s.length() - 1);
+    return last == '(' || last == ',' || last == '=' || last == ':' || last == '['
+        || last == '?' || last == '|' || last == '&' || s.endsWith("return");
+  }
+
+  private boolean isRegexAllowed() {
+    int last = lastNonSpace();
+    if (last == -1) {
+      return true;
+    }
+    String s = statement.substring(0, last + 1);
+    return REGEX_PRECEDERS.indexOf(s.charAt(last)) != -1 || s.endsWith("return")
+        || s.endsWith("typeof");
+  }
+
+  private void append(int index, char c) {
+    if (Character.isWhitespace(c)) {
+      if (statement.length() > 0 && statement.charAt(statement.length() - 1) != ' ') {
+        statement.append(' ');
+      }
+      return;
+    }
+    if (statement.length() == 0) {
+      statementLine = line;
+      statementColumn = index - lineStart;
+    }
+    statement.append(c);
+    statementEndLine = line;
+    statementEndColumn = index - lineStart + 1;
+  }
+
+  private void append(int index, String s) {
+    if (statement.length() == 0) {
+      statementLine = line;
+      statementColumn = index - lineStart;
+    }
+    statement.append(s);
+    statementEndLine = line;
+    statementEndColumn = index - lineStart + s.length();
+  }
+
+  private void resetStatement() {
+    statement.setLength(0);
+  }
+
+  private int lastNonSpace() {
+    int i = statement.length() - 1;
+    while (i >= 0 && statement.charAt(i) == ' ') {
+      i--;
+    }
+    return i;
+  }
+
+  /**
+   * @return the index just past the string literal that starts at {@code start}
+   */
+  private int findStringEnd(int start) {
+    char quote = text.charAt(start);
+    for (int i = start + 1; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == quote || (c == '\n' && quote != '`')) {
+        return i + 1;
+      }
+    }
+    return text.length();
+  }
+
+  /**
+   * @return the index just past the regular expression literal that starts at {@code start}
+   */
+  private int findRegexEnd(int start) {
+    boolean inClass = false;
+    for (int i = start + 1; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '\n') {
+        return i;
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == ']') {
+        inClass = false;
+      } else if (c == '/' && !inClass) {
+        int end = i + 1;
+        while (end < text.length() && Character.isLetter(text.charAt(end))) {
+          end++;
+        }
+        return end;
+      }
+    }
+    return text.length();
+  }
+
+  /**
+   * Moves past skipped text, keeping track of the lines it spans.
+   *
+   * @return {@code end}
+   */
+  private int skipTo(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i) == '\n') {
+        line++;
+        lineStart = i + 1;
+      }
+    }
+    return end;
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.codegraph;
+
+import com.google.collide.dto.CodeBlock;
+import com.google.collide.dto.server.DtoServerImpls.CodeBlockImpl;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds an outline of a source file as a tree of {@link CodeBlock}s: the functions, classes and
+ * fields a file declares, which is what autocompletion and the outline view need. Outline parsers
+ * are deliberately forgiving; they never fail, they just miss declarations they do not understand.
+ *
+ * <p>
+ * A parser instance holds the state of a single parse and must not be reused.
+ */
+abstract class OutlineParser {
+
+  /**
+   * The outline of one file.
+   */
+  static class ParsedFile {
+    final CodeBlockImpl fileBlock;
+
+    /**
+     * Workspace paths that the file's imports may refer to. An import can have several candidates,
+     * for example a module or a package of the same name; whichever exist are linked.
+     */
+    final Set<String> importedPaths;
+
+    ParsedFile(CodeBlockImpl fileBlock, Set<String> importedPaths) {
+      this.fileBlock = fileBlock;
+      this.importedPaths = importedPaths;
+    }
+  }
+
+  /**
+   * @return a parser for the file's language, or null if we don't parse it
+   */
+  static OutlineParser forPath(String path) {
+    if (path.endsWith(".js")) {
+      return new JsOutlineParser();
+    } else if (path.endsWith(".py")) {
+      return new PythonOutlineParser();
+    }
+    return null;
+  }
+
+  protected final Set<String> importedPaths = Sets.newLinkedHashSet();
+  protected String path;
+  private int nextLocalId;
+
+  /**
+   * Parses a file.
+   *
+   * @param path the file's workspace path, which becomes the name of the file block
+   * @param fileId the workspace-unique ID of the file block
+   */
+  ParsedFile parse(String path, String fileId, String text) {
+    this.path = path;
+    CodeBlockImpl fileBlock = CodeBlockImpl.make().setId(fileId).setName(path)
+        .setBlockType(CodeBlock.Type.VALUE_FILE).setStartLineNumber(0).setStartColumn(0)
+        .setChildren(Lists.<CodeBlockImpl>newArrayList());
+    int lastLineStart = text.lastIndexOf('\n') + 1;
+    fileBlock.setEndLineNumber(countLines(text) - 1).setEndColumn(text.length() - lastLineStart);
+    parseInto(fileBlock, text);
+    return new ParsedFile(fileBlock, importedPaths);
+  }
+
+  /**
+   * Adds the declarations found in {@code text} to the file block.
+   */
+  protected abstract void parseInto(CodeBlockImpl fileBlock, String text);
+
+  /**
+   * Creates a block with a file-unique ID, ending where it starts until told otherwise.
+   */
+  protected CodeBlockImpl newBlock(int type, String name, int line, int column) {
+    return CodeBlockImpl.make().setId(Integer.toString(nextLocalId++)).setBlockType(type)
+        .setName(name).setStartLineNumber(line).setStartColumn(column).setEndLineNumber(line)
+        .setEndColumn(column).setChildren(Lists.<CodeBlockImpl>newArrayList());
+  }
+
+  /**
+   * @return the child of {@code parent} with the given name, or null
+   */
+  protected static CodeBlockImpl findChild(CodeBlockImpl parent, String name) {
+    for (CodeBlock child : parent.getChildren().asIterable()) {
+      if (name.equals(child.getName())) {
+        return (CodeBlockImpl) child;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the directory part of {@code path}, with a trailing slash
+   */
+  protected static String directoryOf(String path) {
+    return path.substring(0, path.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * Resolves "." and ".." segments in an absolute workspace path.
+   *
+   * @return the resolved path, or null if it climbs above the workspace root
+   */
+  protected static String normalizePath(String path) {
+    List<String> segments = Lists.newArrayList();
+    for (String segment : path.split("/")) {
+      if (segment.isEmpty() || segment.equals(".")) {
+        continue;
+      } else if (segment.equals("..")) {
+        if (segments.isEmpty()) {
+          return null;
+        }
+        segments.remove(segments.size() - 1);
+      } else {
+        segments.add(segment);
+      }
+    }
+    return "/" + Joiner.on('/').join(segments);
+  }
+
+  private static int countLines(String text) {
+    int lines = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        lines++;
+      }
+    }
+    return lines;
+  }
+}
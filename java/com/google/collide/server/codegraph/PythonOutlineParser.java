@@ -0,0 +1,255 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.collide.server.codegraph;
+
+import com.google.collide.dto.CodeBlock;
+import com.google.collide.dto.server.DtoServerImpls.CodeBlockImpl;
+import com.google.common.collect.Lists;
+
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Outlines Python. Blocks are delimited by indentation, so the source is read a logical line at a
+ * time: {@code def} and {@code class} open blocks, assignments at module or class level declare
+ * fields, and so do assignments to {@code self} attributes in methods. Imports are resolved to the
+ * workspace files they may refer to.
+ */
+class PythonOutlineParser extends OutlineParser {
+
+  private static final Pattern DEF = Pattern.compile("^(?:async\\s+)?def\\s+(\\w+)");
+  private static final Pattern CLASS = Pattern.compile("^class\\s+(\\w+)");
+  private static final Pattern ASSIGNMENT = Pattern.compile("^(\\w+)\\s*(?::[^=]*)?=(?!=)");
+  private static final Pattern SELF_ASSIGNMENT =
+      Pattern.compile("^self\\.(\\w+)\\s*(?::[^=]*)?=(?!=)");
+  private static final Pattern IMPORT = Pattern.compile("^import\\s+(.+)");
+  private static final Pattern FROM_IMPORT =
+      Pattern.compile("^from\\s+(\\.*)([\\w.]*)\\s+import\\b");
+
+  private static final int TAB_WIDTH = 8;
+
+  /**
+   * An open block and the indentation of the line that opened it.
+   */
+  private static class Scope {
+    final CodeBlockImpl block;
+    final int indent;
+
+    /** The class whose {@code self} attributes assignments in this block declare, or null. */
+    final CodeBlockImpl selfClass;
+
+    Scope(CodeBlockImpl block, int indent, CodeBlockImpl selfClass) {
+      this.block = block;
+      this.indent = indent;
+      this.selfClass = selfClass;
+    }
+  }
+
+  private final Deque<Scope> scopes = Lists.newLinkedList();
+  private String[] lines;
+
+  /** The last line holding code, which is where a block that is closed by a dedent ends. */
+  private int lastCodeLine;
+
+  @Override
+  protected void parseInto(CodeBlockImpl fileBlock, String text) {
+    lines = text.split("\n", -1);
+    scopes.push(new Scope(fileBlock, -1, null));
+
+    // State carried from one physical line to the next.
+    int bracketDepth = 0;
+    boolean continued = false;
+    String openTripleQuote = null;
+
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i];
+      int start = 0;
+      if (openTripleQuote != null) {
+        int close = line.indexOf(openTripleQuote);
+        if (close == -1) {
+          continue;
+        }
+        openTripleQuote = null;
+        start = close + 3;
+      } else {
+        int indent = getIndent(line);
+        String code = line.trim();
+        if (code.isEmpty() || code.startsWith("#")) {
+          continue;
+        }
+        if (bracketDepth == 0 && !continued) {
+          onLogicalLine(code, i, indent);
+        }
+      }
+      lastCodeLine = i;
+
+      // Find out whether the line leaves a bracket, string or continuation open.
+      continued = false;
+      for (int j = start; j < line.length(); j++) {
+        char c = line.charAt(j);
+        if (c == '#') {
+          break;
+        } else if (c == '"' || c == '\'') {
+          if (line.startsWith(tripleQuote(c), j)) {
+            int close = line.indexOf(tripleQuote(c), j + 3);
+            if (close == -1) {
+              openTripleQuote = tripleQuote(c);
+              break;
+            }
+            j = close + 2;
+          } else {
+            j = findStringEnd(line, j);
+          }
+        } else if (c == '(' || c == '[' || c == '{') {
+          bracketDepth++;
+        } else if (c == ')' || c == ']' || c == '}') {
+          bracketDepth = Math.max(0, bracketDepth - 1);
+        } else if (c == '\\' && j == line.length() - 1) {
+          continued = true;
+        }
+      }
+    }
+
+    while (scopes.size() > 1) {
+      closeScope();
+    }
+  }
+
+  private void onLogicalLine(String code, int lineNumber, int indent) {
+    while (scopes.peek().indent >= indent) {
+      closeScope();
+    }
+
+    Scope scope = scopes.peek();
+    CodeBlockImpl parent = scope.block;
+    int column = lines[lineNumber].indexOf(code);
+    Matcher m;
+    if ((m = DEF.matcher(code)).find()) {
+      CodeBlockImpl block = declare(parent, m.group(1), CodeBlock.Type.VALUE_FUNCTION,
+          lineNumber, column);
+      boolean isMethod = parent.getBlockType() == CodeBlock.Type.VALUE_CLASS;
+      scopes.push(new Scope(block, indent, isMethod ? parent : null));
+    } else if ((m = CLASS.matcher(code)).find()) {
+      CodeBlockImpl block =
+          declare(parent, m.group(1), CodeBlock.Type.VALUE_CLASS, lineNumber, column);
+      scopes.push(new Scope(block, indent, null));
+    } else if ((m = SELF_ASSIGNMENT.matcher(code)).find()) {
+      if (scope.selfClass != null) {
+        declare(scope.selfClass, m.group(1), CodeBlock.Type.VALUE_FIELD, lineNumber, column);
+      }
+    } else if ((m = ASSIGNMENT.matcher(code)).find()) {
+      if (parent.getBlockType() != CodeBlock.Type.VALUE_FUNCTION) {
+        declare(parent, m.group(1), CodeBlock.Type.VALUE_FIELD, lineNumber, column);
+      }
+    } else if ((m = FROM_IMPORT.matcher(code)).find()) {
+      addImport(m.group(1).length(), m.group(2));
+    } else if ((m = IMPORT.matcher(code)).find()) {
+      for (String module : m.group(1).split(",")) {
+        addImport(0, module.trim().split("\\s+")[0]);
+      }
+    }
+  }
+
+  private void closeScope() {
+    CodeBlockImpl block = scopes.pop().block;
+    block.setEndLineNumber(lastCodeLine).setEndColumn(lines[lastCodeLine].length());
+  }
+
+  private CodeBlockImpl declare(
+      CodeBlockImpl parent, String name, int type, int lineNumber, int column) {
+    CodeBlockImpl block = findChild(parent, name);
+    if (block == null || block.getBlockType() != type) {
+      block = newBlock(type, name, lineNumber, column);
+      parent.addChildren(block);
+      if (type == CodeBlock.Type.VALUE_FIELD) {
+        block.setEndColumn(lines[lineNumber].length());
+      }
+    }
+    return block;
+  }
+
+  /**
+   * Adds the files a module import may refer to.
+   *
+   * @param level the number of leading dots of a relative import
+   */
+  private void addImport(int level, String module) {
+    String modulePath = module.replace('.', '/');
+    String directory = directoryOf(path);
+    if (level == 0) {
+      // Absolute, or an implicit relative import from Python 2.
+      addModuleCandidates("/" + modulePath);
+    } else {
+      for (int i = 1; i < level; i++) {
+        directory += "../";
+      }
+    }
+    addModuleCandidates(directory + modulePath);
+  }
+
+  /**
+   * @param modulePath the path of a module without its extension, or of a package directory
+   *        ending with a slash
+   */
+  private void addModuleCandidates(String modulePath) {
+    String resolved = normalizePath(modulePath);
+    if (resolved == null) {
+      return;
+    }
+    if (resolved.equals("/")) {
+      resolved = "";
+    } else if (!modulePath.endsWith("/")) {
+      importedPaths.add(resolved + ".py");
+    }
+    importedPaths.add(resolved + "/__init__.py");
+  }
+
+  private static int getIndent(String line) {
+    int indent = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == ' ') {
+        indent++;
+      } else if (c == '\t') {
+        indent = (indent / TAB_WIDTH + 1) * TAB_WIDTH;
+      } else {
+        break;
+      }
+    }
+    return indent;
+  }
+
+  private static String tripleQuote(char quote) {
+    return quote == '"' ? "\"\"\"" : "'''";
+  }
+
+  /**
+   * @return the index of the quote that closes the string starting at {@code start}
+   */
+  private static int findStringEnd(String line, int start) {
+    char quote = line.charAt(start);
+    for (int i = start + 1; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == quote) {
+        return i;
+      }
+    }
+    return line.length();
+  }
+}
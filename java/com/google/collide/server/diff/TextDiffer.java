@@ -0,0 +1,342 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.diff;
+
+import com.google.collide.dto.DiffChunkResponse.DiffType;
+import com.google.collide.dto.server.DtoServerImpls.DiffChunkResponseImpl;
+import com.google.collide.dto.server.DtoServerImpls.DiffStatsDtoImpl;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.Sequence;
+import org.eclipse.jgit.diff.SequenceComparator;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes the diffs shown side by side by the client's {@code EditorDiffContainer}.
+ *
+ * <p>
+ * Texts are first diffed line by line with JGit's histogram diff. Unchanged runs of lines become
+ * {@link DiffType#UNCHANGED} chunks, and lines that exist on one side only become
+ * {@link DiffType#ADDED} or {@link DiffType#REMOVED} chunks. Only runs of lines that were replaced
+ * are diffed again, word by word, so that the client can highlight just the words that changed:
+ * the changed words become {@code CHANGED}, {@code ADDED} or {@code REMOVED} chunks and the words
+ * between them {@link DiffType#CHANGED_LINE} chunks. Every chunk is appended to both editors, so
+ * the side with fewer lines in a hunk is padded with blank lines to keep the two aligned.
+ *
+ * <p>
+ * Results are cached by the pair of content hashes that the caller diffs, so that revisions that
+ * are compared repeatedly, as they are when stepping along the timeline, are only diffed once.
+ * Stats-only requests never build any chunks.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+public class TextDiffer {
+
+  /** Replaced runs longer than this are shown as a single changed chunk. */
+  private static final int MAX_REFINED_HUNK_LENGTH = 16 * 1024;
+
+  private static final long MAX_CACHED_CHARS = 8 * 1024 * 1024;
+
+  /** What a cached stats-only diff counts against {@link #MAX_CACHED_CHARS}. */
+  private static final int STATS_WEIGHT = 64;
+
+  /**
+   * The result of a diff. The chunks are null if only the stats were asked for.
+   */
+  public static class Diff {
+    public final DiffStatsDtoImpl stats;
+    public final List<DiffChunkResponseImpl> chunks;
+    final int weight;
+
+    Diff(DiffStatsDtoImpl stats, List<DiffChunkResponseImpl> chunks, int weight) {
+      this.stats = stats;
+      this.chunks = chunks == null ? null : Collections.unmodifiableList(chunks);
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * A text split into tokens, each a range of characters. Lines keep their line breaks.
+   */
+  private static class TokenSequence extends Sequence {
+    final String text;
+    final int[] starts;
+    final int size;
+
+    TokenSequence(String text, int[] starts, int size) {
+      this.text = text;
+      this.starts = starts;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    int start(int token) {
+      return starts[token];
+    }
+
+    int end(int token) {
+      return starts[token + 1];
+    }
+
+    String substring(int fromToken, int toToken) {
+      return text.substring(starts[fromToken], starts[toToken]);
+    }
+
+    static TokenSequence lines(String text) {
+      int[] starts = new int[16];
+      int size = 0;
+      int start = 0;
+      while (start < text.length()) {
+        starts = ensureCapacity(starts, size + 2);
+        starts[size++] = start;
+        int newline = text.indexOf('\n', start);
+        start = newline < 0 ? text.length() : newline + 1;
+      }
+      starts = ensureCapacity(starts, size + 1);
+      starts[size] = text.length();
+      return new TokenSequence(text, starts, size);
+    }
+
+    /**
+     * Splits text into words, runs of spaces, line breaks and single punctuation characters.
+     */
+    static TokenSequence words(String text) {
+      int[] starts = new int[16];
+      int size = 0;
+      int i = 0;
+      while (i < text.length()) {
+        starts = ensureCapacity(starts, size + 2);
+        starts[size++] = i;
+        char c = text.charAt(i++);
+        if (Character.isLetterOrDigit(c) || c == '_') {
+          while (i < text.length()
+              && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+            i++;
+          }
+        } else if (c == ' ' || c == '\t') {
+          while (i < text.length() && (text.charAt(i) == ' ' || text.charAt(i) == '\t')) {
+            i++;
+          }
+        }
+      }
+      starts = ensureCapacity(starts, size + 1);
+      starts[size] = text.length();
+      return new TokenSequence(text, starts, size);
+    }
+
+    private static int[] ensureCapacity(int[] array, int capacity) {
+      if (capacity <= array.length) {
+        return array;
+      }
+      int[] grown = new int[Math.max(capacity, array.length * 2)];
+      System.arraycopy(array, 0, grown, 0, array.length);
+      return grown;
+    }
+  }
+
+  private static final SequenceComparator<TokenSequence> TOKEN_COMPARATOR =
+      new SequenceComparator<TokenSequence>() {
+        @Override
+        public boolean equals(TokenSequence a, int ai, TokenSequence b, int bi) {
+          int length = a.end(ai) - a.start(ai);
+          return length == b.end(bi) - b.start(bi)
+              && a.text.regionMatches(a.start(ai), b.text, b.start(bi), length);
+        }
+
+        @Override
+        public int hash(TokenSequence seq, int token) {
+          int hash = 0;
+          for (int i = seq.start(token), end = seq.end(token); i < end; i++) {
+            hash = 31 * hash + seq.text.charAt(i);
+          }
+          return hash;
+        }
+      };
+
+  private final DiffAlgorithm algorithm = new HistogramDiff();
+
+  /** Map of content hash pairs to their diffs. */
+  private final Cache<String, Diff> cache = CacheBuilder.newBuilder()
+      .concurrencyLevel(1).maximumWeight(MAX_CACHED_CHARS).weigher(new Weigher<String, Diff>() {
+        @Override
+        public int weigh(String key, Diff diff) {
+          return diff.weight;
+        }
+      }).build();
+
+  /**
+   * Diffs two texts.
+   *
+   * @param beforeHash a hash of {@code before}'s content, used as half of the cache key
+   * @param afterHash a hash of {@code after}'s content, used as the other half
+   * @param statsOnly whether only the line counts are needed
+   */
+  public Diff diff(
+      String beforeHash, String before, String afterHash, String after, boolean statsOnly) {
+    String key = beforeHash + ":" + afterHash;
+    Diff cached = cache.getIfPresent(key);
+    if (cached != null && (statsOnly || cached.chunks != null)) {
+      return cached;
+    }
+
+    TokenSequence a = TokenSequence.lines(before);
+    TokenSequence b = TokenSequence.lines(after);
+    EditList edits =
+        beforeHash.equals(afterHash) ? new EditList() : algorithm.diff(TOKEN_COMPARATOR, a, b);
+    DiffStatsDtoImpl stats = computeStats(a.size(), edits);
+    Diff diff = statsOnly ? new Diff(stats, null, STATS_WEIGHT) : buildChunks(stats, a, b, edits);
+    cache.put(key, diff);
+    return diff;
+  }
+
+  /**
+   * Counts lines. A replaced run counts its lines as changed as far as both sides have them, and
+   * the rest as added or deleted.
+   */
+  private static DiffStatsDtoImpl computeStats(int beforeLines, EditList edits) {
+    int added = 0;
+    int changed = 0;
+    int deleted = 0;
+    for (Edit edit : edits) {
+      int common = Math.min(edit.getLengthA(), edit.getLengthB());
+      changed += common;
+      added += edit.getLengthB() - common;
+      deleted += edit.getLengthA() - common;
+    }
+    return DiffStatsDtoImpl.make().setAdded(added).setChanged(changed).setDeleted(deleted)
+        .setUnchanged(beforeLines - changed - deleted);
+  }
+
+  private Diff buildChunks(DiffStatsDtoImpl stats, TokenSequence a, TokenSequence b,
+      EditList edits) {
+    ChunkBuilder chunks = new ChunkBuilder();
+    int nextA = 0;
+    for (Edit edit : edits) {
+      chunks.add(DiffType.UNCHANGED, a.substring(nextA, edit.getBeginA()),
+          a.substring(nextA, edit.getBeginA()));
+
+      String removed = a.substring(edit.getBeginA(), edit.getEndA());
+      String added = b.substring(edit.getBeginB(), edit.getEndB());
+      switch (edit.getType()) {
+        case INSERT:
+          chunks.add(DiffType.ADDED, "", added);
+          break;
+        case DELETE:
+          chunks.add(DiffType.REMOVED, removed, "");
+          break;
+        default:
+          if (removed.length() + added.length() > MAX_REFINED_HUNK_LENGTH) {
+            chunks.add(DiffType.CHANGED, removed, added);
+          } else {
+            refine(chunks, removed, added);
+          }
+          break;
+      }
+      chunks.alignLines();
+      nextA = edit.getEndA();
+    }
+    chunks.add(DiffType.UNCHANGED, a.substring(nextA, a.size()), a.substring(nextA, a.size()));
+    return new Diff(stats, chunks.chunks, chunks.weight);
+  }
+
+  /**
+   * Diffs a replaced run of lines word by word.
+   */
+  private void refine(ChunkBuilder chunks, String before, String after) {
+    TokenSequence a = TokenSequence.words(before);
+    TokenSequence b = TokenSequence.words(after);
+    int nextA = 0;
+    for (Edit edit : algorithm.diff(TOKEN_COMPARATOR, a, b)) {
+      String unchanged = a.substring(nextA, edit.getBeginA());
+      chunks.add(DiffType.CHANGED_LINE, unchanged, unchanged);
+
+      String removed = a.substring(edit.getBeginA(), edit.getEndA());
+      String added = b.substring(edit.getBeginB(), edit.getEndB());
+      DiffType type = removed.isEmpty() ? DiffType.ADDED
+          : (added.isEmpty() ? DiffType.REMOVED : DiffType.CHANGED);
+      chunks.add(type, removed, added);
+      nextA = edit.getEndA();
+    }
+    String unchanged = a.substring(nextA, a.size());
+    chunks.add(DiffType.CHANGED_LINE, unchanged, unchanged);
+  }
+
+  /**
+   * Accumulates chunks, merging neighbours of the same type, and tracks how many lines each side
+   * has so that they can be kept aligned.
+   */
+  private static class ChunkBuilder {
+    final List<DiffChunkResponseImpl> chunks = Lists.newArrayList();
+    int weight;
+    private int beforeLines;
+    private int afterLines;
+
+    void add(DiffType type, String before, String after) {
+      if (before.isEmpty() && after.isEmpty()) {
+        return;
+      }
+      beforeLines += countLines(before);
+      afterLines += countLines(after);
+      weight += before.length() + after.length();
+
+      DiffChunkResponseImpl last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+      if (last != null && last.getDiffType() == type) {
+        last.setBeforeData(last.getBeforeData() + before);
+        last.setAfterData(last.getAfterData() + after);
+      } else {
+        DiffChunkResponseImpl chunk = DiffChunkResponseImpl.make();
+        chunk.setDiffType(type);
+        chunk.setBeforeData(before);
+        chunk.setAfterData(after);
+        chunks.add(chunk);
+      }
+    }
+
+    /**
+     * Pads whichever side is shorter with blank lines. The padding is shown as the background of
+     * an addition or removal on the other side.
+     */
+    void alignLines() {
+      if (beforeLines < afterLines) {
+        add(DiffType.ADDED, Strings.repeat("\n", afterLines - beforeLines), "");
+      } else if (afterLines < beforeLines) {
+        add(DiffType.REMOVED, "", Strings.repeat("\n", beforeLines - afterLines));
+      }
+    }
+
+    private static int countLines(String text) {
+      int lines = 0;
+      for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+        lines++;
+      }
+      return lines;
+    }
+  }
+}
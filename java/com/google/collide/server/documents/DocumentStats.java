@@ -0,0 +1,157 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.server.metrics.LatencyHistogram;
+import com.google.collide.shared.ot.DocOpUtils;
+import com.google.common.collect.Lists;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * How hard the OT engine works for one {@link VersionedDocument}: how many doc ops it applied, how
+ * far behind the clients were, and how long building the bridge, transforming and applying took.
+ *
+ * <p>
+ * The most recent consumes that took longer than {@value #SLOW_CONSUME_MILLIS} milliseconds are
+ * kept in a ring buffer of {@value #SLOW_CONSUME_CAPACITY}, along with who sent them and the shape
+ * of their doc ops: the component types and lengths, never the text. That is usually enough to
+ * tell a pathological file from a client that fell far behind.
+ */
+class DocumentStats {
+
+  private static final int SLOW_CONSUME_CAPACITY = 16;
+  private static final long SLOW_CONSUME_MILLIS = 5;
+
+  /**
+   * A consume that was slow.
+   */
+  private static class SlowConsume {
+    final long timestamp;
+    final String authorClientId;
+    final int intendedCcRevision;
+    final int bridgeLength;
+    final List<String> docOpShapes;
+    final long composeMicros;
+    final long transformMicros;
+    final long applyMicros;
+    final long totalMicros;
+
+    SlowConsume(String authorClientId, int intendedCcRevision, int bridgeLength,
+        List<String> docOpShapes, long composeMicros, long transformMicros, long applyMicros,
+        long totalMicros) {
+      this.timestamp = System.currentTimeMillis();
+      this.authorClientId = authorClientId;
+      this.intendedCcRevision = intendedCcRevision;
+      this.bridgeLength = bridgeLength;
+      this.docOpShapes = docOpShapes;
+      this.composeMicros = composeMicros;
+      this.transformMicros = transformMicros;
+      this.applyMicros = applyMicros;
+      this.totalMicros = totalMicros;
+    }
+
+    JsonObject toJson() {
+      JsonArray shapes = new JsonArray();
+      for (String shape : docOpShapes) {
+        shapes.addString(shape);
+      }
+      return new JsonObject().putNumber("timestamp", timestamp)
+          .putString("clientId", authorClientId)
+          .putNumber("intendedCcRevision", intendedCcRevision)
+          .putNumber("bridgeLength", bridgeLength).putArray("docOps", shapes)
+          .putNumber("composeMs", composeMicros / 1000.0)
+          .putNumber("transformMs", transformMicros / 1000.0)
+          .putNumber("applyMs", applyMicros / 1000.0).putNumber("totalMs", totalMicros / 1000.0);
+    }
+  }
+
+  private long consumes;
+  private long opsApplied;
+  /** Consumes ignored as retries or as older than what the client sent before. */
+  private long dropped;
+  private long failures;
+
+  /** The number of doc ops each bridge was composed from. */
+  private final LatencyHistogram bridgeLength = new LatencyHistogram();
+
+  private final LatencyHistogram composeTime = new LatencyHistogram();
+  private final LatencyHistogram transformTime = new LatencyHistogram();
+  private final LatencyHistogram applyTime = new LatencyHistogram();
+
+  private final SlowConsume[] slowConsumes = new SlowConsume[SLOW_CONSUME_CAPACITY];
+  private int nextSlowConsume;
+
+  /**
+   * Records a consume that applied {@code docOps} after composing a bridge of
+   * {@code bridgeLength} doc ops.
+   */
+  void recordConsume(List<? extends DocOp> docOps, String authorClientId,
+      int intendedCcRevision, int bridgeLength, long composeNanos, long transformNanos,
+      long applyNanos, long totalNanos) {
+    consumes++;
+    opsApplied += docOps.size();
+    this.bridgeLength.record(bridgeLength);
+    composeTime.recordMicros(composeNanos / 1000);
+    transformTime.recordMicros(transformNanos / 1000);
+    applyTime.recordMicros(applyNanos / 1000);
+
+    long totalMicros = totalNanos / 1000;
+    if (totalMicros >= SLOW_CONSUME_MILLIS * 1000) {
+      List<String> shapes = Lists.newArrayListWithCapacity(docOps.size());
+      for (DocOp docOp : docOps) {
+        shapes.add(DocOpUtils.toString(docOp, false));
+      }
+      slowConsumes[nextSlowConsume] = new SlowConsume(authorClientId, intendedCcRevision,
+          bridgeLength, shapes, composeNanos / 1000, transformNanos / 1000, applyNanos / 1000,
+          totalMicros);
+      nextSlowConsume = (nextSlowConsume + 1) % slowConsumes.length;
+    }
+  }
+
+  void recordDropped() {
+    dropped++;
+  }
+
+  void recordFailure() {
+    failures++;
+  }
+
+  /**
+   * @param historySize the number of doc ops in the document's history
+   */
+  JsonObject toJson(int ccRevision, int historySize) {
+    JsonArray slow = new JsonArray();
+    // Newest first.
+    for (int i = 1; i <= slowConsumes.length; i++) {
+      SlowConsume consume =
+          slowConsumes[(nextSlowConsume - i + slowConsumes.length) % slowConsumes.length];
+      if (consume != null) {
+        slow.addObject(consume.toJson());
+      }
+    }
+    return new JsonObject().putNumber("ccRevision", ccRevision)
+        .putNumber("historySize", historySize).putNumber("consumes", consumes)
+        .putNumber("opsApplied", opsApplied).putNumber("dropped", dropped)
+        .putNumber("failures", failures).putObject("bridgeLength", bridgeLength.toJson(1))
+        .putObject("composeTime", composeTime.toJson())
+        .putObject("transformTime", transformTime.toJson())
+        .putObject("applyTime", applyTime.toJson()).putArray("slowConsumes", slow);
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.server.DtoServerImpls.DocOpComponentImpl;
+import com.google.collide.dto.server.DtoServerImpls.DocOpImpl;
+import com.google.collide.server.documents.VersionedDocument.AppliedDocOp;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Converts edit sessions to and from JSON, so that the node that takes a document over in a
+ * clustered deployment carries on from the same revision and doc op history. The clients editing
+ * the document keep their revisions, and can recover missed doc ops from the new owner.
+ */
+final class EditSessionHandoff {
+  private static final Gson gson = new GsonBuilder().registerTypeAdapter(
+      DocOpComponentImpl.class, new DocOpComponentDeserializer()).serializeNulls().create();
+
+  private EditSessionHandoff() {
+  }
+
+  static JsonObject toJson(FileEditSessionImpl editSession) {
+    VersionedDocument document = editSession.getDocument();
+    JsonArray history = new JsonArray();
+    if (document.getCcRevision() > 0) {
+      for (AppliedDocOp appliedDocOp : document.getAppliedDocOps(1).values()) {
+        history.addObject(new JsonObject().putString("docOp", gson.toJson(appliedDocOp.docOp))
+            .putString("authorClientId", appliedDocOp.authorClientId));
+      }
+    }
+
+    JsonObject lastIntendedCcRevisions = new JsonObject();
+    for (Entry<String, Integer> entry : document.getLastIntendedCcRevisions().entrySet()) {
+      lastIntendedCcRevisions.putNumber(entry.getKey(), entry.getValue());
+    }
+
+    return new JsonObject().putString("resourceId", editSession.getFileEditSessionKey())
+        .putString("path", editSession.getSavedPath())
+        .putString("text", document.asText().text)
+        .putArray("history", history)
+        .putObject("lastIntendedCcRevisions", lastIntendedCcRevisions)
+        .putNumber("lastSavedCcRevision", editSession.getLastSavedCcRevision())
+        .putNumber("lastMutationCcRevision", editSession.getCcRevision());
+  }
+
+  static FileEditSessionImpl fromJson(JsonObject json, Logger logger) {
+    List<AppliedDocOp> history = new ArrayList<AppliedDocOp>();
+    for (Object appliedDocOp : json.getArray("history")) {
+      JsonObject appliedDocOpJson = (JsonObject) appliedDocOp;
+      history.add(new AppliedDocOp(gson.fromJson(appliedDocOpJson.getString("docOp"),
+          DocOpImpl.class), appliedDocOpJson.getString("authorClientId")));
+    }
+
+    Map<String, Integer> lastIntendedCcRevisions = new HashMap<String, Integer>();
+    JsonObject lastIntendedCcRevisionsJson = json.getObject("lastIntendedCcRevisions");
+    for (String clientId : lastIntendedCcRevisionsJson.getFieldNames()) {
+      lastIntendedCcRevisions.put(
+          clientId, lastIntendedCcRevisionsJson.getNumber(clientId).intValue());
+    }
+
+    VersionedDocument document =
+        new VersionedDocument(json.getString("text"), history, lastIntendedCcRevisions, logger);
+    return new FileEditSessionImpl(json.getString("resourceId"), json.getString("path"), document,
+        json.getNumber("lastSavedCcRevision").intValue(),
+        json.getNumber("lastMutationCcRevision").intValue(), logger);
+  }
+}
@@ -18,6 +18,7 @@ import com.google.collide.dto.DocOp;
 import com.google.collide.dto.DocumentSelection;
 import com.google.collide.dto.FileContents;
 import com.google.collide.dto.FileContents.ContentType;
+import com.google.collide.dto.ServerError.FailureReason;
 import com.google.collide.dto.server.DtoServerImpls.ClientToServerDocOpImpl;
 import com.google.collide.dto.server.DtoServerImpls.DocOpComponentImpl;
 import com.google.collide.dto.server.DtoServerImpls.DocOpImpl;
@@ -27,12 +28,16 @@ import com.google.collide.dto.server.DtoServerImpls.GetFileContentsImpl;
 import com.google.collide.dto.server.DtoServerImpls.GetFileContentsResponseImpl;
 import com.google.collide.dto.server.DtoServerImpls.RecoverFromMissedDocOpsImpl;
 import com.google.collide.dto.server.DtoServerImpls.RecoverFromMissedDocOpsResponseImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerErrorImpl;
 import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpImpl;
 import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpsImpl;
 import com.google.collide.json.server.JsonArrayListAdapter;
 import com.google.collide.server.documents.VersionedDocument.AppliedDocOp;
 import com.google.collide.server.documents.VersionedDocument.DocumentOperationException;
+import com.google.collide.server.metrics.EventBusMetrics;
 import com.google.collide.server.participants.Participants;
+import com.google.collide.server.shared.cluster.ClusterMembership;
+import com.google.collide.server.shared.cluster.ConsistentHashRing;
 import com.google.collide.server.shared.util.Dto;
 import com.google.collide.shared.MimeTypes;
 import com.google.common.base.Charsets;
@@ -53,12 +58,14 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.UUID;
 
 /**
  * Backend service that maintains in-memory edit sessions for documents that are being
@@ -88,13 +95,20 @@ public class EditSessions extends BusModBase {
       String resourceId = wrappedDocOp.getFileEditSessionKey();
 
       FileEditSession editSession = editSessions.get(resourceId);
+      if (!isInSync(editSession, wrappedDocOp.getCcRevision())) {
+        logger.error("Client is out of sync with edit session for resourceId " + resourceId);
+        sendMissingFileSession(message);
+        return;
+      }
 
       // Apply the DocOp.
-      if (editSession != null) {
-        List<String> docOps = ((JsonArrayListAdapter<String>) wrappedDocOp.getDocOps2()).asList();
-        ServerToClientDocOpsImpl appliedDocOps = applyMutation(
-            docOps, wrappedDocOp.getClientId(), wrappedDocOp.getCcRevision(),
-            wrappedDocOp.getSelection(), resourceId, editSession);
+      List<String> docOps = ((JsonArrayListAdapter<String>) wrappedDocOp.getDocOps2()).asList();
+      ServerToClientDocOpsImpl appliedDocOps = applyMutation(
+          docOps, wrappedDocOp.getClientId(), wrappedDocOp.getCcRevision(),
+          wrappedDocOp.getSelection(), resourceId, editSession);
+      if (appliedDocOps != null) {
+        // Retries dropped as duplicates were acknowledged the first time, and ops that failed
+        // to apply have nothing to acknowledge.
         message.reply(Dto.wrap(appliedDocOps));
       }
     }
@@ -147,6 +161,14 @@ public class EditSessions extends BusModBase {
         vertx.eventBus().send("participants.broadcast", new JsonObject().putString(
             Participants.OMIT_SENDER_TAG, authorId).putString(
             "payload", broadcastedDocOps.toJson()));
+
+        // Let server-side consumers such as the search index know the text has changed.
+        vertx.eventBus().publish(addressBase + ".contentChanged", new JsonObject()
+            .putString("path", "/" + editSession.getSavedPath())
+            .putString("resourceId", resourceId));
+        if (!publishedDirtyPaths.contains("/" + editSession.getSavedPath())) {
+          publishDirtyPathsIfChanged();
+        }
         return broadcastedDocOps;
       } catch (DocumentOperationException e) {
         logger.error(String.format("Failed to apply DocOps [%s]", serializedDocOps));
@@ -175,10 +197,9 @@ public class EditSessions extends BusModBase {
       String resourceId = req.getFileEditSessionKey();
       FileEditSession editSession = editSessions.get(resourceId);
 
-      if (editSession == null) {
-        logger.error("No edit session for resourceId " + resourceId);
-
-        // TODO: This is going to leave the reply handler hanging.
+      if (!isInSync(editSession, req.getCurrentCcRevision())) {
+        logger.error("Client is out of sync with edit session for resourceId " + resourceId);
+        sendMissingFileSession(event);
         return;
       }
 
@@ -229,80 +250,108 @@ public class EditSessions extends BusModBase {
     public void handle(final Message<JsonObject> message) {
       final GetFileContentsImpl request = GetFileContentsImpl.fromJsonString(Dto.get(message));
 
+      // A router in a clustered deployment will already have resolved the resource ID.
+      String routedResourceId = message.body.getString(RESOURCE_ID_TAG);
+      if (routedResourceId != null) {
+        sendFileContents(message, request, routedResourceId);
+        return;
+      }
+
       // Resolve the resource IDs from the requested path.
       vertx.eventBus().send("tree.getResourceIds",
           new JsonObject().putArray("paths", new JsonArray().addString(request.getPath())),
           new Handler<Message<JsonObject>>() {
-
-            /**
-             * Sends the contents of a file to the requester. The files will be served out of the
-             * FileEditSession if the contents are being edited, otherwise they will simply be
-             * served from disk.
-             */
               @Override
             public void handle(Message<JsonObject> event) {
               JsonArray resourceIdArr = event.body.getArray("resourceIds");
               Object[] resourceIds = resourceIdArr.toArray();
-              String resourceId = (String) resourceIds[0];
+              sendFileContents(message, request, (String) resourceIds[0]);
+            }
+          });
+    }
 
-              String currentPath = stripLeadingSlash(request.getPath());
-              FileEditSession editSession = editSessions.get(resourceId);
+    /**
+     * Sends the contents of a file to the requester. The files will be served out of the
+     * FileEditSession if the contents are being edited, otherwise they will simply be served from
+     * disk.
+     */
+    private void sendFileContents(
+        Message<JsonObject> message, GetFileContentsImpl request, String resourceId) {
+      String currentPath = stripLeadingSlash(request.getPath());
+      FileEditSession editSession = editSessions.get(resourceId);
 
-              // Create the DTO for the file contents response. We will build it up later in the
-              // method.
-              String mimeType = MimeTypes.guessMimeType(currentPath, false);
-              FileContentsImpl fileContentsDto =
-                  FileContentsImpl.make().setMimeType(mimeType).setPath(currentPath);
+      // Create the DTO for the file contents response. We will build it up later in the
+      // method.
+      String mimeType = MimeTypes.guessMimeType(currentPath, false);
+      FileContentsImpl fileContentsDto =
+          FileContentsImpl.make().setMimeType(mimeType).setPath(currentPath);
 
-              if (editSession == null) {
-                // We need to start a new edit session.
-                String text = "";
-                File file = new File(currentPath);
-                try {
-                  text = Files.toString(file, Charsets.UTF_8);
-                } catch (IOException e) {
-                  logger.error(
-                      String.format("Failed to read text contents for path [%s]", currentPath));
-
-                  // Send back a no file indicating that file does not exist.
-                  sendContent(message, currentPath, null, false);
-                  return;
-                }
+      if (editSession == null) {
+        // We need to start a new edit session.
+        String text = "";
+        File file = new File(currentPath);
+        try {
+          text = Files.toString(file, Charsets.UTF_8);
+        } catch (IOException e) {
+          logger.error(
+              String.format("Failed to read text contents for path [%s]", currentPath));
 
-                if (provisionEditSession) {
+          // Send back a no file indicating that file does not exist.
+          sendContent(message, currentPath, null, false);
+          return;
+        }
 
-                  // Provision a new edit session and fall through.
-                  editSession =
-                      new FileEditSessionImpl(resourceId, currentPath, text, null, logger);
-                  editSessions.put(resourceId, editSession);                
+        if (provisionEditSession) {
 
-                  // Update the last opened file.
-                  vertx.eventBus().send("workspace.setLastOpenedFile",
-                      new JsonObject().putString("resourceId", resourceId));
-                } else {
+          // Provision a new edit session and fall through.
+          editSession =
+              new FileEditSessionImpl(resourceId, currentPath, text, null, logger);
+          editSessions.put(resourceId, editSession);                
 
-                  // Just send the contents as they were read from disk and return.
-                  String dataBase64 = MimeTypes.looksLikeImage(mimeType) ? StringUtils
-                      .newStringUtf8(Base64.encodeBase64(text.getBytes())) : null;
-                  fileContentsDto.setContents(dataBase64).setContentType(
-                      dataBase64 == null ? ContentType.UNKNOWN_BINARY : ContentType.IMAGE);
-                  sendContent(message, currentPath, fileContentsDto, true);
-                  return;
-                }
-              }              
+          // Update the last opened file.
+          vertx.eventBus().send("workspace.setLastOpenedFile",
+              new JsonObject().putString("resourceId", resourceId));
+        } else {
 
-              // Populate file contents response Dto with information from the edit session.
-              fileContentsDto.setFileEditSessionKey(resourceId)
-                  .setCcRevision(editSession.getDocument().getCcRevision())
-                  .setContents(editSession.getContents()).setContentType(ContentType.TEXT);
+          // Just send the contents as they were read from disk and return.
+          String dataBase64 = MimeTypes.looksLikeImage(mimeType) ? StringUtils
+              .newStringUtf8(Base64.encodeBase64(text.getBytes())) : null;
+          fileContentsDto.setContents(dataBase64).setContentType(
+              dataBase64 == null ? ContentType.UNKNOWN_BINARY : ContentType.IMAGE);
+          sendContent(message, currentPath, fileContentsDto, true);
+          return;
+        }
+      }              
 
-              // Extract the contents from the edit session before sending.
-              sendContent(message, currentPath, fileContentsDto, true);
-            }
-          });
+      // Populate file contents response Dto with information from the edit session.
+      fileContentsDto.setFileEditSessionKey(resourceId)
+          .setCcRevision(editSession.getDocument().getCcRevision())
+          .setContents(editSession.getContents()).setContentType(ContentType.TEXT);
+
+      // Extract the contents from the edit session before sending.
+      sendContent(message, currentPath, fileContentsDto, true);
     }
   }
 
+  /**
+   * Whether a client at {@code ccRevision} can carry on with the edit session. It can't if there is
+   * no session, or if the session is behind the client, which happens when the session the client
+   * was editing was lost and the document reopened from disk.
+   */
+  private static boolean isInSync(FileEditSession editSession, int ccRevision) {
+    return editSession != null && ccRevision <= editSession.getDocument().getCcRevision();
+  }
+
+  /**
+   * Tells a client that the edit session it was editing is gone, so that it reloads the document
+   * rather than retrying.
+   */
+  private static void sendMissingFileSession(Message<JsonObject> message) {
+    message.reply(Dto.wrap(ServerErrorImpl.make()
+        .setFailureReason(FailureReason.MISSING_FILE_SESSION)
+        .setDetails("No edit session at the client's revision")));
+  }
+
   void sendContent(
       Message<JsonObject> event, String path, FileContents fileContents, boolean fileExists) {
     GetFileContentsResponseImpl response = GetFileContentsResponseImpl.make()
@@ -363,11 +412,73 @@ public class EditSessions extends BusModBase {
                   }
                 }
               }
+              publishDirtyPathsIfChanged();
             }
           });
     }
   }
 
+  /**
+   * Replies with the in-memory contents of a file if it has an open edit session with unsaved
+   * changes, so that the file can be served as the user currently sees it rather than as it was
+   * last saved. Replies with a "clean" status otherwise.
+   */
+  class DirtyContentsReader implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(final Message<JsonObject> message) {
+      // Most requests are for files nobody is editing, so avoid resolving the path if we can.
+      if (!hasDirtyEditSessions()) {
+        sendStatus("clean", message);
+        return;
+      }
+
+      String routedResourceId = message.body.getString(RESOURCE_ID_TAG);
+      if (routedResourceId != null) {
+        sendDirtyContents(message, routedResourceId);
+        return;
+      }
+
+      vertx.eventBus().send("tree.getResourceIds", new JsonObject().putArray(
+          "paths", new JsonArray().addString(message.body.getString("path"))),
+          new Handler<Message<JsonObject>>() {
+              @Override
+            public void handle(Message<JsonObject> event) {
+              sendDirtyContents(message, (String) event.body.getArray("resourceIds").toArray()[0]);
+            }
+          });
+    }
+
+    private boolean hasDirtyEditSessions() {
+      for (FileEditSession editSession : editSessions.values()) {
+        if (editSession.hasChanges()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void sendDirtyContents(Message<JsonObject> message, String resourceId) {
+      FileEditSession editSession = resourceId == null ? null : editSessions.get(resourceId);
+      if (editSession == null || !editSession.hasChanges()) {
+        sendStatus("clean", message);
+        return;
+      }
+      sendOK(message, new JsonObject().putString("contents", editSession.getContents())
+          .putNumber("ccRevision", editSession.getDocument().getCcRevision()));
+    }
+  }
+
+  /**
+   * Republishes the dirty paths of this node for web front ends that started after they were last
+   * published.
+   */
+  class DirtyPathsQuery implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      publishDirtyPaths();
+    }
+  }
+
   /**
    * Removes an edit session, and notifies clients that they should reload their opened document.
    */
@@ -377,34 +488,436 @@ public class EditSessions extends BusModBase {
       String resourceId = message.body.getString("resourceId");
       if (resourceId != null) {
         editSessions.remove(resourceId);
+        publishDirtyPathsIfChanged();
       }
       // TODO: Notify clients to reload their opened document.
     }
   }
 
+  /**
+   * Replies with the OT stats of each document open on this node, by path, so that pathological
+   * files and clients can be found while the server runs.
+   */
+  class DocumentStatsReader implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      JsonObject documents = new JsonObject();
+      for (Entry<String, FileEditSession> entry : editSessions.entrySet()) {
+        FileEditSession editSession = entry.getValue();
+        documents.putObject(editSession.getSavedPath(),
+            editSession.getDocument().getStats().putString("resourceId", entry.getKey()));
+      }
+      message.reply(
+          new JsonObject().putString("nodeId", nodeId).putObject("documents", documents));
+    }
+  }
+
+  /**
+   * Replies with the OT stats of the documents open on every live node of a clustered deployment,
+   * by path, each tagged with the node it is open on. Nodes that do not answer within
+   * {@link #CLUSTER_STATS_TIMEOUT_MS} are left out of the {@code "nodes"} that answered.
+   */
+  class ClusterStatsGatherer implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(final Message<JsonObject> message) {
+      Set<String> liveNodes = ring.getNodes();
+      final Set<String> pendingNodes = new HashSet<String>(liveNodes);
+      final JsonArray nodes = new JsonArray();
+      final JsonObject documents = new JsonObject();
+      final JsonObject stats = new JsonObject().putArray("nodes", nodes)
+          .putObject("documents", documents);
+      final long timerId = vertx.setTimer(CLUSTER_STATS_TIMEOUT_MS, new Handler<Long>() {
+          @Override
+        public void handle(Long event) {
+          logger.warn(String.format("Nodes %s did not send their stats in time", pendingNodes));
+          pendingNodes.clear();
+          message.reply(stats);
+        }
+      });
+
+      for (final String node : liveNodes) {
+        eb.send(nodeAddress(node, "getStats"), new JsonObject(),
+            new Handler<Message<JsonObject>>() {
+                @Override
+              public void handle(Message<JsonObject> reply) {
+                if (!pendingNodes.remove(node)) {
+                  // Too late; the stats have been sent.
+                  return;
+                }
+                nodes.addString(node);
+                JsonObject nodeDocuments = reply.body.getObject("documents");
+                for (String path : nodeDocuments.getFieldNames()) {
+                  documents.putObject(
+                      path, nodeDocuments.getObject(path).putString("nodeId", node));
+                }
+                if (pendingNodes.isEmpty()) {
+                  vertx.cancelTimer(timerId);
+                  message.reply(stats);
+                }
+              }
+            });
+      }
+    }
+  }
+
+  /**
+   * Forwards a document request to the node that owns the edit session for the document in a
+   * clustered deployment. Ownership is decided by consistent hashing of the file edit session key,
+   * so every router in the cluster agrees on the owner without coordination.
+   */
+  class DocumentRouter implements Handler<Message<JsonObject>> {
+    private final String operation;
+
+    DocumentRouter(String operation) {
+      this.operation = operation;
+    }
+
+    @Override
+    public void handle(final Message<JsonObject> message) {
+      if (operation.equals("mutate")) {
+        route(message,
+            ClientToServerDocOpImpl.fromJsonString(Dto.get(message)).getFileEditSessionKey());
+      } else if (operation.equals("recoverMissedDocop")) {
+        route(message,
+            RecoverFromMissedDocOpsImpl.fromJsonString(Dto.get(message)).getFileEditSessionKey());
+      } else if (operation.equals("removeEditSession")) {
+        route(message, message.body.getString("resourceId"));
+      } else {
+        // Requests by path need to be resolved to a resource ID before we can route them.
+        String path = operation.equals("getDirtyContents") ? message.body.getString("path")
+            : GetFileContentsImpl.fromJsonString(Dto.get(message)).getPath();
+        vertx.eventBus().send("tree.getResourceIds",
+            new JsonObject().putArray("paths", new JsonArray().addString(path)),
+            new Handler<Message<JsonObject>>() {
+                @Override
+              public void handle(Message<JsonObject> event) {
+                route(message, (String) event.body.getArray("resourceIds").toArray()[0]);
+              }
+            });
+      }
+    }
+
+    private void route(Message<JsonObject> message, String resourceId) {
+      if (resourceId != null) {
+        message.body.putString(RESOURCE_ID_TAG, resourceId);
+      }
+      forward(message, resourceId);
+    }
+
+    /**
+     * Sends a request to the owner of the resource, and relays the reply. If the owner does not
+     * answer in time, the requester gets a communication error rather than waiting forever.
+     */
+    void forward(final Message<JsonObject> message, String resourceId) {
+      String owner = resourceId == null ? null : ring.getOwner(resourceId);
+      final String address = nodeAddress(owner == null ? nodeId : owner, operation);
+      if (message.replyAddress == null) {
+        vertx.eventBus().send(address, message.body);
+        return;
+      }
+
+      final long timerId = vertx.setTimer(FORWARD_TIMEOUT_MS, new Handler<Long>() {
+          @Override
+        public void handle(Long event) {
+          logger.warn(String.format("No reply from [%s] in time", address));
+          message.reply(Dto.wrap(ServerErrorImpl.make()
+              .setFailureReason(FailureReason.COMMUNICATION_ERROR)
+              .setDetails("The node with the edit session did not reply in time")));
+        }
+      });
+      vertx.eventBus().send(address, message.body, new Handler<Message<JsonObject>>() {
+          @Override
+        public void handle(Message<JsonObject> reply) {
+          if (vertx.cancelTimer(timerId)) {
+            message.reply(reply.body);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Guards the handlers of this node in a clustered deployment. A request for a document this node
+   * has no edit session for is held until any other node that still has the edit session has
+   * handed it over, so that the document never opens from disk while another node has unsaved
+   * changes or a newer revision. Requests routed here by a node with an older view of the ring are
+   * sent on to the owner once.
+   */
+  class HandoffGate implements Handler<Message<JsonObject>> {
+    private final Handler<Message<JsonObject>> handler;
+    private final DocumentRouter router;
+
+    HandoffGate(Handler<Message<JsonObject>> handler, DocumentRouter router) {
+      this.handler = handler;
+      this.router = router;
+    }
+
+    @Override
+    public void handle(final Message<JsonObject> message) {
+      String resourceId = message.body.getString(RESOURCE_ID_TAG);
+      if (resourceId == null || editSessions.containsKey(resourceId)) {
+        handler.handle(message);
+        return;
+      }
+
+      if (!nodeId.equals(ring.getOwner(resourceId))
+          && message.body.getString(REROUTED_TAG) == null) {
+        message.body.putString(REROUTED_TAG, nodeId);
+        router.forward(message, resourceId);
+        return;
+      }
+
+      if (claimedIds.contains(resourceId)) {
+        handler.handle(message);
+        return;
+      }
+
+      EditSessionClaim claim = claims.get(resourceId);
+      boolean isNewClaim = claim == null;
+      if (isNewClaim) {
+        claim = new EditSessionClaim(resourceId);
+        claims.put(resourceId, claim);
+      }
+      claim.heldRequests.add(new Runnable() {
+          @Override
+        public void run() {
+          handler.handle(message);
+        }
+      });
+      if (isNewClaim) {
+        claim.start();
+      }
+    }
+  }
+
+  /**
+   * Asks the other live nodes to hand over their edit session for a document, if they have one,
+   * and then lets the requests held for the document through. A node that still believes it owns
+   * the document is asked again until its view of the ring catches up, or the claim times out.
+   */
+  class EditSessionClaim {
+    private final String resourceId;
+    private final List<Runnable> heldRequests = new ArrayList<Runnable>();
+    private final Set<String> pendingNodes = new HashSet<String>();
+    private long timerId;
+    private boolean settled;
+
+    EditSessionClaim(String resourceId) {
+      this.resourceId = resourceId;
+    }
+
+    void start() {
+      pendingNodes.addAll(ring.getNodes());
+      pendingNodes.remove(nodeId);
+      if (pendingNodes.isEmpty()) {
+        settle(null);
+        return;
+      }
+
+      timerId = vertx.setTimer(HANDOFF_TIMEOUT_MS, new Handler<Long>() {
+          @Override
+        public void handle(Long event) {
+          logger.warn(String.format(
+              "Nodes %s did not hand over [%s] in time", pendingNodes, resourceId));
+          settle(null);
+        }
+      });
+      for (String node : pendingNodes) {
+        askToHandOff(node);
+      }
+    }
+
+    private void askToHandOff(final String node) {
+      eb.send(nodeAddress(node, "handOff"), new JsonObject().putString("resourceId", resourceId),
+          new Handler<Message<JsonObject>>() {
+              @Override
+            public void handle(Message<JsonObject> reply) {
+              if (settled) {
+                return;
+              }
+
+              String status = reply.body.getString("status");
+              if ("retry".equals(status)) {
+                vertx.setTimer(HANDOFF_RETRY_MS, new Handler<Long>() {
+                    @Override
+                  public void handle(Long event) {
+                    if (!settled) {
+                      askToHandOff(node);
+                    }
+                  }
+                });
+                return;
+              }
+
+              pendingNodes.remove(node);
+              if ("ok".equals(status)) {
+                settle(reply.body.getObject("editSession"));
+              } else if (pendingNodes.isEmpty()) {
+                settle(null);
+              }
+            }
+          });
+    }
+
+    private void settle(JsonObject handedOverEditSession) {
+      if (settled) {
+        return;
+      }
+      settled = true;
+      vertx.cancelTimer(timerId);
+      claims.remove(resourceId);
+      claimedIds.add(resourceId);
+
+      if (handedOverEditSession != null && !editSessions.containsKey(resourceId)) {
+        editSessions.put(
+            resourceId, EditSessionHandoff.fromJson(handedOverEditSession, logger));
+        logger.info(String.format("Node [%s] took over edit session [%s]", nodeId, resourceId));
+        publishDirtyPathsIfChanged();
+      }
+      for (Runnable request : heldRequests) {
+        request.run();
+      }
+    }
+  }
+
+  /**
+   * Hands an edit session over to the node that claims it, unless this node still believes it owns
+   * the document, in which case the claimant should ask again once the ring views agree.
+   */
+  class EditSessionReleaser implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      String resourceId = message.body.getString("resourceId");
+      FileEditSession editSession = editSessions.get(resourceId);
+      if (editSession == null) {
+        sendStatus("none", message);
+        return;
+      }
+      if (nodeId.equals(ring.getOwner(resourceId))) {
+        sendStatus("retry", message);
+        return;
+      }
+
+      editSessions.remove(resourceId);
+      sendOK(message, new JsonObject().putObject(
+          "editSession", EditSessionHandoff.toJson((FileEditSessionImpl) editSession)));
+      editSession.close();
+      logger.info(String.format("Node [%s] handed over edit session [%s]", nodeId, resourceId));
+      publishDirtyPathsIfChanged();
+    }
+  }
+
+  /**
+   * Field we stash a resolved resource ID in when routing a request by path to its owning node.
+   */
+  private static final String RESOURCE_ID_TAG = "routedResourceId";
+
+  /** Field marking a request that a node not owning its document has sent on to the owner. */
+  private static final String REROUTED_TAG = "reroutedBy";
+
+  /** How long a forwarded request waits for the owning node's reply. */
+  private static final long FORWARD_TIMEOUT_MS = 10 * 1000;
+
+  /**
+   * How long requests are held while claiming an edit session from the other nodes. Long enough
+   * for their views of the ring to catch up with ours.
+   */
+  private static final long HANDOFF_TIMEOUT_MS = 5 * 1000;
+
+  private static final long HANDOFF_RETRY_MS = 250;
+
+  /** How long to wait for the other nodes' document stats. Less than the metrics snapshot's. */
+  private static final long CLUSTER_STATS_TIMEOUT_MS = 500;
+
+  /**
+   * How long after a ring change the edit sessions now owned elsewhere wait to be claimed before
+   * they are saved and closed.
+   */
+  private static final long RELEASE_DELAY_MS = 30 * 1000;
+
   private final Map<String, FileEditSession> editSessions = new HashMap<String, FileEditSession>();
+
+  /**
+   * The workspace paths of the edit sessions with unsaved changes, as last published on
+   * {@code <addressBase>.dirtyPaths}.
+   */
+  private Set<String> publishedDirtyPaths = new HashSet<String>();
   private final FileSaver fileSaver = new FileSaver();
   private final DocumentMutator documentMutator = new DocumentMutator();
+  private final ConsistentHashRing ring = new ConsistentHashRing();
+  private ClusterMembership membership;
+
+  /** Edit sessions being claimed from the other nodes, by resource ID. */
+  private final Map<String, EditSessionClaim> claims = new HashMap<String, EditSessionClaim>();
+
+  /**
+   * Resource IDs this node has claimed since the ring last changed, so that no other node can
+   * still have their edit sessions.
+   */
+  private final Set<String> claimedIds = new HashSet<String>();
   private String addressBase;
+  private String nodeId;
+
+  /** Times the handlers below. */
+  private EventBusMetrics eventBusMetrics;
+
+  private long saveTimerId;
+
+  private long releaseTimerId = -1;
 
   @Override
   public void start() {
     super.start();
     this.addressBase = getOptionalStringConfig("address", "documents");
-    vertx.eventBus().registerHandler(addressBase + ".mutate", documentMutator);
-    vertx.eventBus().registerHandler(
-        addressBase + ".createEditSession", new EditSessionCreator(true));
-    vertx.eventBus().registerHandler(
-        addressBase + ".getFileContents", new EditSessionCreator(false));
-    vertx.eventBus().registerHandler(addressBase + ".saveAll", fileSaver);
-    vertx.eventBus().registerHandler(addressBase + ".removeEditSession", new EditSessionRemover());
-    vertx.eventBus().registerHandler(addressBase + ".recoverMissedDocop", new DocOpRecoverer());
+    boolean clustered = getOptionalBooleanConfig("cluster", false);
+    this.nodeId = getOptionalStringConfig("nodeId", UUID.randomUUID().toString());
+    eventBusMetrics = new EventBusMetrics(vertx, "EditSessions");
+    eventBusMetrics.start();
+
+    registerDocumentHandler("mutate", documentMutator, clustered);
+    registerDocumentHandler("createEditSession", new EditSessionCreator(true), clustered);
+    registerDocumentHandler("getFileContents", new EditSessionCreator(false), clustered);
+    registerDocumentHandler("removeEditSession", new EditSessionRemover(), clustered);
+    registerDocumentHandler("recoverMissedDocop", new DocOpRecoverer(), clustered);
+    DirtyContentsReader dirtyContentsReader = new DirtyContentsReader();
+    registerDocumentHandler("getDirtyContents", dirtyContentsReader, clustered);
+    if (!clustered) {
+      // The web front ends ask the node that published a dirty path for its contents.
+      eventBusMetrics.registerHandler(nodeAddress(nodeId, "getDirtyContents"), dirtyContentsReader);
+    }
+    eventBusMetrics.registerHandler(addressBase + ".queryDirtyPaths", new DirtyPathsQuery());
+    eventBusMetrics.registerHandler(addressBase + ".saveAll", fileSaver);
+
+    // Stats are per node, so in a cluster each node answers on its own address, and whichever
+    // node is asked for the stats gathers them from all the others.
+    if (clustered) {
+      eventBusMetrics.registerHandler(addressBase + ".getStats", new ClusterStatsGatherer());
+      eventBusMetrics.registerHandler(nodeAddress(nodeId, "getStats"), new DocumentStatsReader());
+    } else {
+      eventBusMetrics.registerHandler(addressBase + ".getStats", new DocumentStatsReader());
+    }
+
+    if (clustered) {
+      eventBusMetrics.registerHandler(nodeAddress(nodeId, "handOff"), new EditSessionReleaser());
+      ring.addNode(nodeId);
+      membership = new ClusterMembership(vertx, nodeId, new ClusterMembership.Listener() {
+          @Override
+        public void onMembershipChanged(Set<String> liveNodes) {
+          ring.setNodes(liveNodes);
+          logger.info(String.format("Node [%s] sees document ring %s", nodeId, ring));
+          // Documents that moved here may have edit sessions on other nodes again.
+          claimedIds.clear();
+          scheduleRelease();
+        }
+      });
+      membership.start();
+    }
 
     // TODO: Handle content changes on disk and synthesize a docop to apply to the in-memory edit
     // session, and broadcast to all clients.
 
     // Set up a regular save interval to flush to disk.
-    vertx.setPeriodic(1500, new Handler<Long>() {
+    saveTimerId = vertx.setPeriodic(1500, new Handler<Long>() {
         @Override
       public void handle(Long event) {
         fileSaver.saveAll();
@@ -412,6 +925,132 @@ public class EditSessions extends BusModBase {
     });
   }
 
+  @Override
+  public void stop() throws Exception {
+    if (membership != null) {
+      membership.stop();
+    }
+    // Nobody will ask us for edited contents anymore.
+    publishedDirtyPaths = new HashSet<String>();
+    publishDirtyPaths();
+    // Timers outlive the verticle otherwise.
+    vertx.cancelTimer(saveTimerId);
+    if (releaseTimerId != -1) {
+      vertx.cancelTimer(releaseTimerId);
+    }
+    eventBusMetrics.stop();
+    super.stop();
+  }
+
+  /**
+   * Registers a handler for a per-document operation. When clustered, the handler listens on an
+   * address private to this node and a {@link DocumentRouter} takes over the public address.
+   */
+  private void registerDocumentHandler(
+      String operation, Handler<Message<JsonObject>> handler, boolean clustered) {
+    if (clustered) {
+      DocumentRouter router = new DocumentRouter(operation);
+      eventBusMetrics.registerHandler(
+          nodeAddress(nodeId, operation), new HandoffGate(handler, router));
+      eventBusMetrics.registerHandler(addressBase + "." + operation, router);
+    } else {
+      eventBusMetrics.registerHandler(addressBase + "." + operation, handler);
+    }
+  }
+
+  private String nodeAddress(String node, String operation) {
+    return addressBase + ".node." + node + "." + operation;
+  }
+
+  /**
+   * Releases the edit sessions owned elsewhere a while after the last ring change, giving their new
+   * owners time to claim them.
+   */
+  private void scheduleRelease() {
+    if (releaseTimerId != -1) {
+      vertx.cancelTimer(releaseTimerId);
+    }
+    releaseTimerId = vertx.setTimer(RELEASE_DELAY_MS, new Handler<Long>() {
+        @Override
+      public void handle(Long event) {
+        releaseTimerId = -1;
+        releaseSessionsOwnedElsewhere();
+      }
+    });
+  }
+
+  /**
+   * Flushes and drops the edit sessions that hash to another node and have not been claimed by it.
+   * The new owner re-reads the file from disk when a client next opens it, and clients that were
+   * editing it are told to reload.
+   */
+  private void releaseSessionsOwnedElsewhere() {
+    final JsonArray movedIds = new JsonArray();
+    for (String resourceId : editSessions.keySet()) {
+      if (!nodeId.equals(ring.getOwner(resourceId))) {
+        movedIds.addString(resourceId);
+      }
+    }
+    if (movedIds.size() == 0) {
+      return;
+    }
+
+    eb.send("tree.getCurrentPaths", new JsonObject().putArray("resourceIds", movedIds),
+        new Handler<Message<JsonObject>>() {
+            @Override
+          public void handle(Message<JsonObject> event) {
+            Iterator<Object> pathIter = event.body.getArray("paths").iterator();
+            for (Object id : movedIds) {
+              String path = pathIter.hasNext() ? (String) pathIter.next() : null;
+              // The ring may have changed back while we were resolving paths.
+              if (nodeId.equals(ring.getOwner((String) id))) {
+                continue;
+              }
+              FileEditSession editSession = editSessions.remove(id);
+              if (editSession == null) {
+                continue;
+              }
+              try {
+                if (path != null && editSession.hasChanges()) {
+                  editSession.save(stripLeadingSlash(path));
+                }
+              } catch (IOException e) {
+                logger.error(String.format("Failed to save file [%s] during handoff", path), e);
+              }
+              editSession.close();
+            }
+            publishDirtyPathsIfChanged();
+          }
+        });
+  }
+
+  /**
+   * Publishes the paths of the edit sessions with unsaved changes if they are not the ones last
+   * published. The web front ends keep the latest set for each node, so that they only ask for the
+   * edited contents of the files that have any, and ask this node directly.
+   */
+  private void publishDirtyPathsIfChanged() {
+    Set<String> dirtyPaths = new HashSet<String>();
+    for (FileEditSession editSession : editSessions.values()) {
+      if (editSession.hasChanges()) {
+        dirtyPaths.add("/" + editSession.getSavedPath());
+      }
+    }
+    if (!dirtyPaths.equals(publishedDirtyPaths)) {
+      publishedDirtyPaths = dirtyPaths;
+      publishDirtyPaths();
+    }
+  }
+
+  private void publishDirtyPaths() {
+    JsonArray paths = new JsonArray();
+    for (String path : publishedDirtyPaths) {
+      paths.addString(path);
+    }
+    eb.publish(addressBase + ".dirtyPaths", new JsonObject().putString("nodeId", nodeId)
+        .putArray("paths", paths));
+  }
+
   /**
    * This verticle needs to take "workspace rooted paths", which begin with a leading '/', and make
    * them relative to the base directory for the associated classloader for this verticle. That is,
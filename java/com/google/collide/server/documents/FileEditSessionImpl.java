@@ -206,6 +206,22 @@ final class FileEditSessionImpl implements FileEditSession {
     logger.debug(String.format("FileEditSession [%s] was created at [%d]", this, createdAt));
   }
 
+  /**
+   * Constructs a {@link FileEditSessionImpl} that carries on from another node's edit session for
+   * the file, with the same document and saved state.
+   */
+  FileEditSessionImpl(String resourceId, String path, VersionedDocument contents,
+      int lastSavedCcRevision, int lastMutationCcRevision, Logger logger) {
+    this.resourceId = resourceId;
+    this.lastSavedPath = path;
+    this.logger = logger;
+    this.contents = contents;
+    this.lastSavedCcRevision = lastSavedCcRevision;
+    this.lastMutationCcRevision = lastMutationCcRevision;
+
+    logger.debug(String.format("FileEditSession [%s] was handed over at [%d]", this, createdAt));
+  }
+
   @Override
   protected void finalize() throws Throwable {
     try {
@@ -294,6 +310,10 @@ final class FileEditSessionImpl implements FileEditSession {
   public int getCcRevision() {
     return lastMutationCcRevision;
   }
+
+  int getLastSavedCcRevision() {
+    return lastSavedCcRevision;
+  }
   
   @Override
   public int getSize() {
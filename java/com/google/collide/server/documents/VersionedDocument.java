@@ -36,8 +36,10 @@ import com.google.collide.shared.ot.Transformer.TransformException;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -87,7 +89,7 @@ public class VersionedDocument {
     public final DocOp docOp;
     public final String authorClientId;
 
-    private AppliedDocOp(DocOp docOp, String authorClientId) {
+    AppliedDocOp(DocOp docOp, String authorClientId) {
       this.docOp = docOp;
       this.authorClientId = authorClientId;
     }
@@ -147,6 +149,8 @@ public class VersionedDocument {
 
   private final Logger logger;
 
+  private final DocumentStats stats = new DocumentStats();
+
   /**
    * Constructs a new {@link VersionedDocument} with the given contents and revision number
    */
@@ -155,6 +159,10 @@ public class VersionedDocument {
     this.contents = contents;
     this.logger = logger;
 
+    // Every collaborator's edits land here, anywhere in the file and with no cursor anchors to
+    // start from, so keep the lines indexed
+    contents.enableLineIndex();
+
     // See javadoc for docOpHistory to understand the null element
     this.docOpHistory = Lists.newArrayList((AppliedDocOp) null);
   }
@@ -167,10 +175,30 @@ public class VersionedDocument {
     this(Document.createFromString(initialContents), 0, logger);
   }
 
+  /**
+   * Constructs a {@link VersionedDocument} that carries on from the given text and the history of
+   * doc ops that formed it, such as a document handed over by another node. The revision number is
+   * the number of doc ops in the history.
+   */
+  VersionedDocument(String text, List<AppliedDocOp> history,
+      Map<String, Integer> lastIntendedCcRevisionPerClient, Logger logger) {
+    this(Document.createFromString(text), history.size(), logger);
+    docOpHistory.addAll(history);
+    this.lastIntendedCcRevisionPerClient.putAll(lastIntendedCcRevisionPerClient);
+  }
+
   public int getCcRevision() {
     return ccRevision;
   }
 
+  /**
+   * Returns how much work consuming doc ops has been for this document, and the shapes of the
+   * recent slow consumes. See {@link DocumentStats}.
+   */
+  public JsonObject getStats() {
+    return stats.toJson(ccRevision, docOpHistory.size() - 1);
+  }
+
   /**
    * Applies the given list of {@link DocOp DocOps} to the backing document.
    *
@@ -193,6 +221,8 @@ public class VersionedDocument {
    */
   private ConsumeResult consumeWithoutLocking(List<? extends DocOp> docOps, String authorClientId,
       int intendedCcRevision, DocumentSelection selection) throws DocumentOperationException {
+    long startNanos = System.nanoTime();
+
     // Check the incoming intended revision against what we last got from this
     // client
     Integer lastIntendedCcRevision = lastIntendedCcRevisionPerClient.get(authorClientId);
@@ -203,6 +233,7 @@ public class VersionedDocument {
         logger.debug(String.format(
             "clientId [%s] already sent a doc op intended for revision [%d]; "
             + "ignoring this one ", authorClientId, intendedCcRevision));
+        stats.recordDropped();
         return null;
       }
 
@@ -212,6 +243,7 @@ public class VersionedDocument {
             "clientId [%s] is sending a doc op intended for revision [%d] older than "
             + "the last one [%d] we saw from that client", authorClientId, intendedCcRevision,
             lastIntendedCcRevision.intValue()));
+        stats.recordDropped();
         return null;
       }
     }
@@ -221,6 +253,7 @@ public class VersionedDocument {
      * all of the doc ops between these ranges. This bridge will be used to update a client doc op
      * that's intended to be applied to a document in the past.
      */
+    long bridgeStartNanos = System.nanoTime();
     DocOp bridgeDocOp = null;
     int bridgeBeginIndex = intendedCcRevision + 1;
     int bridgeEndIndexInclusive = ccRevision;
@@ -238,6 +271,7 @@ public class VersionedDocument {
             docOps);
       }
     }
+    long composeNanos = System.nanoTime() - bridgeStartNanos;
 
     /*
      * Second step, iterate through doc ops from the client and transform each against the bridge.
@@ -245,9 +279,12 @@ public class VersionedDocument {
      * into our map that will be returned to the caller of this method.
      */
     SortedMap<Integer, AppliedDocOp> appliedDocOps = new TreeMap<Integer, AppliedDocOp>();
+    long transformNanos = 0;
+    long applyNanos = 0;
     for (int i = 0, n = docOps.size(); i < n; i++) {
       DocOp clientDocOp = docOps.get(i);
 
+      long transformStartNanos = System.nanoTime();
       if (bridgeDocOp != null) {
         try {
           OperationPair transformedPair =
@@ -264,6 +301,8 @@ public class VersionedDocument {
         }
       }
 
+      long applyStartNanos = System.nanoTime();
+      transformNanos += applyStartNanos - transformStartNanos;
       try {
         DocOpApplier.apply(clientDocOp, contents);
       } catch (Throwable t) {
@@ -275,6 +314,7 @@ public class VersionedDocument {
             bridgeEndIndexInclusive,
             docOps);
       }
+      applyNanos += System.nanoTime() - applyStartNanos;
 
       AppliedDocOp appliedDocOp = new AppliedDocOp(clientDocOp, authorClientId);
       docOpHistory.add(appliedDocOp);
@@ -305,6 +345,9 @@ public class VersionedDocument {
       selection = transformedSelection;
     }
 
+    stats.recordConsume(docOps, authorClientId, intendedCcRevision,
+        bridgeEndIndexInclusive - bridgeBeginIndex + 1, composeNanos, transformNanos, applyNanos,
+        System.nanoTime() - startNanos);
     return new ConsumeResult(appliedDocOps, selection);
   }
 
@@ -314,7 +357,8 @@ public class VersionedDocument {
       int bridgeBeginIndex,
       int bridgeEndIndexInclusive,
       List<? extends DocOp> clientDocOps) {
-    
+    stats.recordFailure();
+
     StringBuilder msg = new StringBuilder(customMessage).append('\n');
 
     msg.append("ccRevision: ").append(ccRevision).append('\n');
@@ -326,7 +370,8 @@ public class VersionedDocument {
         .append(" doc ops:\n")
         .append(docOpHistory.subList(bridgeBeginIndex, bridgeEndIndexInclusive + 1))
         .append("\n");
-    msg.append("Document (hyphens are line separators):\n").append(contents.asDebugString());
+    // The document itself is left out; it can be large, and the doc ops say what went wrong.
+    msg.append("Document: ").append(contents.getLineCount()).append(" lines\n");
     msg.append("Client doc ops:\n")
         .append(DocOpUtils.toString(clientDocOps, 0, clientDocOps.size() - 1, true)).append("\n");
     msg.append("Recent doc ops from server history:\n").append(docOpHistoryToString());
@@ -334,6 +379,13 @@ public class VersionedDocument {
     return new DocumentOperationException(msg.toString(), e);
   }
 
+  /**
+   * Returns the revision each client last intended a doc op for, which is used to drop retries.
+   */
+  Map<String, Integer> getLastIntendedCcRevisions() {
+    return Collections.unmodifiableMap(lastIntendedCcRevisionPerClient);
+  }
+
   public SortedMap<Integer, AppliedDocOp> getAppliedDocOps(int startingCcRevision) {
     SortedMap<Integer, AppliedDocOp> appliedDocOps = new TreeMap<Integer, AppliedDocOp>();
     if (startingCcRevision > (docOpHistory.size() - 1)) {
@@ -0,0 +1,184 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.fe;
+
+import com.google.collide.server.metrics.EventBusMetrics;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authorises session IDs against the Participants verticle, remembering successful results for a
+ * short time so that page loads and event bus bridge connections from a session that was recently
+ * authorised don't each need a round trip to the single Participants instance.
+ *
+ * <p>
+ * Denials are never cached, and entries are dropped as soon as Participants announces that the
+ * session has logged out, so the TTL only bounds how stale a cached result can be if that
+ * announcement is missed.
+ */
+class CachingAuthoriser {
+
+  private static final String PARTICIPANTS_ADDRESS = "participants";
+  private static final long DEFAULT_TTL_MS = 30 * 1000;
+  private static final long MAX_CACHED_SESSIONS = 10000;
+
+  /**
+   * Receives the result of an authorisation.
+   */
+  interface Callback {
+    /**
+     * @param username the name of the user that owns the session
+     */
+    void onAuthorised(String username);
+
+    void onDenied();
+  }
+
+  private final EventBus eb;
+  private final EventBusMetrics eventBusMetrics;
+
+  /**
+   * Map of session IDs and requested usernames, see {@link #cacheKey}, to the username that
+   * Participants authorised them as. The requested username is part of the key because without a
+   * password Participants authorises any session ID as the username it is asked for.
+   */
+  private final Cache<String, String> authorisedSessions;
+
+  /** Per-instance address that the SockJS bridge authorises through. */
+  private final String bridgeAuthAddress = "fe.authorise." + UUID.randomUUID();
+
+  CachingAuthoriser(EventBus eb, EventBusMetrics eventBusMetrics, long ttlMs) {
+    this.eb = eb;
+    this.eventBusMetrics = eventBusMetrics;
+    this.authorisedSessions = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_SESSIONS)
+        .expireAfterWrite(ttlMs <= 0 ? DEFAULT_TTL_MS : ttlMs, TimeUnit.MILLISECONDS).build();
+  }
+
+  /**
+   * Registers the bridge authorisation handler and starts listening for logouts.
+   */
+  void start() {
+    eventBusMetrics.registerHandler(bridgeAuthAddress, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(final Message<JsonObject> message) {
+        authorise(message.body.getString("sessionID"), message.body.getString("username"),
+            new Callback() {
+              @Override
+              public void onAuthorised(String username) {
+                message.reply(new JsonObject().putString("status", "ok")
+                    .putString("username", username));
+              }
+
+              @Override
+              public void onDenied() {
+                message.reply(new JsonObject().putString("status", "denied"));
+              }
+            });
+      }
+    });
+
+    eventBusMetrics.registerHandler(
+        PARTICIPANTS_ADDRESS + ".loggedOut", new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> message) {
+            String sessionId = message.body.getString("sessionID");
+            if (sessionId != null) {
+              invalidateSession(sessionId);
+            }
+          }
+        });
+  }
+
+  /**
+   * @return the address to give the SockJS bridge as its {@code auth_address}
+   */
+  String getBridgeAuthAddress() {
+    return bridgeAuthAddress;
+  }
+
+  void authorise(final String sessionId, String username, final Callback callback) {
+    if (sessionId == null) {
+      callback.onDenied();
+      return;
+    }
+
+    final String cacheKey = cacheKey(sessionId, username);
+    String cachedUsername = authorisedSessions.getIfPresent(cacheKey);
+    if (cachedUsername != null) {
+      callback.onAuthorised(cachedUsername);
+      return;
+    }
+
+    JsonObject request = new JsonObject().putString("sessionID", sessionId);
+    if (username != null) {
+      request.putString("username", username);
+    }
+    eb.send(PARTICIPANTS_ADDRESS + ".authorise", request, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> reply) {
+        String authorisedUsername = reply.body.getString("username");
+        if ("ok".equals(reply.body.getString("status")) && authorisedUsername != null) {
+          authorisedSessions.put(cacheKey, authorisedUsername);
+          callback.onAuthorised(authorisedUsername);
+        } else {
+          callback.onDenied();
+        }
+      }
+    });
+  }
+
+  /**
+   * Prefixes the session ID with its length so that no other session ID and username can make the
+   * same key.
+   */
+  private static String cacheKey(String sessionId, String username) {
+    return sessionKeyPrefix(sessionId) + (username == null ? "" : username);
+  }
+
+  private static String sessionKeyPrefix(String sessionId) {
+    return sessionId.length() + ":" + sessionId;
+  }
+
+  private void invalidateSession(String sessionId) {
+    String prefix = sessionKeyPrefix(sessionId);
+    for (Iterator<String> it = authorisedSessions.asMap().keySet().iterator(); it.hasNext();) {
+      if (it.next().startsWith(prefix)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Registers a new tab for an authorised session with Participants. The tab's ID is allocated
+   * here, so the host page can be written without waiting for a reply.
+   *
+   * @return the new tab's active client ID
+   */
+  String addTab(String sessionId, String username) {
+    String activeClient = UUID.randomUUID().toString();
+    eb.send(PARTICIPANTS_ADDRESS + ".addTab", new JsonObject().putString("sessionID", sessionId)
+        .putString("username", username).putString("activeClient", activeClient));
+    return activeClient;
+  }
+}
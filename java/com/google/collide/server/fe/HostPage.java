@@ -0,0 +1,298 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.fe;
+
+import com.google.collide.dto.shared.JsonFieldConstants;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import org.vertx.java.core.buffer.Buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Renders the host page that bootstraps the GWT client.
+ *
+ * <p>
+ * Everything except the bootstrap session object is the same for every request, so the page is
+ * kept as two pre-encoded byte arrays that the per-session JSON is spliced between. The head also
+ * carries preload hints for the scripts the client needs; when the GWT compiler's
+ * {@code compilation-mappings.txt} lets us tell which permutation the browser will select, that
+ * permutation is hinted too so it downloads in parallel with the SockJS setup.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+class HostPage {
+
+  private static final String MODULE_NAME = "com.google.collide.client.Collide";
+  private static final String MODULE_PATH = "/static/" + MODULE_NAME + "/";
+  private static final String COMPILATION_MAPPINGS = "compilation-mappings.txt";
+
+  /** How often page loads check whether the client was recompiled. */
+  private static final long DEFAULT_MAPPINGS_CHECK_INTERVAL_MS = 5 * 1000;
+
+  private static final String[] SCRIPTS = {"/static/sockjs-0.2.1.min.js", "/static/vertxbus.js",
+      MODULE_PATH + MODULE_NAME + ".nocache.js"};
+
+  /** Sentinel key for the template used when no single permutation matches. */
+  private static final String NO_PERMUTATION = "";
+
+  /**
+   * A compiled permutation and the deferred binding property values that select it.
+   */
+  private static class Permutation {
+    final String fileName;
+    final Map<String, String> properties = Maps.newHashMap();
+
+    Permutation(String fileName) {
+      this.fileName = fileName;
+    }
+  }
+
+  private final File mappingsFile;
+  private final long mappingsCheckIntervalMs;
+  private final byte[] suffix;
+
+  /** Map of permutation file names to the head of the page that hints them. */
+  private final ConcurrentMap<String, byte[]> prefixes = new ConcurrentHashMap<String, byte[]>();
+
+  private volatile List<Permutation> permutations = Collections.emptyList();
+  private volatile long mappingsLastModified = -1;
+  private volatile long mappingsCheckedAt;
+
+  HostPage(String bundledStaticFilesPrefix) {
+    this(bundledStaticFilesPrefix, DEFAULT_MAPPINGS_CHECK_INTERVAL_MS);
+  }
+
+  /**
+   * @param mappingsCheckIntervalMs how long to go without checking the modification time of the
+   *        mappings file, 0 to check it on every page load
+   */
+  HostPage(String bundledStaticFilesPrefix, long mappingsCheckIntervalMs) {
+    this.mappingsFile =
+        new File(bundledStaticFilesPrefix + MODULE_NAME + File.separator + COMPILATION_MAPPINGS);
+    this.mappingsCheckIntervalMs = mappingsCheckIntervalMs;
+    this.suffix = encode(renderSuffix());
+  }
+
+  /**
+   * Renders the host page for the given session.
+   *
+   * @param userAgent the browser's User-Agent header, used to pick the permutation to preload
+   * @param query the request's query string, may be null
+   */
+  Buffer render(String userId, String username, String activeClientId, String userAgent,
+      String query) {
+    String permutation = selectPermutation(userAgent, query);
+    byte[] prefix = prefixes.get(permutation);
+    if (prefix == null) {
+      prefix = encode(renderPrefix(permutation));
+      prefixes.putIfAbsent(permutation, prefix);
+    }
+
+    byte[] bootstrap = encode(renderBootstrapJson(userId, username, activeClientId));
+    return new Buffer(prefix.length + bootstrap.length + suffix.length).appendBytes(prefix)
+        .appendBytes(bootstrap).appendBytes(suffix);
+  }
+
+  private String renderPrefix(String permutation) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<html>\n");
+    sb.append("  <head>\n");
+
+    // Hint the scripts the page is going to need so they download in parallel.
+    for (String script : SCRIPTS) {
+      sb.append("<link rel=\"preload\" href=\"").append(script).append("\" as=\"script\">\n");
+    }
+    if (permutation.endsWith(".js")) {
+      sb.append("<link rel=\"preload\" href=\"").append(MODULE_PATH).append(permutation)
+          .append("\" as=\"script\">\n");
+    } else if (!permutation.equals(NO_PERMUTATION)) {
+      // The iframe linker loads .cache.html into a frame, which preload cannot target. Prefetch it
+      // into the HTTP cache instead; permutations are served as cacheable forever.
+      sb.append("<link rel=\"prefetch\" href=\"").append(MODULE_PATH).append(permutation)
+          .append("\">\n");
+    }
+
+    // Include Javascript dependencies.
+    for (String script : SCRIPTS) {
+      sb.append("<script src=\"").append(script).append("\"></script>\n");
+    }
+    return sb.toString();
+  }
+
+  private static String renderSuffix() {
+    StringBuilder sb = new StringBuilder();
+    emitDefaultStyles(sb);
+    sb.append("  </head>\n<body><div id='gwt_root'></div></body>\n</html>");
+    return sb.toString();
+  }
+
+  private static void emitDefaultStyles(StringBuilder sb) {
+    sb.append("<style>\n#gwt_root {\n")
+      .append("position: absolute;\n")
+      .append("top: 0;\n")
+      .append("left: 0;\n")
+      .append("bottom: 0;\n")
+      .append("right: 0;\n")
+      .append("}\n</style>");
+  }
+
+  private static String renderBootstrapJson(
+      String userId, String username, String activeClientId) {
+    StringBuilder sb = new StringBuilder(128);
+    sb.append("<script>\n").append("window['__session'] = {\n")
+        .append(JsonFieldConstants.SESSION_USER_ID).append(": \"").append(userId).append("\",\n")
+        .append(JsonFieldConstants.SESSION_ACTIVE_ID).append(": \"").append(activeClientId)
+        .append("\",\n").append(JsonFieldConstants.SESSION_USERNAME).append(": \"")
+        .append(username).append("\"\n}\n").append("</script>");
+    return sb.toString();
+  }
+
+  /**
+   * Picks the permutation the GWT selection script will load for this browser, by evaluating the
+   * module's property providers against the User-Agent header.
+   *
+   * @return the permutation's file name, or {@link #NO_PERMUTATION} if it is ambiguous
+   */
+  private String selectPermutation(String userAgent, String query) {
+    if (userAgent == null) {
+      return NO_PERMUTATION;
+    }
+
+    Map<String, String> properties = getPropertyValues(userAgent.toLowerCase(), query);
+    String match = NO_PERMUTATION;
+    for (Permutation permutation : getPermutations()) {
+      if (matches(permutation, properties)) {
+        if (!match.equals(NO_PERMUTATION)) {
+          return NO_PERMUTATION;
+        }
+        match = permutation.fileName;
+      }
+    }
+    return match;
+  }
+
+  private static boolean matches(Permutation permutation, Map<String, String> properties) {
+    for (Map.Entry<String, String> entry : permutation.properties.entrySet()) {
+      String value = properties.get(entry.getKey());
+      if (value != null && !value.equals(entry.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Mirrors the property providers in Collide.gwt.xml and GWT's UserAgent module.
+   */
+  private static Map<String, String> getPropertyValues(String ua, String query) {
+    Map<String, String> properties = Maps.newHashMap();
+    if (ua.contains("webkit")) {
+      properties.put("user.agent", "safari");
+    } else if (ua.contains("gecko")) {
+      properties.put("user.agent", "gecko1_8");
+    }
+
+    properties.put("webide.debuggingApi", ua.contains("chrome") ? "chrome" : "none");
+
+    if (ua.contains("(macintosh;")) {
+      properties.put("webide.clientOs", "macintosh");
+    } else if (ua.contains("(windows;")) {
+      properties.put("webide.clientOs", "windows");
+    } else if (ua.contains("(x11;")) {
+      properties.put("webide.clientOs", "x11");
+    } else {
+      properties.put("webide.clientOs", "other");
+    }
+
+    boolean debug = query != null && query.matches("(.*&)?debug([=&].*)?");
+    properties.put("webide.release_mode", debug ? "debug" : "release");
+    return properties;
+  }
+
+  /**
+   * Returns the compiled permutations, re-reading the mappings file when the client is recompiled.
+   * The file is only checked every {@link #mappingsCheckIntervalMs}, so that page loads don't each
+   * stat it.
+   */
+  private List<Permutation> getPermutations() {
+    long now = System.currentTimeMillis();
+    if (mappingsCheckedAt != 0 && now - mappingsCheckedAt < mappingsCheckIntervalMs) {
+      return permutations;
+    }
+    mappingsCheckedAt = now;
+
+    long lastModified = mappingsFile.lastModified();
+    if (lastModified != mappingsLastModified) {
+      synchronized (this) {
+        if (lastModified != mappingsLastModified) {
+          permutations = readPermutations(mappingsFile);
+          prefixes.clear();
+          mappingsLastModified = lastModified;
+        }
+      }
+    }
+    return permutations;
+  }
+
+  /**
+   * Parses {@code compilation-mappings.txt}, which holds blocks of a permutation file name
+   * followed by one "property value" line per deferred binding property, separated by blank lines.
+   */
+  private static List<Permutation> readPermutations(File mappingsFile) {
+    List<Permutation> result = Lists.newArrayList();
+    if (!mappingsFile.isFile()) {
+      return result;
+    }
+
+    List<String> lines;
+    try {
+      lines = Files.readLines(mappingsFile, Charsets.UTF_8);
+    } catch (IOException e) {
+      return result;
+    }
+
+    Permutation current = null;
+    for (String line : lines) {
+      line = line.trim();
+      if (line.isEmpty()) {
+        current = null;
+      } else if (current == null) {
+        current = new Permutation(line);
+        result.add(current);
+      } else {
+        int space = line.indexOf(' ');
+        if (space > 0) {
+          current.properties.put(line.substring(0, space), line.substring(space + 1).trim());
+        }
+      }
+    }
+    return result;
+  }
+
+  private static byte[] encode(String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+}
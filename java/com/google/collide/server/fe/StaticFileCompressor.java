@@ -0,0 +1,77 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.fe;
+
+import com.google.common.io.Files;
+
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and gzips files for the {@link StaticFileServer}, off the WebFE event loops. It must be
+ * deployed as a worker.
+ *
+ * <p>
+ * Requests and replies are buffers rather than JSON, since the local event bus copies JSON
+ * messages by encoding them and would base64 the compressed file. A request is the UTF-8 encoding
+ * of {@code {path, lastModified, length}}, and the reply is the gzipped file, or empty if the file
+ * could not be read or no longer has that modification time and length.
+ */
+public class StaticFileCompressor extends BusModBase {
+
+  @Override
+  public void start() {
+    super.start();
+    eb.registerHandler(getMandatoryStringConfig("address"), new Handler<Message<Buffer>>() {
+      @Override
+      public void handle(Message<Buffer> message) {
+        JsonObject request = new JsonObject(message.body.toString());
+        File file = new File(request.getString("path"));
+        byte[] gzipped = new byte[0];
+        try {
+          byte[] contents = Files.toByteArray(file);
+          if (file.lastModified() == request.getNumber("lastModified").longValue()
+              && contents.length == request.getNumber("length").longValue()) {
+            gzipped = gzip(contents);
+          }
+        } catch (IOException e) {
+          // Reply empty, and the file is sent uncompressed.
+        }
+        message.reply(new Buffer(gzipped));
+      }
+    });
+  }
+
+  static Buffer createRequest(String path, long lastModified, long length) {
+    return new Buffer(new JsonObject().putString("path", path)
+        .putNumber("lastModified", lastModified).putNumber("length", length).encode());
+  }
+
+  private static byte[] gzip(byte[] contents) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 4 + 64);
+    GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+    gzipOut.write(contents);
+    gzipOut.close();
+    return out.toByteArray();
+  }
+}
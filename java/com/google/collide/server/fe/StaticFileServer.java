@@ -0,0 +1,525 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.fe;
+
+import com.google.collide.shared.MimeTypes;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.AtomicLongMap;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.file.AsyncFile;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.deploy.Container;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Serves files from disk with HTTP validators ({@code ETag}, {@code Last-Modified}), conditional
+ * request support, single byte-range requests, {@code Cache-Control} policies and gzip
+ * compression.
+ *
+ * <p>
+ * Compressed responses come from a {@code .gz} sibling of the file when one is present and up to
+ * date, and otherwise are compressed on the fly by a {@link StaticFileCompressor} worker and kept
+ * in a bounded in-memory cache. Whether a response is compressed is decided before its
+ * {@code ETag}, so that the validators always describe what is sent. Uncompressed
+ * responses go through {@link HttpServerResponse#sendFile}, which does not copy the file through
+ * user space. Byte ranges are streamed from disk in chunks, since sendFile can only send a whole
+ * file.
+ *
+ * <p>
+ * A single instance is shared by all of the WebFE verticle instances, so it is thread-safe.
+ */
+class StaticFileServer {
+
+  /** GWT permutations have content hashes in their names, so they never change. */
+  private static final String GWT_CACHEABLE_MARKER = ".cache.";
+  private static final String CACHE_FOREVER = "public, max-age=31536000";
+  private static final String ALWAYS_REVALIDATE = "no-cache";
+
+  private static final String PRECOMPRESSED_SUFFIX = ".gz";
+  private static final String GZIP = "gzip";
+
+  private static final long DEFAULT_MAX_CACHE_BYTES = 32 * 1024 * 1024;
+  private static final long DEFAULT_MAX_COMPRESSIBLE_FILE_SIZE = 8 * 1024 * 1024;
+
+  private static final int RANGE_CHUNK_SIZE = 64 * 1024;
+
+  /** How long to wait for the compressor before sending a file uncompressed. */
+  private static final long COMPRESS_TIMEOUT_MS = 10 * 1000;
+
+  /** Returned by {@link #parseRange} when the requested range lies outside the file. */
+  private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+  private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+  private static StaticFileServer instance;
+
+  /**
+   * Returns the shared instance, creating it with the given limits and deploying its compressor on
+   * first use.
+   */
+  static synchronized StaticFileServer getInstance(
+      Vertx vertx, Container container, JsonObject config) {
+    if (instance == null) {
+      Number maxCacheBytes = config.getNumber("gzipCacheBytes");
+      instance = new StaticFileServer(vertx,
+          maxCacheBytes == null ? DEFAULT_MAX_CACHE_BYTES : maxCacheBytes.longValue(),
+          DEFAULT_MAX_COMPRESSIBLE_FILE_SIZE);
+      container.deployWorkerVerticle(StaticFileCompressor.class.getName(),
+          new JsonObject().putString("address", instance.compressorAddress));
+    }
+    return instance;
+  }
+
+  /**
+   * A compressed file, along with the validators of the file it was compressed from.
+   */
+  private static class CompressedFile {
+    final long lastModified;
+    final long length;
+    final byte[] gzipped;
+
+    CompressedFile(long lastModified, long length, byte[] gzipped) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.gzipped = gzipped;
+    }
+  }
+
+  /**
+   * Streams a byte range of a file to a response, one chunk at a time, waiting for the response to
+   * drain whenever its write queue fills up.
+   */
+  private static class RangeSender implements AsyncResultHandler<Buffer> {
+    private final AsyncFile file;
+    private final HttpServerResponse response;
+    private final long end;
+    private long position;
+
+    RangeSender(AsyncFile file, HttpServerResponse response, long start, long end) {
+      this.file = file;
+      this.response = response;
+      this.position = start;
+      this.end = end;
+    }
+
+    void sendNextChunk() {
+      if (position > end) {
+        file.close();
+        response.end();
+        return;
+      }
+      int length = (int) Math.min(RANGE_CHUNK_SIZE, end - position + 1);
+      file.read(new Buffer(length), 0, (int) position, length, this);
+    }
+
+    @Override
+    public void handle(AsyncResult<Buffer> result) {
+      if (result.failed() || result.result.length() == 0) {
+        // The file went away or shrank after we promised a Content-Length. All we can do is hang up.
+        file.close();
+        response.close();
+        return;
+      }
+
+      position += result.result.length();
+      response.write(result.result);
+      if (response.writeQueueFull()) {
+        response.drainHandler(new Handler<Void>() {
+          @Override
+          public void handle(Void event) {
+            sendNextChunk();
+          }
+        });
+      } else {
+        sendNextChunk();
+      }
+    }
+  }
+
+  private final Vertx vertx;
+
+  /**
+   * Private address of the compressor, which reads any file it is asked to, so that clients
+   * cannot reach it through the event bus bridge.
+   */
+  private final String compressorAddress = "fe.compress." + UUID.randomUUID();
+
+  private final long maxCompressibleFileSize;
+  private final Cache<String, CompressedFile> compressedFiles;
+
+  /** Requests answered without reading the file: 304s and compressed cache hits. */
+  private final AtomicLongMap<String> hits = AtomicLongMap.create();
+
+  /** Requests that had to read the file from disk. */
+  private final AtomicLongMap<String> misses = AtomicLongMap.create();
+
+  StaticFileServer(Vertx vertx, long maxCacheBytes, long maxCompressibleFileSize) {
+    this.vertx = vertx;
+    this.maxCompressibleFileSize = maxCompressibleFileSize;
+    this.compressedFiles = CacheBuilder.newBuilder().maximumWeight(maxCacheBytes)
+        .weigher(new Weigher<String, CompressedFile>() {
+          @Override
+          public int weigh(String path, CompressedFile file) {
+            return file.gzipped.length;
+          }
+        }).build();
+  }
+
+  /**
+   * Serves the file at {@code filePath} in response to {@code req}.
+   */
+  void serve(HttpServerRequest req, String filePath) {
+    HttpServerResponse response = req.response;
+    File file = new File(filePath);
+    if (!file.isFile()) {
+      sendStatusCode(response, HttpStatus.SC_NOT_FOUND);
+      return;
+    }
+
+    long lastModified = file.lastModified();
+    long length = file.length();
+    String contentType = MimeTypes.guessMimeType(filePath, false);
+    String rangeHeader = req.headers().get("Range");
+
+    // Ranges are always served from the uncompressed file, and files too big to compress in
+    // memory only compressed if they have been precompressed.
+    File precompressed = new File(filePath + PRECOMPRESSED_SUFFIX);
+    boolean gzip = isCompressible(contentType) && acceptsGzip(req) && rangeHeader == null;
+    boolean usePrecompressed =
+        gzip && precompressed.isFile() && precompressed.lastModified() >= lastModified;
+    gzip &= usePrecompressed || length <= maxCompressibleFileSize;
+    String etag = etag(lastModified, length, gzip);
+
+    response.putHeader("Cache-Control", getCacheControl(filePath));
+    response.putHeader("Last-Modified", formatHttpDate(lastModified));
+    response.putHeader("ETag", etag);
+    response.putHeader("Accept-Ranges", "bytes");
+    if (isCompressible(contentType)) {
+      response.putHeader("Vary", "Accept-Encoding");
+    }
+
+    if (isNotModified(req, etag, lastModified)) {
+      hits.incrementAndGet(filePath);
+      sendStatusCode(response, HttpStatus.SC_NOT_MODIFIED);
+      return;
+    }
+
+    response.putHeader("Content-Type", contentType);
+    if (rangeHeader != null && isRangeCurrent(req, etag, lastModified)) {
+      long[] range = parseRange(rangeHeader, length);
+      if (range == UNSATISFIABLE_RANGE) {
+        response.putHeader("Content-Range", "bytes */" + length);
+        sendStatusCode(response, HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      // AsyncFile can only read from int positions; past that, fall back to the whole file.
+      if (range != null && range[1] <= Integer.MAX_VALUE) {
+        misses.incrementAndGet(filePath);
+        sendFileRange(response, filePath, range[0], range[1], length);
+        return;
+      }
+    }
+
+    if (!gzip) {
+      misses.incrementAndGet(filePath);
+      response.sendFile(filePath);
+      return;
+    }
+
+    if (usePrecompressed) {
+      misses.incrementAndGet(filePath);
+      response.putHeader("Content-Encoding", GZIP);
+      response.sendFile(precompressed.getPath());
+      return;
+    }
+
+    CompressedFile compressed = compressedFiles.getIfPresent(filePath);
+    if (compressed != null && compressed.lastModified == lastModified
+        && compressed.length == length) {
+      hits.incrementAndGet(filePath);
+      sendCompressed(response, compressed.gzipped);
+      return;
+    }
+
+    misses.incrementAndGet(filePath);
+    compressAndSend(response, filePath, lastModified, length);
+  }
+
+  /**
+   * Has the compressor gzip the file, then caches and sends the result. If the compressor fails or
+   * does not answer in time, the file is sent uncompressed with the matching {@code ETag}.
+   */
+  private void compressAndSend(final HttpServerResponse response, final String filePath,
+      final long lastModified, final long length) {
+    final long timerId = vertx.setTimer(COMPRESS_TIMEOUT_MS, new Handler<Long>() {
+      @Override
+      public void handle(Long event) {
+        sendUncompressed(response, filePath, lastModified, length);
+      }
+    });
+
+    vertx.eventBus().send(compressorAddress,
+        StaticFileCompressor.createRequest(filePath, lastModified, length),
+        new Handler<Message<Buffer>>() {
+          @Override
+          public void handle(Message<Buffer> reply) {
+            if (!vertx.cancelTimer(timerId)) {
+              // Timed out, and the file was already sent.
+              return;
+            }
+
+            if (reply.body.length() == 0) {
+              sendUncompressed(response, filePath, lastModified, length);
+              return;
+            }
+            byte[] gzipped = reply.body.getBytes();
+            compressedFiles.put(filePath, new CompressedFile(lastModified, length, gzipped));
+            sendCompressed(response, gzipped);
+          }
+        });
+  }
+
+  private static void sendCompressed(HttpServerResponse response, byte[] gzipped) {
+    response.statusCode = HttpStatus.SC_OK;
+    response.putHeader("Content-Encoding", GZIP);
+    response.putHeader("Content-Length", gzipped.length);
+    response.end(new Buffer(gzipped));
+  }
+
+  private static void sendUncompressed(
+      HttpServerResponse response, String filePath, long lastModified, long length) {
+    response.headers().put("ETag", etag(lastModified, length, false));
+    response.sendFile(filePath);
+  }
+
+  /**
+   * Serves in-memory contents for {@code path}, such as the unsaved text of a file that is being
+   * edited. The contents are never cached.
+   */
+  void serveContents(HttpServerRequest req, String path, byte[] contents) {
+    HttpServerResponse response = req.response;
+    response.putHeader("Cache-Control", "no-store");
+    response.putHeader("Accept-Ranges", "bytes");
+    response.putHeader("Content-Type", MimeTypes.guessMimeType(path, false));
+
+    String rangeHeader = req.headers().get("Range");
+    long[] range = rangeHeader == null ? null : parseRange(rangeHeader, contents.length);
+    if (range == UNSATISFIABLE_RANGE) {
+      response.putHeader("Content-Range", "bytes */" + contents.length);
+      sendStatusCode(response, HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    Buffer body;
+    if (range == null) {
+      response.statusCode = HttpStatus.SC_OK;
+      body = new Buffer(contents);
+    } else {
+      int start = (int) range[0];
+      int end = (int) range[1];
+      response.statusCode = HttpStatus.SC_PARTIAL_CONTENT;
+      response.putHeader("Content-Range", "bytes " + start + "-" + end + "/" + contents.length);
+      body = new Buffer(end - start + 1).appendBytes(
+          Arrays.copyOfRange(contents, start, end + 1));
+    }
+    response.putHeader("Content-Length", body.length());
+    response.end(body);
+  }
+
+  private void sendFileRange(final HttpServerResponse response, String filePath, final long start,
+      final long end, long length) {
+    response.statusCode = HttpStatus.SC_PARTIAL_CONTENT;
+    response.putHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+    response.putHeader("Content-Length", end - start + 1);
+    vertx.fileSystem().open(filePath, null, true, false, false, new AsyncResultHandler<AsyncFile>() {
+      @Override
+      public void handle(AsyncResult<AsyncFile> result) {
+        if (result.failed()) {
+          response.headers().clear();
+          sendStatusCode(response, HttpStatus.SC_NOT_FOUND);
+          return;
+        }
+        new RangeSender(result.result, response, start, end).sendNextChunk();
+      }
+    });
+  }
+
+  /**
+   * Parses a {@code Range} header for a resource of the given length. Only a single range is
+   * supported; for anything else we are allowed to ignore the header and send the whole resource.
+   *
+   * @return the first and last byte positions, {@link #UNSATISFIABLE_RANGE}, or null if the header
+   *         should be ignored
+   */
+  static long[] parseRange(String rangeHeader, long length) {
+    String value = rangeHeader.trim();
+    if (!value.startsWith("bytes=") || value.indexOf(',') != -1) {
+      return null;
+    }
+
+    value = value.substring("bytes=".length()).trim();
+    int dash = value.indexOf('-');
+    if (dash == -1) {
+      return null;
+    }
+
+    long start;
+    long end;
+    try {
+      String first = value.substring(0, dash).trim();
+      String last = value.substring(dash + 1).trim();
+      if (first.isEmpty()) {
+        // A suffix range: the last N bytes.
+        long suffixLength = Long.parseLong(last);
+        if (suffixLength == 0) {
+          return UNSATISFIABLE_RANGE;
+        }
+        start = Math.max(0, length - suffixLength);
+        end = length - 1;
+      } else {
+        start = Long.parseLong(first);
+        end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+        if (end < start && start < length) {
+          return null;
+        }
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+
+    if (start >= length || start < 0) {
+      return UNSATISFIABLE_RANGE;
+    }
+    return new long[] {start, end};
+  }
+
+  /**
+   * @return per-path hit and miss counts, as {@code {path: {hits: n, misses: m}}}
+   */
+  JsonObject getStats() {
+    JsonObject stats = new JsonObject();
+    for (Map.Entry<String, Long> entry : misses.asMap().entrySet()) {
+      stats.putObject(entry.getKey(), new JsonObject().putNumber("hits", hits.get(entry.getKey()))
+          .putNumber("misses", entry.getValue()));
+    }
+    for (Map.Entry<String, Long> entry : hits.asMap().entrySet()) {
+      if (stats.getObject(entry.getKey()) == null) {
+        stats.putObject(entry.getKey(),
+            new JsonObject().putNumber("hits", entry.getValue()).putNumber("misses", 0));
+      }
+    }
+    return new JsonObject().putObject("paths", stats)
+        .putNumber("gzipCacheEntries", compressedFiles.size());
+  }
+
+  static String getCacheControl(String filePath) {
+    return filePath.contains(GWT_CACHEABLE_MARKER) ? CACHE_FOREVER : ALWAYS_REVALIDATE;
+  }
+
+  static boolean isCompressible(String contentType) {
+    return contentType.startsWith("text/") || contentType.equals("application/javascript")
+        || contentType.equals(MimeTypes.JSON) || contentType.equals("image/svg+xml");
+  }
+
+  private static boolean acceptsGzip(HttpServerRequest req) {
+    String acceptEncoding = req.headers().get("Accept-Encoding");
+    return acceptEncoding != null && acceptEncoding.contains(GZIP);
+  }
+
+  private static String etag(long lastModified, long length, boolean gzip) {
+    return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length)
+        + (gzip ? "-gz\"" : "\"");
+  }
+
+  private static boolean isNotModified(HttpServerRequest req, String etag, long lastModified) {
+    String ifNoneMatch = req.headers().get("If-None-Match");
+    if (ifNoneMatch != null) {
+      // If-None-Match takes precedence over If-Modified-Since when both are present.
+      for (String candidate : ifNoneMatch.split(",")) {
+        candidate = candidate.trim();
+        if (candidate.equals("*") || candidate.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    String ifModifiedSince = req.headers().get("If-Modified-Since");
+    if (ifModifiedSince != null) {
+      Date since = parseHttpDate(ifModifiedSince);
+      // HTTP dates have second granularity.
+      return since != null && lastModified / 1000 <= since.getTime() / 1000;
+    }
+    return false;
+  }
+
+  /**
+   * Checks an {@code If-Range} precondition. If it fails the client's partial copy is stale, and
+   * the range must be ignored in favour of sending the whole file.
+   */
+  private static boolean isRangeCurrent(HttpServerRequest req, String etag, long lastModified) {
+    String ifRange = req.headers().get("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"")) {
+      return ifRange.equals(etag);
+    }
+    Date date = parseHttpDate(ifRange);
+    return date != null && lastModified / 1000 == date.getTime() / 1000;
+  }
+
+  static String formatHttpDate(long time) {
+    SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(new Date(time));
+  }
+
+  static Date parseHttpDate(String value) {
+    SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return format.parse(value);
+    } catch (ParseException e) {
+      return null;
+    }
+  }
+
+  private static void sendStatusCode(HttpServerResponse response, int statusCode) {
+    response.statusCode = statusCode;
+    response.end();
+  }
+}
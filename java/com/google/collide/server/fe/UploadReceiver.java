@@ -0,0 +1,216 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.fe;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.file.AsyncFile;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Receives the files of an upload session. Each file is one request to
+ * {@code /_upload?sessionId=...&path=...}, where the path is the workspace path that the session
+ * declared for it.
+ *
+ * <p>
+ * A {@code PUT} or {@code POST} streams the request body straight into the file that the upload
+ * sessions verticle staged for it, writing each chunk as it arrives and pausing the request while
+ * too many writes are outstanding, so a file is never held in memory. An interrupted transfer is
+ * resumed by sending the rest of the file with an {@code offset} parameter. A {@code GET} replies
+ * with how many bytes of the file have been received, which is where to resume from.
+ */
+class UploadReceiver {
+
+  private static final String STAGE_ADDRESS = "upload.stage";
+
+  /** Writes outstanding before we stop reading the request. */
+  private static final int MAX_PENDING_WRITES = 16;
+
+  private final Vertx vertx;
+
+  UploadReceiver(Vertx vertx) {
+    this.vertx = vertx;
+  }
+
+  /**
+   * Handles an authorised request. The request must have been paused so that none of the body is
+   * lost while the file is being staged.
+   */
+  void receive(final HttpServerRequest req) {
+    final boolean isTransfer = "PUT".equals(req.method) || "POST".equals(req.method);
+    if (!isTransfer && !"GET".equals(req.method)) {
+      sendStatusCode(req, HttpStatus.SC_METHOD_NOT_ALLOWED);
+      return;
+    }
+
+    JsonObject stage = new JsonObject().putString("sessionId", req.params().get("sessionId"))
+        .putString("path", req.params().get("path"));
+    final long offset;
+    if (isTransfer) {
+      try {
+        String offsetParam = req.params().get("offset");
+        offset = offsetParam == null ? 0 : Long.parseLong(offsetParam);
+      } catch (NumberFormatException e) {
+        sendStatusCode(req, HttpStatus.SC_BAD_REQUEST);
+        return;
+      }
+      if (offset < 0 || offset > Integer.MAX_VALUE) {
+        sendStatusCode(req, HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      stage.putNumber("offset", offset);
+    } else {
+      offset = 0;
+    }
+
+    vertx.eventBus().send(STAGE_ADDRESS, stage, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> reply) {
+        if (!"ok".equals(reply.body.getString("status"))) {
+          sendStatusCode(req, HttpStatus.SC_NOT_FOUND);
+        } else if (isTransfer) {
+          write(req, reply.body.getString("stagedPath"), (int) offset);
+        } else {
+          sendReceived(req, reply.body.getNumber("received").longValue());
+        }
+      }
+    });
+  }
+
+  private void write(final HttpServerRequest req, String stagedPath, final int offset) {
+    AsyncResultHandler<AsyncFile> handler = new AsyncResultHandler<AsyncFile>() {
+      @Override
+      public void handle(AsyncResult<AsyncFile> opened) {
+        if (opened.failed()) {
+          sendStatusCode(req, HttpStatus.SC_INTERNAL_SERVER_ERROR);
+          return;
+        }
+        new Transfer(req, opened.result, offset).start();
+      }
+    };
+    vertx.fileSystem().open(stagedPath, null, false, true, true, handler);
+  }
+
+  /**
+   * Copies one request body into a staged file.
+   */
+  private class Transfer {
+    private final HttpServerRequest req;
+    private final AsyncFile file;
+    private int position;
+    private int pendingWrites;
+    private boolean paused = true;
+    private boolean ended;
+    private boolean finished;
+    private Exception failure;
+
+    Transfer(HttpServerRequest req, AsyncFile file, int position) {
+      this.req = req;
+      this.file = file;
+      this.position = position;
+    }
+
+    void start() {
+      req.dataHandler(new Handler<Buffer>() {
+        @Override
+        public void handle(Buffer data) {
+          write(data);
+        }
+      });
+      req.exceptionHandler(new Handler<Exception>() {
+        @Override
+        public void handle(Exception e) {
+          failure = e;
+          ended = true;
+          finishIfDone();
+        }
+      });
+      req.endHandler(new Handler<Void>() {
+        @Override
+        public void handle(Void event) {
+          ended = true;
+          finishIfDone();
+        }
+      });
+      resume();
+    }
+
+    private void write(Buffer data) {
+      if (failure != null) {
+        return;
+      }
+      pendingWrites++;
+      file.write(data, position, new AsyncResultHandler<Void>() {
+        @Override
+        public void handle(AsyncResult<Void> written) {
+          pendingWrites--;
+          if (written.failed() && failure == null) {
+            failure = written.exception;
+          }
+          if (pendingWrites <= MAX_PENDING_WRITES / 2) {
+            resume();
+          }
+          finishIfDone();
+        }
+      });
+      position += data.length();
+      if (pendingWrites >= MAX_PENDING_WRITES && !paused) {
+        paused = true;
+        req.pause();
+      }
+    }
+
+    private void resume() {
+      if (paused && !ended) {
+        paused = false;
+        req.resume();
+      }
+    }
+
+    private void finishIfDone() {
+      if (!ended || pendingWrites > 0 || finished) {
+        return;
+      }
+      finished = true;
+      file.close(new AsyncResultHandler<Void>() {
+        @Override
+        public void handle(AsyncResult<Void> closed) {
+          if (failure != null || closed.failed()) {
+            sendStatusCode(req, HttpStatus.SC_INTERNAL_SERVER_ERROR);
+          } else {
+            sendReceived(req, position);
+          }
+        }
+      });
+    }
+  }
+
+  private static void sendReceived(HttpServerRequest req, long received) {
+    req.response.statusCode = HttpStatus.SC_OK;
+    req.response.putHeader("Content-Type", "application/json");
+    req.response.end(new JsonObject().putNumber("received", received).encode());
+  }
+
+  private static void sendStatusCode(HttpServerRequest req, int statusCode) {
+    req.response.statusCode = statusCode;
+    req.response.end();
+  }
+}
@@ -15,6 +15,8 @@
 package com.google.collide.server.fe;
 
 import com.google.collide.dto.shared.JsonFieldConstants;
+import com.google.collide.server.metrics.EventBusMetrics;
+import com.google.common.base.Charsets;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.jboss.netty.handler.codec.http.QueryStringDecoder;
@@ -30,9 +32,11 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.sockjs.SockJSServer;
 
 import java.io.File;
-import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A simple web server module that can serve static files bundled with the webserver, as well as
@@ -48,7 +52,12 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
   private static final String WEBROOT_PATH = "/res/";
   private static final String BUNDLED_STATIC_FILES_PATH = "/static/";
   private static final String AUTH_PATH = "/_auth";
+  private static final String UPLOAD_PATH = "/_upload";
   private static final String AUTH_COOKIE_NAME = "_COLLIDE_SESSIONID";
+  private static final String STATIC_FILE_STATS_ADDRESS = "fe.staticFileStats";
+
+  /** How long to wait for the edited contents of a workspace file before serving it from disk. */
+  private static final long DIRTY_CONTENTS_TIMEOUT_MS = 2 * 1000;
 
   /**
    * The directory that we will be serving our bundled web application client form. We serve content
@@ -62,6 +71,27 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
    */
   private String webRootPrefix;
 
+  /** Serves files under {@link #WEBROOT_PATH} and {@link #BUNDLED_STATIC_FILES_PATH}. */
+  private StaticFileServer staticFileServer;
+
+  private HostPage hostPage;
+
+  /** Authorises session cookies and bridge connections, caching the results briefly. */
+  private CachingAuthoriser authoriser;
+
+  /** Streams the files of upload sessions to disk. */
+  private UploadReceiver uploadReceiver;
+
+  /** Times the event bus handlers. */
+  private EventBusMetrics eventBusMetrics;
+
+  /**
+   * The workspace paths with unsaved changes in an edit session, by the ID of the node that has the
+   * edit session. Kept up to date from what the edit sessions publish, so that most requests for
+   * workspace files go straight to disk.
+   */
+  private final Map<String, Set<String>> dirtyPathsByNode = new HashMap<String, Set<String>>();
+
   @Override
   public void start() {
     super.start();
@@ -76,6 +106,12 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
           .setKeyStorePath(getOptionalStringConfig("keyStorePath", "server-keystore.jks"));
     }
 
+    eventBusMetrics = new EventBusMetrics(vertx, "WebFE");
+    eventBusMetrics.start();
+    authoriser =
+        new CachingAuthoriser(eb, eventBusMetrics, getOptionalLongConfig("auth_cache_ttl", 0));
+    authoriser.start();
+
     // Configure the event bus bridge.
     boolean bridge = getOptionalBooleanConfig("bridge", false);
     if (bridge) {
@@ -86,7 +122,7 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
       sjsServer.bridge(
           getOptionalObjectConfig("sjs_config", new JsonObject().putString("prefix", "/eventbus")),
           inboundPermitted, outboundPermitted, getOptionalLongConfig("auth_timeout", 5 * 60 * 1000),
-          getOptionalStringConfig("auth_address", "participants.authorise"));
+          getOptionalStringConfig("auth_address", authoriser.getBridgeAuthAddress()));
     }
 
     String bundledStaticFiles = getMandatoryStringConfig("staticFiles");
@@ -95,9 +131,43 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
     bundledStaticFilesPrefix = bundledStaticFiles + File.separator;
     webRootPrefix = webRoot + File.separator;
 
+    staticFileServer = StaticFileServer.getInstance(vertx, container, config);
+    hostPage = new HostPage(bundledStaticFilesPrefix);
+    uploadReceiver = new UploadReceiver(vertx);
+    eventBusMetrics.registerHandler(STATIC_FILE_STATS_ADDRESS, new Handler<Message<JsonObject>>() {
+        @Override
+      public void handle(Message<JsonObject> message) {
+        message.reply(staticFileServer.getStats());
+      }
+    });
+
+    eventBusMetrics.registerHandler("documents.dirtyPaths", new Handler<Message<JsonObject>>() {
+        @Override
+      public void handle(Message<JsonObject> message) {
+        Set<String> paths = new HashSet<String>();
+        for (Object path : message.body.getArray("paths")) {
+          paths.add((String) path);
+        }
+        String nodeId = message.body.getString("nodeId");
+        if (paths.isEmpty()) {
+          dirtyPathsByNode.remove(nodeId);
+        } else {
+          dirtyPathsByNode.put(nodeId, paths);
+        }
+      }
+    });
+    // Edit sessions that started before us won't publish again until their dirty paths change.
+    eb.publish("documents.queryDirtyPaths", new JsonObject());
+
     server.listen(getOptionalIntConfig("port", 8080), getOptionalStringConfig("host", "127.0.0.1"));
   }
 
+  @Override
+  public void stop() throws Exception {
+    eventBusMetrics.stop();
+    super.stop();
+  }
+
   /**
    * Routes HTTP requests to the Collide web server.
    */
@@ -115,16 +185,20 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
     } else if (path.startsWith(WEBROOT_PATH) && (webRootPrefix != null)) {
 
       // This is a request for content in the directory the user started the server in.
-      req.response.sendFile(webRootPrefix + path.substring(WEBROOT_PATH.length()));
+      serveWorkspaceFile(req, path.substring(WEBROOT_PATH.length()));
     } else if (path.startsWith(BUNDLED_STATIC_FILES_PATH) && (bundledStaticFilesPrefix != null)) {
 
       // This is a request for static content bundled with the client.
-      req.response.sendFile(bundledStaticFilesPrefix
-          + path.substring(BUNDLED_STATIC_FILES_PATH.length()));
+      staticFileServer.serve(
+          req, bundledStaticFilesPrefix + path.substring(BUNDLED_STATIC_FILES_PATH.length()));
     } else if (path.startsWith(AUTH_PATH)) {
 
       // This is an attempt to install the session cookie.
       writeSessionCookie(req);
+    } else if (path.equals(UPLOAD_PATH)) {
+
+      // This is a file of an upload session.
+      authAndReceiveUpload(req);
     } else {
 
       // Otherwise, we don't know what you are looking for.
@@ -132,6 +206,51 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
     }
   }
 
+  /**
+   * Serves a file from the workspace. If the file is open in an edit session with unsaved changes,
+   * the edited text is served so that previews match what the user sees in the editor. If the edit
+   * session does not answer in time, the file is served from disk.
+   */
+  private void serveWorkspaceFile(final HttpServerRequest req, final String relativePath) {
+    String path = "/" + relativePath;
+    String dirtyNodeId = null;
+    for (Map.Entry<String, Set<String>> entry : dirtyPathsByNode.entrySet()) {
+      if (entry.getValue().contains(path)) {
+        dirtyNodeId = entry.getKey();
+        break;
+      }
+    }
+    if (dirtyNodeId == null) {
+      staticFileServer.serve(req, webRootPrefix + relativePath);
+      return;
+    }
+
+    final long timerId = vertx.setTimer(DIRTY_CONTENTS_TIMEOUT_MS, new Handler<Long>() {
+        @Override
+      public void handle(Long event) {
+        staticFileServer.serve(req, webRootPrefix + relativePath);
+      }
+    });
+    eb.send("documents.node." + dirtyNodeId + ".getDirtyContents",
+        new JsonObject().putString("path", path), new Handler<Message<JsonObject>>() {
+            @Override
+          public void handle(Message<JsonObject> event) {
+            if (!vertx.cancelTimer(timerId)) {
+              // Timed out, and the file was already served from disk.
+              return;
+            }
+
+            String contents = event.body.getString("contents");
+            if ("ok".equals(event.body.getString("status")) && contents != null) {
+              staticFileServer.serveContents(
+                  req, relativePath, contents.getBytes(Charsets.UTF_8));
+            } else {
+              staticFileServer.serve(req, webRootPrefix + relativePath);
+            }
+          }
+        });
+  }
+
   private void authAndWriteHostPage(HttpServerRequest req) {
     Cookie cookie = Cookie.getCookie(AUTH_COOKIE_NAME, req);
     if (cookie != null) {
@@ -176,20 +295,19 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
 
           final String sessionId = loginSessionIdList.get(0);
           final String username = usernameList.get(0);
-          vertx.eventBus().send("participants.authorise",
-              new JsonObject().putString("sessionID", sessionId).putString("username", username),
-              new Handler<Message<JsonObject>>() {
-                  @Override
-                public void handle(Message<JsonObject> event) {
-                  if ("ok".equals(event.body.getString("status"))) {
-                    req.response.headers().put("Set-Cookie",
-                        AUTH_COOKIE_NAME + "=" + sessionId + "__" + username + "; HttpOnly");
-                    sendStatusCode(req, HttpStatus.SC_OK);
-                  } else {
-                    sendStatusCode(req, HttpStatus.SC_FORBIDDEN);
-                  }
-                }
-              });
+          authoriser.authorise(sessionId, username, new CachingAuthoriser.Callback() {
+              @Override
+            public void onAuthorised(String authorisedUsername) {
+              req.response.headers().put("Set-Cookie",
+                  AUTH_COOKIE_NAME + "=" + sessionId + "__" + authorisedUsername + "; HttpOnly");
+              sendStatusCode(req, HttpStatus.SC_OK);
+            }
+
+              @Override
+            public void onDenied() {
+              sendStatusCode(req, HttpStatus.SC_FORBIDDEN);
+            }
+          });
         } else {
           sendRedirect(req, "/static/login.html");          
         }
@@ -197,6 +315,32 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
     });
   }
 
+  /**
+   * Hands an upload to the {@link UploadReceiver} once the session cookie checks out. The body is
+   * held back until then.
+   */
+  private void authAndReceiveUpload(final HttpServerRequest req) {
+    req.pause();
+    Cookie cookie = Cookie.getCookie(AUTH_COOKIE_NAME, req);
+    String[] cookieParts = cookie == null ? null : cookie.value.split("__");
+    if (cookieParts == null || cookieParts.length != 2) {
+      sendStatusCode(req, HttpStatus.SC_FORBIDDEN);
+      return;
+    }
+
+    authoriser.authorise(cookieParts[0], cookieParts[1], new CachingAuthoriser.Callback() {
+        @Override
+      public void onAuthorised(String username) {
+        uploadReceiver.receive(req);
+      }
+
+        @Override
+      public void onDenied() {
+        sendStatusCode(req, HttpStatus.SC_FORBIDDEN);
+      }
+    });
+  }
+
   private void doAuthAndWriteHostPage(final HttpServerRequest req, String authCookie) {
     String[] cookieParts = authCookie.split("__");
     if (cookieParts.length != 2) {
@@ -207,71 +351,23 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
     final String sessionId = cookieParts[0];
     String username = cookieParts[1];   
     final HttpServerResponse response = req.response;
-    vertx.eventBus().send("participants.authorise", new JsonObject().putString(
-        "sessionID", sessionId).putString("username", username).putBoolean("createClient", true),
-        new Handler<Message<JsonObject>>() {
-            @Override
-          public void handle(Message<JsonObject> event) {
-            if ("ok".equals(event.body.getString("status"))) {
-              String activeClientId = event.body.getString("activeClient");
-              String username = event.body.getString("username");
-              if (activeClientId == null || username == null) {
-                sendStatusCode(req, HttpStatus.SC_INTERNAL_SERVER_ERROR);
-                return;
-              }
-
-              String responseText = getHostPage(sessionId, username, activeClientId);
-              response.statusCode = HttpStatus.SC_OK;
-              byte[] page = responseText.getBytes(Charset.forName("UTF-8"));
-              response.putHeader("Content-Length", page.length);
-              response.putHeader("Content-Type", "text/html");
-              response.end(new Buffer(page));          
-            } else {
-              sendRedirect(req, "/static/login.html");
-            }
-          }
-        });
-  }
-
-  /**
-   * Generate the header for the host page that includes the client bootstrap information as well as
-   * relevant script includes.
-   */
-  private String getHostPage(String userId, String username, String activeClientId) {
-    StringBuilder sb = new StringBuilder();
-    sb.append("<html>\n");
-    sb.append("  <head>\n");
-
-    // Include Javascript dependencies.
-    sb.append("<script src=\"/static/sockjs-0.2.1.min.js\"></script>\n");
-    sb.append("<script src=\"/static/vertxbus.js\"></script>\n");
-    sb.append("<script src=\"/static/com.google.collide.client.Collide/com.google.collide.client.Collide." +
-    		"nocache.js\"></script>\n");
-
-    // Embed the bootstrap session object.
-    emitBootstrapJson(sb, userId, username, activeClientId);
-    emitDefaultStyles(sb);
-    sb.append("  </head>\n<body><div id='gwt_root'></div></body>\n</html>");
-    return sb.toString();
-  }
-
-  private void emitDefaultStyles(StringBuilder sb) {
-    sb.append("<style>\n#gwt_root {\n")
-      .append("position: absolute;\n")
-      .append("top: 0;\n")
-      .append("left: 0;\n")
-      .append("bottom: 0;\n")
-      .append("right: 0;\n")
-      .append("}\n</style>");
-  }
+    authoriser.authorise(sessionId, username, new CachingAuthoriser.Callback() {
+        @Override
+      public void onAuthorised(String username) {
+        String activeClientId = authoriser.addTab(sessionId, username);
+        Buffer page = hostPage.render(sessionId, username, activeClientId,
+            req.headers().get("User-Agent"), req.query);
+        response.statusCode = HttpStatus.SC_OK;
+        response.putHeader("Content-Length", page.length());
+        response.putHeader("Content-Type", "text/html; charset=utf-8");
+        response.end(page);
+      }
 
-  private void emitBootstrapJson(
-      StringBuilder sb, String userId, String username, String activeClientId) {
-    sb.append("<script>\n").append("window['__session'] = {\n")
-        .append(JsonFieldConstants.SESSION_USER_ID).append(": \"").append(userId).append("\",\n")
-        .append(JsonFieldConstants.SESSION_ACTIVE_ID).append(": \"").append(activeClientId)
-        .append("\",\n").append(JsonFieldConstants.SESSION_USERNAME).append(": \"")
-        .append(username).append("\"\n}\n").append("</script>");
+        @Override
+      public void onDenied() {
+        sendRedirect(req, "/static/login.html");
+      }
+    });
   }
 
   private void sendRedirect(HttpServerRequest req, String url) {    
@@ -0,0 +1,323 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.filetree;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An in-memory index of workspace file paths for finding files by name, in the style of "open
+ * file" pickers: the characters of a query must appear in order in the file name, but need not be
+ * adjacent, so "fnns" finds FileNameNavigationSection.java.
+ *
+ * <p>
+ * Each name is stored with a bitmask of the characters it contains. A name can only match if it
+ * contains every character of the query, so most of the index is rejected by a single mask test
+ * before any per-character matching is done. Matches are ranked by how well the query lines up
+ * with the name: exact and prefix matches, contiguous runs, and matches at word boundaries score
+ * higher, gaps and long names lower.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+class FileNameIndex {
+
+  /**
+   * A match and its rank.
+   */
+  static class Match {
+    final String path;
+    final int score;
+
+    Match(String path, int score) {
+      this.path = path;
+      this.score = score;
+    }
+  }
+
+  /**
+   * A page of matches, and how many matches there were in total.
+   */
+  static class Result {
+    final List<String> paths;
+    final int matchCount;
+
+    Result(List<String> paths, int matchCount) {
+      this.paths = paths;
+      this.matchCount = matchCount;
+    }
+  }
+
+  private static class Entry {
+    final String path;
+    final String lowerPath;
+    final int nameStart;
+    final long nameMask;
+    final long pathMask;
+
+    Entry(String path) {
+      this.path = path;
+      this.lowerPath = path.toLowerCase();
+      this.nameStart = path.lastIndexOf('/') + 1;
+      this.nameMask = charMask(lowerPath, nameStart);
+      this.pathMask = charMask(lowerPath, 0);
+    }
+  }
+
+  /** Best match first; ties go to the shorter, then alphabetically earlier, path. */
+  private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+    @Override
+    public int compare(Match a, Match b) {
+      if (a.score != b.score) {
+        return b.score - a.score;
+      }
+      if (a.path.length() != b.path.length()) {
+        return a.path.length() - b.path.length();
+      }
+      return a.path.compareTo(b.path);
+    }
+  };
+
+  private static final int EXACT_NAME_BONUS = 1000;
+  private static final int PREFIX_BONUS = 100;
+  private static final int BOUNDARY_BONUS = 30;
+  private static final int ADJACENT_BONUS = 15;
+  private static final int MATCH_SCORE = 10;
+
+  /** Entries packed into a list for a fast linear scan; removal swaps in the last entry. */
+  private final List<Entry> entries = Lists.newArrayList();
+  private final Map<String, Integer> indexByPath = Maps.newHashMap();
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @param path a workspace path to a file, such as {@code /src/Foo.java}
+   */
+  public void add(String path) {
+    Integer existing = indexByPath.get(path);
+    if (existing != null) {
+      return;
+    }
+    indexByPath.put(path, entries.size());
+    entries.add(new Entry(path));
+  }
+
+  public void remove(String path) {
+    Integer index = indexByPath.remove(path);
+    if (index == null) {
+      return;
+    }
+    Entry last = entries.remove(entries.size() - 1);
+    if (index < entries.size()) {
+      entries.set(index, last);
+      indexByPath.put(last.path, index);
+    }
+  }
+
+  /**
+   * Removes every file below a directory.
+   *
+   * @param dirPath the directory's path, ending with a slash
+   */
+  public void removeTree(String dirPath) {
+    // Walk backwards so that the entries swapped in by remove() have already been checked.
+    for (int i = entries.size() - 1; i >= 0; i--) {
+      if (entries.get(i).path.startsWith(dirPath)) {
+        remove(entries.get(i).path);
+      }
+    }
+  }
+
+  /**
+   * Finds the files that match a query, best first.
+   *
+   * @param pathPrefix if non-null, only files whose path starts with this are considered
+   * @param page one-based page number
+   */
+  public Result search(String query, String pathPrefix, int page, int pageSize) {
+    String lowerQuery = normalizeQuery(query);
+    if (lowerQuery.isEmpty() || page < 1 || pageSize < 1) {
+      return new Result(Collections.<String>emptyList(), 0);
+    }
+
+    // A query with a slash in it is matched against the whole path.
+    boolean matchPath = lowerQuery.indexOf('/') != -1;
+    long queryMask = charMask(lowerQuery, 0);
+
+    // Keep the best page * pageSize matches in a heap whose head is the worst of them.
+    int keep = page * pageSize;
+    PriorityQueue<Match> best = new PriorityQueue<Match>(keep + 1, Collections.reverseOrder(
+        BEST_FIRST));
+    int matchCount = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      if (((matchPath ? entry.pathMask : entry.nameMask) & queryMask) != queryMask) {
+        continue;
+      }
+      if (pathPrefix != null && !entry.path.startsWith(pathPrefix)) {
+        continue;
+      }
+      int score =
+          score(lowerQuery, entry.path, entry.lowerPath, matchPath ? 0 : entry.nameStart);
+      if (score < 0) {
+        continue;
+      }
+      matchCount++;
+      best.add(new Match(entry.path, score));
+      if (best.size() > keep) {
+        best.poll();
+      }
+    }
+
+    List<Match> ranked = Lists.newArrayList(best);
+    Collections.sort(ranked, BEST_FIRST);
+    List<String> paths = Lists.newArrayList();
+    for (int i = (page - 1) * pageSize; i < ranked.size(); i++) {
+      paths.add(ranked.get(i).path);
+    }
+    return new Result(paths, matchCount);
+  }
+
+  /**
+   * Scores how well {@code query} matches {@code text} from {@code start}, or returns -1 if the
+   * query is not a subsequence of it. Each query character is matched greedily, except that a
+   * match at a word boundary is preferred over an earlier one in the middle of a word.
+   *
+   * @param query the lowercased query
+   * @param original the text in its original case, used to find camel case word boundaries
+   * @param text the lowercased text
+   */
+  static int score(String query, String original, String text, int start) {
+    int length = text.length() - start;
+    if (text.startsWith(query, start)) {
+      return (query.length() == length ? EXACT_NAME_BONUS : PREFIX_BONUS)
+          + query.length() * (MATCH_SCORE + ADJACENT_BONUS) - length;
+    }
+
+    int score = 0;
+    int pos = start;
+    int lastMatch = -2;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      int next = text.indexOf(c, pos);
+      if (next == -1) {
+        return -1;
+      }
+      if (next != lastMatch + 1) {
+        // Skip ahead to a word start, as long as the rest of the query can still match after it.
+        int boundary = findBoundaryMatch(original, text, c, next);
+        if (boundary != -1 && isSubsequence(query, i + 1, text, boundary + 1)) {
+          next = boundary;
+        }
+      }
+
+      score += MATCH_SCORE;
+      if (next == lastMatch + 1) {
+        score += ADJACENT_BONUS;
+      } else if (isBoundary(original, next, start)) {
+        score += BOUNDARY_BONUS;
+      }
+      lastMatch = next;
+      pos = next + 1;
+    }
+    return Math.max(0, score - length);
+  }
+
+  private static boolean isSubsequence(String query, int queryStart, String text, int textStart) {
+    int pos = textStart;
+    for (int i = queryStart; i < query.length(); i++) {
+      pos = text.indexOf(query.charAt(i), pos);
+      if (pos == -1) {
+        return false;
+      }
+      pos++;
+    }
+    return true;
+  }
+
+  /**
+   * @return the first occurrence of {@code c} at or after {@code from} that starts a word, or -1
+   */
+  private static int findBoundaryMatch(String original, String text, char c, int from) {
+    for (int i = from; i < text.length(); i++) {
+      if (text.charAt(i) == c && isBoundary(original, i, 0)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Words start after punctuation, at camel case humps, and where a run of digits begins.
+   */
+  private static boolean isBoundary(String original, int index, int start) {
+    if (index == start) {
+      return true;
+    }
+    char prev = original.charAt(index - 1);
+    char c = original.charAt(index);
+    return !Character.isLetterOrDigit(prev)
+        || (Character.isUpperCase(c) && !Character.isUpperCase(prev))
+        || (Character.isDigit(c) && !Character.isDigit(prev));
+  }
+
+  /**
+   * Lowercases a query and drops the wildcard characters the client's glob patterns use, since
+   * subsequence matching already skips over anything between query characters.
+   */
+  static String normalizeQuery(String query) {
+    if (query == null) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder(query.length());
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (c != '*' && c != '?' && !Character.isWhitespace(c)) {
+        sb.append(Character.toLowerCase(c));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns a 64 bit summary of the characters in {@code s} from {@code start}. Letters and digits
+   * get a bit each; everything else shares the bits left over.
+   */
+  static long charMask(String s, int start) {
+    long mask = 0;
+    for (int i = start; i < s.length(); i++) {
+      mask |= 1L << charBit(s.charAt(i));
+    }
+    return mask;
+  }
+
+  private static int charBit(char c) {
+    if (c >= 'a' && c <= 'z') {
+      return c - 'a';
+    }
+    if (c >= '0' && c <= '9') {
+      return 26 + (c - '0');
+    }
+    return 36 + (c % 28);
+  }
+}
@@ -26,13 +26,17 @@ import com.google.collide.dto.server.DtoServerImpls.FileInfoImpl;
 import com.google.collide.dto.server.DtoServerImpls.GetDirectoryImpl;
 import com.google.collide.dto.server.DtoServerImpls.GetDirectoryResponseImpl;
 import com.google.collide.dto.server.DtoServerImpls.MutationImpl;
+import com.google.collide.dto.server.DtoServerImpls.SearchFileNamesImpl;
+import com.google.collide.dto.server.DtoServerImpls.SearchFileNamesResponseImpl;
 import com.google.collide.dto.server.DtoServerImpls.ServerErrorImpl;
 import com.google.collide.dto.server.DtoServerImpls.TreeNodeInfoImpl;
 import com.google.collide.dto.server.DtoServerImpls.WorkspaceTreeUpdateBroadcastImpl;
 import com.google.collide.dto.server.DtoServerImpls.WorkspaceTreeUpdateImpl;
 import com.google.collide.json.server.JsonArrayListAdapter;
+import com.google.collide.server.metrics.EventBusMetrics;
 import com.google.collide.server.participants.Participants;
 import com.google.collide.server.shared.util.Dto;
+import com.google.collide.server.upload.UploadSessions;
 import com.google.collide.shared.util.PathUtils;
 import com.google.collide.shared.util.PathUtils.PathVisitor;
 
@@ -46,11 +50,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
@@ -297,6 +304,80 @@ public class FileTree extends BusModBase {
     }
   }
 
+  /**
+   * Moves files staged by {@link UploadSessions} into the workspace, creating directories as
+   * needed, so that a whole upload reaches the watcher, and so collaborators, as one batch of
+   * changes. Only files under the upload staging directory are accepted, and only paths that stay
+   * inside the workspace. Files are renamed into place, which is cheap enough for the event loop:
+   * UploadSessions copies over existing files itself, so a target that already exists is refused.
+   * Replies with the paths that could not be imported.
+   */
+  class FileImporter implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      JsonArray failed = new JsonArray();
+      synchronized (FileTree.this.lock) {
+        for (Object dir : message.body.getArray("dirs")) {
+          Path target = resolveInsideRoot((String) dir);
+          try {
+            if (target == null) {
+              throw new IOException("Outside the workspace");
+            }
+            Files.createDirectories(target);
+          } catch (IOException e) {
+            logger.error(String.format("Failed to create [%s]", dir), e);
+            failed.addString((String) dir);
+          }
+        }
+        for (Object item : message.body.getArray("files")) {
+          JsonObject file = (JsonObject) item;
+          Path from = resolveStaged(file.getString("from"));
+          Path target = resolveInsideRoot(file.getString("path"));
+          try {
+            if (from == null) {
+              throw new IOException("Not staged for upload: " + file.getString("from"));
+            }
+            if (target == null) {
+              throw new IOException("Outside the workspace");
+            }
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+              throw new FileAlreadyExistsException(target.toString());
+            }
+            Files.createDirectories(target.getParent());
+            Files.move(from, target, StandardCopyOption.ATOMIC_MOVE);
+          } catch (IOException e) {
+            logger.error(String.format("Failed to import [%s]", file.getString("path")), e);
+            failed.addString(file.getString("path"));
+          }
+        }
+      }
+      message.reply(new JsonObject().putString("status", "ok").putArray("failed", failed));
+    }
+
+    /**
+     * Resolves a workspace path, or returns null if it is the root itself or lies outside it.
+     */
+    private Path resolveInsideRoot(String pathString) {
+      if (pathString == null) {
+        return null;
+      }
+      Path rootPath = root.getPath().toAbsolutePath().normalize();
+      Path target = rootPath.resolve(stripSlashes(pathString)).normalize();
+      return target.startsWith(rootPath) && !target.equals(rootPath) ? target : null;
+    }
+
+    /**
+     * Resolves a staged file, or returns null if it lies outside the upload staging directory.
+     */
+    private Path resolveStaged(String pathString) {
+      if (pathString == null) {
+        return null;
+      }
+      Path path = new File(pathString).toPath().toAbsolutePath().normalize();
+      return path.startsWith(uploadStagingDir) && !path.equals(uploadStagingDir) ? path : null;
+    }
+  }
+
   /**
    * Replies to the requester with the File Tree rooted at the path requested by the requester.
    */
@@ -407,6 +488,30 @@ public class FileTree extends BusModBase {
     }
   }
 
+  /**
+   * Replies with the files whose names best match a query, a page at a time. See
+   * {@link FileNameIndex} for how matches are ranked.
+   */
+  class FileNameSearcher implements Handler<Message<JsonObject>> {
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
+    @Override
+    public void handle(Message<JsonObject> message) {
+      SearchFileNamesImpl request = SearchFileNamesImpl.fromJsonString(Dto.get(message));
+      int page = Math.max(1, request.getPage());
+      int pageSize = request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+      FileNameIndex.Result result;
+      synchronized (FileTree.this.lock) {
+        result =
+            fileNameIndex.search(request.getQuery(), request.getPathPrefix(), page, pageSize);
+      }
+      SearchFileNamesResponseImpl response = SearchFileNamesResponseImpl.make()
+          .setQuery(request.getQuery()).setPage(page).setResultCount(result.matchCount)
+          .setPageCount((result.matchCount + pageSize - 1) / pageSize).setPaths(result.paths);
+      message.reply(Dto.wrap(response));
+    }
+  }
+
   /**
    * Scans the file tree, or a subsection, adding new nodes to the tree. Also sets up watchers to
    * listen for file and directory changes.
@@ -434,6 +539,7 @@ public class FileTree extends BusModBase {
         FileInfoExt file = new FileInfoExt(path, resourceIdAllocator++, attrs.size());
         parents.peek().addChild(file);
         resourceIdToNode.put(file.getFileEditSessionKey(), file);
+        fileNameIndex.add(pathString(file));
         return FileVisitResult.CONTINUE;
       }
 
@@ -510,6 +616,9 @@ public class FileTree extends BusModBase {
   final List<ExpectedMove> expectMoves = new ArrayList<ExpectedMove>();
 
 
+  /** Index of the paths of every file in the tree, for finding files by name. */
+  final FileNameIndex fileNameIndex = new FileNameIndex();
+
   /** Map resourceId to node. */
   HashMap<String, NodeInfoExt> resourceIdToNode = new HashMap<String, NodeInfoExt>();
 
@@ -527,6 +636,12 @@ public class FileTree extends BusModBase {
   
   Thread watcherThread = null;
 
+  /** Times the event bus handlers. */
+  EventBusMetrics eventBusMetrics;
+
+  /** Where {@link UploadSessions} stages files; the only place files are imported from. */
+  Path uploadStagingDir;
+
   @Override
   public void start() {
     super.start();
@@ -539,10 +654,18 @@ public class FileTree extends BusModBase {
       throw new RuntimeException(e);
     }
 
-    vertx.eventBus().registerHandler("tree.mutate", new FileTreeMutationHandler());
-    vertx.eventBus().registerHandler("tree.get", new FileTreeGetter());
-    vertx.eventBus().registerHandler("tree.getCurrentPaths", new PathResolver());
-    vertx.eventBus().registerHandler("tree.getResourceIds", new ResourceIdResolver());
+    uploadStagingDir = new File(getOptionalStringConfig(
+        "uploadStagingDir", UploadSessions.DEFAULT_STAGING_DIR)).toPath().toAbsolutePath()
+        .normalize();
+
+    eventBusMetrics = new EventBusMetrics(vertx, "FileTree");
+    eventBusMetrics.start();
+    eventBusMetrics.registerHandler("tree.mutate", new FileTreeMutationHandler());
+    eventBusMetrics.registerHandler("tree.get", new FileTreeGetter());
+    eventBusMetrics.registerHandler("tree.getCurrentPaths", new PathResolver());
+    eventBusMetrics.registerHandler("tree.getResourceIds", new ResourceIdResolver());
+    eventBusMetrics.registerHandler("tree.searchNames", new FileNameSearcher());
+    eventBusMetrics.registerHandler("tree.importFiles", new FileImporter());
 
     /*
      * This is not the one true vertx way... but it's easier for now! The watcher thread and the
@@ -573,6 +696,7 @@ public class FileTree extends BusModBase {
       watcherThread.interrupt();
     }
     watcherThread.join();
+    eventBusMetrics.stop();
     super.stop();
   }
   
@@ -633,6 +757,9 @@ public class FileTree extends BusModBase {
             } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
               treeDirty = true;
               NodeInfoExt removed = parent.removeChild(resolved.getFileName().toString());
+              if (removed != null) {
+                unindexFileNames(removed);
+              }
               ExpectedMove move = movesByOld.get(resolved);
               if (move != null) {
                 move.oldNode = removed;
@@ -747,6 +874,7 @@ public class FileTree extends BusModBase {
       // No broadcast, edit session will handle.
     }
     vertx.eventBus().send("documents.fileSystemEvents", message);
+    publishTreeChanged(adds, removes, modifies, completedMoves);
     if (treeDirty) {
       broadcast.setNewTreeVersion(Long.toString(treeVersion));
       vertx.eventBus().send("participants.broadcast", new JsonObject().putString(
@@ -754,6 +882,37 @@ public class FileTree extends BusModBase {
     }
   }
 
+  /**
+   * Publishes the paths affected by a batch of file system changes, for server-side consumers
+   * such as the search index. Directory paths end with a slash.
+   */
+  private void publishTreeChanged(List<NodeInfoExt> adds, List<NodeInfoExt> removes,
+      List<NodeInfoExt> modifies, List<ExpectedMove> completedMoves) {
+    JsonArray added = new JsonArray();
+    for (NodeInfoExt node : adds) {
+      added.addString(pathString(node));
+    }
+    JsonArray removed = new JsonArray();
+    for (NodeInfoExt node : removes) {
+      removed.addString(pathString(node));
+    }
+    JsonArray modified = new JsonArray();
+    for (NodeInfoExt node : modifies) {
+      if (node != null) {
+        modified.addString(pathString(node));
+      }
+    }
+    JsonArray moved = new JsonArray();
+    for (ExpectedMove move : completedMoves) {
+      moved.addObject(new JsonObject().putString("oldPath", pathString(move.oldNode))
+          .putString("newPath", pathString(move.newNode)));
+    }
+    if (added.size() + removed.size() + modified.size() + moved.size() > 0) {
+      vertx.eventBus().publish("tree.changed", new JsonObject().putArray("added", added)
+          .putArray("removed", removed).putArray("modified", modified).putArray("moved", moved));
+    }
+  }
+
   /**
    * Strips out directory children for broadcast.
    */
@@ -784,6 +943,14 @@ public class FileTree extends BusModBase {
     }
   }
 
+  private void unindexFileNames(NodeInfoExt removed) {
+    if (removed instanceof DirInfoExt) {
+      fileNameIndex.removeTree(pathString(removed));
+    } else {
+      fileNameIndex.remove(pathString(removed));
+    }
+  }
+
   /**
    * @param removed
    */
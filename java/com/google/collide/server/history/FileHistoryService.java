@@ -0,0 +1,301 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.history;
+
+import com.google.collide.dto.NodeMutationDto.MutationType;
+import com.google.collide.dto.Revision.RevisionType;
+import com.google.collide.dto.ServerError.FailureReason;
+import com.google.collide.dto.server.DtoServerImpls.GetFileDiffImpl;
+import com.google.collide.dto.server.DtoServerImpls.GetFileDiffResponseImpl;
+import com.google.collide.dto.server.DtoServerImpls.GetFileRevisionsImpl;
+import com.google.collide.dto.server.DtoServerImpls.GetFileRevisionsResponseImpl;
+import com.google.collide.dto.server.DtoServerImpls.RevisionImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerErrorImpl;
+import com.google.collide.server.diff.TextDiffer;
+import com.google.collide.server.history.RevisionStore.Entry;
+import com.google.collide.server.shared.util.Dto;
+import com.google.collide.server.shared.util.WorkspaceWatcher;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Serves the revisions behind the file history timeline. Every time a workspace file changes on
+ * disk, which is how saves from the edit sessions reach us too, its content is snapshotted into a
+ * {@link RevisionStore}. Moves and deletions from FileTree's {@code tree.changed} events are
+ * recorded as well, so a file's history follows it around the workspace.
+ *
+ * <p>
+ * {@code revisions.getFileRevisions} answers a {@code GetFileRevisions} request from the revision
+ * metadata alone; no file contents are read. Requests page through a long history by bounding the
+ * revision IDs with {@code minId} and {@code rootId}. {@code revisions.getFileDiff} diffs two
+ * revisions of a file with a {@link TextDiffer}.
+ *
+ * <p>
+ * Snapshotting reads files synchronously, so this verticle must be deployed as a worker.
+ */
+public class FileHistoryService extends BusModBase {
+
+  private static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+  private static final int DEFAULT_PACK_THRESHOLD = 256;
+
+  private final TextDiffer differ = new TextDiffer();
+  private RevisionStore store;
+  private long maxFileSize;
+
+  @Override
+  public void start() {
+    super.start();
+    String addressBase = getOptionalStringConfig("address", "revisions");
+    this.maxFileSize = getOptionalLongConfig("maxFileSize", DEFAULT_MAX_FILE_SIZE);
+    File storeDir = new File(getOptionalStringConfig("storeDir", getDefaultStoreDir()));
+    try {
+      store = RevisionStore.open(
+          storeDir, getOptionalIntConfig("packThreshold", DEFAULT_PACK_THRESHOLD));
+    } catch (IOException e) {
+      logger.error(String.format("Failed to open revision store [%s]", storeDir), e);
+      return;
+    }
+    WorkspaceWatcher watcher = new WorkspaceWatcher(vertx) {
+      @Override
+      protected void onFile(File file, String path) {
+        snapshotFile(file, path);
+      }
+
+      @Override
+      protected void onRemoved(String path) {
+        try {
+          store.delete(path, System.currentTimeMillis());
+        } catch (IOException e) {
+          logger.error(String.format("Failed to record the deletion of [%s]", path), e);
+        }
+      }
+
+      @Override
+      protected void onMoved(String oldPath, String newPath) {
+        try {
+          store.move(oldPath, newPath, System.currentTimeMillis());
+        } catch (IOException e) {
+          logger.error(String.format("Failed to record the move of [%s]", oldPath), e);
+        }
+      }
+    };
+    // This gives new files a first revision to diff their edits against, and catches changes made
+    // while the server was down.
+    watcher.walkWorkspace();
+
+    eb.registerHandler(addressBase + ".getFileRevisions", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        GetFileRevisionsImpl request = GetFileRevisionsImpl.fromJsonString(Dto.get(message));
+        try {
+          message.reply(Dto.wrap(getFileRevisions(request)));
+        } catch (NumberFormatException e) {
+          message.reply(Dto.wrap(ServerErrorImpl.make()
+              .setFailureReason(FailureReason.SERVER_ERROR)
+              .setDetails("Invalid revision ID: " + e.getMessage())));
+        }
+      }
+    });
+
+    eb.registerHandler(addressBase + ".getFileDiff", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        GetFileDiffImpl request = GetFileDiffImpl.fromJsonString(Dto.get(message));
+        try {
+          message.reply(Dto.wrap(getFileDiff(request)));
+        } catch (NumberFormatException e) {
+          message.reply(Dto.wrap(ServerErrorImpl.make()
+              .setFailureReason(FailureReason.SERVER_ERROR)
+              .setDetails("Invalid revision ID: " + e.getMessage())));
+        } catch (IOException e) {
+          logger.error(String.format("Failed to diff [%s]", request.getPath()), e);
+          message.reply(Dto.wrap(ServerErrorImpl.make()
+              .setFailureReason(FailureReason.SERVER_ERROR).setDetails(e.getMessage())));
+        }
+      }
+    });
+
+    watcher.start();
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (store != null) {
+      store.close();
+    }
+    super.stop();
+  }
+
+  /**
+   * Picks the revisions to show for a file.
+   *
+   * <p>
+   * The candidates are the file's revisions with IDs between {@code minId} and {@code rootId}.
+   * When there are more than {@code numOfRevisions} of them, the oldest is kept if
+   * {@code includeBranchRevision} is set and the newest if {@code includeMostRecentRevision} is.
+   * With {@code filtering}, moves, deletions and branch points are kept next and the remaining
+   * slots are spread evenly across the range; without it, they go to the newest revisions. Each
+   * returned revision says how many of the file's revisions were skipped since the one before it.
+   */
+  GetFileRevisionsResponseImpl getFileRevisions(GetFileRevisionsImpl request) {
+    String path = request.getPath();
+    long minId = request.getMinId() == null ? 0 : Long.parseLong(request.getMinId());
+    long maxId =
+        request.getRootId() == null ? Long.MAX_VALUE : Long.parseLong(request.getRootId());
+    List<Entry> range = store.getRevisions(path, minId, maxId);
+
+    BitSet selected = new BitSet(range.size());
+    int limit = request.getNumOfRevisions() <= 0 ? range.size() : request.getNumOfRevisions();
+    if (range.size() <= limit) {
+      selected.set(0, range.size());
+    } else {
+      if (request.getIncludeBranchRevision()) {
+        selected.set(0);
+      }
+      if (request.getIncludeMostRecentRevision() && selected.cardinality() < limit) {
+        selected.set(range.size() - 1);
+      }
+      if (request.filtering()) {
+        for (int i = range.size() - 1; i >= 0 && selected.cardinality() < limit; i--) {
+          if (range.get(i).type != RevisionType.AUTO_SAVE) {
+            selected.set(i);
+          }
+        }
+        selectEvenly(selected, range.size(), limit);
+      }
+      for (int i = range.size() - 1; i >= 0 && selected.cardinality() < limit; i--) {
+        selected.set(i);
+      }
+    }
+
+    int offset = store.getRevisionIndex(path, minId);
+    List<RevisionImpl> revisions = Lists.newArrayList();
+    int previous = -1;
+    for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+      Entry entry = range.get(i);
+      revisions.add(RevisionImpl.make()
+          .setNodeId(Long.toString(entry.id))
+          .setRootId(entry.blobId == null ? null : entry.blobId.name())
+          .setTimestamp(Long.toString(entry.timestamp))
+          .setRevisionType(entry.type)
+          .setHasUnresolvedConflicts(false)
+          .setIsFinalResolution(false)
+          .setPreviousNodesSkipped(offset + i - previous - 1));
+      previous = offset + i;
+    }
+
+    return GetFileRevisionsResponseImpl.make().setPath(path)
+        .setWorkspaceId(request.getWorkspaceId()).setRevisions(revisions);
+  }
+
+  /**
+   * Diffs two revisions of a file. A missing before revision means the file's first, and a missing
+   * after revision its latest. A file that was added is diffed against nothing, and so is a file
+   * that was deleted.
+   */
+  GetFileDiffResponseImpl getFileDiff(GetFileDiffImpl request) throws IOException {
+    String path = request.getPath();
+    List<Entry> history = store.getRevisions(path);
+    Entry before = request.getBeforeNodeId() == null ? (history.isEmpty() ? null : history.get(0))
+        : store.getRevision(path, Long.parseLong(request.getBeforeNodeId()));
+    Entry after = request.getAfterNodeId() == null
+        ? (history.isEmpty() ? null : history.get(history.size() - 1))
+        : store.getRevision(path, Long.parseLong(request.getAfterNodeId()));
+    if (request.getChangedType() == MutationType.ADDED) {
+      before = null;
+    } else if (request.getChangedType() == MutationType.DELETED) {
+      after = null;
+    }
+
+    TextDiffer.Diff diff = differ.diff(getContentHash(before), readText(before),
+        getContentHash(after), readText(after), request.isStatsOnly());
+    GetFileDiffResponseImpl response = GetFileDiffResponseImpl.make().setDiffStats(diff.stats)
+        .setBeforeFilePath(path).setAfterFilePath(path);
+    if (!request.isStatsOnly()) {
+      response.setDiffChunks(diff.chunks);
+    }
+    return response;
+  }
+
+  private static String getContentHash(Entry entry) {
+    return entry == null || entry.blobId == null ? "" : entry.blobId.name();
+  }
+
+  private String readText(Entry entry) throws IOException {
+    return entry == null || entry.blobId == null ? ""
+        : new String(store.readContents(entry), Charsets.UTF_8);
+  }
+
+  /**
+   * Adds revisions spread evenly over {@code [0, size)} until {@code limit} are selected.
+   */
+  private static void selectEvenly(BitSet selected, int size, int limit) {
+    int wanted = limit - selected.cardinality();
+    if (wanted <= 0) {
+      return;
+    }
+    double step = (double) size / wanted;
+    for (int slot = 0; slot < wanted; slot++) {
+      int index = (int) Math.min(size - 1, Math.round(slot * step + step / 2));
+      // Take the nearest revision that isn't already selected.
+      for (int distance = 0; distance < size; distance++) {
+        if (index - distance >= 0 && !selected.get(index - distance)) {
+          selected.set(index - distance);
+          break;
+        }
+        if (index + distance < size && !selected.get(index + distance)) {
+          selected.set(index + distance);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Snapshots a file if its content differs from its latest revision.
+   */
+  private void snapshotFile(File file, String path) {
+    if (!file.isFile() || file.length() > maxFileSize) {
+      return;
+    }
+    try {
+      store.snapshot(path, Files.toByteArray(file), file.lastModified());
+    } catch (IOException e) {
+      logger.error(String.format("Failed to snapshot [%s]", path), e);
+    }
+  }
+
+  /**
+   * Keeps one store per workspace under the user's home directory, so that history is neither part
+   * of the workspace nor lost with the temp directory.
+   */
+  private static String getDefaultStoreDir() {
+    String workspace = new File("").getAbsolutePath();
+    return new File(System.getProperty("user.home"), ".collide" + File.separator + "history"
+        + File.separator + Hashing.md5().hashString(workspace, Charsets.UTF_8)).getPath();
+  }
+}
@@ -0,0 +1,551 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.history;
+
+import com.google.collide.dto.Revision.RevisionType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.CountingInputStream;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.ObjectDirectory;
+import org.eclipse.jgit.storage.file.PackFile;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the saved revisions of workspace files.
+ *
+ * <p>
+ * File contents are stored as blobs in a bare JGit object database, so they are addressed by the
+ * hash of their content and identical contents are only ever stored once, whichever file they
+ * belong to. Blobs start out as loose objects; once enough have accumulated they are written into a
+ * pack, where JGit delta-compresses them against each other, and the loose copies are deleted.
+ * Each pack only deltifies the blobs written since the one before it, so once there are more than
+ * a few packs everything is repacked into one, letting new versions delta against old ones.
+ *
+ * <p>
+ * Which file had which content when is kept in an append-only log beside the object database, and
+ * replayed into memory on open. Revision IDs are drawn from a single counter, so a file's revisions
+ * are in ID order and ranges of them can be found without touching any file contents.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+public class RevisionStore {
+
+  private static final int FORMAT_VERSION = 1;
+  private static final String LOG_FILE = "revisions.log";
+  private static final String OBJECTS_DIR = "objects.git";
+
+  private static final byte SNAPSHOT_RECORD = 1;
+  private static final byte MOVE_RECORD = 2;
+  private static final byte DELETE_RECORD = 3;
+
+  /** How many versions of a file the packer considers as delta bases for each other. */
+  private static final int DELTA_SEARCH_WINDOW = 50;
+
+  /** How many packs may accumulate before they are all repacked into one. */
+  private static final int MAX_PACKS = 8;
+
+  /**
+   * One revision of a file. Deletions have no content.
+   */
+  public static class Entry {
+    public final long id;
+    public final long timestamp;
+    public final RevisionType type;
+    public final ObjectId blobId;
+
+    Entry(long id, long timestamp, RevisionType type, ObjectId blobId) {
+      this.id = id;
+      this.timestamp = timestamp;
+      this.type = type;
+      this.blobId = blobId;
+    }
+  }
+
+  private final File logFile;
+  private final Repository repository;
+  private final int packThreshold;
+
+  /** Map of workspace paths to their revisions, oldest first. */
+  private final Map<String, List<Entry>> history = Maps.newHashMap();
+
+  /** Blobs written since the last pack. */
+  private final Set<ObjectId> looseBlobs = Sets.newLinkedHashSet();
+
+  private DataOutputStream log;
+  private long lastId;
+
+  /**
+   * Opens the store in {@code dir}, creating it if needed.
+   *
+   * @param packThreshold how many loose blobs to accumulate before packing them
+   */
+  public static RevisionStore open(File dir, int packThreshold) throws IOException {
+    RevisionStore store = new RevisionStore(dir, packThreshold);
+    store.load();
+    return store;
+  }
+
+  private RevisionStore(File dir, int packThreshold) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create " + dir);
+    }
+    this.logFile = new File(dir, LOG_FILE);
+    this.packThreshold = packThreshold;
+
+    File gitDir = new File(dir, OBJECTS_DIR);
+    this.repository = new FileRepositoryBuilder().setGitDir(gitDir).setBare().build();
+    if (!gitDir.isDirectory()) {
+      repository.create(true);
+    }
+  }
+
+  /**
+   * @return the revisions of {@code path}, oldest first
+   */
+  public List<Entry> getRevisions(String path) {
+    List<Entry> entries = history.get(path);
+    return entries == null ? Collections.<Entry>emptyList() : Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @return the revisions of {@code path} with IDs from {@code minId} to {@code maxId} inclusive,
+   *         oldest first
+   */
+  public List<Entry> getRevisions(String path, long minId, long maxId) {
+    List<Entry> entries = getRevisions(path);
+    int end = maxId == Long.MAX_VALUE ? entries.size() : lowerBound(entries, maxId + 1);
+    return entries.subList(Math.min(lowerBound(entries, minId), end), end);
+  }
+
+  /**
+   * @return the index of the first entry with an ID of at least {@code id}
+   */
+  private static int lowerBound(List<Entry> entries, long id) {
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (entries.get(mid).id < id) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the index in {@link #getRevisions(String)} of the first revision of {@code path} with
+   *         an ID of at least {@code id}
+   */
+  public int getRevisionIndex(String path, long id) {
+    return lowerBound(getRevisions(path), id);
+  }
+
+  /**
+   * @return the revision with the given ID, or null if {@code path} has no such revision
+   */
+  public Entry getRevision(String path, long id) {
+    List<Entry> entries = getRevisions(path);
+    int index = lowerBound(entries, id);
+    return index < entries.size() && entries.get(index).id == id ? entries.get(index) : null;
+  }
+
+  /**
+   * Reads the content of a revision.
+   */
+  public byte[] readContents(Entry entry) throws IOException {
+    if (entry.blobId == null) {
+      throw new IOException("Revision " + entry.id + " has no content");
+    }
+    ObjectReader reader = repository.newObjectReader();
+    try {
+      return reader.open(entry.blobId, Constants.OBJ_BLOB).getCachedBytes();
+    } finally {
+      reader.release();
+    }
+  }
+
+  /**
+   * Records the current content of a file. Nothing is recorded if the content is the same as the
+   * file's latest revision.
+   *
+   * @return the new revision, or null if the content was unchanged
+   */
+  public Entry snapshot(String path, byte[] contents, long timestamp) throws IOException {
+    Entry latest = getLatest(path);
+    ObjectInserter inserter = repository.newObjectInserter();
+    ObjectId blobId;
+    try {
+      ObjectId expectedId = inserter.idFor(Constants.OBJ_BLOB, contents);
+      if (latest != null && expectedId.equals(latest.blobId)) {
+        return null;
+      }
+      boolean stored = repository.hasObject(expectedId);
+      blobId = inserter.insert(Constants.OBJ_BLOB, contents);
+      inserter.flush();
+      if (!stored) {
+        looseBlobs.add(blobId);
+      }
+    } finally {
+      inserter.release();
+    }
+
+    Entry entry = new Entry(++lastId, timestamp, getSnapshotType(path), blobId);
+    log.writeByte(SNAPSHOT_RECORD);
+    writeEntryHeader(entry, path);
+    log.write(toRaw(blobId));
+    log.flush();
+    append(path, entry);
+
+    if (looseBlobs.size() >= packThreshold) {
+      pack();
+    }
+    return entry;
+  }
+
+  /**
+   * Moves the history of a file, or of every file under a directory path ending in a slash, to a
+   * new path and records the move there.
+   */
+  public void move(String oldPath, String newPath, long timestamp) throws IOException {
+    for (String path : getPathsUnder(oldPath)) {
+      String movedPath = newPath + path.substring(oldPath.length());
+      Entry latest = getLatest(path);
+      Entry entry = new Entry(++lastId, timestamp, RevisionType.MOVE, latest.blobId);
+      log.writeByte(MOVE_RECORD);
+      writeEntryHeader(entry, movedPath);
+      log.writeUTF(path);
+      applyMove(path, movedPath, entry);
+    }
+    log.flush();
+  }
+
+  /**
+   * Records the deletion of a file, or of every file under a directory path ending in a slash. The
+   * history is kept, so a file that is re-created continues it.
+   */
+  public void delete(String deletedPath, long timestamp) throws IOException {
+    for (String path : getPathsUnder(deletedPath)) {
+      Entry latest = getLatest(path);
+      if (latest.type == RevisionType.DELETE) {
+        continue;
+      }
+      Entry entry = new Entry(++lastId, timestamp, RevisionType.DELETE, null);
+      log.writeByte(DELETE_RECORD);
+      writeEntryHeader(entry, path);
+      append(path, entry);
+    }
+    log.flush();
+  }
+
+  public void close() {
+    try {
+      if (log != null) {
+        log.close();
+      }
+    } catch (IOException e) {
+      // Everything was flushed as it was written.
+    }
+    repository.close();
+  }
+
+  private List<String> getPathsUnder(String path) {
+    List<String> paths = Lists.newArrayList();
+    if (path.endsWith("/")) {
+      for (String candidate : history.keySet()) {
+        if (candidate.startsWith(path)) {
+          paths.add(candidate);
+        }
+      }
+    } else if (history.containsKey(path)) {
+      paths.add(path);
+    }
+    return paths;
+  }
+
+  private Entry getLatest(String path) {
+    List<Entry> entries = history.get(path);
+    return entries == null ? null : entries.get(entries.size() - 1);
+  }
+
+  /**
+   * A snapshot that starts a file's history, or restarts it after a deletion, is a branch point.
+   */
+  private RevisionType getSnapshotType(String path) {
+    Entry latest = getLatest(path);
+    return latest == null || latest.type == RevisionType.DELETE ? RevisionType.BRANCH
+        : RevisionType.AUTO_SAVE;
+  }
+
+  private void append(String path, Entry entry) {
+    List<Entry> entries = history.get(path);
+    if (entries == null) {
+      entries = Lists.newArrayList();
+      history.put(path, entries);
+    }
+    entries.add(entry);
+  }
+
+  private void applyMove(String oldPath, String newPath, Entry entry) {
+    List<Entry> entries = history.remove(oldPath);
+    if (entries == null) {
+      return;
+    }
+    // A file that was moved over keeps its own history only up to the move.
+    List<Entry> overwritten = history.put(newPath, entries);
+    if (overwritten != null) {
+      entries.addAll(0, overwritten);
+      Collections.sort(entries, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+          return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+      });
+    }
+    entries.add(entry);
+  }
+
+  private void writeEntryHeader(Entry entry, String path) throws IOException {
+    log.writeLong(entry.id);
+    log.writeLong(entry.timestamp);
+    log.writeUTF(path);
+  }
+
+  private static byte[] toRaw(ObjectId id) {
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    id.copyRawTo(raw, 0);
+    return raw;
+  }
+
+  /**
+   * Replays the log into memory, then opens it for appending. A record cut short by a crash is
+   * truncated away.
+   */
+  private void load() throws IOException {
+    long validLength = 0;
+    if (logFile.isFile()) {
+      CountingInputStream counter =
+          new CountingInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+      DataInputStream in = new DataInputStream(counter);
+      try {
+        if (in.readInt() != FORMAT_VERSION) {
+          throw new IOException("Unsupported revision log format in " + logFile);
+        }
+        validLength = counter.getCount();
+        while (true) {
+          readRecord(in);
+          validLength = counter.getCount();
+        }
+      } catch (EOFException e) {
+        // The end of the log, or a partially written record.
+      } finally {
+        in.close();
+      }
+    }
+
+    if (validLength == 0) {
+      DataOutputStream out = new DataOutputStream(new FileOutputStream(logFile));
+      try {
+        out.writeInt(FORMAT_VERSION);
+      } finally {
+        out.close();
+      }
+    } else if (validLength < logFile.length()) {
+      RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+      try {
+        file.setLength(validLength);
+      } finally {
+        file.close();
+      }
+    }
+    log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+
+    // Blobs that were not packed before the last shutdown are still loose.
+    ObjectDirectory objects = (ObjectDirectory) repository.getObjectDatabase();
+    for (List<Entry> entries : history.values()) {
+      for (Entry entry : entries) {
+        if (entry.type != RevisionType.MOVE && entry.blobId != null
+            && objects.fileFor(entry.blobId).isFile()) {
+          looseBlobs.add(entry.blobId);
+        }
+      }
+    }
+  }
+
+  private void readRecord(DataInputStream in) throws IOException {
+    byte kind = in.readByte();
+    long id = in.readLong();
+    long timestamp = in.readLong();
+    String path = in.readUTF();
+    lastId = Math.max(lastId, id);
+    switch (kind) {
+      case SNAPSHOT_RECORD: {
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        in.readFully(raw);
+        append(path, new Entry(id, timestamp, getSnapshotType(path), ObjectId.fromRaw(raw)));
+        break;
+      }
+      case MOVE_RECORD: {
+        String oldPath = in.readUTF();
+        Entry latest = getLatest(oldPath);
+        applyMove(oldPath, path,
+            new Entry(id, timestamp, RevisionType.MOVE, latest == null ? null : latest.blobId));
+        break;
+      }
+      case DELETE_RECORD:
+        append(path, new Entry(id, timestamp, RevisionType.DELETE, null));
+        break;
+      default:
+        throw new IOException("Corrupt revision log " + logFile);
+    }
+  }
+
+  /**
+   * Writes the loose blobs into a new pack and deletes them. Consecutive saves of a file differ
+   * little, so most of them end up stored as small deltas. Too many packs are repacked into one.
+   */
+  void pack() throws IOException {
+    if (looseBlobs.isEmpty()) {
+      return;
+    }
+
+    ObjectDirectory objects = (ObjectDirectory) repository.getObjectDatabase();
+    writePack(looseBlobs);
+    for (ObjectId id : looseBlobs) {
+      objects.fileFor(id).delete();
+    }
+    looseBlobs.clear();
+
+    if (objects.getPacks().size() > MAX_PACKS) {
+      repack();
+    }
+  }
+
+  /**
+   * Writes every stored blob into a single pack, so that the versions of a file can delta against
+   * each other whichever pack they were first written to, and deletes the old packs.
+   */
+  private void repack() throws IOException {
+    ObjectDirectory objects = (ObjectDirectory) repository.getObjectDatabase();
+    List<File> oldPacks = Lists.newArrayList();
+    for (PackFile pack : objects.getPacks()) {
+      oldPacks.add(pack.getPackFile());
+    }
+
+    Set<ObjectId> blobs = Sets.newLinkedHashSet();
+    for (List<Entry> entries : history.values()) {
+      for (Entry entry : entries) {
+        if (entry.blobId != null) {
+          blobs.add(entry.blobId);
+        }
+      }
+    }
+    writePack(blobs);
+
+    // Closing drops the old packs; the new one is found again on the next read.
+    objects.close();
+    for (File pack : oldPacks) {
+      String name = pack.getName();
+      new File(pack.getParentFile(), name.substring(0, name.length() - 5) + ".idx").delete();
+      pack.delete();
+    }
+  }
+
+  /**
+   * Writes the given blobs into a new pack and opens it.
+   */
+  private void writePack(Collection<ObjectId> blobIds) throws IOException {
+    ObjectDirectory objects = (ObjectDirectory) repository.getObjectDatabase();
+    PackConfig config = new PackConfig(repository);
+    config.setDeltaSearchWindowSize(DELTA_SEARCH_WINDOW);
+    ObjectReader reader = repository.newObjectReader();
+    PackWriter writer = new PackWriter(config, reader);
+    try {
+      RevWalk walk = new RevWalk(reader);
+      List<RevObject> blobs = Lists.newArrayList();
+      for (ObjectId id : blobIds) {
+        blobs.add(walk.lookupBlob(id));
+      }
+      writer.preparePack(blobs.iterator());
+
+      File packDir = new File(objects.getDirectory(), "pack");
+      if (!packDir.isDirectory() && !packDir.mkdirs()) {
+        throw new IOException("Could not create " + packDir);
+      }
+      File tmpPack = File.createTempFile("incoming_", ".pack", packDir);
+      File tmpIndex = new File(packDir, tmpPack.getName().replace(".pack", ".idx"));
+      try {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpPack));
+        try {
+          writer.writePack(NullProgressMonitor.INSTANCE, NullProgressMonitor.INSTANCE, out);
+        } finally {
+          out.close();
+        }
+        out = new BufferedOutputStream(new FileOutputStream(tmpIndex));
+        try {
+          writer.writeIndex(out);
+        } finally {
+          out.close();
+        }
+
+        String name = "pack-" + writer.computeName().name();
+        File packFile = new File(packDir, name + ".pack");
+        File indexFile = new File(packDir, name + ".idx");
+        if (!tmpPack.renameTo(packFile) || !tmpIndex.renameTo(indexFile)) {
+          throw new IOException("Could not install pack " + name);
+        }
+        objects.openPack(packFile, indexFile);
+      } finally {
+        tmpPack.delete();
+        tmpIndex.delete();
+      }
+    } finally {
+      writer.release();
+      reader.release();
+    }
+  }
+}
@@ -0,0 +1,256 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.metrics;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Times the event bus handlers of one verticle instance. A verticle registers its handlers through
+ * {@link #registerHandler} instead of directly on the event bus, and for each address this records
+ * in {@link LatencyHistogram}s:
+ *
+ * <ul>
+ * <li>how long the handler ran, which also counts the messages,</li>
+ * <li>how long it took to reply, from the message arriving to {@code reply} being called, which
+ * includes any asynchronous work the handler started,</li>
+ * <li>the size of each message and reply, in characters (see {@link #recordSize}).</li>
+ * </ul>
+ *
+ * <p>
+ * Vert.x does not say when a message was sent, so how long a message queued for its handler is
+ * measured for the verticle as a whole: a timer checks every {@value #PROBE_MILLIS} milliseconds
+ * how late it fires, which is how long anything arriving then waited behind the work already on
+ * the event loop.
+ *
+ * <p>
+ * Recording takes a couple of calls to {@link System#nanoTime} and a few atomic operations. The
+ * {@link MetricsService} collects the stats of every instance for {@code metrics.snapshot}: an
+ * instance registers its private stats address on {@value #REGISTER_ADDRESS} when it starts, and
+ * again whenever the service asks on {@value #ANNOUNCE_ADDRESS}, so they may start in any order.
+ */
+public class EventBusMetrics {
+
+  public static final String ANNOUNCE_ADDRESS = "metrics.announce";
+  public static final String REGISTER_ADDRESS = "metrics.register";
+  public static final String UNREGISTER_ADDRESS = "metrics.unregister";
+
+  private static final long PROBE_MILLIS = 100;
+
+  /** Only one in this many messages is encoded to measure its size. */
+  private static final int SIZE_SAMPLE_INTERVAL = 16;
+
+  /**
+   * The stats of one address.
+   */
+  private static class AddressStats {
+    final LatencyHistogram handlerTime = new LatencyHistogram();
+    final LatencyHistogram replyTime = new LatencyHistogram();
+    final LatencyHistogram requestSize = new LatencyHistogram();
+    final LatencyHistogram replySize = new LatencyHistogram();
+
+    /** Counts the messages and replies that could only be measured by encoding them. */
+    final AtomicInteger encodedSizeCount = new AtomicInteger();
+
+    JsonObject toJson() {
+      return new JsonObject().putNumber("count", handlerTime.getCount())
+          .putObject("handlerTime", handlerTime.toJson())
+          .putObject("replyTime", replyTime.toJson())
+          .putObject("requestSize", requestSize.toJson(1))
+          .putObject("replySize", replySize.toJson(1));
+    }
+  }
+
+  /**
+   * Passed to the handler in place of a message that expects a reply, to time the reply.
+   */
+  private static class TimedMessage<T> extends Message<T> {
+    private final Message<T> message;
+    private final AddressStats stats;
+    private final long arrivalNanos;
+
+    TimedMessage(Message<T> message, AddressStats stats, long arrivalNanos) {
+      this.message = message;
+      this.stats = stats;
+      this.arrivalNanos = arrivalNanos;
+      this.body = message.body;
+      this.replyAddress = message.replyAddress;
+    }
+
+    @Override
+    public void reply(T reply, Handler<Message<T>> replyHandler) {
+      stats.replyTime.recordMicros((System.nanoTime() - arrivalNanos) / 1000);
+      recordSize(stats, stats.replySize, reply);
+      message.reply(reply, replyHandler);
+    }
+  }
+
+  private final Vertx vertx;
+  private final String name;
+  private final String statsAddress = "metrics.eventBus." + UUID.randomUUID();
+
+  /**
+   * Stats by address. Replies may come from other threads, such as the file tree's watcher.
+   */
+  private final Map<String, AddressStats> addresses =
+      new ConcurrentSkipListMap<String, AddressStats>();
+
+  private final LatencyHistogram queueDelay = new LatencyHistogram();
+
+  private final Handler<Message<JsonObject>> statsHandler = new Handler<Message<JsonObject>>() {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      message.reply(getStats());
+    }
+  };
+
+  private final Handler<Message<JsonObject>> announceHandler =
+      new Handler<Message<JsonObject>>() {
+        @Override
+        public void handle(Message<JsonObject> message) {
+          sendRegistration(REGISTER_ADDRESS);
+        }
+      };
+
+  private long probeTimerId = -1;
+  private long lastProbeNanos;
+
+  /**
+   * @param name reported for this verticle, usually its class name
+   */
+  public EventBusMetrics(Vertx vertx, String name) {
+    this.vertx = vertx;
+    this.name = name;
+  }
+
+  /**
+   * Starts measuring the event loop and makes the stats available to the {@link MetricsService}.
+   * Call this from the verticle's {@code start()}.
+   */
+  public void start() {
+    vertx.eventBus().registerHandler(statsAddress, statsHandler);
+    vertx.eventBus().registerHandler(ANNOUNCE_ADDRESS, announceHandler);
+    sendRegistration(REGISTER_ADDRESS);
+
+    lastProbeNanos = System.nanoTime();
+    probeTimerId = vertx.setPeriodic(PROBE_MILLIS, new Handler<Long>() {
+      @Override
+      public void handle(Long timerId) {
+        long now = System.nanoTime();
+        queueDelay.recordMicros((now - lastProbeNanos) / 1000 - PROBE_MILLIS * 1000);
+        lastProbeNanos = now;
+      }
+    });
+  }
+
+  /**
+   * Call this from the verticle's {@code stop()}.
+   */
+  public void stop() {
+    if (probeTimerId != -1) {
+      vertx.cancelTimer(probeTimerId);
+      probeTimerId = -1;
+    }
+    sendRegistration(UNREGISTER_ADDRESS);
+    vertx.eventBus().unregisterHandler(ANNOUNCE_ADDRESS, announceHandler);
+    vertx.eventBus().unregisterHandler(statsAddress, statsHandler);
+  }
+
+  /**
+   * Registers {@code handler} on the event bus, timing every message it handles.
+   */
+  public <T> void registerHandler(String address, Handler<Message<T>> handler) {
+    vertx.eventBus().registerHandler(address, instrument(address, handler));
+  }
+
+  /**
+   * Wraps {@code handler} to time the messages it handles as ones sent to {@code address}.
+   */
+  public <T> Handler<Message<T>> instrument(String address, final Handler<Message<T>> handler) {
+    AddressStats existing = addresses.get(address);
+    if (existing == null) {
+      existing = new AddressStats();
+      addresses.put(address, existing);
+    }
+    final AddressStats stats = existing;
+    return new Handler<Message<T>>() {
+      @Override
+      public void handle(Message<T> message) {
+        long arrivalNanos = System.nanoTime();
+        recordSize(stats, stats.requestSize, message.body);
+        try {
+          handler.handle(message.replyAddress == null ? message
+              : new TimedMessage<T>(message, stats, arrivalNanos));
+        } finally {
+          stats.handlerTime.recordMicros((System.nanoTime() - arrivalNanos) / 1000);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the stats of this instance: its queueing delay and the stats of each address, with
+   * times in milliseconds and sizes in characters.
+   */
+  public JsonObject getStats() {
+    JsonObject addressJson = new JsonObject();
+    for (Map.Entry<String, AddressStats> entry : addresses.entrySet()) {
+      addressJson.putObject(entry.getKey(), entry.getValue().toJson());
+    }
+    return new JsonObject().putObject("queueDelay", queueDelay.toJson())
+        .putObject("addresses", addressJson);
+  }
+
+  private void sendRegistration(String address) {
+    vertx.eventBus().send(address,
+        new JsonObject().putString("name", name).putString("address", statsAddress));
+  }
+
+  /**
+   * Records the size of a message body. Most carry their payload in string fields, such as a
+   * serialized DTO or the payload that participants forward, so the lengths of those are used as
+   * they are. A JSON body without any has to be encoded to be measured, so only one in
+   * {@value #SIZE_SAMPLE_INTERVAL} of those is.
+   */
+  private static void recordSize(AddressStats stats, LatencyHistogram sizes, Object body) {
+    if (body instanceof JsonObject) {
+      JsonObject json = (JsonObject) body;
+      long size = 0;
+      for (String fieldName : json.getFieldNames()) {
+        Object field = json.getField(fieldName);
+        if (field instanceof String) {
+          size += ((String) field).length();
+        }
+      }
+      if (size > 0) {
+        sizes.record(size);
+      } else if (stats.encodedSizeCount.getAndIncrement() % SIZE_SAMPLE_INTERVAL == 0) {
+        sizes.record(json.encode().length());
+      }
+    } else if (body instanceof String) {
+      sizes.record(((String) body).length());
+    } else if (body instanceof Buffer) {
+      sizes.record(((Buffer) body).length());
+    }
+  }
+}
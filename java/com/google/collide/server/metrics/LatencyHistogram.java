@@ -0,0 +1,141 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.metrics;
+
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in the style of HdrHistogram. Values are kept in microseconds, in
+ * buckets that are linear below 128 and then double in width every 64 buckets, so every recorded
+ * value is known to within about 1.5% however large it is. Recording is a few array and atomic
+ * operations, with no locks or allocation, so it is cheap enough for hot paths and safe to share
+ * between threads.
+ *
+ * <p>
+ * Values past about 19 hours are counted as 19 hours. Nothing about the buckets is specific to
+ * time, so the histogram also holds other non-negative values, such as message sizes, with
+ * {@link #record} and {@link #toJson(double)}.
+ */
+public class LatencyHistogram {
+
+  /** Each power of two from 128 up is split into this many buckets. */
+  private static final int HALF_SUB_BUCKETS = 64;
+  private static final int SUB_BUCKET_BITS = 6;
+
+  private static final long MAX_VALUE = (1L << 36) - 1;
+
+  private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] REPORTED_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong minMicros = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  public void recordMillis(double millis) {
+    recordMicros(Math.round(millis * 1000));
+  }
+
+  public void recordMicros(long micros) {
+    record(micros);
+  }
+
+  public void record(long value) {
+    value = Math.min(Math.max(value, 0), MAX_VALUE);
+    counts.incrementAndGet(indexOf(value));
+    totalCount.incrementAndGet();
+    totalMicros.addAndGet(value);
+    for (long min = minMicros.get(); value < min && !minMicros.compareAndSet(min, value);) {
+      min = minMicros.get();
+    }
+    for (long max = maxMicros.get(); value > max && !maxMicros.compareAndSet(max, value);) {
+      max = maxMicros.get();
+    }
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * Returns the value below which the given percentage of the recorded values fall, as the largest
+   * value that shares its bucket. Returns 0 if nothing was recorded.
+   */
+  public long getPercentileMicros(double percentile) {
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueAt(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  /**
+   * Summarizes the histogram in milliseconds: the count, min, mean, max and a few percentiles.
+   */
+  public JsonObject toJson() {
+    return toJson(1000);
+  }
+
+  /**
+   * Summarizes the histogram with every value divided by {@code divisor}.
+   */
+  public JsonObject toJson(double divisor) {
+    long count = totalCount.get();
+    JsonObject json = new JsonObject().putNumber("count", count);
+    if (count == 0) {
+      return json;
+    }
+    json.putNumber("min", minMicros.get() / divisor)
+        .putNumber("mean", totalMicros.get() / count / divisor)
+        .putNumber("max", maxMicros.get() / divisor);
+    for (int i = 0; i < REPORTED_PERCENTILES.length; i++) {
+      json.putNumber(
+          REPORTED_NAMES[i], getPercentileMicros(REPORTED_PERCENTILES[i]) / divisor);
+    }
+    return json;
+  }
+
+  /**
+   * Values below 128 get a bucket each. Above that, a value whose highest bit is
+   * bit {@code SUB_BUCKET_BITS + shift} lands in one of the 64 buckets of width {@code 2^shift}
+   * that follow the buckets of the previous power of two.
+   */
+  static int indexOf(long value) {
+    int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    return (int) (HALF_SUB_BUCKETS * shift + (value >> shift));
+  }
+
+  static long lowestValueAt(int index) {
+    int shift = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+    return (long) (index - HALF_SUB_BUCKETS * shift) << shift;
+  }
+
+  static long highestValueAt(int index) {
+    int shift = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+    return lowestValueAt(index) + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,288 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.metrics;
+
+import com.google.collide.dto.LogMetric;
+import com.google.collide.dto.server.DtoServerImpls.LogMetricsImpl;
+import com.google.collide.server.shared.util.Dto;
+import com.google.collide.shared.metrics.CollideAction;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Collects the metrics that clients log and serves them, together with the server's own stats,
+ * from a local HTTP endpoint.
+ *
+ * <p>
+ * Clients send batches of {@code LogMetrics} to {@code metrics.log}. A metric whose message is a
+ * number is a latency in milliseconds, such as how long a file took to open, and is recorded in a
+ * {@link LatencyHistogram} for its action and event. Any other metric is only counted. Metrics are
+ * keyed by strings that clients choose, so only {@link CollideAction}s are kept apart, and only up
+ * to {@code maxKeys} distinct actions and events of each kind; the rest are all recorded under
+ * {@value #OTHER_KEY}.
+ *
+ * <p>
+ * {@code metrics.snapshot}, and {@code GET /metrics} on the configured port, which only listens on
+ * the loopback interface by default, reply with a JSON object holding the client metrics under
+ * {@code "client"}; under {@code "server"}, the reply of each address in the
+ * {@code serverStatsAddresses} config; and under {@code "eventBus"}, the handler stats of every
+ * verticle instance that times its handlers with {@link EventBusMetrics}, as a list per verticle.
+ * Those addresses are asked for their stats when the snapshot is taken; any that do not answer
+ * within {@code statsTimeout} milliseconds are left out. {@code metrics.getClientMetrics} replies
+ * with just the client metrics.
+ */
+public class MetricsService extends BusModBase implements Handler<HttpServerRequest> {
+
+  private static final String METRICS_PATH = "/metrics";
+  private static final int DEFAULT_STATS_TIMEOUT = 1000;
+  private static final int DEFAULT_MAX_KEYS = 200;
+  private static final String OTHER_KEY = "other";
+
+  private static final Set<String> ACTIONS = Sets.newHashSet();
+  static {
+    for (CollideAction action : CollideAction.values()) {
+      ACTIONS.add(action.toString());
+    }
+  }
+
+  /** Latencies by action and event, sorted so that the endpoint lists them in a stable order. */
+  private final SortedMap<String, LatencyHistogram> latencies = Maps.newTreeMap();
+
+  /** Counts of the metrics that carry no latency, by action and event. */
+  private final SortedMap<String, Long> counts = Maps.newTreeMap();
+
+  /** The stats addresses of the {@link EventBusMetrics} instances, to the verticle they time. */
+  private final Map<String, String> eventBusStatsAddresses = Maps.newLinkedHashMap();
+
+  private JsonArray serverStatsAddresses;
+  private long statsTimeout;
+  private int maxKeys;
+
+  @Override
+  public void start() {
+    super.start();
+    String addressBase = getOptionalStringConfig("address", "metrics");
+    serverStatsAddresses = getOptionalArrayConfig("serverStatsAddresses",
+        new JsonArray().addString("fe.staticFileStats").addString("documents.getStats"));
+    statsTimeout = getOptionalIntConfig("statsTimeout", DEFAULT_STATS_TIMEOUT);
+    maxKeys = getOptionalIntConfig("maxKeys", DEFAULT_MAX_KEYS);
+
+    eb.registerHandler(addressBase + ".log", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        record(LogMetricsImpl.fromJsonString(Dto.get(message)));
+      }
+    });
+
+    eb.registerHandler(addressBase + ".getClientMetrics", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        message.reply(getClientMetrics());
+      }
+    });
+
+    eb.registerHandler(addressBase + ".snapshot", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(final Message<JsonObject> message) {
+        takeSnapshot(new Handler<JsonObject>() {
+          @Override
+          public void handle(JsonObject snapshot) {
+            message.reply(snapshot);
+          }
+        });
+      }
+    });
+
+    eb.registerHandler(EventBusMetrics.REGISTER_ADDRESS, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        eventBusStatsAddresses.put(
+            message.body.getString("address"), message.body.getString("name"));
+      }
+    });
+
+    eb.registerHandler(EventBusMetrics.UNREGISTER_ADDRESS, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        eventBusStatsAddresses.remove(message.body.getString("address"));
+      }
+    });
+
+    // Verticles that started before this one registered with nobody, so ask them again.
+    eb.publish(EventBusMetrics.ANNOUNCE_ADDRESS, new JsonObject());
+
+    int port = getOptionalIntConfig("port", 8081);
+    if (port > 0) {
+      vertx.createHttpServer().requestHandler(this)
+          .listen(port, getOptionalStringConfig("host", "127.0.0.1"));
+    }
+  }
+
+  @Override
+  public void handle(final HttpServerRequest req) {
+    if (!METRICS_PATH.equals(req.path) || !"GET".equals(req.method)) {
+      req.response.statusCode = HttpStatus.SC_NOT_FOUND;
+      req.response.end();
+      return;
+    }
+
+    takeSnapshot(new Handler<JsonObject>() {
+      @Override
+      public void handle(JsonObject snapshot) {
+        sendJson(req, snapshot);
+      }
+    });
+  }
+
+  /**
+   * Asks the server stats addresses and the {@link EventBusMetrics} instances for their stats, and
+   * passes the snapshot to {@code done} once they have all answered or the timeout has passed.
+   */
+  private void takeSnapshot(final Handler<JsonObject> done) {
+    final JsonObject server = new JsonObject();
+    final JsonObject eventBus = new JsonObject();
+    final JsonObject metrics = new JsonObject().putObject("client", getClientMetrics())
+        .putObject("server", server).putObject("eventBus", eventBus);
+    final int[] pending = {serverStatsAddresses.size() + eventBusStatsAddresses.size()};
+    final long timerId = vertx.setTimer(statsTimeout, new Handler<Long>() {
+      @Override
+      public void handle(Long event) {
+        pending[0] = 0;
+        done.handle(metrics);
+      }
+    });
+    if (pending[0] == 0) {
+      vertx.cancelTimer(timerId);
+      done.handle(metrics);
+      return;
+    }
+
+    for (Object item : serverStatsAddresses) {
+      final String address = (String) item;
+      eb.send(address, new JsonObject(), new Handler<Message<JsonObject>>() {
+        @Override
+        public void handle(Message<JsonObject> reply) {
+          if (pending[0] == 0) {
+            // Too late; the snapshot has gone.
+            return;
+          }
+          server.putObject(address, reply.body);
+          countReply(pending, timerId, metrics, done);
+        }
+      });
+    }
+
+    for (Map.Entry<String, String> entry : eventBusStatsAddresses.entrySet()) {
+      final String name = entry.getValue();
+      eb.send(entry.getKey(), new JsonObject(), new Handler<Message<JsonObject>>() {
+        @Override
+        public void handle(Message<JsonObject> reply) {
+          if (pending[0] == 0) {
+            // Too late; the snapshot has gone.
+            return;
+          }
+          JsonArray instances = eventBus.getArray(name);
+          if (instances == null) {
+            instances = new JsonArray();
+            eventBus.putArray(name, instances);
+          }
+          instances.addObject(reply.body);
+          countReply(pending, timerId, metrics, done);
+        }
+      });
+    }
+  }
+
+  private void countReply(int[] pending, long timerId, JsonObject metrics,
+      Handler<JsonObject> done) {
+    if (--pending[0] == 0) {
+      vertx.cancelTimer(timerId);
+      done.handle(metrics);
+    }
+  }
+
+  private void record(LogMetricsImpl logMetrics) {
+    for (LogMetric metric : logMetrics.getMetrics().asIterable()) {
+      Double millis = parseMillis(metric.getMessage());
+      if (millis == null) {
+        String key = getKey(metric, counts);
+        Long count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+        continue;
+      }
+      String key = getKey(metric, latencies);
+      LatencyHistogram histogram = latencies.get(key);
+      if (histogram == null) {
+        histogram = new LatencyHistogram();
+        latencies.put(key, histogram);
+      }
+      histogram.recordMillis(millis);
+    }
+  }
+
+  /**
+   * Returns the key to record a metric under in {@code recorded}, which is {@value #OTHER_KEY} if
+   * its action is unknown or if the map already holds as many keys as it may.
+   */
+  private String getKey(LogMetric metric, Map<String, ?> recorded) {
+    if (!ACTIONS.contains(metric.getAction())) {
+      return OTHER_KEY;
+    }
+    String key = metric.getAction() + "." + metric.getEvent();
+    return recorded.containsKey(key) || recorded.size() < maxKeys ? key : OTHER_KEY;
+  }
+
+  private JsonObject getClientMetrics() {
+    JsonObject latencyJson = new JsonObject();
+    for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+      latencyJson.putObject(entry.getKey(), entry.getValue().toJson());
+    }
+    JsonObject countJson = new JsonObject();
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      countJson.putNumber(entry.getKey(), entry.getValue());
+    }
+    return new JsonObject().putObject("latencies", latencyJson).putObject("counts", countJson);
+  }
+
+  private static Double parseMillis(String message) {
+    if (message == null) {
+      return null;
+    }
+    try {
+      double millis = Double.parseDouble(message);
+      return Double.isNaN(millis) || Double.isInfinite(millis) || millis < 0 ? null : millis;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static void sendJson(HttpServerRequest req, JsonObject json) {
+    req.response.statusCode = HttpStatus.SC_OK;
+    req.response.putHeader("Content-Type", "application/json");
+    req.response.end(json.encode());
+  }
+}
@@ -18,6 +18,7 @@ import com.google.collide.dto.server.DtoServerImpls.GetWorkspaceParticipantsResp
 import com.google.collide.dto.server.DtoServerImpls.ParticipantImpl;
 import com.google.collide.dto.server.DtoServerImpls.ParticipantUserDetailsImpl;
 import com.google.collide.dto.server.DtoServerImpls.UserDetailsImpl;
+import com.google.collide.server.metrics.EventBusMetrics;
 import com.google.collide.server.shared.util.Dto;
 
 import org.vertx.java.busmods.BusModBase;
@@ -83,6 +84,13 @@ public class Participants extends BusModBase {
       this.userId = getStableUserId(username);
     }
 
+    /** Adopts a user ID that was allocated by a replica on another node. */
+    private LoggedInUser(String username, String userId) {
+      this.username = username;
+      this.userId = userId;
+      usernameToStableIdMap.put(username, userId);
+    }
+
     /** Stable identifier for a username. Stable for the lifetime of the server. */
     static final Map<String, String> usernameToStableIdMap = new HashMap<String, String>();
     static String getStableUserId(String username) {
@@ -95,10 +103,38 @@ public class Participants extends BusModBase {
     }
   }
 
+  /**
+   * Address that replicas publish their state changes on in a clustered deployment, so that every
+   * node can authorise and broadcast to every user and tab.
+   */
+  public static final String REPLICATION_ADDRESS_SUFFIX = ".replicate";
+
+  /**
+   * Address that logouts are published on, so that anything caching authorisation results can
+   * drop them.
+   */
+  public static final String LOGGED_OUT_ADDRESS_SUFFIX = ".loggedOut";
+
+  /**
+   * Address that the active client ID of a tab is published on when it expires or its user logs
+   * out, so that anything keeping state per tab can drop it.
+   */
+  public static final String TAB_CLOSED_ADDRESS_SUFFIX = ".tabClosed";
+
   private String password;
   private long tabKeepAliveTimeout;
   private long loginSessionTimeout;
 
+  /** Non-null when this instance is one of several replicas in a cluster. */
+  private String replicationAddress;
+  private String nodeId;
+
+  private String loggedOutAddress;
+  private String tabClosedAddress;
+
+  /** Times the event bus handlers. */
+  private EventBusMetrics eventBusMetrics;
+
   /** Map of per-tab active client IDs to ConnectedTabs. */
   protected final Map<String, ConnectedTab> connectedTabs = new HashMap<String, ConnectedTab>();
 
@@ -113,50 +149,72 @@ public class Participants extends BusModBase {
     this.loginSessionTimeout = getOptionalLong("session_timeout", DEFAULT_LOGIN_TIMEOUT);
     this.tabKeepAliveTimeout = getOptionalLong("keep_alive_timeout", DEFAULT_KEEP_ALIVE_TIMEOUT);
     String addressBase = getOptionalStringConfig("address", "participants");   
+    this.loggedOutAddress = addressBase + LOGGED_OUT_ADDRESS_SUFFIX;
+    this.tabClosedAddress = addressBase + TAB_CLOSED_ADDRESS_SUFFIX;
+    this.nodeId = getOptionalStringConfig("nodeId", UUID.randomUUID().toString());
+    eventBusMetrics = new EventBusMetrics(vertx, "Participants");
+    eventBusMetrics.start();
+    if (getOptionalBooleanConfig("replicate", false)) {
+      this.replicationAddress = addressBase + REPLICATION_ADDRESS_SUFFIX;
+      eventBusMetrics.registerHandler(replicationAddress, new Handler<Message<JsonObject>>() {
+        @Override
+        public void handle(Message<JsonObject> event) {
+          applyReplicatedChange(event.body);
+        }
+      });
+    }
 
-    eb.registerHandler(addressBase + ".login", new Handler<Message<JsonObject>>() {
+    eventBusMetrics.registerHandler(addressBase + ".login", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> message) {
         doLogin(message);
       }
     });
 
-    eb.registerHandler(addressBase + ".logout", new Handler<Message<JsonObject>>() {
+    eventBusMetrics.registerHandler(addressBase + ".logout", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> message) {
         doLogout(message);
       }
     });
 
-    eb.registerHandler(addressBase + ".authorise", new Handler<Message<JsonObject>>() {
+    eventBusMetrics.registerHandler(addressBase + ".authorise", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> message) {
         doAuthorise(message);
       }
     });
 
-    eb.registerHandler(addressBase + ".keepAlive", new Handler<Message<JsonObject>>() {
+    eventBusMetrics.registerHandler(addressBase + ".addTab", new Handler<Message<JsonObject>>() {
       @Override
-      public void handle(Message<JsonObject> event) {
-        doKeepAlive(event);
-      }      
+      public void handle(Message<JsonObject> message) {
+        doAddTab(message);
+      }
     });
 
-    eb.registerHandler(addressBase + ".getParticipants", new Handler<Message<JsonObject>>() {
+    eventBusMetrics.registerHandler(addressBase + ".keepAlive", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> event) {
-        doGetParticipants(event);
+        doKeepAlive(event);
       }      
     });
 
-    eb.registerHandler(addressBase + ".broadcast", new Handler<Message<JsonObject>>() {
+    eventBusMetrics.registerHandler(
+        addressBase + ".getParticipants", new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> event) {
+            doGetParticipants(event);
+          }
+        });
+
+    eventBusMetrics.registerHandler(addressBase + ".broadcast", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> event) {
         doBroadcast(event);
       }   
     });
 
-    eb.registerHandler(addressBase + ".sendTo", new Handler<Message<JsonObject>>() {
+    eventBusMetrics.registerHandler(addressBase + ".sendTo", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> event) {
         doSendTo(event);
@@ -164,6 +222,12 @@ public class Participants extends BusModBase {
     });
   }
 
+  @Override
+  public void stop() throws Exception {
+    eventBusMetrics.stop();
+    super.stop();
+  }
+
   private long getOptionalLong(String fieldName, long defaultVal) {
     Number val = config.getNumber(fieldName);
     if (val == null) {
@@ -248,18 +312,25 @@ public class Participants extends BusModBase {
 
   void doKeepAlive(Message<JsonObject> event) {
     final String activeClientId = event.body.getString("activeClient");
-    if (activeClientId != null) {
-      ConnectedTab loginInfo = connectedTabs.get(activeClientId);
-      if (loginInfo != null) {
-        vertx.cancelTimer(loginInfo.timerId);
-        loginInfo.timerId = vertx.setTimer(tabKeepAliveTimeout, new Handler<Long>() {
-          @Override
-          public void handle(Long timerID) {
-            connectedTabs.remove(activeClientId);                
-          }
-        });
-      }
+    if (activeClientId != null && keepAlive(activeClientId)) {
+      replicate(new JsonObject().putString("op", "keepAlive")
+          .putString("activeClient", activeClientId));
+    }
+  }
+
+  private boolean keepAlive(final String activeClientId) {
+    ConnectedTab loginInfo = connectedTabs.get(activeClientId);
+    if (loginInfo == null) {
+      return false;
     }
+    vertx.cancelTimer(loginInfo.timerId);
+    loginInfo.timerId = vertx.setTimer(tabKeepAliveTimeout, new Handler<Long>() {
+      @Override
+      public void handle(Long timerID) {
+        closeTab(activeClientId);
+      }
+    });
+    return true;
   }
 
   void doLogin(final Message<JsonObject> message) {
@@ -280,13 +351,22 @@ public class Participants extends BusModBase {
     }
 
     // Passed authentication. Create a logged in user and a timer to expire his session.
-    if (alreadyLoggedIn(username)) {
+    LoggedInUser user = login(new LoggedInUser(username));
+    replicate(new JsonObject().putString("op", "login").putString("username", username)
+        .putString("userId", user.userId));
+
+    // The spelling "sessionID" is needed to work with the vertx eventbus bridge whitelist.
+    JsonObject jsonReply = new JsonObject().putString("sessionID", user.userId);
+    sendOK(message, jsonReply);
+  }
+
+  private LoggedInUser login(final LoggedInUser user) {
+    if (alreadyLoggedIn(user.username)) {
       // Cancel the previous session logout timer.
-      LoggedInUser existing = loggedInUsers.remove(LoggedInUser.getStableUserId(username));
+      LoggedInUser existing = loggedInUsers.remove(LoggedInUser.getStableUserId(user.username));
       vertx.cancelTimer(existing.timerId);
     }
 
-    final LoggedInUser user = new LoggedInUser(username);    
     loggedInUsers.put(user.userId, user);
     user.timerId = vertx.setTimer(loginSessionTimeout, new Handler<Long>() {
       @Override
@@ -294,10 +374,7 @@ public class Participants extends BusModBase {
         logout(user.userId);
       }
     });
-
-    // The spelling "sessionID" is needed to work with the vertx eventbus bridge whitelist.
-    JsonObject jsonReply = new JsonObject().putString("sessionID", user.userId);
-    sendOK(message, jsonReply);
+    return user;
   }
 
   /**
@@ -309,15 +386,31 @@ public class Participants extends BusModBase {
   }
   
   private String createActiveTab(LoggedInUser user) {
-    final String activeClient = UUID.randomUUID().toString();
+    String activeClient = UUID.randomUUID().toString();
+    createActiveTab(user, activeClient);
+    return activeClient;
+  }
+
+  private void createActiveTab(LoggedInUser user, String activeClient) {
+    addActiveTab(user, activeClient);
+    replicate(new JsonObject().putString("op", "addTab").putString("username", user.username)
+        .putString("userId", user.userId).putString("activeClient", activeClient));
+  }
+
+  private void addActiveTab(LoggedInUser user, final String activeClient) {
     long timerId = vertx.setTimer(tabKeepAliveTimeout, new Handler<Long>() {
       @Override
        public void handle(Long timerId) {
-         connectedTabs.remove(activeClient);        
+         closeTab(activeClient);
        }
      });
     connectedTabs.put(activeClient, new ConnectedTab(user, timerId));
-    return activeClient;
+  }
+
+  private void closeTab(String activeClient) {
+    if (connectedTabs.remove(activeClient) != null) {
+      eb.publish(tabClosedAddress, new JsonObject().putString("activeClient", activeClient));
+    }
   }
 
   private boolean authenticate(String username, String password) {
@@ -328,6 +421,7 @@ public class Participants extends BusModBase {
     final String sessionID = getMandatoryString("sessionID", message);
     if (sessionID != null) {
       if (logout(sessionID)) {
+        replicate(new JsonObject().putString("op", "logout").putString("userId", sessionID));
         sendOK(message);
       } else {
         super.sendError(message, "Not logged in");
@@ -347,9 +441,10 @@ public class Participants extends BusModBase {
       }
 
       for (int i=0;i<usersTabs.size();i++) {
-        connectedTabs.remove(usersTabs.get(i).getKey());
+        closeTab(usersTabs.get(i).getKey());
         vertx.cancelTimer(usersTabs.get(i).getValue().timerId);
       }
+      eb.publish(loggedOutAddress, new JsonObject().putString("sessionID", userId));
       return true;
     } else {
       return false;
@@ -381,4 +476,63 @@ public class Participants extends BusModBase {
       sendStatus("denied", message);
     }
   }
+
+  /**
+   * Adds a tab whose active client ID was allocated by the caller, typically a WebFE that
+   * authorised the session from its cache. Unlike {@link #doAuthorise} this does not reply.
+   */
+  void doAddTab(Message<JsonObject> message) {
+    String userId = message.body.getString("sessionID");
+    String activeClient = message.body.getString("activeClient");
+    if (userId == null || activeClient == null || connectedTabs.containsKey(activeClient)) {
+      return;
+    }
+
+    LoggedInUser user = loggedInUsers.get(userId);
+    if (user == null) {
+      if (!"".equals(password)) {
+        // The session expired after the caller authorised it; the tab will fail to connect.
+        return;
+      }
+      user = new LoggedInUser(message.body.getString("username", "anonymous"));
+    }
+    createActiveTab(user, activeClient);
+  }
+
+  /**
+   * Publishes a state change to the other replicas. A no-op when we are not clustered.
+   */
+  private void replicate(JsonObject change) {
+    if (replicationAddress != null) {
+      eb.publish(replicationAddress, change.putString("origin", nodeId));
+    }
+  }
+
+  /**
+   * Applies a state change published by another replica. Timers are kept per replica, so every
+   * replica expires sessions and tabs on its own.
+   */
+  void applyReplicatedChange(JsonObject change) {
+    if (nodeId.equals(change.getString("origin"))) {
+      return;
+    }
+
+    String op = change.getString("op");
+    if ("login".equals(op)) {
+      login(new LoggedInUser(change.getString("username"), change.getString("userId")));
+    } else if ("logout".equals(op)) {
+      logout(change.getString("userId"));
+    } else if ("addTab".equals(op)) {
+      LoggedInUser user = loggedInUsers.get(change.getString("userId"));
+      if (user == null) {
+        // Tabs for anonymous users in password-less mode have no login session.
+        user = new LoggedInUser(change.getString("username"), change.getString("userId"));
+      }
+      addActiveTab(user, change.getString("activeClient"));
+    } else if ("keepAlive".equals(op)) {
+      keepAlive(change.getString("activeClient"));
+    } else {
+      logger.error("Unknown replicated participants change: " + change.encode());
+    }
+  }
 }
@@ -0,0 +1,260 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.search;
+
+import com.google.collide.dto.server.DtoServerImpls.SnippetImpl;
+import com.google.collide.server.shared.util.WorkspaceWatcher;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Scans workspace files for a pattern in parallel on a fork/join pool.
+ *
+ * <p>
+ * Large files are memory-mapped rather than copied through a read buffer. A scan stops early once
+ * enough files have matched or its time budget runs out. Hitting the cap on matches still returns
+ * the first matches in the order the files were given, however the work was split up: a task only
+ * gives up on files past the point where earlier files are known to have matched enough.
+ */
+class FileScanner {
+
+  /**
+   * A file that matched, with its first few matching lines.
+   */
+  static class FileMatch {
+    final int index;
+    final String path;
+    final List<SnippetImpl> snippets;
+
+    FileMatch(int index, String path, List<SnippetImpl> snippets) {
+      this.index = index;
+      this.path = path;
+      this.snippets = snippets;
+    }
+  }
+
+  /**
+   * The files that matched, and whether there may be more that were not scanned.
+   */
+  static class ScanResult {
+    final List<FileMatch> matches;
+    final boolean truncated;
+
+    ScanResult(List<FileMatch> matches, boolean truncated) {
+      this.matches = matches;
+      this.truncated = truncated;
+    }
+  }
+
+  /** Files smaller than this are read directly, since mapping them costs more than it saves. */
+  private static final long MIN_MAPPED_FILE_SIZE = 64 * 1024;
+
+  /** Files with a NUL byte this close to the start are assumed to be binary. */
+  private static final int BINARY_SNIFF_LENGTH = 8 * 1024;
+
+  /** A task with at most this many files scans them itself rather than forking. */
+  private static final int FILES_PER_TASK = 16;
+
+  private final ForkJoinPool pool;
+
+  FileScanner(int parallelism) {
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Scans files for a pattern, blocking until the scan is done.
+   *
+   * @param paths workspace paths of the files to scan
+   * @param liveContents unsaved contents to scan instead of the disk copy, by path. This is read
+   *        from the pool's threads, so the caller must not modify it until the scan returns.
+   * @param maxMatches stop once this many files have matched
+   * @param deadline stop once {@link System#currentTimeMillis()} passes this
+   * @param maxSnippets the number of matching lines to collect from each file
+   * @return the first matching files, in the order they were given
+   */
+  ScanResult scan(List<String> paths, Map<String, String> liveContents, Pattern pattern,
+      int maxMatches, long deadline, int maxSnippets) {
+    Scan scan = new Scan(paths, liveContents, pattern, maxMatches, deadline, maxSnippets);
+    List<FileMatch> matches = pool.invoke(new ScanTask(scan, 0, paths.size()));
+    return new ScanResult(matches, scan.timedOut || scan.stopIndex.get() < paths.size());
+  }
+
+  /**
+   * The parameters and shared progress of one call to {@link #scan}.
+   */
+  private static class Scan {
+    final List<String> paths;
+    final Map<String, String> liveContents;
+    final Pattern pattern;
+    final int maxMatches;
+    final long deadline;
+    final int maxSnippets;
+
+    /** Files at or past this index are not needed, since enough earlier files matched. */
+    final AtomicInteger stopIndex;
+    volatile boolean timedOut;
+
+    Scan(List<String> paths, Map<String, String> liveContents, Pattern pattern, int maxMatches,
+        long deadline, int maxSnippets) {
+      this.paths = paths;
+      this.liveContents = liveContents;
+      this.pattern = pattern;
+      this.maxMatches = maxMatches;
+      this.deadline = deadline;
+      this.maxSnippets = maxSnippets;
+      this.stopIndex = new AtomicInteger(paths.size());
+    }
+
+    boolean shouldScan(int index) {
+      if (index >= stopIndex.get()) {
+        return false;
+      }
+      if (System.currentTimeMillis() > deadline) {
+        timedOut = true;
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Called once the files up to and including {@code index} are known to hold enough matches.
+     */
+    void stopAfter(int index) {
+      int stop = stopIndex.get();
+      while (index + 1 < stop && !stopIndex.compareAndSet(stop, index + 1)) {
+        stop = stopIndex.get();
+      }
+    }
+  }
+
+  private static class ScanTask extends RecursiveTask<List<FileMatch>> {
+    private final Scan scan;
+    private final int start;
+    private final int end;
+
+    ScanTask(Scan scan, int start, int end) {
+      this.scan = scan;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected List<FileMatch> compute() {
+      List<FileMatch> matches;
+      if (end - start > FILES_PER_TASK) {
+        int middle = (start + end) >>> 1;
+        ScanTask right = new ScanTask(scan, middle, end);
+        right.fork();
+        matches = new ScanTask(scan, start, middle).compute();
+        matches.addAll(right.join());
+      } else {
+        matches = scanFiles();
+      }
+
+      if (matches.size() < scan.maxMatches) {
+        return matches;
+      }
+      // Files before this range can only add matches, so none past the last one we keep count.
+      scan.stopAfter(matches.get(scan.maxMatches - 1).index);
+      return Lists.newArrayList(matches.subList(0, scan.maxMatches));
+    }
+
+    private List<FileMatch> scanFiles() {
+      List<FileMatch> matches = Lists.newArrayList();
+      for (int i = start; i < end && scan.shouldScan(i); i++) {
+        String path = scan.paths.get(i);
+        CharSequence text = scan.liveContents.get(path);
+        if (text == null) {
+          text = readText(new File(WorkspaceWatcher.stripLeadingSlash(path)));
+        }
+        if (text == null) {
+          continue;
+        }
+        List<SnippetImpl> snippets =
+            WorkspaceSearch.findSnippets(text, scan.pattern, scan.maxSnippets);
+        if (!snippets.isEmpty()) {
+          matches.add(new FileMatch(i, path, snippets));
+          if (matches.size() == scan.maxMatches) {
+            scan.stopAfter(i);
+          }
+        }
+      }
+      return matches;
+    }
+  }
+
+  /**
+   * Reads a file as UTF-8, mapping it into memory if it is large.
+   *
+   * @return the text, or null if the file looks binary or cannot be read
+   */
+  static CharSequence readText(File file) {
+    try {
+      FileInputStream in = new FileInputStream(file);
+      try {
+        FileChannel channel = in.getChannel();
+        long size = channel.size();
+        ByteBuffer bytes;
+        if (size >= MIN_MAPPED_FILE_SIZE) {
+          bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } else {
+          bytes = ByteBuffer.allocate((int) size);
+          while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+          }
+          bytes.flip();
+        }
+        if (looksBinary(bytes)) {
+          return null;
+        }
+        return Charsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes);
+      } finally {
+        in.close();
+      }
+    } catch (CharacterCodingException e) {
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static boolean looksBinary(ByteBuffer bytes) {
+    int end = Math.min(bytes.limit(), BINARY_SNIFF_LENGTH);
+    for (int i = bytes.position(); i < end; i++) {
+      if (bytes.get(i) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
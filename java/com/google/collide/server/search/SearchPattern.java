@@ -0,0 +1,159 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.search;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled search query. Literal queries are matched as-is; regular expression queries use
+ * {@link Pattern} syntax with {@code ^} and {@code $} matching at line breaks. Either can be case
+ * sensitive or not.
+ *
+ * <p>
+ * Alongside the pattern we keep a literal string that every match must contain, so that the
+ * {@link TrigramIndex} can narrow down the files worth scanning even for regular expressions.
+ */
+class SearchPattern {
+
+  private final Pattern pattern;
+  private final String requiredLiteral;
+
+  private SearchPattern(Pattern pattern, String requiredLiteral) {
+    this.pattern = pattern;
+    this.requiredLiteral = requiredLiteral;
+  }
+
+  /**
+   * @throws PatternSyntaxException if {@code regex} is set and the query is not a valid regular
+   *         expression
+   */
+  static SearchPattern compile(String query, boolean regex, boolean caseSensitive) {
+    int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
+    if (regex) {
+      return new SearchPattern(
+          Pattern.compile(query, flags | Pattern.MULTILINE), findRequiredLiteral(query));
+    }
+    return new SearchPattern(Pattern.compile(query, flags | Pattern.LITERAL), query);
+  }
+
+  Pattern getPattern() {
+    return pattern;
+  }
+
+  /**
+   * @return a string that every match contains, ignoring case; empty if there is none to be found
+   */
+  String getRequiredLiteral() {
+    return requiredLiteral;
+  }
+
+  /**
+   * @return whether the file name part of a path matches
+   */
+  boolean matchesName(String path) {
+    Matcher matcher = pattern.matcher(path);
+    return matcher.find(path.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * Returns the longest run of literal characters that any match of {@code regex} must contain.
+   * This is deliberately conservative: anything under alternation, inside a group, or made
+   * optional by a quantifier is ignored.
+   */
+  static String findRequiredLiteral(String regex) {
+    if (regex.indexOf('|') != -1) {
+      return "";
+    }
+
+    String best = "";
+    StringBuilder run = new StringBuilder();
+    int depth = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          // An escaped metacharacter stands for itself.
+          c = regex.charAt(++i);
+        } else {
+          // A character class like \d or \w, an anchor like \b, or a \Q quote; give up on the run.
+          best = longer(best, run);
+          i++;
+          continue;
+        }
+      } else if (c == '[') {
+        best = longer(best, run);
+        i = skipCharacterClass(regex, i);
+        continue;
+      } else if (c == '(' || c == ')') {
+        best = longer(best, run);
+        depth += c == '(' ? 1 : -1;
+        continue;
+      } else if (c == '*' || c == '?' || c == '{') {
+        // The previous character may not appear at all.
+        if (run.length() > 0) {
+          run.setLength(run.length() - 1);
+        }
+        best = longer(best, run);
+        if (c == '{') {
+          int close = regex.indexOf('}', i);
+          i = close == -1 ? regex.length() : close;
+        }
+        continue;
+      } else if (c == '+' || c == '.' || c == '^' || c == '$') {
+        best = longer(best, run);
+        continue;
+      }
+
+      if (depth == 0) {
+        run.append(c);
+      }
+    }
+    return longer(best, run);
+  }
+
+  /**
+   * Compares the current run with the best so far, and starts a new run.
+   */
+  private static String longer(String best, StringBuilder run) {
+    String candidate = run.toString();
+    run.setLength(0);
+    return candidate.length() > best.length() ? candidate : best;
+  }
+
+  /**
+   * @return the index of the ']' that closes the class opened at {@code open}
+   */
+  private static int skipCharacterClass(String regex, int open) {
+    int i = open + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      i++;
+    }
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      // A leading ']' is a member of the class.
+      i++;
+    }
+    for (; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == ']') {
+        return i;
+      }
+    }
+    return regex.length();
+  }
+}
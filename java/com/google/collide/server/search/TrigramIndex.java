@@ -0,0 +1,350 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.search;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from case-folded character trigrams to the documents that contain them. A
+ * query's trigrams narrow the workspace down to a small set of candidate files, which the caller
+ * then verifies against the actual text.
+ *
+ * <p>
+ * Posting lists are append-only. A document that changes gets a fresh ID, and its old ID is simply
+ * marked dead. Because IDs only ever increase, every posting list stays sorted without any work,
+ * and lists are intersected with a linear merge. When dead IDs make up too much of the index, it
+ * is compacted by renumbering the live documents.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+public class TrigramIndex {
+
+  private static final int FORMAT_VERSION = 1;
+
+  /** Compact once dead documents make up this fraction of all document IDs... */
+  private static final double MAX_DEAD_FRACTION = 0.3;
+
+  /** ...but don't bother for small indexes. */
+  private static final int MIN_DEAD_DOCS_TO_COMPACT = 1000;
+
+  /**
+   * An indexed document. The modification time and length let us tell whether the file on disk
+   * has changed since it was indexed.
+   */
+  private static class Doc {
+    final String path;
+    final long lastModified;
+    final long length;
+    final long[] trigrams;
+    int id;
+
+    Doc(String path, long lastModified, long length, long[] trigrams) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.trigrams = trigrams;
+    }
+  }
+
+  /**
+   * A growable array of document IDs.
+   */
+  private static class IntList {
+    int[] values = new int[4];
+    int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+
+  private final Map<String, Doc> docsByPath = Maps.newHashMap();
+
+  /** Documents indexed by ID. Dead IDs map to null. */
+  private final List<Doc> docsById = Lists.newArrayList();
+
+  private final Map<Long, IntList> postings = Maps.newHashMap();
+  private int deadDocs;
+
+  /**
+   * @return whether the indexed copy of {@code path} was taken from a file with the given
+   *         modification time and length
+   */
+  public boolean isCurrent(String path, long lastModified, long length) {
+    Doc doc = docsByPath.get(path);
+    return doc != null && doc.lastModified == lastModified && doc.length == length;
+  }
+
+  public boolean contains(String path) {
+    return docsByPath.containsKey(path);
+  }
+
+  public int size() {
+    return docsByPath.size();
+  }
+
+  /**
+   * @return the paths of every indexed document
+   */
+  public Set<String> getPaths() {
+    return Collections.unmodifiableSet(docsByPath.keySet());
+  }
+
+  /**
+   * Indexes, or re-indexes, the text of a document.
+   *
+   * @param lastModified the modification time of the file the text was read from, or -1 if the
+   *        text did not come from disk
+   */
+  public void update(String path, long lastModified, long length, CharSequence text) {
+    remove(path);
+    add(new Doc(path, lastModified, length, extractTrigrams(text)));
+  }
+
+  public void remove(String path) {
+    Doc doc = docsByPath.remove(path);
+    if (doc != null) {
+      docsById.set(doc.id, null);
+      deadDocs++;
+      maybeCompact();
+    }
+  }
+
+  /**
+   * Removes every document at or below the given path.
+   */
+  public void removeTree(String pathPrefix) {
+    for (String path : Lists.newArrayList(docsByPath.keySet())) {
+      if (path.startsWith(pathPrefix)) {
+        remove(path);
+      }
+    }
+  }
+
+  /**
+   * Returns the documents that may contain {@code query}, ignoring case. Every document that does
+   * contain it is returned, but some of the returned documents may not.
+   *
+   * @return the candidates' paths, in path order
+   */
+  public List<String> getCandidates(String query) {
+    long[] queryTrigrams = extractTrigrams(query);
+    List<String> paths = Lists.newArrayList();
+    if (queryTrigrams.length == 0) {
+      // Too short to narrow down; everything is a candidate.
+      paths.addAll(docsByPath.keySet());
+      Collections.sort(paths);
+      return paths;
+    }
+
+    List<IntList> lists = Lists.newArrayList();
+    for (long trigram : queryTrigrams) {
+      IntList list = postings.get(trigram);
+      if (list == null) {
+        return paths;
+      }
+      lists.add(list);
+    }
+
+    // Start from the rarest trigram so the intermediate results stay small.
+    Collections.sort(lists, new Comparator<IntList>() {
+      @Override
+      public int compare(IntList a, IntList b) {
+        return a.size - b.size;
+      }
+    });
+    int[] ids = Arrays.copyOf(lists.get(0).values, lists.get(0).size);
+    int count = ids.length;
+    for (int i = 1; i < lists.size() && count > 0; i++) {
+      count = intersect(ids, count, lists.get(i));
+    }
+
+    for (int i = 0; i < count; i++) {
+      Doc doc = docsById.get(ids[i]);
+      if (doc != null) {
+        paths.add(doc.path);
+      }
+    }
+    Collections.sort(paths);
+    return paths;
+  }
+
+  /**
+   * Intersects the first {@code count} entries of {@code ids} with {@code list} in place.
+   *
+   * @return the number of IDs left
+   */
+  private static int intersect(int[] ids, int count, IntList list) {
+    int kept = 0;
+    int j = 0;
+    for (int i = 0; i < count && j < list.size; i++) {
+      while (j < list.size && list.values[j] < ids[i]) {
+        j++;
+      }
+      if (j < list.size && list.values[j] == ids[i]) {
+        ids[kept++] = ids[i];
+      }
+    }
+    return kept;
+  }
+
+  private void add(Doc doc) {
+    doc.id = docsById.size();
+    docsById.add(doc);
+    docsByPath.put(doc.path, doc);
+    for (long trigram : doc.trigrams) {
+      IntList list = postings.get(trigram);
+      if (list == null) {
+        list = new IntList();
+        postings.put(trigram, list);
+      }
+      list.add(doc.id);
+    }
+  }
+
+  private void maybeCompact() {
+    if (deadDocs < MIN_DEAD_DOCS_TO_COMPACT || deadDocs < docsById.size() * MAX_DEAD_FRACTION) {
+      return;
+    }
+
+    List<Doc> live = Lists.newArrayList(docsByPath.values());
+    docsById.clear();
+    docsByPath.clear();
+    postings.clear();
+    deadDocs = 0;
+    for (Doc doc : live) {
+      add(doc);
+    }
+  }
+
+  /**
+   * Returns the distinct case-folded trigrams of {@code text}, skipping those that span a line
+   * break since queries never do. Each trigram is packed into the low 48 bits of a long.
+   */
+  static long[] extractTrigrams(CharSequence text) {
+    Set<Long> trigrams = Sets.newHashSet();
+    long window = 0;
+    int valid = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\n' || c == '\r') {
+        valid = 0;
+        continue;
+      }
+      window = ((window << 16) | Character.toLowerCase(c)) & 0xFFFFFFFFFFFFL;
+      if (++valid >= 3) {
+        trigrams.add(window);
+      }
+    }
+
+    long[] result = new long[trigrams.size()];
+    int i = 0;
+    for (Long trigram : trigrams) {
+      result[i++] = trigram;
+    }
+    return result;
+  }
+
+  /**
+   * Writes the index to disk. Only the per-document trigram sets are stored; the posting lists are
+   * rebuilt from them on load.
+   */
+  public void save(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(docsByPath.size());
+      for (Doc doc : docsByPath.values()) {
+        out.writeUTF(doc.path);
+        out.writeLong(doc.lastModified);
+        out.writeLong(doc.length);
+        out.writeInt(doc.trigrams.length);
+        for (long trigram : doc.trigrams) {
+          out.writeLong(trigram);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file)) {
+      // Windows will not rename over an existing file.
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not replace " + file);
+      }
+    }
+  }
+
+  /**
+   * Reads an index written by {@link #save}.
+   *
+   * @return the index, or an empty index if the file is missing or unreadable
+   */
+  public static TrigramIndex load(File file) {
+    TrigramIndex index = new TrigramIndex();
+    if (!file.isFile()) {
+      return index;
+    }
+
+    try {
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != FORMAT_VERSION) {
+          return index;
+        }
+        int docCount = in.readInt();
+        for (int i = 0; i < docCount; i++) {
+          String path = in.readUTF();
+          long lastModified = in.readLong();
+          long length = in.readLong();
+          long[] trigrams = new long[in.readInt()];
+          for (int j = 0; j < trigrams.length; j++) {
+            trigrams[j] = in.readLong();
+          }
+          index.add(new Doc(path, lastModified, length, trigrams));
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return new TrigramIndex();
+    }
+    return index;
+  }
+}
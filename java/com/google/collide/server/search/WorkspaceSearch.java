@@ -0,0 +1,552 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.search;
+
+import com.google.collide.dto.ServerError.FailureReason;
+import com.google.collide.dto.server.DtoServerImpls.SearchImpl;
+import com.google.collide.dto.server.DtoServerImpls.SearchResponseImpl;
+import com.google.collide.dto.server.DtoServerImpls.SearchResultImpl;
+import com.google.collide.dto.server.DtoServerImpls.SearchResultsBatchImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerErrorImpl;
+import com.google.collide.dto.server.DtoServerImpls.SnippetImpl;
+import com.google.collide.dto.server.DtoServerImpls.StreamSearchImpl;
+import com.google.collide.server.participants.Participants;
+import com.google.collide.server.search.FileScanner.FileMatch;
+import com.google.collide.server.search.FileScanner.ScanResult;
+import com.google.collide.server.shared.util.Dto;
+import com.google.collide.server.shared.util.WorkspaceWatcher;
+import com.google.collide.shared.MimeTypes;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Full-text search over the workspace, backed by a {@link TrigramIndex}.
+ *
+ * <p>
+ * The index is built when the verticle starts, reusing whatever is still current from the copy
+ * persisted by the previous run, and is then kept up to date from FileTree's {@code tree.changed}
+ * events and from the unsaved contents of files being edited. Queries are literal strings or
+ * regular expressions, matched with or without regard to case.
+ *
+ * <p>
+ * {@code search.query} narrows the workspace down to the files that contain the query's required
+ * literal (see {@link SearchPattern}) and scans those in parallel with a {@link FileScanner}, up to
+ * a cap on the number of matching files and a time budget. The matches are cached per query until
+ * the workspace changes, so that paging through them does not scan again, and a count that either
+ * limit cut short is marked as truncated.
+ *
+ * <p>
+ * Besides the request/response {@code search.query}, {@code search.stream} pushes results to the
+ * requesting tab in batches as they are verified, so that search-as-you-type can show the first
+ * matches long before a query over a large workspace has been fully counted.
+ *
+ * <p>
+ * Indexing reads files synchronously, so this verticle must be deployed as a worker.
+ */
+public class WorkspaceSearch extends BusModBase {
+
+  private static final int DEFAULT_PAGE_SIZE = 10;
+  private static final int MAX_SNIPPETS_PER_FILE = 5;
+  private static final int MAX_SNIPPET_LENGTH = 200;
+
+  /** We stop verifying candidates once this many have matched, and report this as the count. */
+  private static final int MAX_COUNTED_RESULTS = 1000;
+
+  private static final int MAX_CACHED_QUERIES = 20;
+  private static final long CACHED_QUERY_EXPIRY_MS = 60 * 1000;
+
+  private static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+  private static final long DEFAULT_SCAN_TIME_BUDGET_MS = 2000;
+  private static final long SAVE_INTERVAL_MS = 60 * 1000;
+
+  /**
+   * Streaming queries verify candidates for at most this long before pushing what they have and
+   * yielding, so that a newer query from the same tab can cancel them between slices.
+   */
+  private static final long STREAM_SLICE_MS = 20;
+
+  private TrigramIndex index;
+  private File indexFile;
+  private boolean indexDirty;
+  private long maxFileSize;
+  private int pageSize;
+  private FileScanner scanner;
+  private long scanTimeBudgetMs;
+
+  /**
+   * Map of workspace paths to the unsaved contents of their edit sessions. These take precedence
+   * over the disk copy until the file is next saved.
+   */
+  private final Map<String, String> liveContents = Maps.newHashMap();
+
+  /**
+   * Map of queries to their scan results, for paging. Cleared whenever the index or the live
+   * contents change.
+   */
+  private final Cache<String, ScanResult> queryResults = CacheBuilder.newBuilder()
+      .concurrencyLevel(1).maximumSize(MAX_CACHED_QUERIES)
+      .expireAfterWrite(CACHED_QUERY_EXPIRY_MS, TimeUnit.MILLISECONDS).build();
+
+  private Watcher watcher;
+
+  /** Map of active client IDs to the streaming query still running for that tab. */
+  private final Map<String, StreamingQuery> streamingQueries = Maps.newHashMap();
+
+  @Override
+  public void start() {
+    super.start();
+    String addressBase = getOptionalStringConfig("address", "search");
+    this.maxFileSize = getOptionalLongConfig("maxFileSize", DEFAULT_MAX_FILE_SIZE);
+    this.pageSize = getOptionalIntConfig("pageSize", DEFAULT_PAGE_SIZE);
+    this.indexFile = new File(getOptionalStringConfig("indexFile", getDefaultIndexFile()));
+    this.scanTimeBudgetMs = getOptionalLongConfig("scanTimeBudgetMs", DEFAULT_SCAN_TIME_BUDGET_MS);
+    this.scanner = new FileScanner(
+        getOptionalIntConfig("scanThreads", Runtime.getRuntime().availableProcessors()));
+
+    index = TrigramIndex.load(indexFile);
+    watcher = new Watcher();
+    syncWithDisk();
+
+    eb.registerHandler(addressBase + ".query", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        SearchImpl request = SearchImpl.fromJsonString(Dto.get(message));
+        try {
+          message.reply(Dto.wrap(search(request.getQuery(), request.isRegex(),
+              request.isCaseSensitive(), Math.max(1, request.getPage()))));
+        } catch (PatternSyntaxException e) {
+          message.reply(Dto.wrap(ServerErrorImpl.make()
+              .setFailureReason(FailureReason.SERVER_ERROR).setDetails(e.getMessage())));
+        }
+      }
+    });
+
+    eb.registerHandler(addressBase + ".stream", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        startStreamingQuery(StreamSearchImpl.fromJsonString(Dto.get(message)));
+      }
+    });
+
+    watcher.start();
+
+    vertx.setPeriodic(SAVE_INTERVAL_MS, new Handler<Long>() {
+      @Override
+      public void handle(Long timerId) {
+        saveIndex();
+      }
+    });
+  }
+
+  @Override
+  public void stop() throws Exception {
+    scanner.shutdown();
+    saveIndex();
+    super.stop();
+  }
+
+  /**
+   * Runs a query and returns the requested page of results.
+   *
+   * @param page one-based page number
+   * @throws PatternSyntaxException if {@code regex} is set and the query is not a valid regular
+   *         expression
+   */
+  SearchResponseImpl search(String query, boolean regex, boolean caseSensitive, int page) {
+    SearchResponseImpl response =
+        SearchResponseImpl.make().setPage(page).setPageCount(0).setResultCount(0);
+    if (query == null || query.isEmpty()) {
+      response.setResults(Lists.<SearchResultImpl>newArrayList());
+      return response;
+    }
+
+    String key = (regex ? "r" : "l") + (caseSensitive ? "c" : "i") + query;
+    ScanResult scanResult = queryResults.getIfPresent(key);
+    if (scanResult == null) {
+      SearchPattern pattern = SearchPattern.compile(query, regex, caseSensitive);
+      List<String> candidates =
+          rankCandidates(index.getCandidates(pattern.getRequiredLiteral()), pattern);
+      // The scan blocks this verticle, so liveContents cannot change under it.
+      scanResult = scanner.scan(candidates, liveContents, pattern.getPattern(),
+          MAX_COUNTED_RESULTS, System.currentTimeMillis() + scanTimeBudgetMs,
+          MAX_SNIPPETS_PER_FILE);
+      queryResults.put(key, scanResult);
+    }
+
+    List<FileMatch> matches = scanResult.matches;
+    List<SearchResultImpl> results = Lists.newArrayList();
+    int firstResult = (page - 1) * pageSize;
+    for (int i = firstResult; i < matches.size() && i < firstResult + pageSize; i++) {
+      FileMatch match = matches.get(i);
+      results.add(SearchResultImpl.make().setTitle(match.path).setSnippets(match.snippets));
+    }
+    int matchCount = matches.size();
+    return response.setResultCount(matchCount)
+        .setIsResultCountTruncated(scanResult.truncated)
+        .setPageCount((matchCount + pageSize - 1) / pageSize).setResults(results);
+  }
+
+  /**
+   * Cancels whatever query the tab already has in flight and, unless the new query is empty,
+   * starts streaming its results.
+   */
+  private void startStreamingQuery(StreamSearchImpl request) {
+    String clientId = request.getClientId();
+    if (clientId == null) {
+      return;
+    }
+    StreamingQuery previous = streamingQueries.remove(clientId);
+    if (previous != null) {
+      previous.cancelled = true;
+    }
+
+    String query = request.getQuery();
+    if (query == null || query.isEmpty()) {
+      return;
+    }
+    SearchPattern pattern;
+    try {
+      pattern = SearchPattern.compile(query, request.isRegex(), request.isCaseSensitive());
+    } catch (PatternSyntaxException e) {
+      // Finish the query straight away with no results.
+      pattern = null;
+    }
+    StreamingQuery streamingQuery = new StreamingQuery(clientId, request.getQueryId(), pattern,
+        Math.max(1, request.getPage()));
+    streamingQueries.put(clientId, streamingQuery);
+    streamingQuery.runSlice();
+  }
+
+  /**
+   * A query whose candidates are verified a time slice at a time, with each slice's results pushed
+   * to the tab as a {@link SearchResultsBatchImpl}. Results beyond the requested page are only
+   * counted; the final batch carries the totals.
+   */
+  private class StreamingQuery implements Handler<Long> {
+    final String clientId;
+    final int queryId;
+    final Pattern pattern;
+    final int page;
+    final int firstResult;
+    final Iterator<String> candidates;
+
+    int matchCount;
+    List<SearchResultImpl> pending = Lists.newArrayList();
+    boolean cancelled;
+
+    /**
+     * @param pattern the compiled query, or null if it did not compile
+     */
+    StreamingQuery(String clientId, int queryId, SearchPattern pattern, int page) {
+      this.clientId = clientId;
+      this.queryId = queryId;
+      this.page = page;
+      this.firstResult = (page - 1) * pageSize;
+      if (pattern == null) {
+        this.pattern = null;
+        this.candidates = Lists.<String>newArrayList().iterator();
+      } else {
+        this.pattern = pattern.getPattern();
+        this.candidates =
+            rankCandidates(index.getCandidates(pattern.getRequiredLiteral()), pattern).iterator();
+      }
+    }
+
+    @Override
+    public void handle(Long timerId) {
+      runSlice();
+    }
+
+    void runSlice() {
+      if (cancelled) {
+        return;
+      }
+
+      long deadline = System.currentTimeMillis() + STREAM_SLICE_MS;
+      while (candidates.hasNext() && matchCount < MAX_COUNTED_RESULTS) {
+        String path = candidates.next();
+        CharSequence text = getText(path);
+        if (text != null) {
+          boolean onPage = matchCount >= firstResult && matchCount < firstResult + pageSize;
+          List<SnippetImpl> snippets =
+              findSnippets(text, pattern, onPage ? MAX_SNIPPETS_PER_FILE : 1);
+          if (!snippets.isEmpty()) {
+            if (onPage) {
+              pending.add(SearchResultImpl.make().setTitle(path).setSnippets(snippets));
+            }
+            if (++matchCount == firstResult + pageSize) {
+              // The page is full; show it now rather than after the rest has been counted.
+              flush(false);
+            }
+          }
+        }
+
+        if (System.currentTimeMillis() >= deadline) {
+          flush(false);
+          vertx.setTimer(1, this);
+          return;
+        }
+      }
+
+      flush(true);
+      if (streamingQueries.get(clientId) == this) {
+        streamingQueries.remove(clientId);
+      }
+    }
+
+    private void flush(boolean complete) {
+      if (pending.isEmpty() && !complete) {
+        return;
+      }
+      SearchResultsBatchImpl batch = SearchResultsBatchImpl.make().setQueryId(queryId)
+          .setPage(page).setResults(pending).setIsComplete(complete);
+      if (complete) {
+        batch.setResultCount(matchCount).setIsResultCountTruncated(candidates.hasNext())
+            .setPageCount((matchCount + pageSize - 1) / pageSize);
+      }
+      eb.send("participants.sendTo", new JsonObject()
+          .putString(Participants.TARGET_SPECIFIC_CLIENT_TAG, clientId)
+          .putString(Participants.PAYLOAD_TAG, batch.toJson()));
+      pending = Lists.newArrayList();
+    }
+  }
+
+  /**
+   * Puts files whose name matches the query ahead of those that only mention it.
+   */
+  private static List<String> rankCandidates(List<String> candidates, SearchPattern pattern) {
+    List<String> nameMatches = Lists.newArrayList();
+    List<String> others = Lists.newArrayList();
+    for (String path : candidates) {
+      (pattern.matchesName(path) ? nameMatches : others).add(path);
+    }
+    nameMatches.addAll(others);
+    return nameMatches;
+  }
+
+  /**
+   * Finds the lines of {@code text} that match a pattern.
+   */
+  static List<SnippetImpl> findSnippets(CharSequence text, Pattern pattern, int maxSnippets) {
+    List<SnippetImpl> snippets = Lists.newArrayList();
+    Matcher matcher = pattern.matcher(text);
+    int lineNumber = 1;
+    int lineStart = 0;
+    int counted = 0;
+    int from = 0;
+    while (snippets.size() < maxSnippets && from <= text.length() && matcher.find(from)) {
+      // Advance the line counter to the line containing the match.
+      int matchIndex = matcher.start();
+      for (; counted < matchIndex; counted++) {
+        if (text.charAt(counted) == '\n') {
+          lineNumber++;
+          lineStart = counted + 1;
+        }
+      }
+      int lineEnd = indexOf(text, '\n', matchIndex);
+
+      String line = text.subSequence(lineStart, lineEnd).toString().trim();
+      if (line.length() > MAX_SNIPPET_LENGTH) {
+        line = line.substring(0, MAX_SNIPPET_LENGTH);
+      }
+      snippets.add(SnippetImpl.make().setLineNumber(lineNumber).setSnippetText(line));
+
+      // One snippet per line.
+      from = lineEnd + 1;
+    }
+    return snippets;
+  }
+
+  /**
+   * @return the index of the first {@code c} at or after {@code from}, or the text's length
+   */
+  private static int indexOf(CharSequence text, char c, int from) {
+    for (int i = from; i < text.length(); i++) {
+      if (text.charAt(i) == c) {
+        return i;
+      }
+    }
+    return text.length();
+  }
+
+  /**
+   * @return the current text of a workspace file, or null if it cannot be read
+   */
+  private CharSequence getText(String path) {
+    String live = liveContents.get(path);
+    if (live != null) {
+      return live;
+    }
+    return FileScanner.readText(new File(WorkspaceWatcher.stripLeadingSlash(path)));
+  }
+
+  /**
+   * Brings the index up to date with the workspace on disk.
+   */
+  private void syncWithDisk() {
+    Set<String> seen = Sets.newHashSet();
+    watcher.indexedPaths = seen;
+    watcher.walkWorkspace();
+    watcher.indexedPaths = null;
+
+    for (String path : Lists.newArrayList(index.getPaths())) {
+      if (!seen.contains(path)) {
+        index.remove(path);
+        indexChanged();
+      }
+    }
+    logger.info(String.format("Search index holds %d files", index.size()));
+    saveIndex();
+  }
+
+  /**
+   * Indexes a single file from disk if it looks like text and has changed since it was indexed.
+   *
+   * @return whether the file is in the index
+   */
+  private boolean indexFile(File file, String path) {
+    long lastModified = file.lastModified();
+    long length = file.length();
+    if (index.isCurrent(path, lastModified, length)) {
+      return true;
+    }
+
+    if (!isSearchable(file, path)) {
+      return false;
+    }
+    CharSequence text = FileScanner.readText(file);
+    if (text == null) {
+      // Unreadable, or binary content in a file with a texty name.
+      index.remove(path);
+      indexChanged();
+      return false;
+    }
+    index.update(path, lastModified, length, text);
+    indexChanged();
+    return true;
+  }
+
+  private boolean isSearchable(File file, String path) {
+    if (!file.isFile() || file.length() > maxFileSize) {
+      return false;
+    }
+    String mimeType = MimeTypes.guessMimeType(path, true);
+    return !MimeTypes.looksLikeImage(mimeType) && !mimeType.startsWith("audio/")
+        && !mimeType.startsWith("video/") && !mimeType.equals(MimeTypes.BINARY_MIMETYPE)
+        && !mimeType.equals(MimeTypes.ZIP_MIMETYPE) && !mimeType.equals("application/pdf")
+        && !mimeType.equals("image/x-icon");
+  }
+
+  /**
+   * Keeps the index up to date with the workspace and with the unsaved contents of files being
+   * edited.
+   */
+  private class Watcher extends WorkspaceWatcher {
+    /** Collects the paths that are in the index while syncing with the disk. */
+    Set<String> indexedPaths;
+
+    Watcher() {
+      super(vertx);
+    }
+
+    @Override
+    protected void onFile(File file, String path) {
+      if (indexFile(file, path) && indexedPaths != null) {
+        indexedPaths.add(path);
+      }
+    }
+
+    @Override
+    protected void onModified(File file, String path) {
+      // The file was saved, so the disk copy is now the freshest.
+      liveContents.remove(path);
+      indexFile(file, path);
+    }
+
+    @Override
+    protected void onRemoved(String path) {
+      if (path.endsWith("/")) {
+        index.removeTree(path);
+      } else {
+        index.remove(path);
+      }
+      liveContents.remove(path);
+      indexChanged();
+    }
+
+    @Override
+    protected boolean wantsLiveContents(String path) {
+      return true;
+    }
+
+    @Override
+    protected void onLiveContents(String path, String contents) {
+      liveContents.put(path, contents);
+      index.update(path, -1, contents.length(), contents);
+      indexChanged();
+    }
+  }
+
+  /**
+   * Notes that the index or the live contents changed, so that the index is saved and cached
+   * query results are dropped.
+   */
+  private void indexChanged() {
+    indexDirty = true;
+    queryResults.invalidateAll();
+  }
+
+  private void saveIndex() {
+    if (!indexDirty) {
+      return;
+    }
+    try {
+      index.save(indexFile);
+      indexDirty = false;
+    } catch (IOException e) {
+      logger.error(String.format("Failed to save search index to [%s]", indexFile), e);
+    }
+  }
+
+  /**
+   * Keeps one index per workspace in the temp directory, so that it is not part of the workspace.
+   */
+  private static String getDefaultIndexFile() {
+    String workspace = new File("").getAbsolutePath();
+    return new File(System.getProperty("java.io.tmpdir"), "collide-search-"
+        + Hashing.md5().hashString(workspace, Charsets.UTF_8) + ".idx").getPath();
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.cluster;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracks the live nodes of a clustered Collide deployment.
+ *
+ * <p>
+ * Every node periodically publishes a heartbeat on {@link #HEARTBEAT_ADDRESS}. A node that misses
+ * {@link #MISSED_HEARTBEATS_BEFORE_EVICTION} consecutive heartbeats is considered gone. Nodes that
+ * shut down cleanly publish a leave message so that they are evicted immediately.
+ *
+ * <p>
+ * The live node set always contains the local node.
+ */
+public class ClusterMembership {
+
+  public static final String HEARTBEAT_ADDRESS = "cluster.heartbeat";
+
+  private static final long DEFAULT_HEARTBEAT_INTERVAL = 1000;
+  private static final int MISSED_HEARTBEATS_BEFORE_EVICTION = 3;
+
+  /**
+   * Notified on the event loop whenever a node joins or leaves.
+   */
+  public interface Listener {
+    void onMembershipChanged(Set<String> liveNodes);
+  }
+
+  private final Vertx vertx;
+  private final String localNodeId;
+  private final long heartbeatInterval;
+  private final Listener listener;
+
+  /** Map of remote node IDs to the time we last heard from them. */
+  private final Map<String, Long> lastHeartbeats = new HashMap<String, Long>();
+
+  private final Handler<Message<JsonObject>> heartbeatHandler = new Handler<Message<JsonObject>>() {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      onHeartbeat(message.body);
+    }
+  };
+
+  private long timerId = -1;
+
+  public ClusterMembership(Vertx vertx, String localNodeId, Listener listener) {
+    this(vertx, localNodeId, DEFAULT_HEARTBEAT_INTERVAL, listener);
+  }
+
+  public ClusterMembership(
+      Vertx vertx, String localNodeId, long heartbeatInterval, Listener listener) {
+    this.vertx = vertx;
+    this.localNodeId = localNodeId;
+    this.heartbeatInterval = heartbeatInterval;
+    this.listener = listener;
+  }
+
+  public void start() {
+    vertx.eventBus().registerHandler(HEARTBEAT_ADDRESS, heartbeatHandler);
+    publishHeartbeat(false);
+    timerId = vertx.setPeriodic(heartbeatInterval, new Handler<Long>() {
+      @Override
+      public void handle(Long event) {
+        publishHeartbeat(false);
+        evictSilentNodes();
+      }
+    });
+  }
+
+  public void stop() {
+    if (timerId != -1) {
+      vertx.cancelTimer(timerId);
+      timerId = -1;
+    }
+    vertx.eventBus().unregisterHandler(HEARTBEAT_ADDRESS, heartbeatHandler);
+    publishHeartbeat(true);
+  }
+
+  public String getLocalNodeId() {
+    return localNodeId;
+  }
+
+  public Set<String> getLiveNodes() {
+    Set<String> nodes = new TreeSet<String>(lastHeartbeats.keySet());
+    nodes.add(localNodeId);
+    return nodes;
+  }
+
+  private void publishHeartbeat(boolean leaving) {
+    vertx.eventBus().publish(HEARTBEAT_ADDRESS,
+        new JsonObject().putString("nodeId", localNodeId).putBoolean("leaving", leaving));
+  }
+
+  private void onHeartbeat(JsonObject heartbeat) {
+    String nodeId = heartbeat.getString("nodeId");
+    if (nodeId == null || nodeId.equals(localNodeId)) {
+      return;
+    }
+
+    boolean changed;
+    if (heartbeat.getBoolean("leaving", false)) {
+      changed = lastHeartbeats.remove(nodeId) != null;
+    } else {
+      changed = lastHeartbeats.put(nodeId, System.currentTimeMillis()) == null;
+      if (changed) {
+        // Answer straight away so the new node does not have to wait a full interval to see us.
+        publishHeartbeat(false);
+      }
+    }
+
+    if (changed) {
+      listener.onMembershipChanged(getLiveNodes());
+    }
+  }
+
+  private void evictSilentNodes() {
+    long deadline =
+        System.currentTimeMillis() - heartbeatInterval * MISSED_HEARTBEATS_BEFORE_EVICTION;
+    boolean changed = false;
+    Iterator<Entry<String, Long>> iter = lastHeartbeats.entrySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().getValue() < deadline) {
+        iter.remove();
+        changed = true;
+      }
+    }
+
+    if (changed) {
+      listener.onMembershipChanged(getLiveNodes());
+    }
+  }
+}
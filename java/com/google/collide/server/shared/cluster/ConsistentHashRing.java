@@ -0,0 +1,124 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.cluster;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys (typically file edit session keys) to nodes using consistent hashing, so that adding
+ * or removing a node only moves the keys owned by that node.
+ *
+ * <p>
+ * Each node is placed on the ring at several points ("virtual nodes") to even out the load.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public class ConsistentHashRing {
+  private static final int DEFAULT_VIRTUAL_NODES = 64;
+  private static final HashFunction HASH = Hashing.murmur3_32();
+
+  private final int virtualNodes;
+  private final SortedMap<Integer, String> ring = new TreeMap<Integer, String>();
+  private final Set<String> nodes = new TreeSet<String>();
+
+  public ConsistentHashRing() {
+    this(DEFAULT_VIRTUAL_NODES);
+  }
+
+  public ConsistentHashRing(int virtualNodes) {
+    this.virtualNodes = virtualNodes;
+  }
+
+  /**
+   * @return true if the node was not already part of the ring
+   */
+  public synchronized boolean addNode(String nodeId) {
+    if (!nodes.add(nodeId)) {
+      return false;
+    }
+    for (int i = 0; i < virtualNodes; i++) {
+      ring.put(hash(nodeId + "#" + i), nodeId);
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the node was part of the ring
+   */
+  public synchronized boolean removeNode(String nodeId) {
+    if (!nodes.remove(nodeId)) {
+      return false;
+    }
+    for (int i = 0; i < virtualNodes; i++) {
+      int point = hash(nodeId + "#" + i);
+      // Guard against the (unlikely) case where another node collided on this point.
+      if (nodeId.equals(ring.get(point))) {
+        ring.remove(point);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the node that owns the given key, or {@code null} if the ring is empty
+   */
+  public synchronized String getOwner(String key) {
+    if (ring.isEmpty()) {
+      return null;
+    }
+    SortedMap<Integer, String> tail = ring.tailMap(hash(key));
+    return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+  }
+
+  public synchronized Set<String> getNodes() {
+    return Collections.unmodifiableSet(new TreeSet<String>(nodes));
+  }
+
+  /**
+   * Replaces the ring membership with the given set of nodes.
+   */
+  public synchronized void setNodes(Set<String> newNodes) {
+    for (String nodeId : new TreeSet<String>(nodes)) {
+      if (!newNodes.contains(nodeId)) {
+        removeNode(nodeId);
+      }
+    }
+    for (String nodeId : newNodes) {
+      addNode(nodeId);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder("ConsistentHashRing").append(nodes);
+    if (!ring.isEmpty()) {
+      sb.append(" points=").append(ring.size());
+    }
+    return sb.toString();
+  }
+
+  private static int hash(String key) {
+    return HASH.hashString(key, Charsets.UTF_8).asInt();
+  }
+}
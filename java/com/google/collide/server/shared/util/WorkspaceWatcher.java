@@ -0,0 +1,227 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps a verticle's view of the workspace files up to date, for services that index or snapshot
+ * them. It walks the workspace on disk, applies FileTree's {@code tree.changed} events, and, for
+ * the paths a subclass asks for, fetches the unsaved contents of files being edited.
+ *
+ * <p>
+ * Workspace paths start with a slash, and directory paths in changes end with one. Hidden files
+ * and directories are skipped. Files are read relative to the working directory, which is the
+ * workspace root. The callbacks run on the verticle's thread.
+ */
+public abstract class WorkspaceWatcher {
+
+  private static final long LIVE_CONTENT_DEBOUNCE_MS = 500;
+
+  private final Vertx vertx;
+
+  /** Paths whose edit sessions changed since we last fetched their contents. */
+  private final Set<String> pendingLivePaths = Sets.newHashSet();
+  private boolean liveFetchScheduled;
+
+  protected WorkspaceWatcher(Vertx vertx) {
+    this.vertx = vertx;
+  }
+
+  /**
+   * Called for every file found in the workspace, added to it or moved into it.
+   */
+  protected abstract void onFile(File file, String path);
+
+  /**
+   * Called when a file, or a directory and everything in it, is removed.
+   */
+  protected abstract void onRemoved(String path);
+
+  /**
+   * Called when a file is saved or otherwise changed on disk. Treated as {@link #onFile} unless
+   * overridden.
+   */
+  protected void onModified(File file, String path) {
+    onFile(file, path);
+  }
+
+  /**
+   * Called when a file or directory is moved. Treated as a removal and an addition unless
+   * overridden.
+   */
+  protected void onMoved(String oldPath, String newPath) {
+    onRemoved(oldPath);
+    walkPath(newPath);
+  }
+
+  /**
+   * Whether to fetch the unsaved contents of a file when it is edited. None are fetched unless
+   * overridden.
+   */
+  protected boolean wantsLiveContents(String path) {
+    return false;
+  }
+
+  /**
+   * Called with the unsaved contents of a file that {@link #wantsLiveContents} asked for.
+   */
+  protected void onLiveContents(String path, String contents) {
+  }
+
+  /**
+   * Starts listening for workspace changes and edits.
+   */
+  public void start() {
+    EventBus eb = vertx.eventBus();
+    eb.registerHandler("tree.changed", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        onTreeChanged(message.body);
+      }
+    });
+
+    eb.registerHandler("documents.contentChanged", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        String path = message.body.getString("path");
+        if (path != null && wantsLiveContents(path)) {
+          pendingLivePaths.add(path);
+          scheduleLiveContentFetch();
+        }
+      }
+    });
+  }
+
+  /**
+   * Calls {@link #onFile} for every file in the workspace.
+   */
+  public void walkWorkspace() {
+    File[] children = new File("").getAbsoluteFile().listFiles();
+    if (children != null) {
+      for (File child : children) {
+        walk(child, "/" + child.getName());
+      }
+    }
+  }
+
+  /**
+   * Calls {@link #onFile} for a file, or for every file under a directory if the path ends with a
+   * slash.
+   */
+  protected void walkPath(String path) {
+    if (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    walk(new File(stripLeadingSlash(path)), path);
+  }
+
+  private void walk(File file, String path) {
+    if (file.getName().startsWith(".")) {
+      // Skip VCS metadata and other hidden files.
+      return;
+    }
+
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          walk(child, path + "/" + child.getName());
+        }
+      }
+    } else {
+      onFile(file, path);
+    }
+  }
+
+  /**
+   * Applies a batch of workspace changes published by FileTree.
+   */
+  private void onTreeChanged(JsonObject change) {
+    for (String path : getStrings(change.getArray("removed"))) {
+      onRemoved(path);
+    }
+    for (Object moved : getArray(change.getArray("moved"))) {
+      JsonObject move = (JsonObject) moved;
+      onMoved(move.getString("oldPath"), move.getString("newPath"));
+    }
+    for (String path : getStrings(change.getArray("added"))) {
+      walkPath(path);
+    }
+    for (String path : getStrings(change.getArray("modified"))) {
+      if (!path.endsWith("/")) {
+        onModified(new File(stripLeadingSlash(path)), path);
+      }
+    }
+  }
+
+  /**
+   * Fetches the unsaved contents of recently edited files in one batch, so a burst of keystrokes
+   * results in a single fetch per file.
+   */
+  private void scheduleLiveContentFetch() {
+    if (liveFetchScheduled) {
+      return;
+    }
+    liveFetchScheduled = true;
+    vertx.setTimer(LIVE_CONTENT_DEBOUNCE_MS, new Handler<Long>() {
+      @Override
+      public void handle(Long timerId) {
+        liveFetchScheduled = false;
+        for (final String path : pendingLivePaths) {
+          vertx.eventBus().send("documents.getDirtyContents",
+              new JsonObject().putString("path", path), new Handler<Message<JsonObject>>() {
+                @Override
+                public void handle(Message<JsonObject> reply) {
+                  String contents = reply.body.getString("contents");
+                  if ("ok".equals(reply.body.getString("status")) && contents != null) {
+                    onLiveContents(path, contents);
+                  }
+                }
+              });
+        }
+        pendingLivePaths.clear();
+      }
+    });
+  }
+
+  private static List<String> getStrings(JsonArray array) {
+    List<String> strings = Lists.newArrayList();
+    for (Object value : getArray(array)) {
+      strings.add((String) value);
+    }
+    return strings;
+  }
+
+  private static JsonArray getArray(JsonArray array) {
+    return array == null ? new JsonArray() : array;
+  }
+
+  public static String stripLeadingSlash(String path) {
+    return path.startsWith("/") ? path.substring(1) : path;
+  }
+}
@@ -0,0 +1,477 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.upload;
+
+import com.google.collide.dto.ServerError.FailureReason;
+import com.google.collide.dto.server.DtoServerImpls.BeginUploadSessionImpl;
+import com.google.collide.dto.server.DtoServerImpls.EmptyMessageImpl;
+import com.google.collide.dto.server.DtoServerImpls.EndUploadSessionFinishedImpl;
+import com.google.collide.dto.server.DtoServerImpls.EndUploadSessionImpl;
+import com.google.collide.dto.server.DtoServerImpls.RetryAlreadyTransferredUploadImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerErrorImpl;
+import com.google.collide.dto.server.DtoServerImpls.UnzipFailureImpl;
+import com.google.collide.server.shared.util.Dto;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Keeps track of bulk upload sessions, as described by the {@code BeginUploadSession},
+ * {@code EndUploadSession} and {@code RetryAlreadyTransferredUpload} messages.
+ *
+ * <p>
+ * A session declares up front which workspace files it will replace, which uploaded archives it
+ * will unzip and which directories it will create. WebFE streams each file's request body into a
+ * staging directory outside the workspace, asking {@code upload.stage} where to put it, so that
+ * FileTree never sees a partial upload. A transfer that was interrupted resumes from the number of
+ * bytes already staged.
+ *
+ * <p>
+ * Ending the session unzips the staged archives entry by entry and hands every staged file and
+ * directory to FileTree as one {@code tree.importFiles} batch, so collaborators see a single tree
+ * update. FileTree only renames new files into place, so files that replace existing workspace
+ * files are copied over them here, in place so that they keep their resource IDs and open edit
+ * sessions, as are files staged on a different file system from the workspace. Files that could
+ * not be imported stay staged, and a
+ * {@code RetryAlreadyTransferredUpload} imports them again without transferring them again.
+ * Sessions that are left idle are eventually discarded.
+ *
+ * <p>
+ * Staging, unzipping and copying touch the disk synchronously, so this verticle must be deployed as a
+ * worker.
+ */
+public class UploadSessions extends BusModBase {
+
+  /** Where files are staged unless configured otherwise. FileTree only imports files from here. */
+  public static final String DEFAULT_STAGING_DIR =
+      new File(System.getProperty("java.io.tmpdir"), "collide-uploads").getPath();
+
+  private static final int DEFAULT_SESSION_TIMEOUT = 60 * 60 * 1000;
+
+  private static class Session {
+    final File dir;
+    final Set<String> filePaths = Sets.newLinkedHashSet();
+    final Set<String> zipPaths = Sets.newLinkedHashSet();
+    final List<String> dirPaths = Lists.newArrayList();
+    long lastActive = System.currentTimeMillis();
+
+    Session(File dir) {
+      this.dir = dir;
+    }
+
+    File stagedFile(String workspacePath) {
+      String kind = zipPaths.contains(workspacePath) ? "zips" : "files";
+      return new File(new File(dir, kind), workspacePath.substring(1));
+    }
+  }
+
+  /**
+   * The files and directories of one import, and which declared path each of them came from so
+   * that failures can be reported against it.
+   */
+  private static class Import {
+    final JsonArray dirs = new JsonArray();
+    final JsonArray files = new JsonArray();
+    final Map<String, String> zipOfEntry = Maps.newHashMap();
+    final EndUploadSessionFinishedImpl result;
+
+    Import(String sessionId) {
+      result = EndUploadSessionFinishedImpl.make().setSessionId(sessionId);
+    }
+
+    UnzipFailureImpl unzipFailure(String zipPath) {
+      for (int i = 0; i < result.getUnzipFailures().size(); i++) {
+        UnzipFailureImpl failure = (UnzipFailureImpl) result.getUnzipFailures().get(i);
+        if (failure.getZipWorkspacePath().equals(zipPath)) {
+          return failure;
+        }
+      }
+      UnzipFailureImpl failure = UnzipFailureImpl.make().setZipWorkspacePath(zipPath);
+      result.addUnzipFailures(failure);
+      return failure;
+    }
+
+    void addFailure(String path) {
+      String zipPath = zipOfEntry.get(path);
+      if (zipPath != null) {
+        unzipFailure(zipPath).addDisplayFailedWorkspacePaths(path);
+      } else if (path.endsWith("/")) {
+        result.addFailedDirWorkspacePaths(path);
+      } else {
+        result.addFailedFileWorkspacePaths(path);
+      }
+    }
+
+    boolean failed() {
+      return !result.getFailedFileWorkspacePaths().isEmpty()
+          || !result.getFailedDirWorkspacePaths().isEmpty()
+          || !result.getUnzipFailures().isEmpty();
+    }
+  }
+
+  private final Map<String, Session> sessions = Maps.newHashMap();
+  private File stagingDir;
+  private final File workspaceDir = new File("").getAbsoluteFile();
+  private boolean stagedOnWorkspaceFileStore;
+
+  @Override
+  public void start() {
+    super.start();
+    String addressBase = getOptionalStringConfig("address", "upload");
+    stagingDir = new File(getOptionalStringConfig("stagingDir", DEFAULT_STAGING_DIR));
+    // Sessions do not survive a restart, so neither does anything they staged.
+    deleteRecursively(stagingDir);
+    stagingDir.mkdirs();
+    stagedOnWorkspaceFileStore = isOnSameFileStore(stagingDir, workspaceDir);
+    final long sessionTimeout = getOptionalIntConfig("sessionTimeout", DEFAULT_SESSION_TIMEOUT);
+
+    eb.registerHandler(addressBase + ".begin", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        begin(message, BeginUploadSessionImpl.fromJsonString(Dto.get(message)));
+      }
+    });
+
+    eb.registerHandler(addressBase + ".stage", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        stage(message);
+      }
+    });
+
+    eb.registerHandler(addressBase + ".end", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        EndUploadSessionImpl request = EndUploadSessionImpl.fromJsonString(Dto.get(message));
+        Session session = getSession(message, request.getSessionId());
+        if (session != null) {
+          importFiles(message, request.getSessionId(), session, session.filePaths,
+              session.zipPaths, session.dirPaths);
+        }
+      }
+    });
+
+    eb.registerHandler(addressBase + ".retry", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> message) {
+        RetryAlreadyTransferredUploadImpl request =
+            RetryAlreadyTransferredUploadImpl.fromJsonString(Dto.get(message));
+        Session session = getSession(message, request.getSessionId());
+        if (session != null) {
+          importFiles(message, request.getSessionId(), session,
+              declared(request.getFileWorkspacePaths(), session.filePaths),
+              declared(request.getUnzipWorkspacePaths(), session.zipPaths),
+              Lists.<String>newArrayList());
+        }
+      }
+    });
+
+    vertx.setPeriodic(Math.max(sessionTimeout / 4, 1000), new Handler<Long>() {
+      @Override
+      public void handle(Long timerId) {
+        long expiry = System.currentTimeMillis() - sessionTimeout;
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext();) {
+          Session session = it.next();
+          if (session.lastActive < expiry) {
+            deleteRecursively(session.dir);
+            it.remove();
+          }
+        }
+      }
+    });
+  }
+
+  private void begin(Message<JsonObject> message, BeginUploadSessionImpl request) {
+    String sessionId = request.getSessionId();
+    if (sessionId == null || !sessionId.matches("[\\w-]+") || sessions.containsKey(sessionId)) {
+      replyError(message, "Invalid upload session: " + sessionId);
+      return;
+    }
+    Session session = new Session(new File(stagingDir, sessionId));
+    for (String path : iterate(request.getWorkspacePathsToReplace())) {
+      session.filePaths.add(path);
+    }
+    for (String path : iterate(request.getWorkspacePathsToUnzip())) {
+      session.zipPaths.add(path);
+    }
+    for (String path : iterate(request.getWorkspaceDirsToCreate())) {
+      session.dirPaths.add(path);
+    }
+    for (String path : Lists.newArrayList(
+        Iterables.concat(session.filePaths, session.zipPaths, session.dirPaths))) {
+      if (!isValidPath(path)) {
+        replyError(message, "Invalid upload path: " + path);
+        return;
+      }
+    }
+    session.dir.mkdirs();
+    sessions.put(sessionId, session);
+    message.reply(Dto.wrap(EmptyMessageImpl.make()));
+  }
+
+  /**
+   * Tells WebFE where to stream a declared file. If the request names the offset the transfer
+   * resumes from, anything staged past it is discarded; an offset past what was staged is an
+   * error. Replies with the staged file and how many bytes of it were already received.
+   */
+  private void stage(Message<JsonObject> message) {
+    String sessionId = message.body.getString("sessionId");
+    String path = message.body.getString("path");
+    Session session = sessions.get(sessionId);
+    if (session == null || !(session.filePaths.contains(path) || session.zipPaths.contains(path))) {
+      message.reply(new JsonObject().putString("status", "error")
+          .putString("message", "Not part of upload session " + sessionId + ": " + path));
+      return;
+    }
+    session.lastActive = System.currentTimeMillis();
+
+    File staged = session.stagedFile(path);
+    Number offset = message.body.getNumber("offset");
+    if (offset != null) {
+      if (offset.longValue() > staged.length()) {
+        message.reply(new JsonObject().putString("status", "error")
+            .putString("message", "Only " + staged.length() + " bytes received of " + path));
+        return;
+      }
+      try {
+        staged.getParentFile().mkdirs();
+        RandomAccessFile file = new RandomAccessFile(staged, "rw");
+        try {
+          file.setLength(offset.longValue());
+        } finally {
+          file.close();
+        }
+      } catch (IOException e) {
+        logger.error(String.format("Failed to stage [%s]", path), e);
+        message.reply(new JsonObject().putString("status", "error")
+            .putString("message", e.getMessage()));
+        return;
+      }
+    }
+    message.reply(new JsonObject().putString("status", "ok")
+        .putString("stagedPath", staged.getAbsolutePath())
+        .putNumber("received", staged.length()));
+  }
+
+  /**
+   * Imports staged files, unzipping archives first, and replies with whatever failed. The session
+   * is discarded once everything it declared has been imported.
+   */
+  private void importFiles(final Message<JsonObject> message, String sessionId,
+      final Session session, Iterable<String> filePaths, Iterable<String> zipPaths,
+      List<String> dirPaths) {
+    session.lastActive = System.currentTimeMillis();
+    final Import batch = new Import(sessionId);
+    for (String path : dirPaths) {
+      batch.dirs.addString(path);
+    }
+    for (String path : filePaths) {
+      File staged = session.stagedFile(path);
+      if (staged.isFile()) {
+        addFile(batch, staged, path);
+      } else {
+        batch.result.addFailedFileWorkspacePaths(path);
+      }
+    }
+    for (String zipPath : zipPaths) {
+      unzip(session, zipPath, batch);
+    }
+
+    if (batch.dirs.size() == 0 && batch.files.size() == 0) {
+      finishImport(message, session, batch);
+      return;
+    }
+    eb.send("tree.importFiles", new JsonObject().putArray("dirs", batch.dirs)
+        .putArray("files", batch.files), new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> reply) {
+        for (Object path : reply.body.getArray("failed")) {
+          batch.addFailure((String) path);
+        }
+        finishImport(message, session, batch);
+      }
+    });
+  }
+
+  private void finishImport(Message<JsonObject> message, Session session, Import batch) {
+    if (!batch.failed()) {
+      sessions.remove(batch.result.getSessionId());
+      deleteRecursively(session.dir);
+    }
+    message.reply(Dto.wrap(batch.result));
+  }
+
+  /**
+   * Extracts a staged archive into the session's staging directory, one entry at a time, and adds
+   * its contents to the import. Entries land next to where the archive was uploaded. Entries that
+   * would escape that directory are refused.
+   */
+  private void unzip(Session session, String zipPath, Import batch) {
+    File zip = session.stagedFile(zipPath);
+    if (!zip.isFile()) {
+      batch.unzipFailure(zipPath);
+      return;
+    }
+    String targetDir = zipPath.substring(0, zipPath.lastIndexOf('/') + 1);
+    File extractDir = new File(new File(session.dir, "unzipped"), zipPath.substring(1));
+    deleteRecursively(extractDir);
+    List<String> failed = Lists.newArrayList();
+    try {
+      ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(zip)));
+      try {
+        for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+          String path = targetDir + entry.getName();
+          if (!isValidPath(path)) {
+            failed.add(path);
+            continue;
+          }
+          batch.zipOfEntry.put(path, zipPath);
+          if (entry.isDirectory()) {
+            batch.dirs.addString(path);
+            continue;
+          }
+          File extracted = new File(extractDir, entry.getName());
+          Files.createParentDirs(extracted);
+          OutputStream out = new FileOutputStream(extracted);
+          try {
+            ByteStreams.copy(in, out);
+          } finally {
+            out.close();
+          }
+          addFile(batch, extracted, path);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      logger.error(String.format("Failed to unzip [%s]", zipPath), e);
+      failed.add(zipPath);
+    }
+    for (String path : failed) {
+      batch.unzipFailure(zipPath).addDisplayFailedWorkspacePaths(path);
+    }
+  }
+
+  /**
+   * Adds a staged file to the import. A file that FileTree can simply rename into place is left
+   * to it; otherwise the file is copied over the existing one, or moved across file systems, here.
+   */
+  private void addFile(Import batch, File staged, String path) {
+    File target = new File(workspaceDir, path.substring(1));
+    if (stagedOnWorkspaceFileStore && !target.exists()) {
+      batch.files.addObject(new JsonObject()
+          .putString("from", staged.getAbsolutePath()).putString("path", path));
+      return;
+    }
+    try {
+      if (target.isFile()) {
+        Files.copy(staged, target);
+        staged.delete();
+      } else {
+        Files.createParentDirs(target);
+        Files.move(staged, target);
+      }
+    } catch (IOException e) {
+      logger.error(String.format("Failed to import [%s]", path), e);
+      batch.addFailure(path);
+    }
+  }
+
+  private Session getSession(Message<JsonObject> message, String sessionId) {
+    Session session = sessions.get(sessionId);
+    if (session == null) {
+      replyError(message, "Unknown upload session: " + sessionId);
+    }
+    return session;
+  }
+
+  /** Keeps the paths that the session declared, ignoring any it did not. */
+  private static List<String> declared(
+      com.google.collide.json.shared.JsonArray<String> paths, Set<String> sessionPaths) {
+    List<String> declared = Lists.newArrayList();
+    for (String path : iterate(paths)) {
+      if (sessionPaths.contains(path)) {
+        declared.add(path);
+      }
+    }
+    return declared;
+  }
+
+  private static Iterable<String> iterate(com.google.collide.json.shared.JsonArray<String> paths) {
+    return paths == null ? Lists.<String>newArrayList() : paths.asIterable();
+  }
+
+  /**
+   * Whether a workspace path is absolute and stays inside the workspace.
+   */
+  private static boolean isValidPath(String path) {
+    if (path == null || !path.startsWith("/") || path.contains("\\")) {
+      return false;
+    }
+    for (String segment : path.split("/")) {
+      if (segment.equals("..")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isOnSameFileStore(File a, File b) {
+    try {
+      return java.nio.file.Files.getFileStore(a.toPath())
+          .equals(java.nio.file.Files.getFileStore(b.toPath()));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void replyError(Message<JsonObject> message, String details) {
+    message.reply(Dto.wrap(ServerErrorImpl.make()
+        .setFailureReason(FailureReason.SERVER_ERROR).setDetails(details)));
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
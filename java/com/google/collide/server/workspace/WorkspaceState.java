@@ -17,6 +17,7 @@ package com.google.collide.server.workspace;
 import com.google.collide.dto.RunTarget.RunMode;
 import com.google.collide.dto.server.DtoServerImpls.GetWorkspaceMetaDataResponseImpl;
 import com.google.collide.dto.server.DtoServerImpls.RunTargetImpl;
+import com.google.collide.server.metrics.EventBusMetrics;
 import com.google.collide.server.shared.util.Dto;
 
 import org.vertx.java.busmods.BusModBase;
@@ -37,13 +38,18 @@ public class WorkspaceState extends BusModBase {
   private String lastOpenedFileId;
   private String webRoot;
 
+  /** Times the event bus handlers. */
+  private EventBusMetrics eventBusMetrics;
+
   @Override
   public void start() {
     super.start();
     this.addressBase = getOptionalStringConfig("address", "documents");
     this.webRoot = getMandatoryStringConfig("webRoot");
+    eventBusMetrics = new EventBusMetrics(vertx, "WorkspaceState");
+    eventBusMetrics.start();
 
-    vertx.eventBus()
+    eventBusMetrics
         .registerHandler(addressBase + ".getMetaData", new Handler<Message<JsonObject>>() {
             @Override
           public void handle(final Message<JsonObject> requestEvent) {
@@ -68,7 +74,7 @@ public class WorkspaceState extends BusModBase {
           }
         });
 
-    vertx.eventBus()
+    eventBusMetrics
         .registerHandler(addressBase + ".setLastOpenedFile", new Handler<Message<JsonObject>>() {
             @Override
           public void handle(Message<JsonObject> event) {
@@ -76,7 +82,7 @@ public class WorkspaceState extends BusModBase {
           }
         });
 
-    vertx.eventBus()
+    eventBusMetrics
         .registerHandler(addressBase + ".updateRunTarget", new Handler<Message<JsonObject>>() {
             @Override
           public void handle(Message<JsonObject> event) {
@@ -85,4 +91,10 @@ public class WorkspaceState extends BusModBase {
           }
         });
   }
+
+  @Override
+  public void stop() throws Exception {
+    eventBusMetrics.stop();
+    super.stop();
+  }
 }
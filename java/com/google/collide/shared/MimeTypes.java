@@ -49,6 +49,17 @@ public class MimeTypes {
     mimeTypes.put("json", JSON);
     mimeTypes.put("svg", "image/svg+xml");
     mimeTypes.put("zip", ZIP_MIMETYPE);
+    mimeTypes.put("htm", "text/html");
+    mimeTypes.put("csv", "text/csv");
+    mimeTypes.put("pdf", "application/pdf");
+    mimeTypes.put("mp3", "audio/mpeg");
+    mimeTypes.put("oga", "audio/ogg");
+    mimeTypes.put("ogg", "audio/ogg");
+    mimeTypes.put("wav", "audio/wav");
+    mimeTypes.put("mp4", "video/mp4");
+    mimeTypes.put("m4v", "video/mp4");
+    mimeTypes.put("ogv", "video/ogg");
+    mimeTypes.put("webm", "video/webm");
 
     imageMimeTypes.put("image/gif", true);
     imageMimeTypes.put("image/jpeg", true);
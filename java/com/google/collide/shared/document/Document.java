@@ -24,7 +24,6 @@ import com.google.collide.shared.document.anchor.AnchorManager;
 import com.google.collide.shared.util.JsonCollections;
 import com.google.collide.shared.util.ListenerManager;
 import com.google.collide.shared.util.ListenerRegistrar;
-import com.google.collide.shared.util.StringUtils;
 import com.google.collide.shared.util.ListenerManager.Dispatcher;
 
 // TODO: need the preferred newline characters for the doc
@@ -32,7 +31,8 @@ import com.google.collide.shared.util.ListenerManager.Dispatcher;
  * Document model for the code editor.
  *
  *  The document is modeled using a linked list of lines. (This allows for very fast line insertions
- * and still good performance for other common editor operations.)
+ * and still good performance for other common editor operations.) Large documents can also keep
+ * a {@link LineIndex} over the lines, see {@link #enableLineIndex()}.
  *
  * During a text change, listeners will be called in this order:
  * <ul>
@@ -131,10 +131,15 @@ public class Document implements DocumentMutator {
     return new Document();
   }
 
+  /**
+   * Creates a document with the given contents. The lines are built directly
+   * rather than by inserting the text, since a new document has no anchors or
+   * listeners to tell about them.
+   */
   public static Document createFromString(
       String contents) {
     Document doc = createEmpty();
-    doc.insertText(doc.getFirstLine(), 0, 0, contents);
+    doc.load(contents);
 
     return doc;
   }
@@ -155,6 +160,8 @@ public class Document implements DocumentMutator {
 
   private final LineFinder lineFinder;
 
+  private LineIndex lineIndex;
+
   private final DocumentMutatorImpl documentMutator;
 
   private final ListenerManager<TextListener> textListenerManager;
@@ -239,20 +246,74 @@ public class Document implements DocumentMutator {
     return lineFinder;
   }
 
+  /**
+   * Keeps a balanced tree over the lines from now on, which lets the
+   * {@link LineFinder} find any line in O(log n) time instead of iterating
+   * from the closest known line. This costs an object per line and some work
+   * on every line insertion or removal, so it is worthwhile for documents that
+   * are large or whose lines are looked up all over, such as those edited
+   * concurrently on the server.
+   */
+  public void enableLineIndex() {
+    if (lineIndex == null) {
+      lineIndex = LineIndex.create(this);
+    }
+  }
+
+  public boolean isLineIndexEnabled() {
+    return lineIndex != null;
+  }
+
+  /**
+   * Returns the offset from the beginning of the document of the character at
+   * {@code column} on {@code line}, in O(log n) time. This enables the line
+   * index if it is not yet, so that later lookups only pay for the edits in
+   * between.
+   */
+  public int getOffset(Line line, int column) {
+    if (!line.isAttached() || line.getDocument() != this) {
+      throw new IllegalArgumentException("Line is not in this document: " + line);
+    }
+
+    enableLineIndex();
+    return lineIndex.getOffset(line) + column;
+  }
+
+  /**
+   * Returns the position of the character at {@code offset} from the
+   * beginning of the document, in O(log n) time. The offset just past the last
+   * character is at the end of the last line. This enables the line index if
+   * it is not yet, see {@link #getOffset(Line, int)}.
+   */
+  public Position getPosition(int offset) {
+    enableLineIndex();
+    if (offset < 0 || offset > lineIndex.getCharCount()) {
+      throw new PositionOutOfBoundsException("Offset " + offset
+          + " is outside of the document, which has " + lineIndex.getCharCount() + " characters");
+    }
+
+    LineInfo lineInfo = lineIndex.getLineAtOffset(offset);
+    return new Position(lineInfo, offset - lineIndex.getOffset(lineInfo.line()));
+  }
+
+  LineIndex getLineIndex() {
+    return lineIndex;
+  }
+
   public ListenerRegistrar<LineListener> getLineListenerRegistrar() {
     return lineListenerManager;
   }
 
   public String getText(Line line, int column, int count) {
-    assert column < line.getText().length();
+    assert column < line.length();
 
     StringBuilder s =
-        new StringBuilder(StringUtils.substringGuarded(line.getText(), column, count));
+        new StringBuilder(line.getText(column, Math.min(line.length(), column + count)));
     int remainingCount = count - s.length();
     line = line.getNextLine();
 
     while (remainingCount > 0 && line != null) {
-      String capturedLineText = StringUtils.substringGuarded(line.getText(), 0, remainingCount);
+      String capturedLineText = line.getText(0, Math.min(line.length(), remainingCount));
       s.append(capturedLineText);
       remainingCount -= capturedLineText.length();
 
@@ -319,6 +380,38 @@ public class Document implements DocumentMutator {
     return (T) tags.get(key);
   }
 
+  /**
+   * Replaces the lines of a new document with those of {@code contents}, in one
+   * pass over the text.
+   */
+  private void load(String contents) {
+    Line previousLine = null;
+    int lineCount = 0;
+    for (int lineStart = 0; ; ) {
+      int newline = contents.indexOf('\n', lineStart);
+      int lineEnd = newline == -1 ? contents.length() : newline + 1;
+
+      Line line = Line.create(this, contents.substring(lineStart, lineEnd));
+      line.setAttached(true);
+      if (previousLine == null) {
+        firstLine = line;
+      } else {
+        previousLine.setNextLine(line);
+        line.setPreviousLine(previousLine);
+      }
+      previousLine = line;
+      lineCount++;
+
+      if (newline == -1) {
+        break;
+      }
+      lineStart = lineEnd;
+    }
+
+    lastLine = previousLine;
+    this.lineCount = lineCount;
+  }
+
   void commitLineCountChange(int lineCountDelta) {
     if (lineCountDelta != 0) {
       lineCount += lineCountDelta;
@@ -350,6 +443,11 @@ public class Document implements DocumentMutator {
   }
 
   void dispatchTextChange(final JsonArray<TextChange> textChanges) {
+    // Skips creating the dispatcher on every keystroke when nothing listens
+    if (textListenerManager.getCount() == 0) {
+      return;
+    }
+
     textListenerManager.dispatch(new Dispatcher<Document.TextListener>() {
       @Override
       public void dispatch(TextListener listener) {
@@ -360,6 +458,10 @@ public class Document implements DocumentMutator {
   
   void dispatchPreTextChange(final TextChange.Type type, final Line line, final int lineNumber,
       final int column, final String text) {
+    if (preTextListenerManager.getCount() == 0) {
+      return;
+    }
+
     preTextListenerManager.dispatch(new Dispatcher<Document.PreTextListener>() {
       @Override
       public void dispatch(PreTextListener listener) {
@@ -38,7 +38,6 @@ class DocumentMutatorImpl implements DocumentMutator {
     private final int firstLineColumn;
     private final Line firstLine;
     private final int firstLineNumber;
-    private final String firstLineChunk;
     private Line curLine;
     private int curLineNumber;
     private int remainingDeleteCount;
@@ -48,8 +47,6 @@ class DocumentMutatorImpl implements DocumentMutator {
       firstLineNumber = this.curLineNumber = lineNumber;
       firstLineColumn = this.column = column;
       this.remainingDeleteCount = deletedText.length();
-
-      firstLineChunk = line.getText().substring(0, column);
     }
 
     void delete() {
@@ -82,17 +79,22 @@ class DocumentMutatorImpl implements DocumentMutator {
       }
 
       // Move any leftover text on the last line to the first line
-      boolean lastLineIsEmpty = curLine.getText().length() == 0;
-      boolean lastLineWillHaveLeftoverText =
-          deleteCountForCurLine < curLine.getText().length();
+      boolean lastLineIsEmpty = curLine.length() == 0;
+      boolean lastLineWillHaveLeftoverText = deleteCountForCurLine < curLine.length();
       int lastLineFirstUntouchedColumn = column + deleteCountForCurLine;
       if (lastLineWillHaveLeftoverText || lastLineIsEmpty) {
         anchorManager.handleTextDeletionLastLineLeftover(anchorsLeftoverFromLastLine, firstLine,
             curLine, lastLineFirstUntouchedColumn);
       }
 
-      String lastLineChunk = curLine.getText().substring(lastLineFirstUntouchedColumn);
-      firstLine.setText(firstLineChunk + lastLineChunk);
+      if (curLine == firstLine) {
+        // Only text within the line was deleted, which long lines do in place
+        firstLine.deleteText(firstLineColumn, deleteCountForCurLine);
+      } else {
+        String firstLineChunk = firstLine.getText(0, firstLineColumn);
+        String lastLineChunk = curLine.getText(lastLineFirstUntouchedColumn, curLine.length());
+        firstLine.setText(firstLineChunk + lastLineChunk);
+      }
 
       int numberOfDeletedLines = curLineNumber - firstLineNumber;
 
@@ -112,7 +114,7 @@ class DocumentMutatorImpl implements DocumentMutator {
      * @return whether a newline character was deleted
      */
     private boolean deleteFromCurLine(boolean isFirstLine) {
-      int maxDeleteCountForCurLine = curLine.getText().length() - column;
+      int maxDeleteCountForCurLine = curLine.length() - column;
       deleteCountForCurLine = Math.min(maxDeleteCountForCurLine, remainingDeleteCount);
 
       anchorManager.handleTextPredeletionForLine(curLine, column, deleteCountForCurLine,
@@ -130,8 +132,7 @@ class DocumentMutatorImpl implements DocumentMutator {
       remainingDeleteCount -= deleteCountForCurLine;
 
       int lastCharDeletedIndex = column + deleteCountForCurLine - 1;
-      return lastCharDeletedIndex >= 0 ? curLine.getText().charAt(lastCharDeletedIndex) == '\n'
-          : false;
+      return lastCharDeletedIndex >= 0 ? curLine.charAt(lastCharDeletedIndex) == '\n' : false;
     }
 
     private void iterateToNextLine() {
@@ -173,7 +174,7 @@ class DocumentMutatorImpl implements DocumentMutator {
       return TextChange.createDeletion(line, lineNumber, column, "");
     }
 
-    if (column >= line.getText().length()) {
+    if (column >= line.length()) {
       throw new IndexOutOfBoundsException("Attempt to delete text at column " + column
           + " which is greater than line length " + line.getText().length() + "(line text is: "
           + line.getText() + ")");
@@ -247,9 +248,7 @@ class DocumentMutatorImpl implements DocumentMutator {
 
   private void insertTextOnOneLineImpl(Line line, int column, String text) {
     // Add the text first
-    String oldText = line.getText();
-    String newText = oldText.substring(0, column) + text + oldText.substring(column);
-    line.setText(newText);
+    line.insertText(column, text);
 
     // Update the anchors
     anchorManager.handleSingleLineTextInsertion(line, column, text.length());
@@ -340,6 +339,11 @@ class DocumentMutatorImpl implements DocumentMutator {
       document.setLastLine(line);
     }
 
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      lineIndex.insertAfter(previousLine, line);
+    }
+
     line.setAttached(true);
   }
 
@@ -381,6 +385,11 @@ class DocumentMutatorImpl implements DocumentMutator {
       document.setLastLine(previousLine);
     }
 
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      lineIndex.remove(line);
+    }
+
     line.setAttached(false);
   }
 }
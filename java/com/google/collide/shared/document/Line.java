@@ -32,9 +32,21 @@ import com.google.collide.shared.util.JsonCollections;
  * a line number given the line, or vice versa.
  *
  * Lines can have tags attached to them by clients of this class.
+ *
+ * Lines longer than {@value #LONG_LINE_LENGTH} characters keep their text in a
+ * {@link LineBuffer} while they are being edited, so that an edit in a long
+ * line, such as minified code, does not copy the whole line. {@link #getText()}
+ * then builds the string when asked and caches it until the next edit; code
+ * on the editing path should prefer {@link #length()} and
+ * {@link #getText(int, int)}.
  */
 public class Line implements TaggableLine {
 
+  /**
+   * Lines at least this long are edited in a {@link LineBuffer}.
+   */
+  static final int LONG_LINE_LENGTH = 4096;
+
   static Line create(Document document, String text) {
     return new Line(document, text);
   }
@@ -47,11 +59,21 @@ public class Line implements TaggableLine {
 
   private Line previousLine;
 
+  /** This line's node in the document's {@link LineIndex}, if it has one. */
+  private LineIndex.Node indexNode;
+
   // Not final so we can do O(1) clearTags
   private JsonStringMap<Object> tags;
 
+  /**
+   * The text, or null if it is in {@link #buffer} and has been edited since it
+   * was last asked for.
+   */
   private String text;
 
+  /** Holds the text of a long line that is being edited. */
+  private LineBuffer buffer;
+
   private Line(Document document, String text) {
     this.document = document;
     this.text = text;
@@ -96,11 +118,28 @@ public class Line implements TaggableLine {
   }
 
   public String getText() {
+    if (text == null) {
+      text = buffer.toString();
+    }
     return text;
   }
 
+  /**
+   * Returns the text from {@code beginColumn} (inclusive) to
+   * {@code endColumn} (exclusive), without building the whole text of a long
+   * line.
+   */
+  public String getText(int beginColumn, int endColumn) {
+    return text != null ? text.substring(beginColumn, endColumn)
+        : buffer.substring(beginColumn, endColumn);
+  }
+
+  public char charAt(int column) {
+    return text != null ? text.charAt(column) : buffer.charAt(column);
+  }
+
   public boolean hasColumn(int column) {
-    return column >= 0 && column < text.length();
+    return column >= 0 && column < length();
   }
 
   public boolean isAttached() {
@@ -108,7 +147,7 @@ public class Line implements TaggableLine {
   }
 
   public int length() {
-    return text.length();
+    return text != null ? text.length() : buffer.length();
   }
 
   /**
@@ -131,7 +170,7 @@ public class Line implements TaggableLine {
 
   @Override
   public String toString() {
-    String trimmedText = text.trim();
+    String trimmedText = getText().trim();
     return (trimmedText.length() > 50 ? trimmedText.substring(0, 50) + "..." : trimmedText);
   }
 
@@ -159,5 +198,61 @@ public class Line implements TaggableLine {
 
   void setText(String text) {
     this.text = text;
+    buffer = null;
+
+    updateIndexLength();
+  }
+
+  /**
+   * Inserts {@code insertedText}, which must not contain a newline, at
+   * {@code column}.
+   */
+  void insertText(int column, String insertedText) {
+    int length = length();
+    if (buffer == null && length + insertedText.length() < LONG_LINE_LENGTH) {
+      setText(new StringBuilder(length + insertedText.length()).append(text, 0, column)
+          .append(insertedText).append(text, column, length).toString());
+      return;
+    }
+
+    if (buffer == null) {
+      buffer = new LineBuffer(text);
+    }
+    buffer.insert(column, insertedText);
+    text = null;
+
+    updateIndexLength();
+  }
+
+  /**
+   * Deletes {@code count} characters starting at {@code column}.
+   */
+  void deleteText(int column, int count) {
+    if (buffer == null && text.length() < LONG_LINE_LENGTH) {
+      setText(text.substring(0, column) + text.substring(column + count));
+      return;
+    }
+
+    if (buffer == null) {
+      buffer = new LineBuffer(text);
+    }
+    buffer.delete(column, count);
+    text = null;
+
+    updateIndexLength();
+  }
+
+  private void updateIndexLength() {
+    if (indexNode != null) {
+      indexNode.setLength(length());
+    }
+  }
+
+  LineIndex.Node getIndexNode() {
+    return indexNode;
+  }
+
+  void setIndexNode(LineIndex.Node indexNode) {
+    this.indexNode = indexNode;
   }
 }
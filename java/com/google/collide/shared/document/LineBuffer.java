@@ -0,0 +1,107 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+/**
+ * Gap buffer holding the text of a long {@link Line}. The unused part of the
+ * array, the gap, is kept where the last edit was, so that an edit only moves
+ * the characters between it and the previous edit rather than copying the
+ * whole line. Typing or deleting in one place is O(1) per character.
+ */
+final class LineBuffer {
+
+  private static final int MIN_GAP = 64;
+
+  private char[] chars;
+  private int gapStart;
+  private int gapEnd;
+
+  LineBuffer(String text) {
+    chars = new char[text.length() + MIN_GAP];
+    text.getChars(0, text.length(), chars, 0);
+    gapStart = text.length();
+    gapEnd = chars.length;
+  }
+
+  int length() {
+    return chars.length - (gapEnd - gapStart);
+  }
+
+  char charAt(int index) {
+    return index < gapStart ? chars[index] : chars[index + gapEnd - gapStart];
+  }
+
+  void insert(int index, String text) {
+    moveGap(index);
+    ensureGap(text.length());
+    text.getChars(0, text.length(), chars, gapStart);
+    gapStart += text.length();
+  }
+
+  void delete(int index, int count) {
+    moveGap(index);
+    gapEnd += count;
+  }
+
+  /**
+   * Returns the text between {@code beginIndex} (inclusive) and
+   * {@code endIndex} (exclusive).
+   */
+  String substring(int beginIndex, int endIndex) {
+    if (endIndex <= gapStart) {
+      return new String(chars, beginIndex, endIndex - beginIndex);
+    } else if (beginIndex >= gapStart) {
+      return new String(chars, beginIndex + gapEnd - gapStart, endIndex - beginIndex);
+    }
+
+    return new StringBuilder(endIndex - beginIndex)
+        .append(chars, beginIndex, gapStart - beginIndex)
+        .append(chars, gapEnd, endIndex - gapStart).toString();
+  }
+
+  @Override
+  public String toString() {
+    return substring(0, length());
+  }
+
+  private void moveGap(int index) {
+    if (index < gapStart) {
+      int count = gapStart - index;
+      System.arraycopy(chars, index, chars, gapEnd - count, count);
+      gapStart -= count;
+      gapEnd -= count;
+    } else if (index > gapStart) {
+      int count = index - gapStart;
+      System.arraycopy(chars, gapEnd, chars, gapStart, count);
+      gapStart += count;
+      gapEnd += count;
+    }
+  }
+
+  private void ensureGap(int count) {
+    if (gapEnd - gapStart >= count) {
+      return;
+    }
+
+    // Grow by half the line, so that long runs of typing copy it rarely
+    int length = length();
+    char[] newChars = new char[length + count + Math.max(MIN_GAP, length / 2)];
+    int tailLength = chars.length - gapEnd;
+    System.arraycopy(chars, 0, newChars, 0, gapStart);
+    System.arraycopy(chars, gapEnd, newChars, newChars.length - tailLength, tailLength);
+    chars = newChars;
+    gapEnd = newChars.length - tailLength;
+  }
+}
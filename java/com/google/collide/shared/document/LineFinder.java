@@ -25,12 +25,22 @@ import com.google.collide.shared.document.util.LineUtils;
  * finds the closest anchor with line number, and then iterates to the line of
  * interest. Most document edits will originate on a line with an anchor
  * (local/collaborator cursors use anchors), so the common case is fast.
+ *
+ * - If the document has a LineIndex, it is used instead whenever the line of
+ * interest is not a few lines away from a known one, which bounds the worst
+ * case for lines far from any anchor in large documents.
  */
 /**
  * Helper to efficiently resolve a line number given the line, or vice versa.
  */
 public class LineFinder {
 
+  /**
+   * How far a known line may be from the line of interest for iterating to it
+   * to beat a lookup in the {@link LineIndex}.
+   */
+  private static final int MAX_ITERATION_WITH_INDEX = 32;
+
   private final Document document;
 
   LineFinder(Document document) {
@@ -48,6 +58,11 @@ public class LineFinder {
           + " but document length is " + document.getLineCount());
     }
 
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      return new LineInfo(lineIndex.getLine(targetLineNumber), targetLineNumber);
+    }
+
     int distanceFromFirstLine = targetLineNumber;
     int distanceFromLastLine = document.getLineCount() - targetLineNumber - 1;
 
@@ -75,6 +90,10 @@ public class LineFinder {
   }
 
   public LineInfo findLine(Line line) {
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null && line.getIndexNode() != null) {
+      return new LineInfo(line, lineIndex.getLineNumber(line));
+    }
 
     Line forwardIteratingLine = line;
     int forwardLineCount = 0;
@@ -130,6 +149,11 @@ public class LineFinder {
     Line line = begin.line();
     int number = begin.number();
 
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null && Math.abs(number - targetLineNumber) > MAX_ITERATION_WITH_INDEX) {
+      return new LineInfo(lineIndex.getLine(targetLineNumber), targetLineNumber);
+    }
+
     // TODO: see if there's a closer anchor
 
     if (number < targetLineNumber) {
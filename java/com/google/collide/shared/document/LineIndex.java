@@ -0,0 +1,293 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+/*
+ * Implementation notes:
+ *
+ * - The tree is a treap ordered by position in the document: an in-order walk
+ * visits the lines from first to last. Each node has a random priority that is
+ * never lower than its children's, which keeps the expected depth logarithmic
+ * whatever the order of the edits.
+ *
+ * - Nodes have parent pointers so that a line can find its number or offset by
+ * walking up from its own node, which it keeps a reference to.
+ *
+ * - The priorities come from a xorshift generator rather than java.util.Random,
+ * since its arithmetic stays within 32 bits when compiled to JavaScript.
+ */
+/**
+ * Balanced tree over the lines of a {@link Document} that keeps the number of
+ * lines and characters in each subtree, so that a line can be found by its
+ * number or by the offset of a character, and a line's number or offset can be
+ * computed, in O(log n) time.
+ *
+ * The document keeps it in step with the linked list of lines from
+ * {@link DocumentMutatorImpl}, and each line reports its own length changes.
+ */
+final class LineIndex {
+
+  /**
+   * A line's place in the tree.
+   */
+  static final class Node {
+    private final Line line;
+    private final int priority;
+    private Node parent;
+    private Node left;
+    private Node right;
+    private int length;
+    private int subtreeLineCount = 1;
+    private int subtreeCharCount;
+
+    private Node(Line line, int priority) {
+      this.line = line;
+      this.priority = priority;
+      this.length = line.length();
+      this.subtreeCharCount = length;
+    }
+
+    /**
+     * Updates the character counts after the line's text changed.
+     */
+    void setLength(int length) {
+      int delta = length - this.length;
+      this.length = length;
+      for (Node node = this; node != null; node = node.parent) {
+        node.subtreeCharCount += delta;
+      }
+    }
+
+    private void recomputeCounts() {
+      subtreeLineCount = 1 + lineCount(left) + lineCount(right);
+      subtreeCharCount = length + charCount(left) + charCount(right);
+    }
+  }
+
+  /**
+   * Creates an index of the lines currently in {@code document}.
+   */
+  static LineIndex create(Document document) {
+    LineIndex index = new LineIndex();
+    index.insertFirst(document.getFirstLine());
+    for (Line line = document.getFirstLine(); line.getNextLine() != null;
+        line = line.getNextLine()) {
+      index.insertAfter(line, line.getNextLine());
+    }
+    return index;
+  }
+
+  private static int lineCount(Node node) {
+    return node == null ? 0 : node.subtreeLineCount;
+  }
+
+  private static int charCount(Node node) {
+    return node == null ? 0 : node.subtreeCharCount;
+  }
+
+  private Node root;
+
+  private int seed = 0x2545F491;
+
+  private LineIndex() {
+  }
+
+  int getLineCount() {
+    return lineCount(root);
+  }
+
+  int getCharCount() {
+    return charCount(root);
+  }
+
+  /**
+   * Returns the line with the given number, which must be within the document.
+   */
+  Line getLine(int lineNumber) {
+    assert lineNumber >= 0 && lineNumber < getLineCount();
+
+    Node node = root;
+    while (true) {
+      int leftLineCount = lineCount(node.left);
+      if (lineNumber < leftLineCount) {
+        node = node.left;
+      } else if (lineNumber == leftLineCount) {
+        return node.line;
+      } else {
+        lineNumber -= leftLineCount + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   * Returns the line containing the character at {@code offset}. An offset at
+   * the end of the document is on the last line.
+   */
+  LineInfo getLineAtOffset(int offset) {
+    assert offset >= 0 && offset <= getCharCount();
+
+    Node node = root;
+    int lineNumber = 0;
+    while (true) {
+      int leftCharCount = charCount(node.left);
+      if (offset < leftCharCount) {
+        node = node.left;
+        continue;
+      }
+
+      offset -= leftCharCount;
+      lineNumber += lineCount(node.left);
+      if (offset < node.length || node.right == null) {
+        return new LineInfo(node.line, lineNumber);
+      }
+      offset -= node.length;
+      lineNumber++;
+      node = node.right;
+    }
+  }
+
+  int getLineNumber(Line line) {
+    Node node = line.getIndexNode();
+    int lineNumber = lineCount(node.left);
+    for (; node.parent != null; node = node.parent) {
+      if (node == node.parent.right) {
+        lineNumber += lineCount(node.parent.left) + 1;
+      }
+    }
+    return lineNumber;
+  }
+
+  /**
+   * Returns the offset of the first character of {@code line}.
+   */
+  int getOffset(Line line) {
+    Node node = line.getIndexNode();
+    int offset = charCount(node.left);
+    for (; node.parent != null; node = node.parent) {
+      if (node == node.parent.right) {
+        offset += charCount(node.parent.left) + node.parent.length;
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Adds {@code line} to an empty index.
+   */
+  void insertFirst(Line line) {
+    assert root == null;
+
+    root = createNode(line);
+  }
+
+  /**
+   * Adds {@code line} right after {@code previousLine}.
+   */
+  void insertAfter(Line previousLine, Line line) {
+    Node node = createNode(line);
+
+    // Attach it as a leaf where the in-order walk visits it after previousLine
+    Node parent = previousLine.getIndexNode();
+    if (parent.right == null) {
+      parent.right = node;
+    } else {
+      parent = parent.right;
+      while (parent.left != null) {
+        parent = parent.left;
+      }
+      parent.left = node;
+    }
+    node.parent = parent;
+
+    for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+      ancestor.subtreeLineCount++;
+      ancestor.subtreeCharCount += node.length;
+    }
+
+    while (node.parent != null && node.priority > node.parent.priority) {
+      rotateUp(node);
+    }
+  }
+
+  void remove(Line line) {
+    Node node = line.getIndexNode();
+
+    // Rotate it down until it has at most one child, which then takes its place
+    while (node.left != null && node.right != null) {
+      rotateUp(node.left.priority > node.right.priority ? node.left : node.right);
+    }
+    Node child = node.left != null ? node.left : node.right;
+    replaceChild(node.parent, node, child);
+
+    for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+      ancestor.subtreeLineCount--;
+      ancestor.subtreeCharCount -= node.length;
+    }
+
+    node.parent = node.left = node.right = null;
+    line.setIndexNode(null);
+  }
+
+  private Node createNode(Line line) {
+    seed ^= seed << 13;
+    seed ^= seed >>> 17;
+    seed ^= seed << 5;
+
+    Node node = new Node(line, seed);
+    line.setIndexNode(node);
+    return node;
+  }
+
+  /**
+   * Rotates {@code node} above its parent, keeping the in-order walk the same.
+   */
+  private void rotateUp(Node node) {
+    Node parent = node.parent;
+    if (node == parent.left) {
+      parent.left = node.right;
+      if (node.right != null) {
+        node.right.parent = parent;
+      }
+      node.right = parent;
+    } else {
+      parent.right = node.left;
+      if (node.left != null) {
+        node.left.parent = parent;
+      }
+      node.left = parent;
+    }
+
+    replaceChild(parent.parent, parent, node);
+    parent.parent = node;
+
+    parent.recomputeCounts();
+    node.recomputeCounts();
+  }
+
+  private void replaceChild(Node parent, Node oldChild, Node newChild) {
+    if (parent == null) {
+      root = newChild;
+    } else if (parent.left == oldChild) {
+      parent.left = newChild;
+    } else {
+      parent.right = newChild;
+    }
+
+    if (newChild != null) {
+      newChild.parent = parent;
+    }
+  }
+}
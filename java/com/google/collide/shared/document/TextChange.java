@@ -119,7 +119,7 @@ public class TextChange {
      * character
      */
     if (text.endsWith("\n")) {
-      return getEndLine().getText().length() - 1;
+      return getEndLine().length() - 1;
     }
 
     /*
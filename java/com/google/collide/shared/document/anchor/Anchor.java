@@ -15,6 +15,7 @@
 package com.google.collide.shared.document.anchor;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 import com.google.collide.shared.document.Line;
 import com.google.collide.shared.document.LineInfo;
@@ -151,8 +152,14 @@ public class Anchor implements ReadOnlyAnchor {
 
   private Line line;
 
+  /**
+   * The line number, unless the anchor is in the {@link LineAnchorList} which
+   * then keeps it
+   */
   private int lineNumber;
 
+  private LineAnchorList.Node lineAnchorNode;
+
   private ListenerManager<ShiftListenerImpl<? extends ReadOnlyAnchor>> shiftListenerManager;
   
   private ListenerManager<MoveListenerImpl<? extends ReadOnlyAnchor>> moveListenerManager;
@@ -213,12 +220,12 @@ public class Anchor implements ReadOnlyAnchor {
   }
 
   public LineInfo getLineInfo() {
-    return new LineInfo(line, lineNumber);
+    return new LineInfo(line, getLineNumber());
   }
 
   @Override
   public int getLineNumber() {
-    return lineNumber;
+    return lineAnchorNode != null ? lineAnchorNode.getLineNumber() : lineNumber;
   }
 
   @Override
@@ -259,7 +266,18 @@ public class Anchor implements ReadOnlyAnchor {
   @SuppressWarnings("unchecked")
   public ListenerRegistrar<ShiftListener> getShiftListenerRegistrar() {
     if (shiftListenerManager == null) {
-      shiftListenerManager = ListenerManager.create();
+      shiftListenerManager = ListenerManager.create(
+          new ListenerManager.RegistrationListener<ShiftListenerImpl<? extends ReadOnlyAnchor>>() {
+            @Override
+            public void onListenerAdded(ShiftListenerImpl<? extends ReadOnlyAnchor> listener) {
+              onShiftListenersChanged();
+            }
+
+            @Override
+            public void onListenerRemoved(ShiftListenerImpl<? extends ReadOnlyAnchor> listener) {
+              onShiftListenersChanged();
+            }
+          });
     }
 
     return (ListenerRegistrar) shiftListenerManager;
@@ -303,7 +321,7 @@ public class Anchor implements ReadOnlyAnchor {
   public String toString() {
     StringBuilder sb = new StringBuilder(getType().toString());
     sb.append(":").append(getId());
-    sb.append(" (").append(lineNumber).append(',').append(column).append(")");
+    sb.append(" (").append(getLineNumber()).append(',').append(column).append(")");
     sb.append("[").append(value).append("]");
     sb.append(": ");
 
@@ -377,11 +395,35 @@ public class Anchor implements ReadOnlyAnchor {
   }
 
   void setLineWithoutDispatch(Line line, int lineNumber) {
+    checkState(lineAnchorNode == null, "The anchor must be out of the line anchor list");
     checkArgument(hasLineNumber() == (lineNumber != AnchorManager.IGNORE_LINE_NUMBER));
     this.line = line;
     this.lineNumber = lineNumber;
   }
 
+  LineAnchorList.Node getLineAnchorNode() {
+    return lineAnchorNode;
+  }
+
+  /**
+   * Called by the {@link LineAnchorList} as the anchor enters or leaves it. On
+   * leaving, the anchor takes back its line number from the list.
+   */
+  void setLineAnchorNode(LineAnchorList.Node lineAnchorNode) {
+    this.lineNumber = getLineNumber();
+    this.lineAnchorNode = lineAnchorNode;
+  }
+
+  boolean hasShiftListeners() {
+    return shiftListenerManager != null && shiftListenerManager.getCount() > 0;
+  }
+
+  private void onShiftListenersChanged() {
+    if (lineAnchorNode != null) {
+      lineAnchorNode.setHasShiftListeners(hasShiftListeners());
+    }
+  }
+
   @Override
   public boolean hasColumn() {
     return column != AnchorManager.IGNORE_COLUMN;
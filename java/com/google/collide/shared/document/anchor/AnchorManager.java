@@ -107,23 +107,7 @@ public class AnchorManager {
    * positioned on another line.
    */
   public Anchor findClosestAnchorWithLineNumber(int lineNumber) {
-
-    if (lineAnchors.size() == 0) {
-      return null;
-    }
-
-    int insertionIndex = lineAnchors.findInsertionIndex(lineNumber);
-    if (insertionIndex == lineAnchors.size()) {
-      return lineAnchors.get(insertionIndex - 1);
-    } else if (insertionIndex == 0) {
-      return lineAnchors.get(0);
-    }
-
-    int distanceFromPreviousAnchor =
-        lineNumber - lineAnchors.get(insertionIndex - 1).getLineNumber();
-    int distanceFromNextAnchor = lineAnchors.get(insertionIndex).getLineNumber() - lineNumber;
-    return distanceFromNextAnchor < distanceFromPreviousAnchor
-        ? lineAnchors.get(insertionIndex) : lineAnchors.get(insertionIndex - 1);
+    return lineAnchors.findClosest(lineNumber);
   }
 
   /**
@@ -282,7 +266,7 @@ public class AnchorManager {
       return;
     }
 
-    boolean entireLineDeleted = line.getText().length() == deleteCountForLine;
+    boolean entireLineDeleted = line.length() == deleteCountForLine;
     assert !entireLineDeleted || column == 0;
     if (entireLineDeleted && !isFirstLine) {
       // If entire line is deleted, shift/remove line anchors too
@@ -615,12 +599,11 @@ public class AnchorManager {
    */
   private void shiftLineNumbersDeferDispatch(final int lineNumber, int shiftAmount,
       AnchorDeferredDispatcher dispatcher) {
-    int insertionIndex = lineAnchors.findInsertionIndex(lineNumber);
-    for (int i = insertionIndex, n = lineAnchors.size(); i < n; i++) {
-      Anchor anchor = lineAnchors.get(i);
-      anchor.setLineWithoutDispatch(anchor.getLine(), anchor.getLineNumber() + shiftAmount);
-
-      dispatcher.deferDispatchShifted(anchor);
+    // Only anchors with shift listeners have anything to dispatch
+    JsonArray<Anchor> shiftedAnchors = JsonCollections.createArray();
+    lineAnchors.shiftLineNumbers(lineNumber, shiftAmount, shiftedAnchors);
+    for (int i = 0, n = shiftedAnchors.size(); i < n; i++) {
+      dispatcher.deferDispatchShifted(shiftedAnchors.get(i));
     }
   }
 
@@ -632,4 +615,13 @@ public class AnchorManager {
 
     return sb.toString();
   }
+
+  private static String dumpAnchors(LineAnchorList anchorList) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0, n = anchorList.size(); i < n; i++) {
+      sb.append(anchorList.get(i).toString()).append("\n");
+    }
+
+    return sb.toString();
+  }
 }
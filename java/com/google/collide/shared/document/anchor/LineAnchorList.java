@@ -14,39 +14,353 @@
 
 package com.google.collide.shared.document.anchor;
 
-import com.google.collide.shared.util.SortedList;
+import com.google.collide.json.shared.JsonArray;
 
+/*
+ * Implementation notes:
+ *
+ * - The anchors are kept in a treap ordered by line number, with random
+ * priorities keeping it balanced. Each node has a parent pointer so that an
+ * anchor, which keeps a reference to its node, can find its line number and
+ * be removed without a search.
+ *
+ * - Shifting line numbers is lazy: a node's pendingShift has not been applied
+ * to its descendants yet, so a node's line number is its own plus the pending
+ * shifts of its ancestors. Shifting all anchors from a line on only touches
+ * the nodes on one path from the root. Pending shifts are pushed down to the
+ * children before the tree changes shape around a node.
+ *
+ * - Each node counts the anchors with shift listeners in its subtree, so the
+ * anchors to notify of a shift can be found without visiting the others.
+ */
 /**
- * List for line anchors with specific optimizations for line anchors.
+ * Index of the anchors that care about their line numbers, supporting
+ * O(log n) insertion, removal, lookup of the anchor closest to a line and
+ * shifting of the line numbers of all anchors from a line on.
  */
-public class LineAnchorList extends SortedList<Anchor> {
+public class LineAnchorList {
+
+  /**
+   * An anchor's place in the index.
+   */
+  static final class Node {
+    private final Anchor anchor;
+    private final int priority;
+    private Node parent;
+    private Node left;
+    private Node right;
+    private int lineNumber;
+    private int pendingShift;
+    private int size = 1;
+    private boolean hasShiftListeners;
+    private int shiftListenerCount;
+
+    private Node(Anchor anchor, int lineNumber, int priority) {
+      this.anchor = anchor;
+      this.lineNumber = lineNumber;
+      this.priority = priority;
+      hasShiftListeners = anchor.hasShiftListeners();
+      shiftListenerCount = hasShiftListeners ? 1 : 0;
+    }
+
+    int getLineNumber() {
+      int lineNumber = this.lineNumber;
+      for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+        lineNumber += ancestor.pendingShift;
+      }
+      return lineNumber;
+    }
+
+    void setHasShiftListeners(boolean hasShiftListeners) {
+      if (this.hasShiftListeners == hasShiftListeners) {
+        return;
+      }
+
+      this.hasShiftListeners = hasShiftListeners;
+      int delta = hasShiftListeners ? 1 : -1;
+      for (Node node = this; node != null; node = node.parent) {
+        node.shiftListenerCount += delta;
+      }
+    }
 
-  private static class Comparator implements SortedList.Comparator<Anchor> {
-    @Override
-    public int compare(Anchor a, Anchor b) {
-      return a.getLineNumber() - b.getLineNumber();
+    private void recomputeCounts() {
+      size = 1 + size(left) + size(right);
+      shiftListenerCount = (hasShiftListeners ? 1 : 0) + shiftListenerCount(left)
+          + shiftListenerCount(right);
     }
   }
 
-  private static class OneWayComparator implements SortedList.OneWayComparator<Anchor> {
-    private int lineNumber;
+  private static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static int shiftListenerCount(Node node) {
+    return node == null ? 0 : node.shiftListenerCount;
+  }
+
+  private Node root;
+
+  private int seed = 0x1B873593;
+
+  public void add(Anchor anchor) {
+    seed ^= seed << 13;
+    seed ^= seed >>> 17;
+    seed ^= seed << 5;
+    Node node = new Node(anchor, anchor.getLineNumber(), seed);
+
+    if (root == null) {
+      root = node;
+    } else {
+      // Anchors on the same line go after the existing ones
+      Node parent = root;
+      while (true) {
+        pushDown(parent);
+        if (node.lineNumber < parent.lineNumber) {
+          if (parent.left == null) {
+            parent.left = node;
+            break;
+          }
+          parent = parent.left;
+        } else {
+          if (parent.right == null) {
+            parent.right = node;
+            break;
+          }
+          parent = parent.right;
+        }
+      }
+      node.parent = parent;
+
+      for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+        ancestor.size++;
+        ancestor.shiftListenerCount += node.shiftListenerCount;
+      }
+      while (node.parent != null && node.priority > node.parent.priority) {
+        rotateUp(node);
+      }
+    }
+
+    anchor.setLineAnchorNode(node);
+  }
+
+  /**
+   * Removes the anchor, which keeps its current line number.
+   *
+   * @return whether the anchor was in the list
+   */
+  public boolean remove(Anchor anchor) {
+    Node node = anchor.getLineAnchorNode();
+    if (node == null) {
+      return false;
+    }
+    anchor.setLineAnchorNode(null);
+
+    // Rotate it down until it has at most one child, which then takes its place
+    while (node.left != null && node.right != null) {
+      rotateUp(node.left.priority > node.right.priority ? node.left : node.right);
+    }
+    pushDown(node);
+    Node child = node.left != null ? node.left : node.right;
+    replaceChild(node.parent, node, child);
+
+    for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+      ancestor.size--;
+      ancestor.shiftListenerCount -= node.hasShiftListeners ? 1 : 0;
+    }
+
+    node.parent = node.left = node.right = null;
+    return true;
+  }
+
+  /**
+   * Removes all anchors, which keep their current line numbers.
+   */
+  public void clear() {
+    detachAll(root);
+    root = null;
+  }
+
+  public int size() {
+    return size(root);
+  }
+
+  /**
+   * Returns the anchor at the given {@code index} in line number order.
+   */
+  public Anchor get(int index) {
+    Node node = root;
+    while (true) {
+      int leftSize = size(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index == leftSize) {
+        return node.anchor;
+      } else {
+        index -= leftSize + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the anchor in line number order, or -1 if it is not in
+   * the list.
+   */
+  public int findIndex(Anchor anchor) {
+    Node node = anchor.getLineAnchorNode();
+    if (node == null) {
+      return -1;
+    }
+
+    int index = size(node.left);
+    for (; node.parent != null; node = node.parent) {
+      if (node == node.parent.right) {
+        index += size(node.parent.left) + 1;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the anchor closest to {@code lineNumber}, preferring the earlier
+   * one when two are as close, or null if the list is empty.
+   */
+  public Anchor findClosest(int lineNumber) {
+    Anchor previous = null;
+    int previousLineNumber = 0;
+    Anchor next = null;
+    int nextLineNumber = 0;
+
+    int shift = 0;
+    for (Node node = root; node != null;) {
+      int nodeLineNumber = node.lineNumber + shift;
+      if (nodeLineNumber == lineNumber) {
+        return node.anchor;
+      }
 
-    @Override
-    public int compareTo(Anchor o) {
-      return lineNumber - o.getLineNumber();
+      shift += node.pendingShift;
+      if (nodeLineNumber < lineNumber) {
+        previous = node.anchor;
+        previousLineNumber = nodeLineNumber;
+        node = node.right;
+      } else {
+        next = node.anchor;
+        nextLineNumber = nodeLineNumber;
+        node = node.left;
+      }
     }
+
+    if (previous == null || next == null) {
+      return previous != null ? previous : next;
+    }
+    return nextLineNumber - lineNumber < lineNumber - previousLineNumber ? next : previous;
   }
 
-  private static final Comparator COMPARATOR = new Comparator();
+  /**
+   * Adds {@code shiftAmount} to the line numbers of the anchors on
+   * {@code lineNumber} or later. The anchors must stay in the same order.
+   *
+   * @param shiftedAnchorsWithListeners receives the shifted anchors that have
+   *        shift listeners, in line number order
+   */
+  public void shiftLineNumbers(int lineNumber, int shiftAmount,
+      JsonArray<Anchor> shiftedAnchorsWithListeners) {
+    collectAnchorsWithShiftListeners(root, 0, lineNumber, shiftedAnchorsWithListeners);
 
-  private final OneWayComparator oneWayComparator = new OneWayComparator();
+    for (Node node = root; node != null;) {
+      pushDown(node);
+      if (node.lineNumber >= lineNumber) {
+        node.lineNumber += shiftAmount;
+        addShift(node.right, shiftAmount);
+        node = node.left;
+      } else {
+        node = node.right;
+      }
+    }
+  }
 
-  public LineAnchorList() {
-    super(COMPARATOR);
+  private void collectAnchorsWithShiftListeners(Node node, int shift, int lineNumber,
+      JsonArray<Anchor> anchors) {
+    if (node == null || node.shiftListenerCount == 0) {
+      return;
+    }
+
+    int childShift = shift + node.pendingShift;
+    if (node.lineNumber + shift >= lineNumber) {
+      collectAnchorsWithShiftListeners(node.left, childShift, lineNumber, anchors);
+      if (node.hasShiftListeners) {
+        anchors.add(node.anchor);
+      }
+    }
+    collectAnchorsWithShiftListeners(node.right, childShift, lineNumber, anchors);
   }
 
-  public int findInsertionIndex(int lineNumber) {
-    oneWayComparator.lineNumber = lineNumber;
-    return findInsertionIndex(oneWayComparator);
+  private void detachAll(Node node) {
+    if (node == null) {
+      return;
+    }
+
+    pushDown(node);
+    node.anchor.setLineAnchorNode(null);
+    detachAll(node.left);
+    detachAll(node.right);
+  }
+
+  private static void addShift(Node node, int shiftAmount) {
+    if (node != null) {
+      node.lineNumber += shiftAmount;
+      node.pendingShift += shiftAmount;
+    }
+  }
+
+  private static void pushDown(Node node) {
+    if (node.pendingShift != 0) {
+      addShift(node.left, node.pendingShift);
+      addShift(node.right, node.pendingShift);
+      node.pendingShift = 0;
+    }
+  }
+
+  /**
+   * Rotates {@code node} above its parent, keeping the order the same.
+   */
+  private void rotateUp(Node node) {
+    Node parent = node.parent;
+    pushDown(parent);
+    pushDown(node);
+
+    if (node == parent.left) {
+      parent.left = node.right;
+      if (node.right != null) {
+        node.right.parent = parent;
+      }
+      node.right = parent;
+    } else {
+      parent.right = node.left;
+      if (node.left != null) {
+        node.left.parent = parent;
+      }
+      node.left = parent;
+    }
+
+    replaceChild(parent.parent, parent, node);
+    parent.parent = node;
+
+    parent.recomputeCounts();
+    node.recomputeCounts();
+  }
+
+  private void replaceChild(Node parent, Node oldChild, Node newChild) {
+    if (parent == null) {
+      root = newChild;
+    } else if (parent.left == oldChild) {
+      parent.left = newChild;
+    } else {
+      parent.right = newChild;
+    }
+
+    if (newChild != null) {
+      newChild.parent = parent;
+    }
   }
 }
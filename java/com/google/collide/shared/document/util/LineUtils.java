@@ -97,7 +97,8 @@ public final class LineUtils {
    */
   public static int getLastCursorColumn(Line line) {
     // "- 1" because we cannot position after the invisible newline
-    return getLastCursorColumn(line.getText());
+    int length = line.length();
+    return length > 0 && line.charAt(length - 1) == '\n' ? length - 1 : length;
   }
   
   /**
@@ -128,7 +129,8 @@ public final class LineUtils {
 
   /**
    * Gets the number of characters (including newlines) in the given inclusive
-   * range.
+   * range. This iterates over the lines in between unless the document has a
+   * line index.
    */
   public static int getTextCount(Line beginLine, int beginColumn, Line endLine, int endColumn) {
     Preconditions.checkArgument(beginLine.isAttached(), "beginLine must be attached");
@@ -138,6 +140,16 @@ public final class LineUtils {
       return endColumn - beginColumn + 1;
     }
 
+    Document document = beginLine.getDocument();
+    if (document.isLineIndexEnabled()) {
+      int count =
+          document.getOffset(endLine, endColumn) - document.getOffset(beginLine, beginColumn);
+      if (count < 0) {
+        throw new IndexOutOfBoundsException("can't find endLine");
+      }
+      return count + 1;
+    }
+
     int count = beginLine.getText().length() - beginColumn;
     Line line = beginLine.getNextLine();
     while (line != null && line != endLine) {
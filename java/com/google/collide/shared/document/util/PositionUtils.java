@@ -18,6 +18,7 @@ import static com.google.collide.shared.document.util.LineUtils.getPositionBackw
 import static com.google.collide.shared.document.util.LineUtils.getPositionForward;
 
 import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.document.Document;
 import com.google.collide.shared.document.Line;
 import com.google.collide.shared.document.LineInfo;
 import com.google.collide.shared.document.Position;
@@ -29,6 +30,12 @@ import com.google.collide.shared.util.JsonCollections;
  */
 public final class PositionUtils {
 
+  /**
+   * How many characters to traverse line by line before it is cheaper to go
+   * through the document's offsets, if it has a line index.
+   */
+  private static final int MAX_TRAVERSAL_WITHOUT_INDEX = 1000;
+
   public static int compare(Position a, Position b) {
     return LineUtils.comparePositions(a.getLineNumber(), a.getColumn(), b.getLineNumber(),
         b.getColumn());
@@ -84,6 +91,11 @@ public final class PositionUtils {
    *
    */
   public static Position getPosition(Line line, int lineNumber, int column, int relativeOffset) {
+    Document document = line.getDocument();
+    if (Math.abs(relativeOffset) > MAX_TRAVERSAL_WITHOUT_INDEX && document.isLineIndexEnabled()) {
+      return document.getPosition(document.getOffset(line, column) + relativeOffset);
+    }
+
     return relativeOffset < 0 ?
         getPositionBackwards(line, lineNumber, column, -relativeOffset)
         : getPositionForward(line, lineNumber, column, relativeOffset);
@@ -93,9 +105,8 @@ public final class PositionUtils {
    * @see #getPosition(com.google.collide.shared.document.Line, int, int, int)
    */
   public static Position getPosition(Position position, int relativeOffset) {
-    return relativeOffset < 0 ? getPositionBackwards(position.getLine(), position.getLineNumber(),
-        position.getColumn(), -relativeOffset) : getPositionForward(position.getLine(),
-        position.getLineNumber(), position.getColumn(), relativeOffset);
+    return getPosition(position.getLine(), position.getLineNumber(), position.getColumn(),
+        relativeOffset);
   }
 
 /*  public static Position getPosition(Position start, int relativeOffset) {
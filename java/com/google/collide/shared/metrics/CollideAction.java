@@ -30,6 +30,7 @@ public enum CollideAction implements Action {
   DELETE_WORKSPACE,
   CREATE_FILE,
   OPEN_FILE,
+  EDIT_FILE,
   DELETE_FILE,
   SYNC_WORKSPACE,
   RESOLVE_CONFLICT,
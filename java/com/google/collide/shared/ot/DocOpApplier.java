@@ -23,6 +23,7 @@ import com.google.collide.dto.DocOpComponent.RetainLine;
 import com.google.collide.json.shared.JsonArray;
 import com.google.collide.shared.document.Document;
 import com.google.collide.shared.document.DocumentMutator;
+import com.google.collide.shared.document.Line;
 import com.google.collide.shared.document.LineInfo;
 import com.google.collide.shared.document.TextChange;
 import com.google.collide.shared.util.JsonCollections;
@@ -39,11 +40,108 @@ public class DocOpApplier {
 
   public static JsonArray<TextChange> apply(DocOp docOp, Document document,
       DocumentMutator documentMutator) {
+    JsonArray<TextChange> textChanges = applySingleLineEdit(docOp, document, documentMutator);
+    if (textChanges != null) {
+      return textChanges;
+    }
+
     DocOpApplier docOpApplier = new DocOpApplier(docOp, document, documentMutator);
     docOpApplier.apply();
     return docOpApplier.textChanges;
   }
 
+  /**
+   * Applies a doc op that inserts or deletes text within one line, which is
+   * what a keystroke produces: an optional retain line, an optional retain,
+   * the insert or delete, then optionally a retain and a retain line. The text
+   * goes straight to the mutator, without the copies and bookkeeping of the
+   * general case.
+   *
+   * @return the text changes, or null if the doc op has some other shape, or
+   *         would fail to apply, in which case the general case handles it
+   */
+  private static JsonArray<TextChange> applySingleLineEdit(DocOp docOp, Document document,
+      DocumentMutator documentMutator) {
+    JsonArray<DocOpComponent> components = docOp.getComponents();
+    int size = components.size();
+    int index = 0;
+
+    int lineNumber = 0;
+    if (index < size && components.get(index).getType() == DocOpComponent.Type.RETAIN_LINE) {
+      lineNumber = ((RetainLine) components.get(index)).getLineCount();
+      index++;
+    }
+    if (lineNumber >= document.getLineCount()) {
+      return null;
+    }
+
+    int column = 0;
+    if (index < size && components.get(index).getType() == DocOpComponent.Type.RETAIN) {
+      Retain retain = (Retain) components.get(index);
+      if (retain.hasTrailingNewline()) {
+        return null;
+      }
+      column = retain.getCount();
+      index++;
+    }
+
+    if (index == size) {
+      return null;
+    }
+    DocOpComponent edit = components.get(index++);
+    String text;
+    if (edit.getType() == DocOpComponent.Type.INSERT) {
+      text = ((Insert) edit).getText();
+    } else if (edit.getType() == DocOpComponent.Type.DELETE) {
+      text = ((Delete) edit).getText();
+    } else {
+      return null;
+    }
+    if (text.endsWith("\n")) {
+      return null;
+    }
+
+    boolean retainsNewline = false;
+    if (index < size && components.get(index).getType() == DocOpComponent.Type.RETAIN) {
+      retainsNewline = ((Retain) components.get(index)).hasTrailingNewline();
+      index++;
+    }
+    if (index < size && components.get(index).getType() == DocOpComponent.Type.RETAIN_LINE) {
+      index++;
+    }
+    if (index != size) {
+      return null;
+    }
+
+    Line line = lineNumber == 0 ? document.getFirstLine()
+        : document.getLineFinder().findLine(lineNumber).line();
+    if (retainsNewline && line.getNextLine() == null) {
+      return null;
+    }
+
+    TextChange textChange;
+    if (edit.getType() == DocOpComponent.Type.INSERT) {
+      textChange = documentMutator.insertText(line, lineNumber, column, text);
+    } else {
+      Preconditions.checkArgument(isTextAt(line, column, text),
+          "To-be-deleted text isn't actually at location");
+      textChange = documentMutator.deleteText(line, lineNumber, column, text.length());
+    }
+
+    return textChange != null ? JsonCollections.createArray(textChange)
+        : JsonCollections.<TextChange>createArray();
+  }
+
+  /**
+   * Returns whether {@code text} is at {@code column} on {@code line}, without
+   * copying the rest of the line.
+   */
+  private static boolean isTextAt(Line line, int column, String text) {
+    int endColumn = column + text.length();
+    return column >= 0 && endColumn <= line.length()
+        && line.getText(column, endColumn).equals(text);
+  }
+
   private int column;
   private final JsonArray<DocOpComponent> components;
   private int componentIndex;
@@ -93,8 +191,8 @@ public class DocOpApplier {
 
   private void handleDelete(Delete deleteOp) {
     Preconditions.checkArgument(!isFinished, "Unexpected finished while handling delete");
-    Preconditions.checkArgument(lineInfo.line().getText().substring(column).startsWith(
-        deleteOp.getText()), "To-be-deleted text isn't actually at location");
+    Preconditions.checkArgument(isTextAt(lineInfo.line(), column, deleteOp.getText()),
+        "To-be-deleted text isn't actually at location");
 
     StringBuilder text = new StringBuilder(deleteOp.getText());
     while (componentIndex + 1 < components.size()
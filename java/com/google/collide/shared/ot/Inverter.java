@@ -16,6 +16,7 @@ package com.google.collide.shared.ot;
 
 import com.google.collide.dto.DocOp;
 import com.google.collide.dto.DocOpComponent;
+import com.google.collide.dto.DocOpComponent.Delete;
 import com.google.collide.dto.DocOpComponent.Insert;
 import com.google.collide.dto.shared.DocOpFactory;
 import com.google.collide.json.shared.JsonArray;
@@ -48,7 +49,7 @@ public class Inverter {
         return factory.createDelete(((Insert) component).getText());
 
       case DocOpComponent.Type.DELETE:
-        return factory.createInsert(((Insert) component).getText());
+        return factory.createInsert(((Delete) component).getText());
 
       default:
         return component;
@@ -1,7 +1,10 @@
 load("vertx.js")
 
 // These tests will run in parallel. It is kind of a mess debugging the output.
-var testSuites = ["participant_list_test.js", "edit_session_test.js", "file_tree_test.js"];
+var testSuites = ["participant_list_test.js", "edit_session_test.js",
+                  "edit_session_cluster_test.js", "file_tree_test.js",
+                  "search_test.js", "codegraph_test.js", "codeerrors_test.js",
+                  "history_test.js", "upload_test.js", "metrics_test.js"];
 var testIndex = 0;
 var anyFailed = false;
 
@@ -0,0 +1,118 @@
+load("vertx.js")
+load("common/async_test.js")
+
+var eb = vertx.eventBus;
+
+var PATH = "/src/app.js";
+var RESOURCE_ID = "42";
+
+// Stand in for the file tree and the edit sessions, which the verticle under
+// test asks for the document's path and unsaved contents.
+var documentText = "";
+
+eb.registerHandler("tree.getCurrentPaths", function(message, replier) {
+  var paths = [];
+  for (var i = 0; i < message.resourceIds.length; i++) {
+    paths.push(PATH);
+  }
+  replier({paths: paths});
+});
+
+eb.registerHandler("documents.getDirtyContents", function(message, replier) {
+  replier({status: "ok", contents: documentText});
+});
+
+function getCodeErrors(clientId, key, callback) {
+  eb.send("codeerrors.get", {dto: JSON.stringify({clientId: clientId, fileEditSessionKey: key})},
+      function(reply) {
+        callback(JSON.parse(reply.dto));
+      });
+}
+
+function messagesOf(codeErrors) {
+  var messages = [];
+  for (var i = 0; i < codeErrors.codeErrors.length; i++) {
+    messages.push(codeErrors.codeErrors[i].message);
+  }
+  return messages;
+}
+
+var tests = {
+
+  testReportsErrors: function(test) {
+    test.startAsync();
+    documentText = "function f() {\n  return (1;\n}\n";
+    getCodeErrors("tab1", RESOURCE_ID, function(reply) {
+      assert(reply.fileEditSessionKey == RESOURCE_ID, "key was " + reply.fileEditSessionKey);
+      var messages = messagesOf(reply);
+      assert(messages.indexOf("Expected ')' to close '(' from line 2 but found '}'") >= 0,
+             "errors were " + JSON.stringify(messages));
+      test.endAsync();
+    });
+  },
+
+  testPushesChangedErrors: function(test) {
+    test.startAsync();
+    documentText = "var a = [1, 2];\n";
+    getCodeErrors("tab1", RESOURCE_ID, function(reply) {
+      assert(reply.codeErrors.length == 0, "errors were " + JSON.stringify(messagesOf(reply)));
+
+      var handler = function(message) {
+        assert(message.sendToClient == "tab1", "pushed to " + message.sendToClient);
+        var pushed = JSON.parse(message.payload);
+        var messages = messagesOf(pushed);
+        assert(messages.length == 1 && messages[0] == "Unterminated string literal",
+               "pushed errors were " + JSON.stringify(messages));
+        eb.unregisterHandler("participants.sendTo", handler);
+        test.endAsync();
+      };
+      eb.registerHandler("participants.sendTo", handler);
+
+      documentText = "var a = [1, 2];\nvar b = 'oops;\n";
+      eb.publish("documents.contentChanged", {path: PATH, resourceId: RESOURCE_ID});
+    });
+  },
+
+  testEmptyKeyUnsubscribes: function(test) {
+    test.startAsync();
+    documentText = "var a = 1;\n";
+    getCodeErrors("tab1", RESOURCE_ID, function() {
+      getCodeErrors("tab1", "", function(reply) {
+        assert(reply.codeErrors.length == 0, "errors were " + JSON.stringify(messagesOf(reply)));
+
+        var handler = function(message) {
+          assert(false, "pushed to an unsubscribed tab: " + message.payload);
+        };
+        eb.registerHandler("participants.sendTo", handler);
+        documentText = "var a = (1;\n";
+        eb.publish("documents.contentChanged", {path: PATH, resourceId: RESOURCE_ID});
+        vertx.setTimer(200, function() {
+          eb.unregisterHandler("participants.sendTo", handler);
+          test.endAsync();
+        });
+      });
+    });
+  },
+
+  testClosedTabUnsubscribes: function(test) {
+    test.startAsync();
+    documentText = "var a = 1;\n";
+    getCodeErrors("tab1", RESOURCE_ID, function() {
+      eb.publish("participants.tabClosed", {activeClient: "tab1"});
+
+      var handler = function(message) {
+        assert(false, "pushed to a closed tab: " + message.payload);
+      };
+      eb.registerHandler("participants.sendTo", handler);
+      documentText = "var a = (1;\n";
+      eb.publish("documents.contentChanged", {path: PATH, resourceId: RESOURCE_ID});
+      vertx.setTimer(200, function() {
+        eb.unregisterHandler("participants.sendTo", handler);
+        test.endAsync();
+      });
+    });
+  },
+};
+
+new AsyncTestRunner("com.google.collide.server.codeerrors.CodeErrorService", {debounceMs: 50})
+    .run(tests);
@@ -0,0 +1,163 @@
+load("vertx.js")
+load("common/async_test.js")
+
+var eb = vertx.eventBus;
+
+var FUNCTION = 1;
+var FIELD = 2;
+var CLASS = 4;
+
+var NOTHING_CACHED = {libsSubgraph: "0", fileTree: "0", workspaceTree: "0", workspaceLinks: "0",
+                      fullGraph: "0", fileReferences: "0"};
+
+// A pair of Python modules, one importing the other. The verticle under test
+// parses them when it starts.
+if (!vertx.fileSystem.existsSync("codegraph_fixture")) {
+  vertx.fileSystem.mkDirSync("codegraph_fixture", true);
+}
+vertx.fileSystem.writeFileSync("codegraph_fixture/helpers.py",
+    "def helper():\n    pass\n");
+vertx.fileSystem.writeFileSync("codegraph_fixture/app.py",
+    "from helpers import helper\n\nclass App(object):\n  def run(self):\n    self.ready = True\n");
+
+function getCodeGraph(filePath, freshness, callback) {
+  eb.send("codegraph.get", {dto: JSON.stringify({filePath: filePath, freshness: freshness})},
+      function(reply) {
+        callback(JSON.parse(reply.dto));
+      });
+}
+
+// CodeBlocks are serialized compactly, as arrays of
+// [id, blockType, endColumn, endLineNumber, name, startColumn, startLineNumber, children],
+// and so are ImportAssociations, as
+// [sourceFileId, sourceLocalId, targetFileId, targetLocalId, isRootAssociation].
+function findChild(block, name) {
+  var children = block[7] || [];
+  for (var i = 0; i < children.length; i++) {
+    if (children[i][4] == name) {
+      return children[i];
+    }
+  }
+  return null;
+}
+
+function findFile(graph, path) {
+  for (var id in graph.codeBlockMap) {
+    if (graph.codeBlockMap[id][4] == path) {
+      return graph.codeBlockMap[id];
+    }
+  }
+  return null;
+}
+
+var tests = {
+
+  testOutlinesRequestedFile: function(test) {
+    test.startAsync();
+    getCodeGraph("/common/async_test.js", NOTHING_CACHED, function(reply) {
+      assert(reply.freshness.fileTreeHash,
+             "reply.freshness was " + JSON.stringify(reply.freshness));
+      var file = JSON.parse(reply.fileTreeJson);
+      assert(file[4] == "/common/async_test.js", "file was " + reply.fileTreeJson);
+
+      var asyncTest = findChild(file, "AsyncTest");
+      assert(asyncTest && asyncTest[1] == FUNCTION, "AsyncTest was " + JSON.stringify(asyncTest));
+      var startAsync = findChild(asyncTest, "startAsync");
+      assert(startAsync && startAsync[1] == FUNCTION,
+             "startAsync was " + JSON.stringify(startAsync));
+      var testName = findChild(asyncTest, "testName");
+      assert(testName && testName[1] == FIELD, "testName was " + JSON.stringify(testName));
+
+      var workspaceTree = JSON.parse(reply.workspaceTreeJson);
+      assert(findFile(workspaceTree, "/common/async_test.js")[0] == file[0],
+             "workspaceTree was keyed differently from fileTree");
+      test.endAsync();
+    });
+  },
+
+  testOnlySendsStaleSegments: function(test) {
+    test.startAsync();
+    getCodeGraph("/common/async_test.js", NOTHING_CACHED, function(first) {
+      getCodeGraph("/common/async_test.js", first.freshness, function(second) {
+        assert(!second.fileTreeJson, "fileTree was sent again");
+        assert(!second.workspaceTreeJson, "workspaceTree was sent again");
+        assert(!second.libsSubgraphJson, "libsSubgraph was sent again");
+        assert(!second.workspaceLinksJson, "workspaceLinks was sent again");
+        assert(second.freshness.workspaceTree == first.freshness.workspaceTree,
+               "workspaceTree freshness changed");
+        test.endAsync();
+      });
+    });
+  },
+
+  testLinksPythonImports: function(test) {
+    test.startAsync();
+    getCodeGraph("/codegraph_fixture/app.py", NOTHING_CACHED, function(reply) {
+      var app = JSON.parse(reply.fileTreeJson);
+      var appClass = findChild(app, "App");
+      assert(appClass && appClass[1] == CLASS, "App was " + JSON.stringify(appClass));
+      assert(findChild(appClass, "run")[1] == FUNCTION, "App.run was missing");
+      assert(findChild(appClass, "ready")[1] == FIELD, "App.ready was missing");
+
+      var helpers = findFile(JSON.parse(reply.workspaceTreeJson), "/codegraph_fixture/helpers.py");
+      var links = JSON.parse(reply.workspaceLinksJson).importAssociations;
+      var linked = false;
+      for (var i = 0; i < links.length; i++) {
+        linked = linked || (links[i][0] == app[0] && links[i][2] == helpers[0]);
+      }
+      assert(linked, "links were " + JSON.stringify(links));
+      test.endAsync();
+    });
+  },
+
+  testReparsesChangedFiles: function(test) {
+    test.startAsync();
+    getCodeGraph("/codegraph_fixture/app.py", NOTHING_CACHED, function(first) {
+      vertx.fileSystem.writeFileSync("codegraph_fixture/app.py", "def main():\n  pass\n");
+      eb.publish("tree.changed", {modified: ["/codegraph_fixture/app.py"]});
+      getCodeGraph("/codegraph_fixture/app.py", first.freshness, function(second) {
+        assert(second.freshness.fileTreeHash != first.freshness.fileTreeHash, "hash was unchanged");
+        assert(second.freshness.workspaceTree > first.freshness.workspaceTree,
+               "workspaceTree freshness was " + second.freshness.workspaceTree);
+        var app = JSON.parse(second.fileTreeJson);
+        assert(findChild(app, "main") && !findChild(app, "App"),
+               "app.py was " + second.fileTreeJson);
+        assert(JSON.parse(second.workspaceLinksJson).importAssociations.length == 0,
+               "the import was not unlinked");
+        assert(!second.libsSubgraphJson, "libsSubgraph was sent again");
+        test.endAsync();
+      });
+    });
+  },
+
+  testOnlyStructuralChangesFreshenWorkspaceTree: function(test) {
+    test.startAsync();
+    getCodeGraph("/codegraph_fixture/app.py", NOTHING_CACHED, function(first) {
+      // Moves main() down without changing what the file defines.
+      vertx.fileSystem.writeFileSync("codegraph_fixture/app.py", "\n\ndef main():\n  return 1\n");
+      eb.publish("tree.changed", {modified: ["/codegraph_fixture/app.py"]});
+      getCodeGraph("/codegraph_fixture/app.py", first.freshness, function(second) {
+        assert(second.freshness.fileTreeHash != first.freshness.fileTreeHash, "hash was unchanged");
+        assert(second.fileTreeJson, "fileTree was not sent");
+        assert(second.freshness.workspaceTree == first.freshness.workspaceTree,
+               "workspaceTree freshness was " + second.freshness.workspaceTree);
+        assert(!second.workspaceTreeJson, "workspaceTree was sent again");
+        test.endAsync();
+      });
+    });
+  },
+
+  testForgetsRemovedFiles: function(test) {
+    test.startAsync();
+    vertx.fileSystem.deleteSync("codegraph_fixture", true);
+    eb.publish("tree.changed", {removed: ["/codegraph_fixture/"]});
+    getCodeGraph("/codegraph_fixture/app.py", NOTHING_CACHED, function(reply) {
+      assert(!reply.fileTreeJson, "fileTree was " + reply.fileTreeJson);
+      var workspaceTree = JSON.parse(reply.workspaceTreeJson);
+      assert(!findFile(workspaceTree, "/codegraph_fixture/helpers.py"), "helpers.py was kept");
+      test.endAsync();
+    });
+  },
+};
+
+new AsyncTestRunner("com.google.collide.server.codegraph.CodeGraphService", {}).run(tests);
@@ -0,0 +1,126 @@
+load("vertx.js")
+load("common/async_test.js")
+
+var eb = vertx.eventBus;
+
+var HANDOFF_DIR = "edit_session_handoff";
+var DOCUMENT_COUNT = 8;
+
+/**
+ * Stands in for the file tree, resolving HANDOFF_DIR/<i>.txt to the resource handoff<i>.
+ */
+function resolveHandoffResource(message, replier) {
+  var path = message.paths[0];
+  replier({resourceIds: ["handoff" + path.substring(path.lastIndexOf("/") + 1, path.length - 4)]});
+}
+
+function documentPath(i) {
+  return HANDOFF_DIR + "/" + i + ".txt";
+}
+
+var tests = {
+
+  testHandsOverEditSessionsToNewNode: function(test) {
+    test.startAsync();
+    if (!vertx.fileSystem.existsSync(HANDOFF_DIR)) {
+      vertx.fileSystem.mkDirSync(HANDOFF_DIR, true);
+    }
+    for (var i = 0; i < DOCUMENT_COUNT; i++) {
+      vertx.fileSystem.writeFileSync(documentPath(i), "hello\n");
+    }
+    eb.registerHandler("tree.getResourceIds", resolveHandoffResource);
+
+    var nodeBDeployId = null;
+    function cleanUp() {
+      eb.unregisterHandler("tree.getResourceIds", resolveHandoffResource);
+      vertx.fileSystem.deleteSync(HANDOFF_DIR, true);
+      vertx.undeployVerticle(nodeBDeployId);
+    }
+
+    // Edit every document on node A, the only node so far.
+    var acked = 0;
+    for (var i = 0; i < DOCUMENT_COUNT; i++) {
+      eb.send("documents.createEditSession", {dto: JSON.stringify({path: "/" + documentPath(i)})},
+          function(reply) {
+        var contents = JSON.parse(reply.dto).fileContents;
+        var docOp = {components: [{text: "XY", type: 1},
+                                  {count: 6, hasTrailingNewline: true, type: 2},
+                                  {lineCount: 1, type: 3}]};
+        var mutation = {fileEditSessionKey: contents.fileEditSessionKey,
+                        ccRevision: contents.ccRevision, clientId: "editor",
+                        docOps2: [JSON.stringify(docOp)]};
+        eb.send("documents.mutate", {dto: JSON.stringify(mutation)}, function(ack) {
+          if (++acked == DOCUMENT_COUNT) {
+            startNodeB();
+          }
+        });
+      });
+    }
+
+    function startNodeB() {
+      nodeBDeployId = vertx.deployVerticle("com.google.collide.server.documents.EditSessions",
+          {cluster: true, nodeId: "nodeB"}, 1, function() {
+        // Give the nodes a moment to see each other's heartbeats.
+        vertx.setTimer(200, recoverEverywhere);
+      });
+    }
+
+    // Clients recover from their revision, wherever their documents now live.
+    function recoverEverywhere() {
+      var recovered = 0;
+      for (var i = 0; i < DOCUMENT_COUNT; i++) {
+        var recovery = {fileEditSessionKey: "handoff" + i, currentCcRevision: 0,
+                        clientId: "watcher", docOps2: []};
+        eb.send("documents.recoverMissedDocop", {dto: JSON.stringify(recovery)}, function(reply) {
+          var docOps = JSON.parse(reply.dto).docOps;
+          assert(docOps !== undefined && docOps.length == 1 && docOps[0].appliedCcRevision == 1,
+                 "recovered " + reply.dto);
+          if (++recovered == DOCUMENT_COUNT) {
+            checkStats();
+          }
+        });
+      }
+    }
+
+    function checkStats() {
+      eb.send("documents.node.nodeA.getStats", {}, function(statsA) {
+        eb.send("documents.node.nodeB.getStats", {}, function(statsB) {
+          // Whichever node answers gathers the stats of both.
+          eb.send("documents.getStats", {}, function(stats) {
+            cleanUp();
+            var onB = 0;
+            for (var i = 0; i < DOCUMENT_COUNT; i++) {
+              var path = documentPath(i);
+              var doc = statsA.documents[path] || statsB.documents[path];
+              assert(doc !== undefined && !(statsA.documents[path] && statsB.documents[path]),
+                     path + " was on " + JSON.stringify([statsA, statsB]));
+              assert(doc.ccRevision == 1, path + " was at " + doc.ccRevision);
+              onB += statsB.documents[path] ? 1 : 0;
+              var node = statsB.documents[path] ? "nodeB" : "nodeA";
+              assert(stats.documents[path] && stats.documents[path].nodeId == node,
+                     path + " was gathered as " + JSON.stringify(stats.documents[path]));
+            }
+            assert(onB > 0, "no document moved to node B");
+            assert(stats.nodes.length == 2, "gathered from " + JSON.stringify(stats.nodes));
+            test.endAsync();
+          });
+        });
+      });
+    }
+  },
+
+  testTellsClientsWithoutEditSessionToReload: function(test) {
+    test.startAsync();
+    var recovery = {fileEditSessionKey: "missingResource", currentCcRevision: 3,
+                    clientId: "lost", docOps2: []};
+    eb.send("documents.recoverMissedDocop", {dto: JSON.stringify(recovery)}, function(reply) {
+      var error = JSON.parse(reply.dto);
+      assert(error.failureReason == "MISSING_FILE_SESSION", "reply was " + reply.dto);
+      test.endAsync();
+    });
+  }
+
+};
+
+new AsyncTestRunner("com.google.collide.server.documents.EditSessions",
+    {cluster: true, nodeId: "nodeA"}).run(tests);
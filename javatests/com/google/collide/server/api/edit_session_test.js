@@ -3,12 +3,125 @@ load("common/async_test.js")
 
 var eb = vertx.eventBus;
 
+var STATS_DIR = "edit_session_stats";
+var STATS_FILE = STATS_DIR + "/doc.txt";
+
+/**
+ * Stands in for the file tree, which resolves every path to the same resource.
+ */
+function resolveToResource(message, replier) {
+  replier({resourceIds: ["statsResource"]});
+}
+
+var DIRTY_DIR = "edit_session_dirty";
+var DIRTY_FILE = DIRTY_DIR + "/doc.txt";
+
+function resolveToDirtyResource(message, replier) {
+  replier({resourceIds: ["dirtyResource"]});
+}
+
+/**
+ * Stands in for the file tree when edit sessions are saved, knowing only the dirty resource.
+ */
+function resolveDirtyPath(message, replier) {
+  var paths = [];
+  for (var i = 0; i < message.resourceIds.length; i++) {
+    paths.push(message.resourceIds[i] == "dirtyResource" ? "/" + DIRTY_FILE : null);
+  }
+  replier({paths: paths});
+}
+
 var tests = {
 
   writeSomeTests: function(test) {
     // test.startAsync();
     // TODO:  Write some tests.
     // test.endAsync();
+  },
+
+  testReportsDocumentStats: function(test) {
+    test.startAsync();
+    if (!vertx.fileSystem.existsSync(STATS_DIR)) {
+      vertx.fileSystem.mkDirSync(STATS_DIR, true);
+    }
+    vertx.fileSystem.writeFileSync(STATS_FILE, "hello\nworld\n");
+    eb.registerHandler("tree.getResourceIds", resolveToResource);
+
+    function cleanUp() {
+      eb.unregisterHandler("tree.getResourceIds", resolveToResource);
+      vertx.fileSystem.deleteSync(STATS_DIR, true);
+    }
+
+    eb.send("documents.createEditSession", {dto: JSON.stringify({path: "/" + STATS_FILE})},
+        function(reply) {
+      var contents = JSON.parse(reply.dto).fileContents;
+      // Inserts "XY" at the start of the first line.
+      var docOp = {components: [{text: "XY", type: 1},
+                                {count: 6, hasTrailingNewline: true, type: 2},
+                                {lineCount: 2, type: 3}]};
+      var mutation = {fileEditSessionKey: contents.fileEditSessionKey,
+                      ccRevision: contents.ccRevision, clientId: "statsClient",
+                      docOps2: [JSON.stringify(docOp)]};
+      eb.send("documents.mutate", {dto: JSON.stringify(mutation)}, function(ack) {
+        // The same op again is taken for a retry and dropped.
+        eb.send("documents.mutate", {dto: JSON.stringify(mutation)}, function(retry) {});
+        eb.send("documents.getStats", {}, function(stats) {
+          cleanUp();
+          var doc = stats.documents[STATS_FILE];
+          assert(doc !== undefined, "documents were " + JSON.stringify(stats.documents));
+          assert(doc.resourceId == "statsResource", "resourceId was " + doc.resourceId);
+          assert(doc.ccRevision == 1 && doc.historySize == 1,
+                 "revision was " + doc.ccRevision + ", history " + doc.historySize);
+          assert(doc.consumes == 1 && doc.opsApplied == 1 && doc.dropped == 1,
+                 "counts were " + JSON.stringify(doc));
+          assert(doc.bridgeLength.count == 1 && doc.bridgeLength.max == 0,
+                 "bridge was " + JSON.stringify(doc.bridgeLength));
+          assert(doc.applyTime.count == 1, "apply time was " + JSON.stringify(doc.applyTime));
+          assert(doc.slowConsumes instanceof Array, "slow consumes were " + doc.slowConsumes);
+          test.endAsync();
+        });
+      });
+    });
+  },
+
+  testPublishesDirtyPaths: function(test) {
+    test.startAsync();
+    if (!vertx.fileSystem.existsSync(DIRTY_DIR)) {
+      vertx.fileSystem.mkDirSync(DIRTY_DIR, true);
+    }
+    vertx.fileSystem.writeFileSync(DIRTY_FILE, "hello\n");
+    eb.registerHandler("tree.getResourceIds", resolveToDirtyResource);
+    eb.registerHandler("tree.getCurrentPaths", resolveDirtyPath);
+
+    var published = [];
+    function onDirtyPaths(message) {
+      published.push(message.paths);
+      if (published.length == 1) {
+        assert(message.paths.length == 1 && message.paths[0] == "/" + DIRTY_FILE,
+               "dirty paths were " + JSON.stringify(message.paths));
+        // The periodic save makes the path clean again.
+      } else if (message.paths.length == 0) {
+        eb.unregisterHandler("documents.dirtyPaths", onDirtyPaths);
+        eb.unregisterHandler("tree.getResourceIds", resolveToDirtyResource);
+        eb.unregisterHandler("tree.getCurrentPaths", resolveDirtyPath);
+        var saved = vertx.fileSystem.readFileSync(DIRTY_FILE).toString();
+        vertx.fileSystem.deleteSync(DIRTY_DIR, true);
+        assert(saved == "XYhello\n", "saved contents were " + saved);
+        test.endAsync();
+      }
+    }
+    eb.registerHandler("documents.dirtyPaths", onDirtyPaths);
+
+    eb.send("documents.createEditSession", {dto: JSON.stringify({path: "/" + DIRTY_FILE})},
+        function(reply) {
+      var contents = JSON.parse(reply.dto).fileContents;
+      var docOp = {components: [{text: "XY", type: 1},
+                                {count: 6, hasTrailingNewline: true, type: 2}]};
+      var mutation = {fileEditSessionKey: contents.fileEditSessionKey,
+                      ccRevision: contents.ccRevision, clientId: "dirtyClient",
+                      docOps2: [JSON.stringify(docOp)]};
+      eb.send("documents.mutate", {dto: JSON.stringify(mutation)}, function(ack) {});
+    });
   }
 
 };
@@ -194,6 +194,84 @@ var tests = {
         });
       });
     },
+    testImportFiles : function(test) {
+      test.startAsync();
+      // Staged outside the workspace, where UploadSessions stages uploads.
+      var stagingDir = new java.io.File(java.lang.System.getProperty("java.io.tmpdir"),
+          "collide-uploads");
+      stagingDir.mkdirs();
+      var staged = java.io.File.createTempFile("import", ".txt", stagingDir);
+      vertx.fileSystem.writeFileSync(staged.getPath(), "imported");
+      var request = {
+        dirs: ["/imported/empty/"],
+        files: [{from: staged.getPath(), path: "/imported/sub/a.txt"}]
+      };
+      eb.send("tree.importFiles", request, function(reply) {
+        assert(reply.failed.length == 0, "reply.failed was " + JSON.stringify(reply.failed));
+        assert(vertx.fileSystem.existsSync("imported/empty"), "the directory was not created");
+        assert(vertx.fileSystem.readFileSync("imported/sub/a.txt").toString() == "imported",
+            "the file was not moved");
+        assert(!staged.exists(), "the staged file was left behind");
+
+        request = {dirs: [], files: [{from: staged.getPath(), path: "/imported/b.txt"}]};
+        eb.send("tree.importFiles", request, function(reply) {
+          assert(JSON.stringify(reply.failed) == '["/imported/b.txt"]',
+              "reply.failed was " + JSON.stringify(reply.failed));
+
+          // Only staged files are imported, only into the workspace, and never over a file.
+          var outside = java.io.File.createTempFile("import", ".txt");
+          var escaping = java.io.File.createTempFile("import", ".txt", stagingDir);
+          var existing = java.io.File.createTempFile("import", ".txt", stagingDir);
+          request = {dirs: ["/imported/../../escaped/"], files: [
+            {from: outside.getPath(), path: "/imported/c.txt"},
+            {from: stagingDir.getPath() + "/../" + outside.getName(), path: "/imported/d.txt"},
+            {from: escaping.getPath(), path: "/imported/../../escaped.txt"},
+            {from: existing.getPath(), path: "/imported/sub/a.txt"}
+          ]};
+          eb.send("tree.importFiles", request, function(reply) {
+            assert(JSON.stringify(reply.failed) == '["/imported/../../escaped/",'
+                + '"/imported/c.txt","/imported/d.txt","/imported/../../escaped.txt",'
+                + '"/imported/sub/a.txt"]', "reply.failed was " + JSON.stringify(reply.failed));
+            assert(outside.exists() && escaping.exists() && existing.exists(),
+                "a refused file was moved");
+            assert(vertx.fileSystem.readFileSync("imported/sub/a.txt").toString() == "imported",
+                "the existing file was replaced");
+            outside["delete"]();
+            escaping["delete"]();
+            existing["delete"]();
+            vertx.fileSystem.deleteSync("imported", true);
+            test.endAsync();
+          });
+        });
+      });
+    },
+    testSearchNames : function(test) {
+      test.startAsync();
+      eb.send("tree.searchNames", {dto: '{query: "astt", page: 1, pageSize: 5}'}, function(reply) {
+        reply = JSON.parse(reply.dto);
+        // stdout.println(JSON.stringify(reply, null, '\t'));
+        assert(reply.query == "astt", "reply.query was " + reply.query);
+        assert(reply.resultCount >= 1, "reply.resultCount was " + reply.resultCount);
+        assert(reply.paths[0] == "/common/async_test.js", "reply.paths was " + JSON.stringify(reply.paths));
+        test.endAsync();
+      });
+      test.startAsync();
+      eb.send("tree.searchNames", {dto: '{query: "test", page: 1, pageSize: 2, pathPrefix: "/common/"}'},
+          function(reply) {
+        reply = JSON.parse(reply.dto);
+        assert(reply.paths.length == 1, "reply.paths was " + JSON.stringify(reply.paths));
+        assert(reply.paths[0].indexOf("/common/") == 0, "reply.paths was " + JSON.stringify(reply.paths));
+        test.endAsync();
+      });
+      test.startAsync();
+      eb.send("tree.searchNames", {dto: '{query: "_test.js", page: 1, pageSize: 2}'}, function(reply) {
+        reply = JSON.parse(reply.dto);
+        assert(reply.resultCount >= 4, "reply.resultCount was " + reply.resultCount);
+        assert(reply.paths.length == 2, "reply.paths was " + JSON.stringify(reply.paths));
+        assert(reply.pageCount == Math.ceil(reply.resultCount / 2), "reply.pageCount was " + reply.pageCount);
+        test.endAsync();
+      });
+    },
 };
 
 new AsyncTestRunner("com.google.collide.server.filetree.FileTree", {}).run(tests);
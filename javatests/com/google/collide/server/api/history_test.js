@@ -0,0 +1,182 @@
+load("vertx.js")
+load("common/async_test.js")
+
+var eb = vertx.eventBus;
+
+// Hidden, so that the verticle does not snapshot its own store.
+var STORE_DIR = ".history_test_store";
+
+// A file for the verticle under test to snapshot when it starts.
+if (vertx.fileSystem.existsSync(STORE_DIR)) {
+  vertx.fileSystem.deleteSync(STORE_DIR, true);
+}
+if (!vertx.fileSystem.existsSync("history_fixture")) {
+  vertx.fileSystem.mkDirSync("history_fixture", true);
+}
+vertx.fileSystem.writeFileSync("history_fixture/notes.txt", "first\n");
+
+function getRevisions(request, callback) {
+  eb.send("revisions.getFileRevisions", {dto: JSON.stringify(request)}, function(reply) {
+    callback(JSON.parse(reply.dto).revisions);
+  });
+}
+
+function getDiff(request, callback) {
+  eb.send("revisions.getFileDiff", {dto: JSON.stringify(request)}, function(reply) {
+    callback(JSON.parse(reply.dto));
+  });
+}
+
+/**
+ * Writes a file and announces the change, calling back once the verticle has snapshotted it. It
+ * reads the file when it hears of the change, so saves must not overtake each other.
+ */
+function save(path, text, callback) {
+  vertx.fileSystem.writeFileSync(path.substring(1), text);
+  eb.publish("tree.changed", {modified: [path]});
+  getRevisions({path: path}, function() {
+    callback();
+  });
+}
+
+function saveAll(path, texts, callback) {
+  if (texts.length == 0) {
+    callback();
+    return;
+  }
+  save(path, texts[0], function() {
+    saveAll(path, texts.slice(1), callback);
+  });
+}
+
+var tests = {
+
+  testSnapshotsWorkspaceOnStart: function(test) {
+    test.startAsync();
+    getRevisions({path: "/history_fixture/notes.txt"}, function(revisions) {
+      assert(revisions.length == 1, "revisions were " + JSON.stringify(revisions));
+      assert(revisions[0].revisionType == "BRANCH", "type was " + revisions[0].revisionType);
+      assert(revisions[0].previousNodesSkipped == 0,
+             "skipped " + revisions[0].previousNodesSkipped);
+      test.endAsync();
+    });
+  },
+
+  testRecordsChangedContentOnly: function(test) {
+    test.startAsync();
+    saveAll("/history_fixture/notes.txt", ["second\n", "second\n"], function() {
+      getRevisions({path: "/history_fixture/notes.txt"}, function(revisions) {
+        assert(revisions.length == 2, "revisions were " + JSON.stringify(revisions));
+        var latest = revisions[1];
+        assert(latest.revisionType == "AUTO_SAVE", "type was " + latest.revisionType);
+        assert(latest.rootId != revisions[0].rootId, "content hash was unchanged");
+        assert(parseInt(latest.nodeId) > parseInt(revisions[0].nodeId),
+               "IDs were not increasing");
+        test.endAsync();
+      });
+    });
+  },
+
+  testFiltersAndPages: function(test) {
+    test.startAsync();
+    var edits = [];
+    for (var i = 0; i < 10; i++) {
+      edits.push("edit " + i + "\n");
+    }
+    var request = {path: "/history_fixture/notes.txt", numOfRevisions: 4, filtering: true,
+                   includeBranchRevision: true, includeMostRecentRevision: true};
+    saveAll("/history_fixture/notes.txt", edits, function() {
+      getRevisions(request, function(all) {
+        assert(all.length == 4, "revisions were " + JSON.stringify(all));
+        assert(all[0].revisionType == "BRANCH", "the branch revision was dropped");
+        var skipped = 0;
+        for (var i = 0; i < all.length; i++) {
+          skipped += all[i].previousNodesSkipped;
+        }
+        assert(skipped == 8, "skipped " + skipped + " of 12 revisions");
+
+        // Page back from just before the newest revision.
+        var rootId = String(parseInt(all[3].nodeId) - 1);
+        getRevisions({path: "/history_fixture/notes.txt", numOfRevisions: 2, rootId: rootId,
+                      minId: all[1].nodeId}, function(page) {
+          assert(page.length == 2, "page was " + JSON.stringify(page));
+          assert(page[1].nodeId == rootId, "page ended at " + page[1].nodeId);
+          assert(parseInt(page[0].nodeId) >= parseInt(all[1].nodeId), "page went below minId");
+          test.endAsync();
+        });
+      });
+    });
+  },
+
+  testDiffsRevisions: function(test) {
+    test.startAsync();
+    getRevisions({path: "/history_fixture/notes.txt"}, function(revisions) {
+      var request = {path: "/history_fixture/notes.txt", beforeNodeId: revisions[0].nodeId,
+                     afterNodeId: revisions[1].nodeId};
+      getDiff(request, function(diff) {
+        var chunks = diff.diffChunks;
+        assert(chunks.length == 2, "chunks were " + JSON.stringify(chunks));
+        assert(chunks[0].diffType == "CHANGED" && chunks[0].beforeData == "first"
+               && chunks[0].afterData == "second", "chunk was " + JSON.stringify(chunks[0]));
+        assert(chunks[1].diffType == "CHANGED_LINE" && chunks[1].beforeData == "\n",
+               "chunk was " + JSON.stringify(chunks[1]));
+        assert(diff.diffStats.changed == 1, "stats were " + JSON.stringify(diff.diffStats));
+
+        request.isStatsOnly = true;
+        getDiff(request, function(stats) {
+          assert(!stats.diffChunks || stats.diffChunks.length == 0,
+                 "chunks were " + JSON.stringify(stats.diffChunks));
+          assert(stats.diffStats.changed == 1 && stats.diffStats.unchanged == 0,
+                 "stats were " + JSON.stringify(stats.diffStats));
+          test.endAsync();
+        });
+      });
+    });
+  },
+
+  testRepacksManyPacks: function(test) {
+    test.startAsync();
+    var edits = [];
+    for (var i = 0; i < 40; i++) {
+      edits.push("line\n" + i + "\n");
+    }
+    saveAll("/history_fixture/packed.txt", edits, function() {
+      var packs = vertx.fileSystem.readDirSync(STORE_DIR + "/objects.git/objects/pack", ".*\\.pack");
+      assert(packs.length <= 8, packs.length + " packs were left");
+      getRevisions({path: "/history_fixture/packed.txt"}, function(revisions) {
+        var request = {path: "/history_fixture/packed.txt", beforeNodeId: revisions[0].nodeId,
+                       afterNodeId: revisions[revisions.length - 1].nodeId, isStatsOnly: true};
+        getDiff(request, function(diff) {
+          assert(diff.diffStats.changed == 1, "stats were " + JSON.stringify(diff.diffStats));
+          test.endAsync();
+        });
+      });
+    });
+  },
+
+  testFollowsMovesAndDeletes: function(test) {
+    test.startAsync();
+    vertx.fileSystem.moveSync("history_fixture/notes.txt", "history_fixture/moved.txt");
+    eb.publish("tree.changed", {moved: [{oldPath: "/history_fixture/notes.txt",
+                                         newPath: "/history_fixture/moved.txt"}]});
+    vertx.fileSystem.deleteSync("history_fixture/moved.txt");
+    eb.publish("tree.changed", {removed: ["/history_fixture/"]});
+    getRevisions({path: "/history_fixture/moved.txt"}, function(revisions) {
+      var count = revisions.length;
+      assert(count == 14, "revisions were " + JSON.stringify(revisions));
+      assert(revisions[count - 2].revisionType == "MOVE",
+             "type was " + revisions[count - 2].revisionType);
+      assert(revisions[count - 1].revisionType == "DELETE",
+             "type was " + revisions[count - 1].revisionType);
+      getRevisions({path: "/history_fixture/notes.txt"}, function(old) {
+        assert(old.length == 0, "the old path kept " + JSON.stringify(old));
+        vertx.fileSystem.deleteSync("history_fixture", true);
+        vertx.fileSystem.deleteSync(STORE_DIR, true);
+        test.endAsync();
+      });
+    });
+  },
+};
+
+new AsyncTestRunner("com.google.collide.server.history.FileHistoryService",
+    {storeDir: STORE_DIR, packThreshold: 4}).run(tests);
@@ -0,0 +1,96 @@
+load("vertx.js")
+load("common/async_test.js")
+
+var eb = vertx.eventBus;
+
+function logMetrics(metrics, callback) {
+  eb.send("metrics.log", {dto: JSON.stringify({metrics: metrics})});
+  // metrics.log does not reply, so read the metrics back once it has been handled.
+  eb.send("metrics.getClientMetrics", {}, callback);
+}
+
+function metric(action, event, message) {
+  return {action: action, event: event, timestamp: 1, message: message};
+}
+
+var tests = {
+
+  testAggregatesLatencies: function(test) {
+    test.startAsync();
+    var metrics = [];
+    for (var i = 1; i <= 100; i++) {
+      metrics.push(metric("OPEN_FILE", "contentsReceived", "" + i));
+    }
+    metrics.push(metric("EDIT_FILE", "docOpsAcked", "2.5"));
+    logMetrics(metrics, function(reply) {
+      var open = reply.latencies["OPEN_FILE.contentsReceived"];
+      assert(open.count == 100, "count was " + open.count);
+      assert(open.min == 1 && open.max == 100, "range was " + open.min + " to " + open.max);
+      assert(Math.abs(open.p50 - 50) <= 1, "p50 was " + open.p50);
+      assert(Math.abs(open.p99 - 99) <= 2, "p99 was " + open.p99);
+      var edit = reply.latencies["EDIT_FILE.docOpsAcked"];
+      assert(edit.count == 1 && edit.p50 == 2.5, "edit was " + JSON.stringify(edit));
+      test.endAsync();
+    });
+  },
+
+  testCountsOtherMetrics: function(test) {
+    test.startAsync();
+    var metrics = [metric("SEARCH", "failed", "oops"), metric("SEARCH", "failed", null),
+                   metric("SEARCH", "failed", "-3")];
+    logMetrics(metrics, function(reply) {
+      assert(reply.counts["SEARCH.failed"] == 3, "counts were " + JSON.stringify(reply.counts));
+      assert(reply.latencies["SEARCH.failed"] === undefined,
+             "latencies were " + JSON.stringify(reply.latencies));
+      test.endAsync();
+    });
+  },
+
+  testFoldsUnknownAndExcessKeys: function(test) {
+    test.startAsync();
+    var metrics = [metric("MADE_UP", "event", "1")];
+    for (var i = 0; i < 10; i++) {
+      metrics.push(metric("SEARCH", "event" + i, "1"));
+    }
+    logMetrics(metrics, function(reply) {
+      var keys = Object.keys(reply.latencies);
+      assert(keys.length == 5, "latencies were " + JSON.stringify(keys));
+      assert(reply.latencies["SEARCH.event0"].count == 1,
+             "latencies were " + JSON.stringify(keys));
+      assert(reply.latencies["other"].count == 7, "other was " + JSON.stringify(reply.latencies));
+      test.endAsync();
+    });
+  },
+
+  testSnapshotsEventBusHandlers: function(test) {
+    test.startAsync();
+    // Participants starts after the metrics service, so it registers itself.
+    var deployId = vertx.deployVerticle("com.google.collide.server.participants.Participants",
+        {password: ""}, 1, function() {
+      eb.send("participants.login", {username: "alice", password: ""}, function(login) {
+        eb.send("participants.login", {username: "bob", password: ""}, function(login) {
+          eb.send("metrics.snapshot", {}, function(snapshot) {
+            assert(snapshot.client.latencies !== undefined, "no client metrics");
+            var participants = snapshot.eventBus["Participants"];
+            assert(participants && participants.length == 1,
+                   "instances were " + JSON.stringify(snapshot.eventBus));
+            assert(participants[0].queueDelay !== undefined, "no queue delay");
+            var stats = participants[0].addresses["participants.login"];
+            assert(stats.count == 2, "login stats were " + JSON.stringify(stats));
+            assert(stats.replyTime.count == 2 && stats.handlerTime.max >= 0,
+                   "login times were " + JSON.stringify(stats));
+            assert(stats.requestSize.min > 0 && stats.replySize.min > 0,
+                   "login sizes were " + JSON.stringify(stats));
+            assert(participants[0].addresses["participants.logout"].count == 0,
+                   "logout was " + JSON.stringify(participants[0].addresses));
+            vertx.undeployVerticle(deployId, function() {
+              test.endAsync();
+            });
+          });
+        });
+      });
+    });
+  },
+};
+
+new AsyncTestRunner("com.google.collide.server.metrics.MetricsService", {port: 0, maxKeys: 5}).run(tests);
@@ -120,6 +120,23 @@ var tests = {
       });
   },
 
+  testLogoutClosesTabs: function(test) {
+    test.startAsync();
+    eb.send("participants.login", {username: "jaime", password: "s3cret"}, function(reply) {
+      var sessionID = reply.sessionID;
+      eb.send("participants.authorise", {sessionID: sessionID, createClient: true}, function(message) {
+        var activeClient = message.activeClient;
+        var handler = function(closed) {
+          assert (closed.activeClient == activeClient, "Closed " + closed.activeClient);
+          eb.unregisterHandler("participants.tabClosed", handler);
+          test.endAsync();
+        };
+        eb.registerHandler("participants.tabClosed", handler);
+        eb.send("participants.logout", {sessionID: sessionID});
+      });
+    });
+  },
+
   testBroadcast: function(test) {
     var broadcastMessage = {msg: "ping"};
 
@@ -0,0 +1,153 @@
+load("vertx.js")
+load("common/async_test.js")
+
+var eb = vertx.eventBus;
+
+function search(query, page, callback) {
+  searchWithOptions({query: query, page: page}, callback);
+}
+
+function searchWithOptions(request, callback) {
+  eb.send("search.query", {dto: JSON.stringify(request)}, function(reply) {
+    callback(JSON.parse(reply.dto));
+  });
+}
+
+/**
+ * Starts a streaming search and collects the batches that it pushes to the
+ * client through Participants, calling back with them once the last arrives.
+ */
+function streamSearch(clientId, queryId, query, callback) {
+  var batches = [];
+  var handler = function(message) {
+    if (message.sendToClient != clientId) {
+      return;
+    }
+    var batch = JSON.parse(message.payload);
+    batches.push(batch);
+    if (batch.isComplete) {
+      eb.unregisterHandler("participants.sendTo", handler);
+      callback(batches);
+    }
+  };
+  eb.registerHandler("participants.sendTo", handler);
+  eb.send("search.stream", {dto: JSON.stringify(
+      {clientId: clientId, queryId: queryId, query: query, page: 1})});
+}
+
+var tests = {
+
+  testSearchFindsFilesWithSnippets: function(test) {
+    test.startAsync();
+    search("asynctestrunner", 1, function(reply) {
+      // stdout.println(JSON.stringify(reply, null, '\t'));
+      assert(reply.page == 1, "reply.page was " + reply.page);
+      assert(reply.resultCount >= 2, "reply.resultCount was " + reply.resultCount);
+      var found = false;
+      for (var i = 0; i < reply.results.length; i++) {
+        var result = reply.results[i];
+        assert(result.title.charAt(0) == "/", "result.title was " + result.title);
+        assert(result.snippets.length > 0, "no snippets for " + result.title);
+        for (var j = 0; j < result.snippets.length; j++) {
+          var snippet = result.snippets[j];
+          assert(snippet.lineNumber > 0, "snippet.lineNumber was " + snippet.lineNumber);
+          assert(snippet.snippetText.toLowerCase().indexOf("asynctestrunner") != -1,
+                 "snippet.snippetText was " + snippet.snippetText);
+        }
+        found = found || result.title == "/common/async_test.js";
+      }
+      assert(found || reply.pageCount > 1, "async_test.js was not on the first page");
+      test.endAsync();
+    });
+  },
+
+  testSearchPages: function(test) {
+    test.startAsync();
+    search("load(", 1, function(first) {
+      assert(first.resultCount > 2, "first.resultCount was " + first.resultCount);
+      assert(first.results.length == 2, "first.results.length was " + first.results.length);
+      assert(first.pageCount == Math.ceil(first.resultCount / 2),
+             "first.pageCount was " + first.pageCount);
+      assert(!first.isResultCountTruncated, "the count was truncated");
+
+      search("load(", 2, function(second) {
+        assert(second.page == 2, "second.page was " + second.page);
+        assert(second.results.length > 0, "second page was empty");
+        assert(second.results[0].title != first.results[0].title, "pages overlapped");
+        assert(second.resultCount == first.resultCount, "second.resultCount was "
+               + second.resultCount);
+        test.endAsync();
+      });
+    });
+  },
+
+  testSearchRegex: function(test) {
+    test.startAsync();
+    searchWithOptions({query: "^function \\w+Runner\\(", page: 1, isRegex: true}, function(reply) {
+      assert(reply.resultCount == 1, "reply.resultCount was " + reply.resultCount);
+      var result = reply.results[0];
+      assert(result.title == "/common/async_test.js", "result.title was " + result.title);
+      assert(result.snippets[0].snippetText.indexOf("function AsyncTestRunner(") == 0,
+             "snippetText was " + result.snippets[0].snippetText);
+      test.endAsync();
+    });
+
+    test.startAsync();
+    searchWithOptions({query: "(unclosed", page: 1, isRegex: true}, function(reply) {
+      assert(reply.failureReason == "SERVER_ERROR", "reply was " + JSON.stringify(reply));
+      test.endAsync();
+    });
+  },
+
+  testSearchCaseSensitive: function(test) {
+    test.startAsync();
+    // Split so that this file does not match itself.
+    searchWithOptions({query: "ASYNC" + "TESTRUNNER", page: 1, isCaseSensitive: true}, function(reply) {
+      assert(reply.resultCount == 0, "reply.resultCount was " + reply.resultCount);
+      searchWithOptions({query: "AsyncTestRunner", page: 1, isCaseSensitive: true}, function(reply) {
+        assert(reply.resultCount >= 2, "reply.resultCount was " + reply.resultCount);
+        test.endAsync();
+      });
+    });
+  },
+
+  testStreamSearchPushesBatches: function(test) {
+    test.startAsync();
+    search("load(", 1, function(reply) {
+      streamSearch("tab1", 7, "load(", function(batches) {
+        var results = [];
+        for (var i = 0; i < batches.length; i++) {
+          assert(batches[i].queryId == 7, "batch.queryId was " + batches[i].queryId);
+          assert(batches[i].isComplete == (i == batches.length - 1), "early complete batch");
+          results = results.concat(batches[i].results);
+        }
+        var last = batches[batches.length - 1];
+        assert(last.resultCount == reply.resultCount, "last.resultCount was " + last.resultCount);
+        assert(last.pageCount == reply.pageCount, "last.pageCount was " + last.pageCount);
+        assert(results.length == reply.results.length, "results.length was " + results.length);
+        for (var i = 0; i < results.length; i++) {
+          assert(results[i].title == reply.results[i].title, "ranked differently: "
+              + results[i].title + " vs " + reply.results[i].title);
+        }
+        test.endAsync();
+      });
+    });
+  },
+
+  testSearchNoMatches: function(test) {
+    test.startAsync();
+    search("zq" + "xj" + "wv", 1, function(reply) {
+      assert(reply.resultCount == 0, "reply.resultCount was " + reply.resultCount);
+      assert(reply.results.length == 0, "reply.results was " + JSON.stringify(reply.results));
+      test.endAsync();
+    });
+
+    test.startAsync();
+    search("", 1, function(reply) {
+      assert(reply.resultCount == 0, "reply.resultCount was " + reply.resultCount);
+      test.endAsync();
+    });
+  },
+};
+
+new AsyncTestRunner("com.google.collide.server.search.WorkspaceSearch", {pageSize: 2}).run(tests);
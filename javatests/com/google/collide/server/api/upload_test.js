@@ -0,0 +1,173 @@
+load("vertx.js")
+load("common/async_test.js")
+
+var eb = vertx.eventBus;
+
+var STAGING_DIR = ".upload_test_staging";
+
+// Stands in for FileTree. Records each import and fails the paths in importFailures.
+var imports = [];
+var importFailures = [];
+eb.registerHandler("tree.importFiles", function(message, replier) {
+  imports.push(message);
+  replier({status: "ok", failed: importFailures});
+});
+
+function send(address, request, callback) {
+  eb.send(address, {dto: JSON.stringify(request)}, function(reply) {
+    callback(JSON.parse(reply.dto));
+  });
+}
+
+/**
+ * Stages some bytes of a file the way WebFE does, calling back with what the verticle replied.
+ */
+function stage(sessionId, path, offset, text, callback) {
+  eb.send("upload.stage", {sessionId: sessionId, path: path, offset: offset}, function(reply) {
+    if (reply.status == "ok" && text) {
+      var out = new java.io.FileOutputStream(reply.stagedPath, true);
+      out.write(new java.lang.String(text).getBytes("UTF-8"));
+      out.close();
+    }
+    callback(reply);
+  });
+}
+
+function readFile(path) {
+  return vertx.fileSystem.readFileSync(path).toString();
+}
+
+var tests = {
+
+  testImportsStagedFiles: function(test) {
+    test.startAsync();
+    imports = [];
+    importFailures = [];
+    var begin = {sessionId: "s1", workspacePathsToReplace: ["/up/a.txt"],
+                 workspaceDirsToCreate: ["/up/empty/"]};
+    send("upload.begin", begin, function() {
+      stage("s1", "/up/a.txt", 0, "hello", function(reply) {
+        assert(reply.status == "ok", "stage replied " + JSON.stringify(reply));
+        send("upload.end", {sessionId: "s1"}, function(finished) {
+          assert(finished.sessionId == "s1", "finished " + JSON.stringify(finished));
+          assert(finished.failedFileWorkspacePaths.length == 0,
+                 "failed " + JSON.stringify(finished.failedFileWorkspacePaths));
+          assert(imports.length == 1, "imports were " + JSON.stringify(imports));
+          assert(JSON.stringify(imports[0].dirs) == '["/up/empty/"]',
+                 "dirs were " + JSON.stringify(imports[0].dirs));
+          assert(imports[0].files.length == 1 && imports[0].files[0].path == "/up/a.txt",
+                 "files were " + JSON.stringify(imports[0].files));
+
+          // A finished session is gone.
+          send("upload.end", {sessionId: "s1"}, function(error) {
+            assert(error.failureReason == "SERVER_ERROR", "reply was " + JSON.stringify(error));
+            test.endAsync();
+          });
+        });
+      });
+    });
+  },
+
+  testResumesTransfers: function(test) {
+    test.startAsync();
+    send("upload.begin", {sessionId: "s2", workspacePathsToReplace: ["/up/b.txt"]}, function() {
+      stage("s2", "/up/b.txt", 0, "hello world", function() {
+        // Without an offset, the reply says where to resume.
+        stage("s2", "/up/b.txt", undefined, null, function(reply) {
+          assert(reply.received == 11, "received " + reply.received);
+          stage("s2", "/up/b.txt", 6, "there", function(reply) {
+            assert(readFile(reply.stagedPath) == "hello there",
+                   "staged " + readFile(reply.stagedPath));
+            stage("s2", "/up/b.txt", 20, null, function(reply) {
+              assert(reply.status == "error", "resumed past the end: " + JSON.stringify(reply));
+              stage("s2", "/up/other.txt", 0, null, function(reply) {
+                assert(reply.status == "error", "staged undeclared: " + JSON.stringify(reply));
+                test.endAsync();
+              });
+            });
+          });
+        });
+      });
+    });
+  },
+
+  testUnzipsArchives: function(test) {
+    test.startAsync();
+    imports = [];
+    importFailures = [];
+    send("upload.begin", {sessionId: "s3", workspacePathsToUnzip: ["/up/lib.zip"]}, function() {
+      stage("s3", "/up/lib.zip", 0, null, function(reply) {
+        var zip = new java.util.zip.ZipOutputStream(new java.io.FileOutputStream(reply.stagedPath));
+        zip.putNextEntry(new java.util.zip.ZipEntry("lib/"));
+        zip.putNextEntry(new java.util.zip.ZipEntry("lib/x.js"));
+        zip.write(new java.lang.String("var x;").getBytes("UTF-8"));
+        zip.putNextEntry(new java.util.zip.ZipEntry("../escape.js"));
+        zip.close();
+
+        send("upload.end", {sessionId: "s3"}, function(finished) {
+          var failures = finished.unzipFailures;
+          assert(failures.length == 1 && failures[0].zipWorkspacePath == "/up/lib.zip"
+                 && failures[0].displayFailedWorkspacePaths[0] == "/up/../escape.js",
+                 "failures were " + JSON.stringify(failures));
+          var files = imports[0].files;
+          assert(JSON.stringify(imports[0].dirs) == '["/up/lib/"]',
+                 "dirs were " + JSON.stringify(imports[0].dirs));
+          assert(files.length == 1 && files[0].path == "/up/lib/x.js",
+                 "files were " + JSON.stringify(files));
+          assert(readFile(files[0].from) == "var x;", "extracted " + readFile(files[0].from));
+          test.endAsync();
+        });
+      });
+    });
+  },
+
+  testCopiesOverExistingFiles: function(test) {
+    test.startAsync();
+    imports = [];
+    importFailures = [];
+    vertx.fileSystem.writeFileSync("upload_existing.txt", "old");
+    var begin = {sessionId: "s5", workspacePathsToReplace: ["/upload_existing.txt"]};
+    send("upload.begin", begin, function() {
+      stage("s5", "/upload_existing.txt", 0, "new", function() {
+        send("upload.end", {sessionId: "s5"}, function(finished) {
+          assert(finished.failedFileWorkspacePaths.length == 0,
+                 "failed " + JSON.stringify(finished.failedFileWorkspacePaths));
+          // Copied over here rather than handed to FileTree.
+          assert(imports.length == 0, "imports were " + JSON.stringify(imports));
+          assert(readFile("upload_existing.txt") == "new",
+                 "contents were " + readFile("upload_existing.txt"));
+          vertx.fileSystem.deleteSync("upload_existing.txt");
+          test.endAsync();
+        });
+      });
+    });
+  },
+
+  testRetriesFailedImports: function(test) {
+    test.startAsync();
+    imports = [];
+    importFailures = ["/up/c.txt"];
+    send("upload.begin", {sessionId: "s4", workspacePathsToReplace: ["/up/c.txt"]}, function() {
+      stage("s4", "/up/c.txt", 0, "c", function() {
+        send("upload.end", {sessionId: "s4"}, function(finished) {
+          assert(JSON.stringify(finished.failedFileWorkspacePaths) == '["/up/c.txt"]',
+                 "failed " + JSON.stringify(finished.failedFileWorkspacePaths));
+
+          importFailures = [];
+          send("upload.retry", {sessionId: "s4", fileWorkspacePaths: ["/up/c.txt"]},
+              function(retried) {
+            assert(retried.failedFileWorkspacePaths.length == 0,
+                   "failed " + JSON.stringify(retried.failedFileWorkspacePaths));
+            assert(imports.length == 2 && imports[1].files[0].path == "/up/c.txt",
+                   "imports were " + JSON.stringify(imports));
+            vertx.fileSystem.deleteSync(STAGING_DIR, true);
+            test.endAsync();
+          });
+        });
+      });
+    });
+  },
+};
+
+new AsyncTestRunner("com.google.collide.server.upload.UploadSessions",
+    {stagingDir: STAGING_DIR}).run(tests);
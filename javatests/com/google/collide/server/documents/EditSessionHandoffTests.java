@@ -0,0 +1,111 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.server.documents.VersionedDocument.AppliedDocOp;
+import com.google.collide.server.documents.VersionedDocument.DocumentOperationException;
+import com.google.collide.shared.ot.DocOpBuilder;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Tests for {@link EditSessionHandoff}.
+ */
+public class EditSessionHandoffTests extends TestCase {
+
+  private static final Logger logger = LoggerFactory.getLogger(EditSessionHandoffTests.class);
+
+  public void testCarriesOnFromSameRevision() throws DocumentOperationException {
+    FileEditSessionImpl original = createEditedSession();
+
+    FileEditSessionImpl handedOver = handOver(original);
+
+    assertEquals("resource", handedOver.getFileEditSessionKey());
+    assertEquals("dir/file.txt", handedOver.getSavedPath());
+    assertEquals("XYhello\nZworld\n", handedOver.getContents());
+    assertEquals(2, handedOver.getDocument().getCcRevision());
+    assertTrue(handedOver.hasChanges());
+
+    SortedMap<Integer, AppliedDocOp> history = handedOver.getDocument().getAppliedDocOps(1);
+    assertEquals(2, history.size());
+    assertEquals("c1", history.get(1).authorClientId);
+    assertEquals("c2", history.get(2).authorClientId);
+  }
+
+  public void testTransformsLateDocOpsLikeOriginal() throws DocumentOperationException {
+    FileEditSessionImpl original = createEditedSession();
+    FileEditSessionImpl handedOver = handOver(original);
+
+    // A client that has only seen the first doc op
+    List<DocOp> late = docOps(new DocOpBuilder(ServerDocOpFactory.INSTANCE, false)
+        .retainLine(1).insert("!").retain(6, true).retainLine(1).build());
+    original.consume(late, "c3", 1, null);
+    handedOver.consume(late, "c3", 1, null);
+
+    assertEquals(original.getContents(), handedOver.getContents());
+    assertEquals(3, handedOver.getDocument().getCcRevision());
+  }
+
+  public void testDropsRetriesLikeOriginal() throws DocumentOperationException {
+    FileEditSessionImpl handedOver = handOver(createEditedSession());
+
+    assertNull(handedOver.consume(insertAtStart("XY"), "c1", 0, null));
+    assertEquals("XYhello\nZworld\n", handedOver.getContents());
+  }
+
+  public void testHandsOverUneditedSession() {
+    FileEditSessionImpl handedOver = handOver(
+        new FileEditSessionImpl("resource", "dir/file.txt", "hello\n", null, logger));
+
+    assertEquals("hello\n", handedOver.getContents());
+    assertEquals(0, handedOver.getDocument().getCcRevision());
+    assertFalse(handedOver.hasChanges());
+  }
+
+  private static FileEditSessionImpl createEditedSession() throws DocumentOperationException {
+    FileEditSessionImpl editSession =
+        new FileEditSessionImpl("resource", "dir/file.txt", "hello\nworld\n", null, logger);
+    editSession.consume(insertAtStart("XY"), "c1", 0, null);
+    // Concurrent with the first, so it is transformed
+    editSession.consume(docOps(new DocOpBuilder(ServerDocOpFactory.INSTANCE, false)
+        .retainLine(1).insert("Z").retain(6, true).retainLine(1).build()), "c2", 0, null);
+    return editSession;
+  }
+
+  private static FileEditSessionImpl handOver(FileEditSessionImpl editSession) {
+    // Through a string, as it would cross the event bus
+    String json = EditSessionHandoff.toJson(editSession).encode();
+    return EditSessionHandoff.fromJson(new JsonObject(json), logger);
+  }
+
+  private static List<DocOp> insertAtStart(String text) {
+    return docOps(new DocOpBuilder(ServerDocOpFactory.INSTANCE, false)
+        .insert(text).retain(6, true).retainLine(2).build());
+  }
+
+  private static List<DocOp> docOps(DocOp docOp) {
+    return Collections.singletonList(docOp);
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.fe;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for {@link HostPage}.
+ */
+public class HostPageTests extends TestCase {
+
+  private static final String CHROME_UA = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/536.11 "
+      + "(KHTML, like Gecko) Chrome/20.0.1132.57 Safari/536.11";
+  private static final String FIREFOX_UA =
+      "Mozilla/5.0 (X11; Linux x86_64; rv:14.0) Gecko/20100101 Firefox/14.0.1";
+
+  private static final String MODULE_PATH = "/static/com.google.collide.client.Collide/";
+
+  private File staticDir;
+  private File mappingsFile;
+
+  @Override
+  protected void setUp() {
+    staticDir = Files.createTempDir();
+    File moduleDir = new File(staticDir, "com.google.collide.client.Collide");
+    moduleDir.mkdir();
+    mappingsFile = new File(moduleDir, "compilation-mappings.txt");
+  }
+
+  @Override
+  protected void tearDown() {
+    mappingsFile.delete();
+    mappingsFile.getParentFile().delete();
+    staticDir.delete();
+  }
+
+  public void testPreloadsPermutationForUserAgent() throws IOException {
+    writeMappings("SAFARI.cache.js", "user.agent safari", "webide.debuggingApi chrome", "",
+        "GECKO.cache.js", "user.agent gecko1_8", "webide.debuggingApi none");
+    HostPage hostPage = createHostPage(0);
+
+    String chromePage = render(hostPage, CHROME_UA);
+    assertTrue(chromePage.contains(preload("SAFARI.cache.js")));
+    assertFalse(chromePage.contains("GECKO.cache.js"));
+
+    String firefoxPage = render(hostPage, FIREFOX_UA);
+    assertTrue(firefoxPage.contains(preload("GECKO.cache.js")));
+    assertFalse(firefoxPage.contains("SAFARI.cache.js"));
+  }
+
+  public void testPrefetchesIframePermutation() throws IOException {
+    writeMappings("SAFARI.cache.html", "user.agent safari");
+
+    assertTrue(render(createHostPage(0), CHROME_UA).contains(
+        "<link rel=\"prefetch\" href=\"" + MODULE_PATH + "SAFARI.cache.html\">"));
+  }
+
+  public void testFallsBackWithoutSinglePermutation() throws IOException {
+    HostPage hostPage = createHostPage(0);
+    assertNoPermutationHinted(render(hostPage, CHROME_UA));
+
+    // Two permutations differ only by a property the user agent doesn't tell apart
+    writeMappings("EN.cache.js", "user.agent safari", "locale en", "",
+        "DE.cache.js", "user.agent safari", "locale de");
+    assertNoPermutationHinted(render(hostPage, CHROME_UA));
+    assertNoPermutationHinted(render(hostPage, null));
+  }
+
+  public void testBootstrapsSession() throws IOException {
+    String page = createHostPage(0).render("session", "alice", "tab", CHROME_UA, null).toString();
+
+    assertTrue(page.startsWith("<html>"));
+    assertTrue(page.contains("\"session\""));
+    assertTrue(page.contains("\"alice\""));
+    assertTrue(page.contains("\"tab\""));
+    assertTrue(page.contains("<script src=\"/static/vertxbus.js\"></script>"));
+    assertTrue(page.endsWith("</html>"));
+  }
+
+  public void testRereadsMappingsAfterInterval() throws IOException {
+    writeMappings("OLD.cache.js", "user.agent safari");
+    HostPage checkedEveryLoad = createHostPage(0);
+    HostPage checkedRarely = createHostPage(60 * 1000);
+    assertTrue(render(checkedEveryLoad, CHROME_UA).contains(preload("OLD.cache.js")));
+    assertTrue(render(checkedRarely, CHROME_UA).contains(preload("OLD.cache.js")));
+
+    writeMappings("NEW.cache.js", "user.agent safari");
+    mappingsFile.setLastModified(mappingsFile.lastModified() + 10 * 1000);
+
+    assertTrue(render(checkedEveryLoad, CHROME_UA).contains(preload("NEW.cache.js")));
+    assertTrue(render(checkedRarely, CHROME_UA).contains(preload("OLD.cache.js")));
+  }
+
+  private HostPage createHostPage(long mappingsCheckIntervalMs) {
+    return new HostPage(staticDir.getPath() + File.separator, mappingsCheckIntervalMs);
+  }
+
+  private void writeMappings(String... lines) throws IOException {
+    Files.write(Joiner.on('\n').join(lines) + "\n", mappingsFile, Charsets.UTF_8);
+  }
+
+  private static String render(HostPage hostPage, String userAgent) {
+    return hostPage.render("session", "user", "tab", userAgent, null).toString();
+  }
+
+  private static String preload(String permutation) {
+    return "<link rel=\"preload\" href=\"" + MODULE_PATH + permutation + "\" as=\"script\">";
+  }
+
+  private static void assertNoPermutationHinted(String page) {
+    assertFalse(page.contains(".cache."));
+  }
+}
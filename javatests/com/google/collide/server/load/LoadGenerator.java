@@ -0,0 +1,272 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.load;
+
+import com.google.collide.dto.FileContents;
+import com.google.collide.dto.server.DtoServerImpls.GetFileContentsResponseImpl;
+import com.google.collide.server.shared.util.Dto;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how many concurrent editors one server sustains. It deploys the participant list, file
+ * tree and edit session verticles in-process, opens a number of {@link SimulatedTab}s on a few
+ * files and has them type for a while, then reports the throughput, the latency of the server's
+ * acknowledgements, and whether every tab ended up with the same text as the server.
+ *
+ * <p>
+ * The file tree serves the working directory, so run it from an empty one, e.g. with
+ * {@code ant loadtest}. The config, all of it optional, is:
+ *
+ * <pre>
+ * {
+ *   "tabs": 20,               // simulated tabs, spread evenly over the documents
+ *   "documents": 1,           // files being edited
+ *   "documentLines": 500,     // initial length of each file
+ *   "durationSeconds": 30,    // how long the tabs type for
+ *   "keystrokeMillis": 120,   // mean time between keystrokes within a burst of typing
+ *   "burstPauseMillis": 2000, // mean pause between bursts
+ *   "settleSeconds": 10,      // how long to wait for the tabs to catch up afterwards
+ *   "seed": 42
+ * }
+ * </pre>
+ */
+public class LoadGenerator extends BusModBase {
+
+  private static final String DOCUMENT_DIR = "loadtest";
+
+  private final LoadStats stats = new LoadStats();
+  private final List<SimulatedTab> tabs = Lists.newArrayList();
+
+  private int documentCount;
+  private int durationSeconds;
+  private int settleSeconds;
+  private long typingStartNanos;
+  private long typingEndNanos;
+
+  @Override
+  public void start() {
+    super.start();
+    final int tabCount = getOptionalIntConfig("tabs", 20);
+    documentCount = Math.max(1, getOptionalIntConfig("documents", 1));
+    int documentLines = getOptionalIntConfig("documentLines", 500);
+    durationSeconds = getOptionalIntConfig("durationSeconds", 30);
+    settleSeconds = getOptionalIntConfig("settleSeconds", 10);
+    final Random random = new Random(getOptionalIntConfig("seed", 42));
+
+    try {
+      writeDocuments(documentCount, documentLines, random);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not write the documents to edit", e);
+    }
+
+    // Tabs never send keep-alives, so they must not time out during the run.
+    JsonObject participantsConfig =
+        new JsonObject().putString("password", "").putNumber("keep_alive_timeout", 60 * 60 * 1000);
+    container.deployVerticle("com.google.collide.server.participants.Participants",
+        participantsConfig, 1, new Handler<Void>() {
+          @Override
+          public void handle(Void event) {
+            container.deployVerticle("com.google.collide.server.filetree.FileTree", null, 1,
+                new Handler<Void>() {
+                  @Override
+                  public void handle(Void event) {
+                    container.deployVerticle("com.google.collide.server.documents.EditSessions",
+                        null, 1, new Handler<Void>() {
+                          @Override
+                          public void handle(Void event) {
+                            openTabs(tabCount, random);
+                          }
+                        });
+                  }
+                });
+          }
+        });
+  }
+
+  private void writeDocuments(int documentCount, int documentLines, Random random)
+      throws IOException {
+    File dir = new File(DOCUMENT_DIR);
+    dir.mkdirs();
+    for (int i = 0; i < documentCount; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int line = 0; line < documentLines; line++) {
+        text.append("  line ").append(line).append(": ").append(random.nextInt()).append('\n');
+      }
+      Files.write(text, new File(dir, getDocumentName(i)), Charsets.UTF_8);
+    }
+  }
+
+  private static String getDocumentName(int index) {
+    return "doc" + index + ".txt";
+  }
+
+  private static String getDocumentPath(int index) {
+    return "/" + DOCUMENT_DIR + "/" + getDocumentName(index);
+  }
+
+  /**
+   * Opens the tabs one at a time, so that the first to open a file creates its edit session, and
+   * starts them all typing once they are open.
+   */
+  private void openTabs(int tabCount, Random random) {
+    int keystrokeMillis = Math.max(1, getOptionalIntConfig("keystrokeMillis", 120));
+    int burstPauseMillis = Math.max(1, getOptionalIntConfig("burstPauseMillis", 2000));
+    for (int i = 0; i < tabCount; i++) {
+      tabs.add(new SimulatedTab(vertx, stats, new Random(random.nextLong()), "loadtest" + i,
+          getDocumentPath(i % documentCount), keystrokeMillis, burstPauseMillis));
+    }
+    openTab(0);
+  }
+
+  private void openTab(final int index) {
+    if (index == tabs.size()) {
+      System.out.println(String.format("Opened %d tabs; typing for %d seconds", tabs.size(),
+          durationSeconds));
+      typingStartNanos = System.nanoTime();
+      for (SimulatedTab tab : tabs) {
+        tab.startTyping();
+      }
+      vertx.setTimer(durationSeconds * 1000L, new Handler<Long>() {
+        @Override
+        public void handle(Long timerId) {
+          typingEndNanos = System.nanoTime();
+          for (SimulatedTab tab : tabs) {
+            tab.stopTyping();
+          }
+          settle(System.currentTimeMillis() + settleSeconds * 1000L);
+        }
+      });
+      return;
+    }
+    tabs.get(index).open(new Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        openTab(index + 1);
+      }
+    });
+  }
+
+  /**
+   * Waits for every tab to have its ops acknowledged, then checks convergence.
+   */
+  private void settle(final long deadline) {
+    boolean settled = true;
+    for (SimulatedTab tab : tabs) {
+      settled &= tab.isSettled() || tab.hasFailed();
+    }
+    if (!settled && System.currentTimeMillis() < deadline) {
+      vertx.setTimer(100, new Handler<Long>() {
+        @Override
+        public void handle(Long timerId) {
+          settle(deadline);
+        }
+      });
+      return;
+    }
+    checkConvergence(0, 0, deadline);
+  }
+
+  /**
+   * Compares the tabs editing each document with the server's copy, one document at a time. Tabs
+   * that are behind the server may still be receiving the last ops, so they are given until the
+   * deadline to catch up.
+   */
+  private void checkConvergence(
+      final int documentIndex, final int convergedTabs, final long deadline) {
+    if (documentIndex == documentCount) {
+      report(convergedTabs);
+      return;
+    }
+
+    final String path = getDocumentPath(documentIndex);
+    eb.send("documents.getFileContents",
+        Dto.wrap(new JsonObject().putString("path", path).encode()),
+        new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> reply) {
+            FileContents contents =
+                GetFileContentsResponseImpl.fromJsonString(Dto.get(reply)).getFileContents();
+            List<SimulatedTab> behind = Lists.newArrayList();
+            for (SimulatedTab tab : tabs) {
+              if (tab.getPath().equals(path) && !tab.hasFailed()
+                  && tab.getRevision() < contents.getCcRevision()) {
+                behind.add(tab);
+              }
+            }
+            if (!behind.isEmpty() && System.currentTimeMillis() < deadline) {
+              vertx.setTimer(100, new Handler<Long>() {
+                @Override
+                public void handle(Long timerId) {
+                  checkConvergence(documentIndex, convergedTabs, deadline);
+                }
+              });
+              return;
+            }
+
+            int converged = 0;
+            for (SimulatedTab tab : tabs) {
+              if (!tab.getPath().equals(path)) {
+                continue;
+              }
+              if (tab.getRevision() == contents.getCcRevision()
+                  && tab.getText().equals(contents.getContents())) {
+                converged++;
+              } else {
+                System.out.println(String.format(
+                    "DIVERGED: a tab on %s is at revision %d with %d characters; the server is at"
+                    + " revision %d with %d", path, tab.getRevision(), tab.getText().length(),
+                    contents.getCcRevision(), contents.getContents().length()));
+              }
+            }
+            checkConvergence(documentIndex + 1, convergedTabs + converged, deadline);
+          }
+        });
+  }
+
+  private void report(int convergedTabs) {
+    double seconds = (typingEndNanos - typingStartNanos) / 1e9;
+    JsonObject latency = stats.ackLatency.toJson();
+    System.out.println(String.format(Locale.US, "tabs:                %d", tabs.size()));
+    System.out.println(String.format(Locale.US, "keystrokes:          %d (%.1f/s)",
+        stats.keystrokes, stats.keystrokes / seconds));
+    System.out.println(String.format(Locale.US, "ops acked:           %d of %d sent (%.1f/s)",
+        stats.opsAcked, stats.opsSent, stats.opsAcked / seconds));
+    System.out.println(String.format(Locale.US, "remote ops applied:  %d (%.1f/s)",
+        stats.remoteOpsApplied, stats.remoteOpsApplied / seconds));
+    if (stats.ackLatency.getCount() > 0) {
+      System.out.println(String.format(Locale.US,
+          "ack latency (ms):    p50 %.2f  p90 %.2f  p99 %.2f  max %.2f",
+          latency.getNumber("p50").doubleValue(), latency.getNumber("p90").doubleValue(),
+          latency.getNumber("p99").doubleValue(), latency.getNumber("max").doubleValue()));
+    }
+    System.out.println(String.format(Locale.US, "converged:           %d of %d tabs%s",
+        convergedTabs, tabs.size(), stats.failures > 0 ? ", " + stats.failures + " failed" : ""));
+    System.out.println(convergedTabs == tabs.size() ? "Load test passed." : "LOAD TEST FAILED!");
+    container.exit();
+  }
+}
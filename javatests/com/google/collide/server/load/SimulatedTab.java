@@ -0,0 +1,350 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.load;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.FileContents;
+import com.google.collide.dto.server.DtoServerImpls.DocOpComponentImpl;
+import com.google.collide.dto.server.DtoServerImpls.DocOpImpl;
+import com.google.collide.dto.server.DtoServerImpls.GetFileContentsResponseImpl;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.server.documents.DocOpComponentDeserializer;
+import com.google.collide.server.participants.Participants;
+import com.google.collide.server.shared.util.Dto;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.LineInfo;
+import com.google.collide.shared.document.TextChange;
+import com.google.collide.shared.document.util.LineUtils;
+import com.google.collide.shared.ot.Composer;
+import com.google.collide.shared.ot.DocOpApplier;
+import com.google.collide.shared.ot.DocOpUtils;
+import com.google.collide.shared.ot.OperationPair;
+import com.google.collide.shared.ot.Transformer;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * One simulated browser tab with a file open. It logs in, opens the file and then types into it
+ * in bursts, keeping its own copy of the document in step with everyone else's edits the way the
+ * real client does.
+ *
+ * <p>
+ * Like the client's concurrency control, a tab has at most one op in flight. Keystrokes made while
+ * waiting for the server to acknowledge it are composed into a buffer that is sent next. The
+ * server's acknowledgements and the other tabs' ops arrive on different paths, so they are put in
+ * order by revision before being applied, and each op from another tab is transformed against the
+ * in-flight and buffered ops first.
+ */
+class SimulatedTab {
+
+  private static final ServerDocOpFactory FACTORY = ServerDocOpFactory.INSTANCE;
+
+  /** Reads doc ops with their concrete component types, as {@code EditSessions} does. */
+  private static final Gson gson = new GsonBuilder().registerTypeAdapter(
+      DocOpComponentImpl.class, new DocOpComponentDeserializer()).create();
+
+  private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyz     ();{}=.,\"";
+
+  /**
+   * An op from the server: either another tab's op, or the acknowledgement of our own.
+   */
+  private static class ServerOp {
+    final DocOp docOp;
+
+    ServerOp(DocOp docOp) {
+      this.docOp = docOp;
+    }
+
+    boolean isAck() {
+      return docOp == null;
+    }
+  }
+
+  private final Vertx vertx;
+  private final LoadStats stats;
+  private final Random random;
+  private final String username;
+  private final String path;
+  private final int keystrokeMillis;
+  private final int burstPauseMillis;
+
+  private String clientId;
+  private String fileEditSessionKey;
+  private Document doc;
+  private int revision;
+
+  /** Sent to the server and not yet acknowledged. */
+  private DocOp inflight;
+  private long inflightSentNanos;
+
+  /** Typed since the in-flight op was sent. */
+  private DocOp buffer;
+
+  /** Ops from the server that arrived before the ones preceding them. */
+  private final SortedMap<Integer, ServerOp> pending = new TreeMap<Integer, ServerOp>();
+
+  private boolean typing;
+  private boolean failed;
+  private int keystrokesLeftInBurst;
+  private int cursorLineNumber;
+  private int cursorColumn;
+
+  SimulatedTab(Vertx vertx, LoadStats stats, Random random, String username, String path,
+      int keystrokeMillis, int burstPauseMillis) {
+    this.vertx = vertx;
+    this.stats = stats;
+    this.random = random;
+    this.username = username;
+    this.path = path;
+    this.keystrokeMillis = keystrokeMillis;
+    this.burstPauseMillis = burstPauseMillis;
+  }
+
+  /**
+   * Logs in, creates an active client and opens the file, then calls {@code onOpened}.
+   */
+  void open(final Handler<Void> onOpened) {
+    vertx.eventBus().send("participants.login",
+        new JsonObject().putString("username", username).putString("password", ""),
+        new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> login) {
+            authorise(login.body.getString("sessionID"), onOpened);
+          }
+        });
+  }
+
+  private void authorise(String sessionId, final Handler<Void> onOpened) {
+    vertx.eventBus().send("participants.authorise",
+        new JsonObject().putString("sessionID", sessionId).putBoolean("createClient", true),
+        new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> authorised) {
+            clientId = authorised.body.getString("activeClient");
+            vertx.eventBus().registerHandler(Participants.CLIENT_ADDRESS_PREFX + "." + clientId,
+                new Handler<Message<JsonObject>>() {
+                  @Override
+                  public void handle(Message<JsonObject> message) {
+                    receive(Dto.get(message));
+                  }
+                });
+            createEditSession(onOpened);
+          }
+        });
+  }
+
+  private void createEditSession(final Handler<Void> onOpened) {
+    vertx.eventBus().send("documents.createEditSession",
+        Dto.wrap(new JsonObject().putString("path", path).encode()),
+        new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> reply) {
+            FileContents contents =
+                GetFileContentsResponseImpl.fromJsonString(Dto.get(reply)).getFileContents();
+            fileEditSessionKey = contents.getFileEditSessionKey();
+            revision = contents.getCcRevision();
+            doc = Document.createFromString(contents.getContents());
+            cursorLineNumber = random.nextInt(doc.getLineCount());
+            onOpened.handle(null);
+          }
+        });
+  }
+
+  void startTyping() {
+    typing = true;
+    scheduleKeystroke();
+  }
+
+  void stopTyping() {
+    typing = false;
+  }
+
+  /**
+   * Returns whether everything typed has been acknowledged.
+   */
+  boolean isSettled() {
+    return inflight == null && buffer == null && pending.isEmpty();
+  }
+
+  boolean hasFailed() {
+    return failed;
+  }
+
+  String getPath() {
+    return path;
+  }
+
+  int getRevision() {
+    return revision;
+  }
+
+  String getText() {
+    return doc.asText();
+  }
+
+  private void scheduleKeystroke() {
+    if (!typing || failed) {
+      return;
+    }
+    long delay;
+    if (keystrokesLeftInBurst > 0) {
+      keystrokesLeftInBurst--;
+      delay = keystrokeMillis / 2 + random.nextInt(keystrokeMillis + 1);
+    } else {
+      keystrokesLeftInBurst = 5 + random.nextInt(36);
+      delay = burstPauseMillis / 2 + random.nextInt(burstPauseMillis + 1);
+    }
+    vertx.setTimer(Math.max(1, delay), new Handler<Long>() {
+      @Override
+      public void handle(Long timerId) {
+        if (typing && !failed) {
+          type();
+          scheduleKeystroke();
+        }
+      }
+    });
+  }
+
+  /**
+   * Types one character, backspace or new line at the cursor.
+   */
+  private void type() {
+    // Other tabs' edits may have moved the text out from under the cursor.
+    cursorLineNumber = Math.min(cursorLineNumber, doc.getLastLineNumber());
+    LineInfo lineInfo = doc.getLineFinder().findLine(cursorLineNumber);
+    cursorColumn = Math.min(cursorColumn, LineUtils.getLastCursorColumn(lineInfo.line()));
+
+    TextChange change;
+    int roll = random.nextInt(100);
+    if (roll < 8 && cursorColumn > 0) {
+      cursorColumn--;
+      change = doc.deleteText(lineInfo.line(), cursorLineNumber, cursorColumn, 1);
+    } else if (roll < 10) {
+      change = doc.insertText(lineInfo.line(), cursorLineNumber, cursorColumn, "\n  ");
+      cursorLineNumber++;
+      cursorColumn = 2;
+    } else {
+      String text = String.valueOf(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+      change = doc.insertText(lineInfo.line(), cursorLineNumber, cursorColumn, text);
+      cursorColumn++;
+    }
+    stats.keystrokes++;
+
+    DocOp docOp = DocOpUtils.createFromTextChange(FACTORY, change);
+    try {
+      buffer = buffer == null ? docOp : Composer.compose(FACTORY, buffer, docOp);
+    } catch (Composer.ComposeException e) {
+      fail("Could not compose a keystroke", e);
+      return;
+    }
+    if (inflight == null) {
+      sendBuffer();
+    }
+  }
+
+  private void sendBuffer() {
+    if (buffer == null || failed) {
+      return;
+    }
+    inflight = buffer;
+    buffer = null;
+    inflightSentNanos = System.nanoTime();
+    stats.opsSent++;
+
+    // Request DTOs only have server implementations for reading, so this is built by hand.
+    JsonObject message = new JsonObject().putString("fileEditSessionKey", fileEditSessionKey)
+        .putNumber("ccRevision", revision).putString("clientId", clientId)
+        .putArray("docOps2", new JsonArray().addString(((DocOpImpl) inflight).toJson()));
+    vertx.eventBus().send("documents.mutate", Dto.wrap(message.encode()),
+        new Handler<Message<JsonObject>>() {
+          @Override
+          public void handle(Message<JsonObject> reply) {
+            stats.ackLatency.recordMicros((System.nanoTime() - inflightSentNanos) / 1000);
+            stats.opsAcked++;
+            receive(Dto.get(reply));
+          }
+        });
+  }
+
+  /**
+   * Queues the doc ops of a {@code ServerToClientDocOps}, either an acknowledgement or another
+   * tab's broadcast, and applies whatever is now in order.
+   */
+  private void receive(String serializedDocOps) {
+    for (JsonElement element : new JsonParser().parse(serializedDocOps).getAsJsonObject()
+        .getAsJsonArray("docOps")) {
+      com.google.gson.JsonObject serverDocOp = element.getAsJsonObject();
+      if (!fileEditSessionKey.equals(serverDocOp.get("fileEditSessionKey").getAsString())) {
+        continue;
+      }
+      int appliedRevision = serverDocOp.get("appliedCcRevision").getAsInt();
+      boolean isAck = clientId.equals(serverDocOp.get("clientId").getAsString());
+      pending.put(appliedRevision, new ServerOp(
+          isAck ? null : gson.fromJson(serverDocOp.get("docOp2"), DocOpImpl.class)));
+    }
+
+    for (ServerOp serverOp; (serverOp = pending.remove(revision + 1)) != null; revision++) {
+      if (serverOp.isAck()) {
+        inflight = null;
+      } else {
+        applyRemote(serverOp.docOp);
+      }
+    }
+    if (inflight == null) {
+      sendBuffer();
+    }
+  }
+
+  private void applyRemote(DocOp docOp) {
+    if (failed) {
+      return;
+    }
+    try {
+      if (inflight != null) {
+        OperationPair pair = Transformer.transform(FACTORY, inflight, docOp);
+        inflight = pair.clientOp();
+        docOp = pair.serverOp();
+      }
+      if (buffer != null) {
+        OperationPair pair = Transformer.transform(FACTORY, buffer, docOp);
+        buffer = pair.clientOp();
+        docOp = pair.serverOp();
+      }
+      DocOpApplier.apply(docOp, doc);
+      stats.remoteOpsApplied++;
+    } catch (RuntimeException e) {
+      fail("Could not apply another tab's op", e);
+    }
+  }
+
+  private void fail(String reason, Exception e) {
+    failed = true;
+    stats.failures++;
+    System.err.println(String.format("Tab [%s] stopped: %s", clientId, reason));
+    e.printStackTrace();
+  }
+}
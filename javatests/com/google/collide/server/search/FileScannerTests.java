@@ -0,0 +1,97 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.search;
+
+import com.google.collide.server.search.FileScanner.ScanResult;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link FileScanner}.
+ */
+public class FileScannerTests extends TestCase {
+
+  private static final Pattern PATTERN = Pattern.compile("needle");
+
+  private final List<String> paths = Lists.newArrayList();
+  private final Map<String, String> contents = Maps.newHashMap();
+  private FileScanner scanner;
+
+  @Override
+  protected void setUp() {
+    scanner = new FileScanner(4);
+    // Every third file matches.
+    for (int i = 0; i < 500; i++) {
+      String path = "/file" + i + ".txt";
+      paths.add(path);
+      contents.put(path, i % 3 == 0 ? "a needle\n" : "hay\n");
+    }
+  }
+
+  @Override
+  protected void tearDown() {
+    scanner.shutdown();
+  }
+
+  public void testFindsAllMatchesInOrder() {
+    ScanResult result = scan(1000, Long.MAX_VALUE);
+
+    assertFalse(result.truncated);
+    assertEquals(167, result.matches.size());
+    for (int i = 0; i < result.matches.size(); i++) {
+      assertEquals("/file" + i * 3 + ".txt", result.matches.get(i).path);
+      assertEquals(1, result.matches.get(i).snippets.size());
+    }
+  }
+
+  public void testCapKeepsFirstMatches() {
+    for (int attempt = 0; attempt < 20; attempt++) {
+      ScanResult result = scan(50, Long.MAX_VALUE);
+
+      assertTrue(result.truncated);
+      assertEquals(50, result.matches.size());
+      for (int i = 0; i < 50; i++) {
+        assertEquals("/file" + i * 3 + ".txt", result.matches.get(i).path);
+      }
+    }
+  }
+
+  public void testCapOnLastMatchIsNotTruncated() {
+    // The last file is the 166th match.
+    paths.subList(496, 500).clear();
+
+    ScanResult result = scan(166, Long.MAX_VALUE);
+
+    assertFalse(result.truncated);
+    assertEquals(166, result.matches.size());
+  }
+
+  public void testTimeBudgetTruncates() {
+    ScanResult result = scan(1000, 0);
+
+    assertTrue(result.truncated);
+    assertTrue(result.matches.isEmpty());
+  }
+
+  private ScanResult scan(int maxMatches, long deadline) {
+    return scanner.scan(paths, contents, PATTERN, maxMatches, deadline, 5);
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.cluster;
+
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ClusterMembership}.
+ */
+public class ClusterMembershipTests extends TestCase {
+
+  private static final long HEARTBEAT_INTERVAL = 50;
+
+  private Vertx vertx;
+
+  private final BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<Set<String>>();
+
+  private final ClusterMembership.Listener listener = new ClusterMembership.Listener() {
+    @Override
+    public void onMembershipChanged(Set<String> liveNodes) {
+      changes.add(liveNodes);
+    }
+  };
+
+  private final ClusterMembership.Listener ignoringListener = new ClusterMembership.Listener() {
+    @Override
+    public void onMembershipChanged(Set<String> liveNodes) {
+    }
+  };
+
+  @Override
+  protected void setUp() {
+    vertx = Vertx.newVertx();
+  }
+
+  public void testSeesNodesJoinAndLeave() throws InterruptedException {
+    ClusterMembership a = new ClusterMembership(vertx, "a", HEARTBEAT_INTERVAL, listener);
+    ClusterMembership b = new ClusterMembership(vertx, "b", HEARTBEAT_INTERVAL, ignoringListener);
+    a.start();
+    assertEquals(ImmutableSet.of("a"), a.getLiveNodes());
+
+    b.start();
+    assertEquals(ImmutableSet.of("a", "b"), nextChange());
+    assertEquals(ImmutableSet.of("a", "b"), a.getLiveNodes());
+
+    // Leaving nodes say so, and are dropped without waiting for them to go quiet
+    b.stop();
+    assertEquals(ImmutableSet.of("a"), nextChange());
+    a.stop();
+  }
+
+  public void testEvictsSilentNodes() throws InterruptedException {
+    ClusterMembership a = new ClusterMembership(vertx, "a", HEARTBEAT_INTERVAL, listener);
+    a.start();
+
+    // A node that sends one heartbeat and then crashes
+    vertx.eventBus().publish(ClusterMembership.HEARTBEAT_ADDRESS,
+        new JsonObject().putString("nodeId", "crashed").putBoolean("leaving", false));
+    assertEquals(ImmutableSet.of("a", "crashed"), nextChange());
+
+    assertEquals(ImmutableSet.of("a"), nextChange());
+    a.stop();
+  }
+
+  public void testIgnoresOwnHeartbeats() throws InterruptedException {
+    ClusterMembership a = new ClusterMembership(vertx, "a", HEARTBEAT_INTERVAL, listener);
+    a.start();
+
+    assertNull(changes.poll(HEARTBEAT_INTERVAL * 4, TimeUnit.MILLISECONDS));
+    a.stop();
+  }
+
+  private Set<String> nextChange() throws InterruptedException {
+    Set<String> change = changes.poll(HEARTBEAT_INTERVAL * 20, TimeUnit.MILLISECONDS);
+    assertNotNull("no membership change", change);
+    return change;
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.cluster;
+
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link ConsistentHashRing}.
+ */
+public class ConsistentHashRingTests extends TestCase {
+
+  private static final int KEY_COUNT = 3000;
+
+  public void testEmptyRingHasNoOwner() {
+    ConsistentHashRing ring = new ConsistentHashRing();
+    assertNull(ring.getOwner("key"));
+
+    ring.addNode("a");
+    ring.removeNode("a");
+    assertNull(ring.getOwner("key"));
+  }
+
+  public void testAddAndRemoveReportChanges() {
+    ConsistentHashRing ring = new ConsistentHashRing();
+    assertTrue(ring.addNode("a"));
+    assertFalse(ring.addNode("a"));
+    assertTrue(ring.removeNode("a"));
+    assertFalse(ring.removeNode("a"));
+  }
+
+  public void testSpreadsKeysOverNodes() {
+    ConsistentHashRing ring = new ConsistentHashRing();
+    ring.setNodes(ImmutableSet.of("a", "b", "c"));
+
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    for (int i = 0; i < KEY_COUNT; i++) {
+      String owner = ring.getOwner("key" + i);
+      Integer count = counts.get(owner);
+      counts.put(owner, count == null ? 1 : count + 1);
+    }
+
+    assertEquals(ImmutableSet.of("a", "b", "c"), counts.keySet());
+    for (int count : counts.values()) {
+      // A third each, give or take
+      assertTrue("count was " + count, count > KEY_COUNT / 6 && count < KEY_COUNT / 2);
+    }
+  }
+
+  public void testAddingNodeOnlyMovesKeysToIt() {
+    ConsistentHashRing ring = new ConsistentHashRing();
+    ring.setNodes(ImmutableSet.of("a", "b", "c"));
+    Map<String, String> owners = getOwners(ring);
+
+    ring.addNode("d");
+
+    int moved = 0;
+    for (Map.Entry<String, String> entry : owners.entrySet()) {
+      String owner = ring.getOwner(entry.getKey());
+      if (!owner.equals(entry.getValue())) {
+        assertEquals("d", owner);
+        moved++;
+      }
+    }
+    assertTrue("moved " + moved, moved > 0 && moved < KEY_COUNT / 2);
+  }
+
+  public void testRemovingNodeRestoresOwners() {
+    ConsistentHashRing ring = new ConsistentHashRing();
+    ring.setNodes(ImmutableSet.of("a", "b", "c"));
+    Map<String, String> owners = getOwners(ring);
+
+    ring.setNodes(ImmutableSet.of("a", "b", "c", "d"));
+    ring.setNodes(ImmutableSet.of("a", "b", "c"));
+
+    assertEquals(owners, getOwners(ring));
+    assertEquals(ImmutableSet.of("a", "b", "c"), ring.getNodes());
+  }
+
+  public void testRingsWithSameNodesAgree() {
+    ConsistentHashRing ring = new ConsistentHashRing();
+    ring.setNodes(ImmutableSet.of("a", "b", "c"));
+    ConsistentHashRing otherRing = new ConsistentHashRing();
+    otherRing.addNode("c");
+    otherRing.addNode("a");
+    otherRing.addNode("b");
+
+    assertEquals(getOwners(ring), getOwners(otherRing));
+  }
+
+  private static Map<String, String> getOwners(ConsistentHashRing ring) {
+    Map<String, String> owners = new HashMap<String, String>();
+    for (int i = 0; i < KEY_COUNT; i++) {
+      owners.put("key" + i, ring.getOwner("key" + i));
+    }
+    return owners;
+  }
+}
@@ -102,6 +102,51 @@ public class DocumentTests extends TestCase {
     }
   }
 
+  public void testGetOffsetAndPosition() {
+    Document doc = Document.createFromString(Joiner.on("").join(LINES));
+    Line secondLine = doc.getFirstLine().getNextLine();
+
+    assertEquals(0, doc.getOffset(doc.getFirstLine(), 0));
+    assertEquals(LINES[0].length() + 4, doc.getOffset(secondLine, 4));
+    assertEquals(new Position(new LineInfo(secondLine, 1), 4),
+        doc.getPosition(LINES[0].length() + 4));
+    assertEquals(new Position(new LineInfo(secondLine, 1), 0), doc.getPosition(LINES[0].length()));
+
+    // The end of the document is at the end of the last (empty) line
+    int length = Joiner.on("").join(LINES).length();
+    assertEquals(new Position(doc.getLastLineInfo(), 0), doc.getPosition(length));
+    try {
+      doc.getPosition(length + 1);
+      fail();
+    } catch (PositionOutOfBoundsException e) {
+    }
+
+    // Edits are reflected without rebuilding anything
+    doc.insertText(doc.getFirstLine(), 0, 0, "new\n");
+    assertEquals(LINES[0].length() + 8, doc.getOffset(secondLine, 4));
+    assertEquals(new Position(new LineInfo(secondLine, 2), 4),
+        doc.getPosition(LINES[0].length() + 8));
+  }
+
+  public void testCreateFromStringMatchesInsertion() {
+    for (String text : new String[] {"", "a", "a\n", "\n\n", "a\nbc", "a\nbc\n\nd\n"}) {
+      Document created = Document.createFromString(text);
+      Document inserted = Document.createEmpty();
+      inserted.insertText(inserted.getFirstLine(), 0, 0, text);
+
+      assertEquals(inserted.getLineCount(), created.getLineCount());
+      assertEquals(text, created.asText());
+      Line createdLine = created.getFirstLine();
+      for (Line line = inserted.getFirstLine(); line != null; line = line.getNextLine()) {
+        assertEquals(line.getText(), createdLine.getText());
+        assertTrue(createdLine.isAttached());
+        createdLine = createdLine.getNextLine();
+      }
+      assertNull(createdLine);
+      assertEquals(inserted.getLastLine().getText(), created.getLastLine().getText());
+    }
+  }
+
   public void testDeleteEntireDocumentContents() {
     Line originalFirstLine = line;
 
@@ -0,0 +1,184 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import static com.google.collide.shared.document.anchor.AnchorManager.IGNORE_COLUMN;
+
+import com.google.collide.shared.document.anchor.Anchor;
+import com.google.collide.shared.document.anchor.Anchor.RemovalStrategy;
+import com.google.collide.shared.document.anchor.AnchorManager;
+import com.google.collide.shared.document.anchor.AnchorType;
+import com.google.collide.shared.document.anchor.LineAnchorList;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link LineAnchorList} and its lazily shifted line numbers.
+ */
+public class LineAnchorListTests extends TestCase {
+
+  private static final AnchorType ANCHOR_TYPE =
+      AnchorType.create(LineAnchorListTests.class, "line");
+
+  private final Random random = new Random(42);
+
+  private final Map<Anchor, Integer> shiftCounts = new HashMap<Anchor, Integer>();
+
+  private final Anchor.ShiftListener shiftListener = new Anchor.ShiftListener() {
+    @Override
+    public void onAnchorShifted(Anchor anchor) {
+      Integer count = shiftCounts.get(anchor);
+      shiftCounts.put(anchor, count == null ? 1 : count + 1);
+    }
+  };
+
+  public void testFindClosest() {
+    Document doc = Document.createFromString(createText(20));
+    AnchorManager anchorManager = doc.getAnchorManager();
+    Anchor three = createLineAnchor(doc, 3);
+    Anchor seven = createLineAnchor(doc, 7);
+    Anchor twelve = createLineAnchor(doc, 12);
+
+    assertNull(new LineAnchorList().findClosest(3));
+    assertSame(three, anchorManager.findClosestAnchorWithLineNumber(0));
+    assertSame(three, anchorManager.findClosestAnchorWithLineNumber(4));
+    // Ties go to the earlier anchor
+    assertSame(three, anchorManager.findClosestAnchorWithLineNumber(5));
+    assertSame(seven, anchorManager.findClosestAnchorWithLineNumber(6));
+    assertSame(seven, anchorManager.findClosestAnchorWithLineNumber(7));
+    assertSame(twelve, anchorManager.findClosestAnchorWithLineNumber(10));
+    assertSame(twelve, anchorManager.findClosestAnchorWithLineNumber(19));
+  }
+
+  public void testShiftOnlyDispatchesToListeners() {
+    Document doc = Document.createFromString(createText(10));
+    Anchor quiet = createLineAnchor(doc, 5);
+    Anchor listened = createLineAnchor(doc, 6);
+    listened.getShiftListenerRegistrar().add(shiftListener);
+    Anchor before = createLineAnchor(doc, 1);
+    before.getShiftListenerRegistrar().add(shiftListener);
+
+    doc.insertText(doc.getFirstLine(), 0, 0, "a\nb\n");
+
+    assertEquals(7, quiet.getLineNumber());
+    assertEquals(8, listened.getLineNumber());
+    assertEquals(3, before.getLineNumber());
+    assertEquals(Integer.valueOf(1), shiftCounts.get(listened));
+    assertEquals(Integer.valueOf(1), shiftCounts.get(before));
+
+    // Removing the listener stops the dispatch
+    listened.getShiftListenerRegistrar().remove(shiftListener);
+    doc.insertText(doc.getFirstLine(), 0, 0, "c\n");
+
+    assertEquals(9, listened.getLineNumber());
+    assertEquals(Integer.valueOf(1), shiftCounts.get(listened));
+    assertEquals(Integer.valueOf(2), shiftCounts.get(before));
+  }
+
+  public void testRandomEditsKeepLineNumbers() {
+    Document doc = Document.createFromString(createText(300));
+    AnchorManager anchorManager = doc.getAnchorManager();
+    ArrayList<Anchor> anchors = new ArrayList<Anchor>();
+    for (int i = 0; i < 150; i++) {
+      Anchor anchor = createLineAnchor(doc, random.nextInt(doc.getLineCount()));
+      if (random.nextBoolean()) {
+        anchor.setRemovalStrategy(RemovalStrategy.SHIFT);
+      }
+      if (random.nextInt(3) == 0) {
+        anchor.getShiftListenerRegistrar().add(shiftListener);
+      }
+      anchors.add(anchor);
+    }
+
+    for (int i = 0; i < 400; i++) {
+      int lineNumber = random.nextInt(doc.getLineCount());
+      Line line = doc.getLineFinder().findLine(lineNumber).line();
+
+      int roll = random.nextInt(4);
+      if (roll == 0 && doc.getLineCount() > 20) {
+        int lineCount = 1 + random.nextInt(Math.min(5, doc.getLineCount() - lineNumber));
+        Line lastLine = doc.getLineFinder().findLine(lineNumber + lineCount - 1).line();
+        int deleteCount = doc.getOffset(lastLine, lastLine.length()) - doc.getOffset(line, 0);
+        if (lastLine.getNextLine() == null) {
+          deleteCount = Math.max(0, deleteCount - 1);
+        }
+        if (deleteCount > 0) {
+          doc.deleteText(line, lineNumber, 0, deleteCount);
+        }
+      } else if (roll == 1) {
+        Anchor anchor = anchors.get(random.nextInt(anchors.size()));
+        if (anchor.isAttached()) {
+          anchorManager.removeAnchor(anchor);
+        }
+      } else if (roll == 2) {
+        int targetLineNumber = random.nextInt(doc.getLineCount());
+        Anchor anchor = anchors.get(random.nextInt(anchors.size()));
+        if (anchor.isAttached()) {
+          anchorManager.moveAnchor(anchor,
+              doc.getLineFinder().findLine(targetLineNumber).line(), targetLineNumber,
+              IGNORE_COLUMN);
+        }
+      } else {
+        doc.insertText(line, lineNumber, 0, createText(1 + random.nextInt(3)));
+      }
+
+      assertLineNumbers(doc, anchors);
+    }
+  }
+
+  private Anchor createLineAnchor(Document doc, int lineNumber) {
+    return doc.getAnchorManager().createAnchor(ANCHOR_TYPE,
+        doc.getLineFinder().findLine(lineNumber).line(), lineNumber, IGNORE_COLUMN);
+  }
+
+  private String createText(int lineCount) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < lineCount; i++) {
+      text.append("line ").append(random.nextInt(1000)).append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Checks each attached anchor against the line it is on, and the list's order
+   * against the line numbers.
+   */
+  private static void assertLineNumbers(Document doc, ArrayList<Anchor> anchors) {
+    LineAnchorList lineAnchors = doc.getAnchorManager().getLineAnchors();
+
+    int attachedCount = 0;
+    for (Anchor anchor : anchors) {
+      if (anchor.isAttached()) {
+        attachedCount++;
+        assertEquals(doc.getLineFinder().findLine(anchor.getLine()).number(),
+            anchor.getLineNumber());
+        assertSame(anchor, lineAnchors.get(lineAnchors.findIndex(anchor)));
+      } else {
+        assertEquals(-1, lineAnchors.findIndex(anchor));
+      }
+    }
+    assertEquals(attachedCount, lineAnchors.size());
+
+    for (int i = 1; i < lineAnchors.size(); i++) {
+      assertTrue(
+          lineAnchors.get(i - 1).getLineNumber() <= lineAnchors.get(i).getLineNumber());
+    }
+  }
+}
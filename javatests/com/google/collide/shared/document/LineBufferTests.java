@@ -0,0 +1,108 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link LineBuffer} and the editing of long lines.
+ */
+public class LineBufferTests extends TestCase {
+
+  private final Random random = new Random(42);
+
+  public void testEditsAroundTheGap() {
+    LineBuffer buffer = new LineBuffer("hello world");
+
+    buffer.insert(5, ",");
+    buffer.insert(0, ">> ");
+    buffer.delete(9, 5);
+    buffer.insert(buffer.length(), "!");
+
+    assertEquals(">> hello,d!", buffer.toString());
+    assertEquals('h', buffer.charAt(3));
+    assertEquals("llo,d", buffer.substring(5, 10));
+  }
+
+  public void testGrowsPastInitialGap() {
+    LineBuffer buffer = new LineBuffer("ab");
+    StringBuilder expected = new StringBuilder("ab");
+    for (int i = 0; i < 500; i++) {
+      buffer.insert(1, "xyz");
+      expected.insert(1, "xyz");
+    }
+
+    assertEquals(expected.toString(), buffer.toString());
+  }
+
+  public void testRandomEditsInLongLine() {
+    StringBuilder expected = new StringBuilder();
+    while (expected.length() < Line.LONG_LINE_LENGTH * 2) {
+      expected.append("var x").append(random.nextInt(1000)).append("=1;");
+    }
+    expected.append('\n');
+    Document doc = Document.createFromString(expected.toString() + "next line");
+    doc.enableLineIndex();
+    Line line = doc.getFirstLine();
+
+    int column = random.nextInt(line.length() - 1);
+    for (int i = 0; i < 2000; i++) {
+      // Edit mostly near the last edit, like someone typing
+      if (random.nextInt(10) == 0) {
+        column = random.nextInt(line.length() - 1);
+      }
+      column = Math.min(column, line.length() - 2);
+
+      if (random.nextBoolean()) {
+        String text = random.nextBoolean() ? "a" : "bcd";
+        doc.insertText(line, 0, column, text);
+        expected.insert(column, text);
+        column += text.length();
+      } else if (column > 0) {
+        column--;
+        doc.deleteText(line, 0, column, 1);
+        expected.deleteCharAt(column);
+      }
+
+      assertEquals(expected.length(), line.length());
+      if (i % 100 == 0) {
+        assertEquals(expected.toString(), line.getText());
+      }
+    }
+
+    assertEquals(expected.toString(), line.getText());
+    assertEquals(expected.length(), doc.getOffset(line.getNextLine(), 0));
+    assertEquals(expected.toString() + "next line", doc.asText());
+  }
+
+  public void testJoiningLongLines() {
+    StringBuilder longText = new StringBuilder();
+    while (longText.length() < Line.LONG_LINE_LENGTH) {
+      longText.append("0123456789");
+    }
+    Document doc = Document.createFromString(longText + "\n" + longText + "\n");
+    Line line = doc.getFirstLine();
+
+    // Edit the first line in place, then delete its newline to join the second
+    doc.insertText(line, 0, 5, "x");
+    doc.deleteText(line, 0, longText.length() + 1, 1);
+
+    assertEquals(2, doc.getLineCount());
+    assertEquals(longText.substring(0, 5) + "x" + longText.substring(5) + longText + "\n",
+        line.getText());
+  }
+}
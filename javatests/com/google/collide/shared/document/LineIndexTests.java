@@ -0,0 +1,153 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link LineIndex} and the {@link LineFinder} using it.
+ */
+public class LineIndexTests extends TestCase {
+
+  private final Random random = new Random(42);
+
+  public void testEmptyDocument() {
+    Document doc = Document.createEmpty();
+    doc.enableLineIndex();
+
+    assertIndexMatchesLines(doc);
+    assertEquals(0, doc.getLineFinder().findLine(0).number());
+    assertSame(doc.getFirstLine(), doc.getLineIndex().getLineAtOffset(0).line());
+  }
+
+  public void testIndexBuiltFromExistingLines() {
+    Document doc = Document.createFromString("one\ntwo\nthree\nfour\n");
+    doc.enableLineIndex();
+
+    assertTrue(doc.isLineIndexEnabled());
+    assertIndexMatchesLines(doc);
+    assertEquals("three\n", doc.getLineFinder().findLine(2).line().getText());
+    assertEquals(3, doc.getLineFinder().findLine(doc.getLastLine().getPreviousLine()).number());
+  }
+
+  public void testOffsets() {
+    Document doc = Document.createFromString("ab\n\ncde\nf");
+    doc.enableLineIndex();
+    LineIndex index = doc.getLineIndex();
+
+    assertEquals(9, index.getCharCount());
+    assertEquals(0, index.getLineAtOffset(0).number());
+    assertEquals(0, index.getLineAtOffset(2).number());
+    assertEquals(1, index.getLineAtOffset(3).number());
+    assertEquals(2, index.getLineAtOffset(4).number());
+    assertEquals(3, index.getLineAtOffset(8).number());
+    // The end of the document is on the last line
+    assertEquals(3, index.getLineAtOffset(9).number());
+    assertEquals(4, index.getOffset(doc.getLineFinder().findLine(2).line()));
+  }
+
+  public void testEditsKeepIndexInStep() {
+    Document doc = Document.createFromString(createText(200));
+    doc.enableLineIndex();
+
+    for (int i = 0; i < 500; i++) {
+      int lineNumber = random.nextInt(doc.getLineCount());
+      Line line = doc.getLineFinder().findLine(lineNumber).line();
+      int column = random.nextInt(Math.max(1, line.length()));
+
+      int roll = random.nextInt(3);
+      if (roll == 0 && line.length() > 0) {
+        int deleteCount = 1 + random.nextInt(Math.min(40, doc.getLineCount() * 4));
+        deleteCount = Math.min(deleteCount, textAfter(doc, line, column));
+        if (deleteCount > 0) {
+          doc.deleteText(line, lineNumber, column, deleteCount);
+        }
+      } else if (roll == 1) {
+        doc.insertText(line, lineNumber, column, createText(1 + random.nextInt(5)));
+      } else {
+        doc.insertText(line, lineNumber, column, "x");
+      }
+
+      assertIndexMatchesLines(doc);
+    }
+  }
+
+  public void testFindLineFromNearbyLine() {
+    Document doc = Document.createFromString(createText(1000));
+    doc.enableLineIndex();
+    LineFinder finder = doc.getLineFinder();
+
+    LineInfo begin = finder.findLine(500);
+    for (int target : new int[] {0, 480, 499, 500, 501, 520, 999}) {
+      LineInfo found = finder.findLine(begin, target);
+      assertEquals(target, found.number());
+      assertSame(doc.getLineIndex().getLine(target), found.line());
+    }
+  }
+
+  public void testRemovedLinesLeaveIndex() {
+    Document doc = Document.createFromString("one\ntwo\nthree\n");
+    doc.enableLineIndex();
+    Line two = doc.getFirstLine().getNextLine();
+
+    doc.deleteText(doc.getFirstLine(), 0, 2, 6);
+
+    assertNull(two.getIndexNode());
+    assertIndexMatchesLines(doc);
+  }
+
+  private String createText(int lineCount) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < lineCount; i++) {
+      text.append("line ").append(random.nextInt(1000)).append('\n');
+    }
+    return text.toString();
+  }
+
+  private static int textAfter(Document doc, Line line, int column) {
+    int count = line.length() - column;
+    for (line = line.getNextLine(); line != null; line = line.getNextLine()) {
+      count += line.length();
+    }
+    return count;
+  }
+
+  /**
+   * Checks every line's number and offset against the linked list of lines.
+   */
+  private static void assertIndexMatchesLines(Document doc) {
+    LineIndex index = doc.getLineIndex();
+    assertEquals(doc.getLineCount(), index.getLineCount());
+
+    int lineNumber = 0;
+    int offset = 0;
+    for (Line line = doc.getFirstLine(); line != null; line = line.getNextLine()) {
+      assertSame(line, index.getLine(lineNumber));
+      assertEquals(lineNumber, index.getLineNumber(line));
+      assertEquals(offset, index.getOffset(line));
+      assertEquals(lineNumber, doc.getLineFinder().findLine(line).number());
+      if (line.length() > 0) {
+        assertSame(line, index.getLineAtOffset(offset).line());
+        assertSame(line, index.getLineAtOffset(offset + line.length() - 1).line());
+      }
+
+      lineNumber++;
+      offset += line.length();
+    }
+    assertEquals(doc.asText().length(), index.getCharCount());
+  }
+}
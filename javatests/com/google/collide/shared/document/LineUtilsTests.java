@@ -14,6 +14,7 @@
 
 package com.google.collide.shared.document;
 
+import com.google.collide.shared.document.util.LineUtils;
 import com.google.collide.shared.document.util.PositionUtils;
 import com.google.common.base.Joiner;
 
@@ -124,6 +125,30 @@ public class LineUtilsTests extends TestCase {
     }
   }
 
+  public void testLongTraversalsWithLineIndex() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+    Document plainDoc = Document.createFromString(text.toString());
+    Document indexedDoc = Document.createFromString(text.toString());
+    indexedDoc.enableLineIndex();
+
+    Line plainLine = plainDoc.getLineFinder().findLine(250).line();
+    Line indexedLine = indexedDoc.getLineFinder().findLine(250).line();
+    for (int relativeOffset : new int[] {-1500, -1000, 1000, 1200, 2000}) {
+      Position plain = PositionUtils.getPosition(plainLine, 250, 3, relativeOffset);
+      Position indexed = PositionUtils.getPosition(indexedLine, 250, 3, relativeOffset);
+      assertEquals(plain.getLineNumber(), indexed.getLineNumber());
+      assertEquals(plain.getColumn(), indexed.getColumn());
+      assertEquals(plain.getLine().getText(), indexed.getLine().getText());
+    }
+
+    assertEquals(
+        LineUtils.getTextCount(plainDoc.getFirstLine(), 2, plainDoc.getLastLine(), 0),
+        LineUtils.getTextCount(indexedDoc.getFirstLine(), 2, indexedDoc.getLastLine(), 0));
+  }
+
   @Override
   protected void setUp() throws Exception {
     doc =
@@ -127,4 +127,28 @@ public class DocOpApplierTests extends TestCase {
         DELETE, "a\nb\n", 0, 0, INSERT, "c\nd"));
 
   }
+
+  public void testKeystrokesWithinOneLine() {
+    doc = Document.createFromString("first\nsecond\nthird");
+
+    DocOpApplier.apply(b.rl(1).r(3).i("x").eolR(4).rl(1).b(), doc,
+        new MockDocumentMutator(1, 3, INSERT, "x"));
+    DocOpApplier.apply(b.rl(1).r(2).d("cx").eolR(4).rl(1).b(), doc,
+        new MockDocumentMutator(1, 2, DELETE, "cx"));
+    DocOpApplier.apply(b.rl(2).r(5).i("!").b(), doc, new MockDocumentMutator(2, 5, INSERT, "!"));
+    DocOpApplier.apply(b.d("f").eolR(5).rl(2).b(), doc, new MockDocumentMutator(0, 0, DELETE, "f"));
+
+    assertEquals("irst\nseond\nthird!", doc.asText());
+  }
+
+  public void testKeystrokeDeletingOtherText() {
+    doc = Document.createFromString("first\nsecond\n");
+
+    try {
+      DocOpApplier.apply(b.rl(1).r(2).d("x").eolR(4).rl(1).b(), doc);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals("first\nsecond\n", doc.asText());
+  }
 }
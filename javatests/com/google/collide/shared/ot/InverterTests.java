@@ -0,0 +1,53 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import static com.google.collide.shared.ot.DocOpTestUtils.assertDocOpEquals;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link Inverter}.
+ *
+ */
+public class InverterTests extends TestCase {
+
+  private TerseDocOpBuilder builder;
+
+  public void testInvertsInsertsAndDeletes() {
+    DocOp docOp = builder.rl(1).r(2).i("new").d("old").eolR(1).rl(1).b();
+    assertDocOpEquals(builder.rl(1).r(2).d("new").i("old").eolR(1).rl(1).b(),
+        Inverter.invert(ServerDocOpFactory.INSTANCE, docOp));
+  }
+
+  public void testInverseUndoesDocOp() {
+    Document doc = Document.createFromString("Hello world\nFoo bar\n");
+    DocOp docOp = builder.rl(1).d("Foo").i("Baz").eolR(5).rl(1).b();
+    DocOpApplier.apply(docOp, doc);
+    assertEquals("Hello world\nBaz bar\n", doc.asText());
+
+    DocOpApplier.apply(Inverter.invert(ServerDocOpFactory.INSTANCE, docOp), doc);
+    assertEquals("Hello world\nFoo bar\n", doc.asText());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    builder = new TerseDocOpBuilder(ServerDocOpFactory.INSTANCE, false);
+  }
+}
@@ -0,0 +1,421 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot.benchmark;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.Line;
+import com.google.collide.shared.document.LineInfo;
+import com.google.collide.shared.document.anchor.AnchorManager;
+import com.google.collide.shared.document.anchor.AnchorType;
+import com.google.collide.shared.ot.Composer;
+import com.google.collide.shared.ot.DocOpApplier;
+import com.google.collide.shared.ot.OperationPair;
+import com.google.collide.shared.ot.Transformer;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures how fast the OT engine applies, composes and transforms the doc ops of a few realistic
+ * {@link OtWorkload}s, and how much it allocates doing so. It also measures how fast documents
+ * find lines anywhere in them, with and without a line index, in small and huge files, how fast
+ * huge files load, what typing in a very long line costs, and what adding lines costs in a huge
+ * file full of line anchors.
+ *
+ * <p>
+ * Each benchmark is warmed up and then run for several timed iterations, in the style of JMH.
+ * Throughput is reported in ops per second with its standard deviation over the iterations, and
+ * allocation in bytes per op where the JVM can count allocated bytes per thread. Each op of
+ * {@code typingBursts} is one keystroke, so its {@code apply} allocation is what every keystroke
+ * costs the document. Run it with {@code ant benchmark}, or directly:
+ *
+ * <pre>
+ * OtBenchmarks [--quick] [--filter text] [--baseline file]
+ * </pre>
+ *
+ * {@code --quick} runs fewer and shorter iterations, which is enough to see that the benchmarks
+ * work but too little warmup to compare with a baseline. {@code --filter} only runs the benchmarks
+ * whose names contain the text, and {@code --baseline} compares the results with a file of earlier
+ * results, such as the checked in {@code baseline.txt}, and marks the benchmarks whose throughput
+ * dropped by more than {@value #REGRESSION_PERCENT}%. To update the baseline, save the output of a
+ * full run on an otherwise idle machine.
+ */
+public class OtBenchmarks {
+
+  private static final ServerDocOpFactory FACTORY = ServerDocOpFactory.INSTANCE;
+
+  private static final int REGRESSION_PERCENT = 10;
+
+  private static final int SMALL_FILE_LINES = 200;
+  private static final int HUGE_FILE_LINES = 200000;
+
+  private static final int LONG_LINE_LENGTH = 500000;
+
+  private static final int LINES_PER_ANCHOR = 10;
+
+  /**
+   * One thing to measure. Each run replays a workload and returns how many ops it processed.
+   */
+  private abstract static class Benchmark {
+    final String name;
+
+    Benchmark(String name) {
+      this.name = name;
+    }
+
+    abstract int run() throws Exception;
+  }
+
+  /**
+   * Keeps the results of the benchmarks reachable so that the JIT cannot skip the work.
+   */
+  private static volatile int sink;
+
+  private static int warmupIterations = 5;
+  private static int measuredIterations = 10;
+  private static long iterationMillis = 1000;
+
+  public static void main(String[] args) throws Exception {
+    String filter = "";
+    String baselinePath = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--quick")) {
+        warmupIterations = 2;
+        measuredIterations = 3;
+        iterationMillis = 200;
+      } else if (args[i].equals("--filter") && i + 1 < args.length) {
+        filter = args[++i];
+      } else if (args[i].equals("--baseline") && i + 1 < args.length) {
+        baselinePath = args[++i];
+      } else {
+        System.err.println("Usage: OtBenchmarks [--quick] [--filter text] [--baseline file]");
+        System.exit(2);
+      }
+    }
+    Map<String, Double> baseline = baselinePath != null ? readBaseline(new File(baselinePath))
+        : Maps.<String, Double>newHashMap();
+
+    List<Benchmark> benchmarks = Lists.newArrayList();
+    for (OtWorkload workload : new OtWorkload[] {OtWorkload.createTypingBursts(),
+        OtWorkload.createLargePastes(), OtWorkload.createMultiLineDeletes(),
+        OtWorkload.createConcurrentAuthors()}) {
+      benchmarks.add(createApplyBenchmark(workload));
+      benchmarks.add(createComposeBenchmark(workload));
+      benchmarks.add(createTransformBenchmark(workload));
+    }
+    for (boolean indexed : new boolean[] {false, true}) {
+      benchmarks.add(createFindLineBenchmark("lines.small", SMALL_FILE_LINES, indexed));
+      benchmarks.add(createFindLineBenchmark("lines.huge", HUGE_FILE_LINES, indexed));
+    }
+    benchmarks.add(createLoadBenchmark());
+    benchmarks.add(createLongLineBenchmark());
+    benchmarks.add(createAnchorShiftBenchmark());
+
+    System.out.println(String.format(Locale.US, "%-30s %14s %12s %12s %10s",
+        "# benchmark", "ops/s", "+-", "bytes/op", "baseline"));
+    boolean anyRegressed = false;
+    for (Benchmark benchmark : benchmarks) {
+      if (benchmark.name.contains(filter)) {
+        anyRegressed |= measure(benchmark, baseline.get(benchmark.name));
+      }
+    }
+    if (anyRegressed) {
+      System.out.println("# Some benchmarks are more than " + REGRESSION_PERCENT
+          + "% slower than the baseline.");
+    }
+  }
+
+  /**
+   * Applies each op to a document and then winds it back with the inverses.
+   */
+  private static Benchmark createApplyBenchmark(final OtWorkload workload) {
+    final Document doc = Document.createFromString(workload.initialText);
+    Benchmark benchmark = new Benchmark(workload.name + ".apply") {
+      @Override
+      int run() {
+        int changes = 0;
+        for (int i = 0; i < workload.ops.size(); i++) {
+          changes += DocOpApplier.apply(workload.ops.get(i), doc).size();
+        }
+        for (int i = workload.inverses.size() - 1; i >= 0; i--) {
+          changes += DocOpApplier.apply(workload.inverses.get(i), doc).size();
+        }
+        sink += changes;
+        return workload.ops.size() + workload.inverses.size();
+      }
+    };
+
+    // Make sure the workload replays to the text it was recorded from, and back.
+    for (DocOp op : workload.ops) {
+      DocOpApplier.apply(op, doc);
+    }
+    checkState(doc.asText().equals(workload.finalText), workload.name + " did not replay");
+    for (DocOp inverse : Lists.reverse(workload.inverses)) {
+      DocOpApplier.apply(inverse, doc);
+    }
+    checkState(doc.asText().equals(workload.initialText), workload.name + " did not rewind");
+    return benchmark;
+  }
+
+  /**
+   * Composes all the ops into one, the way a client collapses its unsent ops.
+   */
+  private static Benchmark createComposeBenchmark(final OtWorkload workload) {
+    return new Benchmark(workload.name + ".compose") {
+      @Override
+      int run() throws Exception {
+        DocOp composed = Composer.compose(FACTORY, workload.ops);
+        sink += composed.getComponents().size();
+        return workload.ops.size();
+      }
+    };
+  }
+
+  /**
+   * Transforms each op against the op another author made concurrently.
+   */
+  private static Benchmark createTransformBenchmark(final OtWorkload workload) {
+    return new Benchmark(workload.name + ".transform") {
+      @Override
+      int run() {
+        int components = 0;
+        for (int i = 0; i < workload.ops.size(); i++) {
+          OperationPair pair =
+              Transformer.transform(FACTORY, workload.ops.get(i), workload.concurrentOps.get(i));
+          components += pair.clientOp().getComponents().size();
+        }
+        sink += components;
+        return workload.ops.size();
+      }
+    };
+  }
+
+  /**
+   * Creates a document from the text of a huge file, as opening a file does. Each line counts as
+   * an op.
+   */
+  private static Benchmark createLoadBenchmark() {
+    final String text = createFileText(HUGE_FILE_LINES);
+    return new Benchmark("lines.huge.load") {
+      @Override
+      int run() {
+        Document doc = Document.createFromString(text);
+        sink += doc.getLastLine().length();
+        return doc.getLineCount();
+      }
+    };
+  }
+
+  /**
+   * Finds random lines by number, and then each line's number from the line, the way the server
+   * resolves the positions of edits that come in from all over a file.
+   */
+  private static Benchmark createFindLineBenchmark(String name, int lineCount,
+      final boolean indexed) {
+    final Document doc = Document.createFromString(createFileText(lineCount));
+    if (indexed) {
+      doc.enableLineIndex();
+    }
+
+    Random random = new Random(42);
+    final int[] lineNumbers = new int[1000];
+    for (int i = 0; i < lineNumbers.length; i++) {
+      lineNumbers[i] = random.nextInt(lineCount);
+    }
+    return new Benchmark(name + (indexed ? ".findIndexed" : ".find")) {
+      @Override
+      int run() {
+        int found = 0;
+        for (int lineNumber : lineNumbers) {
+          LineInfo lineInfo = doc.getLineFinder().findLine(lineNumber);
+          found += doc.getLineFinder().findLine(lineInfo.line()).number();
+        }
+        sink += found;
+        return lineNumbers.length;
+      }
+    };
+  }
+
+  private static String createFileText(int lineCount) {
+    Random random = new Random(42);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < lineCount; i++) {
+      text.append("  line ").append(i).append(": ").append(random.nextInt()).append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Types a character and deletes it again, moving along a line of minified code.
+   */
+  private static Benchmark createLongLineBenchmark() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; text.length() < LONG_LINE_LENGTH; i++) {
+      text.append("var a").append(i).append("=b(").append(i).append(");");
+    }
+    final Document doc = Document.createFromString(text.append('\n').toString());
+    final Line line = doc.getFirstLine();
+
+    return new Benchmark("longLine.type") {
+      int column;
+
+      @Override
+      int run() {
+        for (int i = 0; i < 100; i++) {
+          doc.insertText(line, 0, column, "x");
+          doc.deleteText(line, 0, column, 1);
+          column = (column + 7) % LONG_LINE_LENGTH;
+        }
+        return 200;
+      }
+    };
+  }
+
+  /**
+   * Adds a line near the top of a huge file and deletes it again, shifting the line anchors, such
+   * as breakpoints and error markers, on every {@value #LINES_PER_ANCHOR}th line below it.
+   */
+  private static Benchmark createAnchorShiftBenchmark() {
+    final Document doc = Document.createFromString(createFileText(HUGE_FILE_LINES));
+    AnchorType anchorType = AnchorType.create(OtBenchmarks.class, "line");
+    for (Line line = doc.getFirstLine(); line != null; line = line.getNextLine()) {
+      LineInfo lineInfo = doc.getLineFinder().findLine(line);
+      if (lineInfo.number() % LINES_PER_ANCHOR == 0) {
+        doc.getAnchorManager().createAnchor(anchorType, line, lineInfo.number(),
+            AnchorManager.IGNORE_COLUMN);
+      }
+    }
+    final Line line = doc.getLineFinder().findLine(5).line();
+
+    return new Benchmark("anchors.huge.shiftLines") {
+      @Override
+      int run() {
+        for (int i = 0; i < 100; i++) {
+          doc.insertText(line, 5, 0, "\n");
+          doc.deleteText(line, 5, 0, 1);
+        }
+        return 200;
+      }
+    };
+  }
+
+  /**
+   * Measures and prints one benchmark, returning whether it regressed against the baseline.
+   */
+  private static boolean measure(Benchmark benchmark, Double baselineOpsPerSecond)
+      throws Exception {
+    for (int i = 0; i < warmupIterations; i++) {
+      runIteration(benchmark, null);
+    }
+
+    double[] opsPerSecond = new double[measuredIterations];
+    long ops = 0;
+    long bytes = 0;
+    for (int i = 0; i < measuredIterations; i++) {
+      long[] opsAndBytes = new long[2];
+      opsPerSecond[i] = runIteration(benchmark, opsAndBytes);
+      ops += opsAndBytes[0];
+      bytes += opsAndBytes[1];
+    }
+
+    double mean = 0;
+    for (double value : opsPerSecond) {
+      mean += value / opsPerSecond.length;
+    }
+    double variance = 0;
+    for (double value : opsPerSecond) {
+      variance += (value - mean) * (value - mean) / opsPerSecond.length;
+    }
+
+    String comparison = "";
+    boolean regressed = false;
+    if (baselineOpsPerSecond != null) {
+      double change = (mean - baselineOpsPerSecond) / baselineOpsPerSecond * 100;
+      regressed = change < -REGRESSION_PERCENT;
+      comparison = String.format(Locale.US, "%+9.1f%%%s", change, regressed ? " REGRESSED" : "");
+    }
+    System.out.println(String.format(Locale.US, "%-30s %14.1f %12.1f %12s %10s", benchmark.name,
+        mean, Math.sqrt(variance), bytes < 0 ? "n/a" : String.valueOf(bytes / ops), comparison));
+    return regressed;
+  }
+
+  /**
+   * Runs the benchmark repeatedly for an iteration's worth of time, returning the ops per second.
+   * If {@code opsAndBytes} is given, the ops run and the bytes allocated are put in it, with -1
+   * for bytes if they cannot be counted.
+   */
+  private static double runIteration(Benchmark benchmark, long[] opsAndBytes) throws Exception {
+    long bytesBefore = getAllocatedBytes();
+    long start = System.nanoTime();
+    long deadline = start + iterationMillis * 1000000;
+    long ops = 0;
+    long now;
+    do {
+      ops += benchmark.run();
+      now = System.nanoTime();
+    } while (now < deadline);
+    long bytesAfter = getAllocatedBytes();
+
+    if (opsAndBytes != null) {
+      opsAndBytes[0] = ops;
+      opsAndBytes[1] = bytesBefore < 0 ? -1 : bytesAfter - bytesBefore;
+    }
+    return ops * 1e9 / (now - start);
+  }
+
+  /**
+   * Returns how many bytes the current thread has allocated, or -1 if the JVM does not say.
+   */
+  private static long getAllocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+    if (!hotspotThreads.isThreadAllocatedMemorySupported()
+        || !hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Reads the ops per second of each benchmark from the output of an earlier run.
+   */
+  private static Map<String, Double> readBaseline(File file) throws IOException {
+    Map<String, Double> baseline = Maps.newHashMap();
+    for (String line : Files.readLines(file, Charsets.UTF_8)) {
+      String[] fields = line.trim().split("\\s+");
+      if (fields.length >= 2 && !fields[0].startsWith("#")) {
+        baseline.put(fields[0], Double.parseDouble(fields[1]));
+      }
+    }
+    return baseline;
+  }
+}
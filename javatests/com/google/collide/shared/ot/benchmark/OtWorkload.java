@@ -0,0 +1,251 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot.benchmark;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.LineInfo;
+import com.google.collide.shared.document.TextChange;
+import com.google.collide.shared.document.util.LineUtils;
+import com.google.collide.shared.ot.DocOpApplier;
+import com.google.collide.shared.ot.DocOpUtils;
+import com.google.collide.shared.ot.Inverter;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A recorded editing session to replay in {@link OtBenchmarks}.
+ *
+ * <p>
+ * A workload is built by letting simulated authors edit a real {@link Document} and turning each
+ * of their edits into a doc op, so the ops have the same shape as the ones clients send. Besides
+ * the sequence of ops, each step records an op that a second author made concurrently against the
+ * same state, for the transform benchmark. Workloads are seeded, so every run replays the same
+ * edits.
+ */
+final class OtWorkload {
+
+  private static final ServerDocOpFactory FACTORY = ServerDocOpFactory.INSTANCE;
+
+  /**
+   * Someone editing the document.
+   */
+  private abstract static class Author {
+    final Random random;
+
+    Author(Random random) {
+      this.random = random;
+    }
+
+    abstract TextChange edit(Document doc);
+  }
+
+  /**
+   * Types at a cursor: mostly single characters, with the odd backspace and new line.
+   */
+  private static class Typist extends Author {
+    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyz     ();{}=.,\"";
+
+    private int lineNumber;
+    private int column;
+
+    Typist(Random random, int lineNumber) {
+      super(random);
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    TextChange edit(Document doc) {
+      // Other authors may have moved the text out from under the cursor.
+      lineNumber = Math.min(lineNumber, doc.getLastLineNumber());
+      LineInfo lineInfo = doc.getLineFinder().findLine(lineNumber);
+      column = Math.min(column, LineUtils.getLastCursorColumn(lineInfo.line()));
+
+      int roll = random.nextInt(100);
+      if (roll < 8 && column > 0) {
+        column--;
+        return doc.deleteText(lineInfo.line(), lineNumber, column, 1);
+      } else if (roll < 10) {
+        TextChange change = doc.insertText(lineInfo.line(), lineNumber, column, "\n  ");
+        lineNumber++;
+        column = 2;
+        return change;
+      }
+      String text = String.valueOf(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+      TextChange change = doc.insertText(lineInfo.line(), lineNumber, column, text);
+      column++;
+      return change;
+    }
+  }
+
+  /**
+   * Pastes blocks of code at the start of random lines.
+   */
+  private static class Paster extends Author {
+    Paster(Random random) {
+      super(random);
+    }
+
+    @Override
+    TextChange edit(Document doc) {
+      int lineNumber = random.nextInt(doc.getLineCount());
+      String text = createSource(random, 50 + random.nextInt(350));
+      return doc.insertText(doc.getLineFinder().findLine(lineNumber).line(), lineNumber, 0, text);
+    }
+  }
+
+  /**
+   * Deletes runs of whole lines, like selecting a block and pressing delete.
+   */
+  private static class Deleter extends Author {
+    Deleter(Random random) {
+      super(random);
+    }
+
+    @Override
+    TextChange edit(Document doc) {
+      // The last line has no newline, so it is never deleted.
+      int lineCount = Math.min(5 + random.nextInt(46), doc.getLineCount() - 1);
+      int lineNumber = random.nextInt(doc.getLineCount() - lineCount);
+      LineInfo lineInfo = doc.getLineFinder().findLine(lineNumber);
+      int deleteCount = 0;
+      for (LineInfo end = lineInfo.copy(); end.number() < lineNumber + lineCount;
+          end.moveToNext()) {
+        deleteCount += end.line().getText().length();
+      }
+      return doc.deleteText(lineInfo.line(), lineNumber, 0, deleteCount);
+    }
+  }
+
+  static final int SEED = 20120907;
+
+  /**
+   * One author typing in bursts while a second types elsewhere in the file.
+   */
+  static OtWorkload createTypingBursts() {
+    Random random = new Random(SEED);
+    return record("typingBursts", random, 2000, 2000,
+        new Author[] {new Typist(random, 1000)}, new Typist(random, 200));
+  }
+
+  /**
+   * Large pastes while a second author types.
+   */
+  static OtWorkload createLargePastes() {
+    Random random = new Random(SEED);
+    return record("largePastes", random, 2000, 100,
+        new Author[] {new Paster(random)}, new Typist(random, 500));
+  }
+
+  /**
+   * Deletes of several lines at a time while a second author types.
+   */
+  static OtWorkload createMultiLineDeletes() {
+    Random random = new Random(SEED);
+    return record("multiLineDeletes", random, 10000, 150,
+        new Author[] {new Deleter(random)}, new Typist(random, 5000));
+  }
+
+  /**
+   * Four authors typing near each other, taking turns, with each edit concurrent with the next
+   * author's.
+   */
+  static OtWorkload createConcurrentAuthors() {
+    Random random = new Random(SEED);
+    Author[] typists = new Author[4];
+    for (int i = 0; i < typists.length; i++) {
+      typists[i] = new Typist(random, 1000 + 5 * i);
+    }
+    return record("concurrentAuthors", random, 2000, 2000, typists, null);
+  }
+
+  /**
+   * Records {@code opCount} edits by the given authors, taking turns. The concurrent op of each
+   * step is made by {@code remote}, or by the author whose turn is next if that is null.
+   */
+  private static OtWorkload record(String name, Random random, int lineCount, int opCount,
+      Author[] authors, Author remote) {
+    String initialText = createSource(random, lineCount);
+    Document doc = Document.createFromString(initialText);
+    List<DocOp> ops = Lists.newArrayListWithCapacity(opCount);
+    List<DocOp> inverses = Lists.newArrayListWithCapacity(opCount);
+    List<DocOp> concurrentOps = Lists.newArrayListWithCapacity(opCount);
+    for (int i = 0; i < opCount; i++) {
+      Author concurrentAuthor = remote != null ? remote : authors[(i + 1) % authors.length];
+      DocOp concurrentOp = DocOpUtils.createFromTextChange(FACTORY, concurrentAuthor.edit(doc));
+      DocOpApplier.apply(Inverter.invert(FACTORY, concurrentOp), doc);
+      concurrentOps.add(concurrentOp);
+
+      DocOp op = DocOpUtils.createFromTextChange(FACTORY, authors[i % authors.length].edit(doc));
+      ops.add(op);
+      inverses.add(Inverter.invert(FACTORY, op));
+    }
+    return new OtWorkload(name, initialText, doc.asText(), ops, inverses, concurrentOps);
+  }
+
+  /**
+   * Generates something that looks enough like Java for the line lengths and indentation to be
+   * realistic.
+   */
+  static String createSource(Random random, int lineCount) {
+    String[] statements = {"int count = 0;", "return result;", "callback.onSuccess(value);",
+        "if (value == null) {", "}", "for (int i = 0; i < n; i++) {", "",
+        "// Keeps track of the cursor.", "list.add(item);", "String text = line.getText();"};
+    StringBuilder source = new StringBuilder();
+    int indent = 2;
+    for (int i = 0; i < lineCount; i++) {
+      String statement = statements[random.nextInt(statements.length)];
+      if (statement.equals("}")) {
+        indent = Math.max(2, indent - 2);
+      }
+      if (!statement.isEmpty()) {
+        for (int j = 0; j < indent; j++) {
+          source.append(' ');
+        }
+      }
+      source.append(statement).append('\n');
+      if (statement.endsWith("{") && indent < 12) {
+        indent += 2;
+      }
+    }
+    return source.toString();
+  }
+
+  final String name;
+  final String initialText;
+  final String finalText;
+
+  /** The ops in the order they were made, each applying to the result of the one before. */
+  final List<DocOp> ops;
+
+  /** The inverse of each op, for winding a document back to its initial text. */
+  final List<DocOp> inverses;
+
+  /** For each op, an op made against the same state by another author. */
+  final List<DocOp> concurrentOps;
+
+  private OtWorkload(String name, String initialText, String finalText, List<DocOp> ops,
+      List<DocOp> inverses, List<DocOp> concurrentOps) {
+    this.name = name;
+    this.initialText = initialText;
+    this.finalText = finalText;
+    this.ops = ops;
+    this.inverses = inverses;
+    this.concurrentOps = concurrentOps;
+  }
+}
@@ -22,8 +22,16 @@ if (!bootstrapConfig || !bootstrapConfig.webRoot || !bootstrapConfig.staticFiles
 }
 
 var password = bootstrapConfig.password;
+
+// In a clustered deployment every node runs its own WebFE, Participants replica and a share of the
+// edit sessions. The file tree and workspace state watch the local disk, so only the primary node
+// runs them.
+var clustered = !!bootstrapConfig.cluster;
+var nodeId = bootstrapConfig.nodeId || java.util.UUID.randomUUID().toString();
+var isPrimary = !clustered || !bootstrapConfig.secondary;
+
 var webFeConfig = {
-  port: 8080,
+  port: bootstrapConfig.port || 8080,
   host: !password || password == "" ? "localhost" : "0.0.0.0",
   bridge: true,
   webRoot: bootstrapConfig.webRoot,
@@ -44,7 +52,14 @@ var webFeConfig = {
 
 var participantListConfig = {
   // TODO: Pick this up off the command line when launching collide.
-  password: password
+  password: password,
+  replicate: clustered,
+  nodeId: nodeId
+}
+
+var editSessionsConfig = {
+  cluster: clustered,
+  nodeId: nodeId
 }
 
 var workspaceConfig = {
@@ -62,16 +77,49 @@ vertx.deployVerticle("com.google.collide.server.participants.Participants", part
 });
 
 // Load the collaborative document sessions that manages OT and file content flushes to disk.
-vertx.deployVerticle("com.google.collide.server.documents.EditSessions", null, 1, function() {
+vertx.deployVerticle("com.google.collide.server.documents.EditSessions", editSessionsConfig, 1, function() {
   // Server was started.
 });
 
-// Load the collaborative document sessions that manages OT and file content flushes to disk.
-vertx.deployVerticle("com.google.collide.server.filetree.FileTree", null, 1, function() {
-  // Server was started.
-});
+if (isPrimary) {
+  // Load the collaborative document sessions that manages OT and file content flushes to disk.
+  vertx.deployVerticle("com.google.collide.server.filetree.FileTree", null, 1, function() {
+    // Server was started.
+  });
 
-// Load the collaborative document sessions that manages OT and file content flushes to disk.
-vertx.deployVerticle("com.google.collide.server.workspace.WorkspaceState", workspaceConfig, 1, function() {
-  // Server was started.
-});
+  // Load the collaborative document sessions that manages OT and file content flushes to disk.
+  vertx.deployVerticle("com.google.collide.server.workspace.WorkspaceState", workspaceConfig, 1, function() {
+    // Server was started.
+  });
+
+  // Load the workspace search index. It reads files synchronously, so it runs as a worker.
+  vertx.deployWorkerVerticle("com.google.collide.server.search.WorkspaceSearch", null, 1, function() {
+    // Server was started.
+  });
+
+  // Load the code graph behind autocompletion. It parses files synchronously, so it runs as a worker.
+  vertx.deployWorkerVerticle("com.google.collide.server.codegraph.CodeGraphService", null, 1, function() {
+    // Server was started.
+  });
+
+  // Load the code error analysis for open documents. It reads files synchronously, so it runs as a worker.
+  vertx.deployWorkerVerticle("com.google.collide.server.codeerrors.CodeErrorService", null, 1, function() {
+    // Server was started.
+  });
+
+  // Load the file revision history. It snapshots files synchronously, so it runs as a worker.
+  vertx.deployWorkerVerticle("com.google.collide.server.history.FileHistoryService", null, 1, function() {
+    // Server was started.
+  });
+
+  // Load the metrics service that aggregates client latencies and serves them, with the server's
+  // own stats, on a local HTTP endpoint.
+  vertx.deployVerticle("com.google.collide.server.metrics.MetricsService", null, 1, function() {
+    // Server was started.
+  });
+
+  // Load the upload sessions. They stage and unzip files synchronously, so they run as a worker.
+  vertx.deployWorkerVerticle("com.google.collide.server.upload.UploadSessions", null, 1, function() {
+    // Server was started.
+  });
+}